@@ -7,7 +7,9 @@
  */
 package org.dspace.app.checker;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -21,6 +23,7 @@ import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
+import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import org.dspace.checker.BitstreamDispatcher;
 import org.dspace.checker.BitstreamInfoDAO;
@@ -32,6 +35,7 @@ import org.dspace.checker.ListDispatcher;
 import org.dspace.checker.ResultsLogger;
 import org.dspace.checker.ResultsPruner;
 import org.dspace.checker.SimpleDispatcher;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Utils;
 
 /**
@@ -76,6 +80,10 @@ public final class ChecksumChecker
      *            <dd>Report only errors in the logs</dd>
      *            <dt>-p</dt>
      *            <dd>Don't prune results before running checker</dd>
+     *            <dt>-t [threads]</dt>
+     *            <dd>check several bitstreams in parallel</dd>
+     *            <dt>-m [MB/s]</dt>
+     *            <dd>limit the rate bitstreams are read at</dd>
      *            </dl>
      */
     public static void main(String[] args)
@@ -95,6 +103,8 @@ public final class ChecksumChecker
         options.addOption("c", "count", true, "Check count");
         options.addOption("a", "handle", true, "Specify a handle to check");
         options.addOption("v", "verbose", false, "Report all processing");
+        options.addOption("t", "threads", true, "Number of bitstreams to check in parallel");
+        options.addOption("m", "max-rate", true, "Maximum read rate in MB/s");
 
         OptionBuilder.withArgName("bitstream-ids").hasArgs().withDescription(
                 "Space separated list of bitstream ids");
@@ -149,17 +159,42 @@ public final class ChecksumChecker
 
         Date processStart = Calendar.getInstance().getTime();
 
+        int threads = 1;
+        long maxBytesPerSecond = 0;
+        try
+        {
+            if (line.hasOption('t'))
+            {
+                threads = Integer.parseInt(line.getOptionValue('t'));
+            }
+            if (line.hasOption('m'))
+            {
+                maxBytesPerSecond = (long) (Double.parseDouble(line.getOptionValue('m')) * 1024 * 1024);
+            }
+        }
+        catch (NumberFormatException nfe)
+        {
+            System.err.println("Invalid number of threads or read rate");
+            System.exit(1);
+        }
+
+        // A pass started with -l which did not finish is resumed, skipping
+        // the bitstreams already checked in it
+        File checkpoint = null;
+
         BitstreamDispatcher dispatcher = null;
         
         // process should loop infinitely through
         // most_recent_checksum table
         if (line.hasOption('l'))
         {
-            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, false); 
+            checkpoint = getCheckpointFile();
+            processStart = readCheckpoint(checkpoint, processStart);
+            dispatcher = newSimpleDispatcher(processStart, false, threads); 
         }
         else if (line.hasOption('L'))
         {
-            dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true);
+            dispatcher = newSimpleDispatcher(processStart, true, threads);
         }
         else if (line.hasOption('b'))
         {
@@ -193,7 +228,7 @@ public final class ChecksumChecker
             try
             {
                 dispatcher = new LimitedDurationDispatcher(
-                        new SimpleDispatcher(new BitstreamInfoDAO(), processStart, true), new Date(
+                        newSimpleDispatcher(processStart, true, threads), new Date(
                                 System.currentTimeMillis()
                                         + Utils.parseDuration(line
                                                 .getOptionValue('d'))));
@@ -210,13 +245,13 @@ public final class ChecksumChecker
         	int count = Integer.valueOf(line.getOptionValue('c')).intValue();
             
         	// run checker process for specified number of bitstreams
-            dispatcher = new LimitedCountDispatcher(new SimpleDispatcher(
-                    new BitstreamInfoDAO(), processStart, false), count);
+            dispatcher = new LimitedCountDispatcher(newSimpleDispatcher(
+                    processStart, false, threads), count);
         }
         else
         {
-            dispatcher = new LimitedCountDispatcher(new SimpleDispatcher(
-                    new BitstreamInfoDAO(), processStart, false), 1);
+            dispatcher = new LimitedCountDispatcher(newSimpleDispatcher(
+                    processStart, false, threads), 1);
         }
         
         ResultsLogger logger = new ResultsLogger(processStart);
@@ -227,13 +262,94 @@ public final class ChecksumChecker
             checker.setReportVerbose(true);
         }
 
+        checker.setThreads(threads);
+        checker.setMaxBytesPerSecond(maxBytesPerSecond);
         checker.setProcessStartDate(processStart);
         checker.setDispatcher(dispatcher);
         checker.setCollector(logger);
         checker.process();
+
+        // The pass is complete
+        if (checkpoint != null && checkpoint.exists() && !checkpoint.delete())
+        {
+            LOG.warn("Unable to delete checkpoint " + checkpoint);
+        }
         System.exit(0);
     }
 
+    /**
+     * Create a dispatcher selecting bitstreams in the order they were last
+     * checked, reading them ahead when checking in parallel.
+     * 
+     * @param processStart
+     *            the start of this pass
+     * @param looping
+     *            whether to loop endlessly
+     * @param threads
+     *            number of bitstreams checked in parallel
+     * @return the dispatcher
+     */
+    private static SimpleDispatcher newSimpleDispatcher(Date processStart,
+            boolean looping, int threads)
+    {
+        SimpleDispatcher dispatcher = new SimpleDispatcher(new BitstreamInfoDAO(),
+                processStart, looping);
+        if (threads > 1)
+        {
+            dispatcher.setPrefetch(threads * 50);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * @return the checkpoint file recording the start of the current pass
+     */
+    private static File getCheckpointFile()
+    {
+        String path = ConfigurationManager.getProperty("checker.checkpoint");
+        if (path == null)
+        {
+            path = ConfigurationManager.getProperty("dspace.dir") + File.separator
+                    + "log" + File.separator + "checker.checkpoint";
+        }
+        return new File(path);
+    }
+
+    /**
+     * Get the start of the pass to resume from the checkpoint file, or record
+     * a new pass starting now.
+     * 
+     * @param checkpoint
+     *            the checkpoint file
+     * @param now
+     *            the start of this run
+     * @return the start of the pass
+     */
+    static Date readCheckpoint(File checkpoint, Date now)
+    {
+        try
+        {
+            if (checkpoint.exists())
+            {
+                Date start = new Date(Long.parseLong(FileUtils.readFileToString(checkpoint, "UTF-8").trim()));
+                System.out.println("Resuming the pass started at " + start);
+                LOG.info("Resuming checker pass started at " + start);
+                return start;
+            }
+
+            FileUtils.writeStringToFile(checkpoint, Long.toString(now.getTime()), "UTF-8");
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Unable to use checkpoint " + checkpoint + ": " + e.getMessage(), e);
+        }
+        catch (NumberFormatException e)
+        {
+            LOG.warn("Ignoring invalid checkpoint " + checkpoint, e);
+        }
+        return now;
+    }
+
     /**
      * Print the help options for the user
      * 
@@ -258,6 +374,8 @@ public final class ChecksumChecker
         System.out
                 .println("\nCheck a defined number of bitstreams: ChecksumChecker -c 10");
         System.out.println("\nReport all processing (verbose)(default reports only errors): ChecksumChecker -v");
+        System.out.println("\nCheck 4 bitstreams at a time, reading at most 20MB/s: ChecksumChecker -l -t 4 -m 20");
+        System.out.println("\nAn interrupted '-l' pass is resumed by running ChecksumChecker -l again");
         System.out.println("\nDefault (no arguments) is equivalent to '-c 1'");
         System.exit(0);
     }
@@ -15,16 +15,20 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -108,6 +112,8 @@ public class ItemExport
         options.addOption("n", "number", true,
                 "sequence number to begin exporting items with");
         options.addOption("z", "zip", true, "export as zip file (specify filename e.g. export.zip)");
+        options.addOption("p", "parallel", true,
+                "with -z, number of threads exporting items, each to its own zip file (e.g. export_1.zip)");
         options.addOption("h", "help", false, "help");
 
         CommandLine line = parser.parse(options, argv);
@@ -176,6 +182,26 @@ public class ItemExport
             zipFileName = line.getOptionValue('z');
         }
 
+        int threads = 1;
+        if (line.hasOption('p'))
+        {
+            try
+            {
+                threads = Integer.parseInt(line.getOptionValue('p'));
+            }
+            catch (NumberFormatException e)
+            {
+                threads = 0;
+            }
+
+            if (threads < 1)
+            {
+                System.out
+                        .println("number of threads must be a positive whole number (-h for help)");
+                System.exit(1);
+            }
+        }
+
         // now validate the args
         if (myType == -1)
         {
@@ -273,7 +299,7 @@ public class ItemExport
                 System.out.println("Exporting from collection: " + myIDString);
                 items = mycollection.getItems();
             }
-            exportAsZip(c, items, destDirName, zipFileName, seqStart, migrate);
+            exportAsZip(c, items, destDirName, zipFileName, seqStart, migrate, threads);
         }
         else
         {
@@ -399,15 +425,8 @@ public class ItemExport
     private static void writeMetadata(Context c, Item i, File destDir, boolean migrate)
             throws Exception
     {
-        Set<String> schemas = new HashSet<String>();
-        DCValue[] dcValues = i.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY);
-        for (DCValue dcValue : dcValues)
-        {
-            schemas.add(dcValue.schema);
-        }
-
         // Save each of the schemas into it's own metadata file
-        for (String schema : schemas)
+        for (String schema : getSchemas(i))
         {
             writeMetadata(c, schema, i, destDir, migrate);
         }
@@ -417,15 +436,7 @@ public class ItemExport
     private static void writeMetadata(Context c, String schema, Item i,
             File destDir, boolean migrate) throws Exception
     {
-        String filename;
-        if (schema.equals(MetadataSchema.DC_SCHEMA))
-        {
-            filename = "dublin_core.xml";
-        }
-        else
-        {
-            filename = "metadata_" + schema + ".xml";
-        }
+        String filename = getMetadataFileName(schema);
 
         File outFile = new File(destDir, filename);
 
@@ -436,96 +447,128 @@ public class ItemExport
             BufferedOutputStream out = new BufferedOutputStream(
                     new FileOutputStream(outFile));
 
-            DCValue[] dcorevalues = i.getMetadata(schema, Item.ANY, Item.ANY,
-                    Item.ANY);
+            writeMetadata(schema, i, out, migrate);
 
-            // XML preamble
-            byte[] utf8 = "<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n"
-                    .getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
+            out.close();
+        }
+        else
+        {
+            throw new Exception("Cannot create dublin_core.xml in " + destDir);
+        }
+    }
 
-            String dcTag = "<dublin_core schema=\"" + schema + "\">\n";
-            utf8 = dcTag.getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
+    // the schemas of all the item's metadata
+    private static Set<String> getSchemas(Item i)
+    {
+        Set<String> schemas = new HashSet<String>();
+        DCValue[] dcValues = i.getMetadata(Item.ANY, Item.ANY, Item.ANY, Item.ANY);
+        for (DCValue dcValue : dcValues)
+        {
+            schemas.add(dcValue.schema);
+        }
+        return schemas;
+    }
 
-            String dateIssued = null;
-            String dateAccessioned = null;
+    // the name of the metadata file of a schema
+    private static String getMetadataFileName(String schema)
+    {
+        if (schema.equals(MetadataSchema.DC_SCHEMA))
+        {
+            return "dublin_core.xml";
+        }
+        else
+        {
+            return "metadata_" + schema + ".xml";
+        }
+    }
 
-            for (DCValue dcv : dcorevalues)
-            {
-                String qualifier = dcv.qualifier;
+    // output the item's metadata in a schema as XML, leaving the stream open
+    private static void writeMetadata(String schema, Item i, OutputStream out,
+            boolean migrate) throws Exception
+    {
+        DCValue[] dcorevalues = i.getMetadata(schema, Item.ANY, Item.ANY,
+                Item.ANY);
 
-                if (qualifier == null)
-                {
-                    qualifier = "none";
-                }
+        // XML preamble
+        byte[] utf8 = "<?xml version=\"1.0\" encoding=\"utf-8\" standalone=\"no\"?>\n"
+                .getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
 
-                String language = dcv.language;
+        String dcTag = "<dublin_core schema=\"" + schema + "\">\n";
+        utf8 = dcTag.getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
 
-                if (language != null)
-                {
-                    language = " language=\"" + language + "\"";
-                }
-                else
-                {
-                    language = "";
-                }
+        String dateIssued = null;
+        String dateAccessioned = null;
 
-                utf8 = ("  <dcvalue element=\"" + dcv.element + "\" "
-                        + "qualifier=\"" + qualifier + "\""
-                        + language + ">"
-                        + Utils.addEntities(dcv.value) + "</dcvalue>\n")
-                        .getBytes("UTF-8");
-
-                if ((!migrate) ||
-                    (migrate && !(
-                     ("date".equals(dcv.element) && "issued".equals(qualifier)) ||
-                     ("date".equals(dcv.element) && "accessioned".equals(qualifier)) ||
-                     ("date".equals(dcv.element) && "available".equals(qualifier)) ||
-                     ("identifier".equals(dcv.element) && "uri".equals(qualifier) &&
-                      (dcv.value != null && dcv.value.startsWith("http://hdl.handle.net/" +
-                       HandleManager.getPrefix() + "/"))) ||
-                     ("description".equals(dcv.element) && "provenance".equals(qualifier)) ||
-                     ("format".equals(dcv.element) && "extent".equals(qualifier)) ||
-                     ("format".equals(dcv.element) && "mimetype".equals(qualifier)))))
-                {
-                    out.write(utf8, 0, utf8.length);
-                }
+        for (DCValue dcv : dcorevalues)
+        {
+            String qualifier = dcv.qualifier;
 
-                // Store the date issued and accession to see if they are different
-                // because we need to keep date.issued if they are, when migrating
-                if (("date".equals(dcv.element) && "issued".equals(qualifier)))
-                {
-                    dateIssued = dcv.value;
-                }
-                if (("date".equals(dcv.element) && "accessioned".equals(qualifier)))
-                {
-                    dateAccessioned = dcv.value;
-                }
+            if (qualifier == null)
+            {
+                qualifier = "none";
             }
 
-            // When migrating, only keep date.issued if it is different to date.accessioned
-            if ((migrate) &&
-                (dateIssued != null) &&
-                (dateAccessioned != null) &&
-                (!dateIssued.equals(dateAccessioned)))
+            String language = dcv.language;
+
+            if (language != null)
             {
-                utf8 = ("  <dcvalue element=\"date\" "
-                        + "qualifier=\"issued\">"
-                        + Utils.addEntities(dateIssued) + "</dcvalue>\n")
-                        .getBytes("UTF-8");
-                out.write(utf8, 0, utf8.length);
+                language = " language=\"" + language + "\"";
+            }
+            else
+            {
+                language = "";
             }
 
-            utf8 = "</dublin_core>\n".getBytes("UTF-8");
-            out.write(utf8, 0, utf8.length);
+            utf8 = ("  <dcvalue element=\"" + dcv.element + "\" "
+                    + "qualifier=\"" + qualifier + "\""
+                    + language + ">"
+                    + Utils.addEntities(dcv.value) + "</dcvalue>\n")
+                    .getBytes("UTF-8");
 
-            out.close();
+            if ((!migrate) ||
+                (migrate && !(
+                 ("date".equals(dcv.element) && "issued".equals(qualifier)) ||
+                 ("date".equals(dcv.element) && "accessioned".equals(qualifier)) ||
+                 ("date".equals(dcv.element) && "available".equals(qualifier)) ||
+                 ("identifier".equals(dcv.element) && "uri".equals(qualifier) &&
+                  (dcv.value != null && dcv.value.startsWith("http://hdl.handle.net/" +
+                   HandleManager.getPrefix() + "/"))) ||
+                 ("description".equals(dcv.element) && "provenance".equals(qualifier)) ||
+                 ("format".equals(dcv.element) && "extent".equals(qualifier)) ||
+                 ("format".equals(dcv.element) && "mimetype".equals(qualifier)))))
+            {
+                out.write(utf8, 0, utf8.length);
+            }
+
+            // Store the date issued and accession to see if they are different
+            // because we need to keep date.issued if they are, when migrating
+            if (("date".equals(dcv.element) && "issued".equals(qualifier)))
+            {
+                dateIssued = dcv.value;
+            }
+            if (("date".equals(dcv.element) && "accessioned".equals(qualifier)))
+            {
+                dateAccessioned = dcv.value;
+            }
         }
-        else
+
+        // When migrating, only keep date.issued if it is different to date.accessioned
+        if ((migrate) &&
+            (dateIssued != null) &&
+            (dateAccessioned != null) &&
+            (!dateIssued.equals(dateAccessioned)))
         {
-            throw new Exception("Cannot create dublin_core.xml in " + destDir);
+            utf8 = ("  <dcvalue element=\"date\" "
+                    + "qualifier=\"issued\">"
+                    + Utils.addEntities(dateIssued) + "</dcvalue>\n")
+                    .getBytes("UTF-8");
+            out.write(utf8, 0, utf8.length);
         }
+
+        utf8 = "</dublin_core>\n".getBytes("UTF-8");
+        out.write(utf8, 0, utf8.length);
     }
 
     // create the file 'handle' which contains the handle assigned to the item
@@ -587,8 +630,6 @@ public class ItemExport
                 // bundles can have multiple bitstreams now...
                 Bitstream[] bitstreams = bundles[j].getBitstreams();
 
-                String bundleName = bundles[j].getName();
-
                 for (int k = 0; k < bitstreams.length; k++)
                 {
                     Bitstream b = bitstreams[k];
@@ -596,20 +637,6 @@ public class ItemExport
                     String myName = b.getName();
                     String oldName = myName;
 
-                    String description = b.getDescription();
-                    if (!StringUtils.isEmpty(description))
-                    {
-                        description = "\tdescription:" + description;
-                    } else
-                    {
-                        description = "";
-                    }
-
-                    String primary = "";
-                    if (bundles[j].getPrimaryBitstreamID() == b.getID()) {
-                        primary = "\tprimary:true ";
-                    }
-
                     int myPrefix = 1; // only used with name conflict
 
                     InputStream is = b.retrieve();
@@ -642,18 +669,7 @@ public class ItemExport
                             fos.close();
 
                             // write the manifest file entry
-                            if (b.isRegisteredBitstream())
-                            {
-                                out.println("-r -s " + b.getStoreNumber()
-                                        + " -f " + myName +
-                                        "\tbundle:" + bundleName +
-                                        primary + description);
-                            }
-                            else
-                            {
-                                out.println(myName + "\tbundle:" + bundleName +
-                                            primary + description);
-                            }
+                            out.println(getContentsLine(b, myName, bundles[j]));
 
                             isDone = true;
                         }
@@ -679,6 +695,47 @@ public class ItemExport
         }
     }
 
+    /**
+     * Make the line of the contents file for a bitstream.
+     *
+     * @param b
+     *            the bitstream
+     * @param name
+     *            the name the bitstream is exported as
+     * @param bundle
+     *            the bundle the bitstream is in
+     * @return the line, without a line separator
+     */
+    private static String getContentsLine(Bitstream b, String name, Bundle bundle)
+    {
+        String description = b.getDescription();
+        if (!StringUtils.isEmpty(description))
+        {
+            description = "\tdescription:" + description;
+        } else
+        {
+            description = "";
+        }
+
+        String primary = "";
+        if (bundle.getPrimaryBitstreamID() == b.getID()) {
+            primary = "\tprimary:true ";
+        }
+
+        if (b.isRegisteredBitstream())
+        {
+            return "-r -s " + b.getStoreNumber()
+                    + " -f " + name +
+                    "\tbundle:" + bundle.getName() +
+                    primary + description;
+        }
+        else
+        {
+            return name + "\tbundle:" + bundle.getName() +
+                    primary + description;
+        }
+    }
+
     /**
      * Method to perform an export and save it as a zip file.
      *
@@ -694,27 +751,247 @@ public class ItemExport
                                    String destDirName, String zipFileName,
                                    int seqStart, boolean migrate) throws Exception
     {
-        String workDir = getExportWorkDirectory() +
-                         System.getProperty("file.separator") +
-                         zipFileName;
-
-        File wkDir = new File(workDir);
-        if (!wkDir.exists() && !wkDir.mkdirs())
-        {
-            log.error("Unable to create working direcory");
-        }
+        exportAsZip(context, items, destDirName, zipFileName, seqStart, migrate, 1);
+    }
 
+    /**
+     * Method to perform an export and save it as one or more zip files.  The
+     * items are written straight into the zip, in the same layout as the
+     * export directory, without being written to disk first.
+     * <P>
+     * If more than one thread is used, each thread exports items into its
+     * own zip file, named after <code>zipFileName</code> with the number of
+     * the thread appended (e.g. export_1.zip, export_2.zip).  The sequence
+     * numbers of the items are unique across all the zip files.
+     *
+     * @param context The DSpace Context
+     * @param items The items to export
+     * @param destDirName The directory to save the export in
+     * @param zipFileName The name to save the zip file as
+     * @param seqStart The first number in the sequence
+     * @param migrate Whether to use the migrate option or not
+     * @param threads The number of items to export at once
+     * @throws Exception
+     */
+    public static void exportAsZip(Context context, ItemIterator items,
+                                   String destDirName, String zipFileName,
+                                   int seqStart, boolean migrate, int threads) throws Exception
+    {
         File dnDir = new File(destDirName);
         if (!dnDir.exists() && !dnDir.mkdirs())
         {
             log.error("Unable to create destination directory");
         }
 
-        // export the items using normal export method
-        exportItem(context, items, workDir, seqStart, migrate);
+        System.out.println("Beginning export");
 
-        // now zip up the export directory created above
-        zip(workDir, destDirName + System.getProperty("file.separator") + zipFileName);
+        if (threads <= 1)
+        {
+            ZipWriter zip = new ZipWriter(new File(dnDir, zipFileName));
+            try
+            {
+                int mySequenceNumber = seqStart;
+                while (items.hasNext())
+                {
+                    Item item = items.next();
+                    exportItem(item, zip, mySequenceNumber, migrate);
+                    mySequenceNumber++;
+
+                    // don't keep every exported item in memory
+                    context.removeCached(item, item.getID());
+                }
+                zip.finish();
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        else
+        {
+            List<Integer> itemIDs = new ArrayList<Integer>();
+            while (items.hasNext())
+            {
+                itemIDs.add(Integer.valueOf(items.nextID()));
+            }
+            exportAsZip(context, itemIDs, dnDir, zipFileName, seqStart, migrate,
+                    Math.min(threads, itemIDs.size()));
+        }
+    }
+
+    /**
+     * Export items into a zip file per thread.  Each thread has its own
+     * Context, with the same user and authorisation as the given one.
+     */
+    private static void exportAsZip(Context context, final List<Integer> itemIDs,
+            File dnDir, String zipFileName, final int seqStart,
+            final boolean migrate, int threads) throws Exception
+    {
+        final EPerson currentUser = context.getCurrentUser();
+        final boolean ignoreAuth = context.ignoreAuthorization();
+
+        // the index in itemIDs of the next item to export
+        final AtomicInteger next = new AtomicInteger();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+        String baseName = zipFileName;
+        String extension = "";
+        if (zipFileName.toLowerCase().endsWith(".zip"))
+        {
+            baseName = zipFileName.substring(0, zipFileName.length() - 4);
+            extension = zipFileName.substring(zipFileName.length() - 4);
+        }
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            final File segment = new File(dnDir, baseName + "_" + (t + 1) + extension);
+            workers[t] = new Thread("ItemExport-" + (t + 1))
+            {
+                public void run()
+                {
+                    Context c = null;
+                    ZipWriter zip = null;
+                    try
+                    {
+                        c = new Context();
+                        c.setCurrentUser(currentUser);
+                        c.setIgnoreAuthorization(ignoreAuth);
+
+                        int index;
+                        while (errors.isEmpty() && (index = next.getAndIncrement()) < itemIDs.size())
+                        {
+                            Item item = Item.find(c, itemIDs.get(index).intValue());
+                            if (zip == null)
+                            {
+                                zip = new ZipWriter(segment);
+                            }
+                            exportItem(item, zip, seqStart + index, migrate);
+
+                            // don't keep every exported item in memory
+                            c.removeCached(item, item.getID());
+                        }
+
+                        if (zip != null)
+                        {
+                            zip.finish();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        log.error("Error exporting to " + segment, e);
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        if (zip != null)
+                        {
+                            zip.close();
+                        }
+                        // nothing was changed
+                        if (c != null)
+                        {
+                            c.abort();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        if (!errors.isEmpty())
+        {
+            throw errors.get(0);
+        }
+    }
+
+    /**
+     * Export an item into a zip file, as the directory the export directory
+     * would have for it.  Bitstreams are copied straight from the assetstore,
+     * compressed at the level configured for their format.
+     *
+     * @param myItem
+     *            the item to export
+     * @param zip
+     *            the zip file to export it to
+     * @param seqNumber
+     *            the item's sequence number, which names its directory
+     * @param migrate
+     *            Whether to use the migrate option or not
+     * @throws Exception
+     */
+    private static void exportItem(Item myItem, ZipWriter zip, int seqNumber,
+            boolean migrate) throws Exception
+    {
+        String itemDir = seqNumber + "/";
+
+        System.out.println("Exporting Item " + myItem.getID() + " to " + itemDir);
+
+        // names already used in the item's directory
+        Set<String> names = new HashSet<String>();
+        names.add("contents");
+
+        for (String schema : getSchemas(myItem))
+        {
+            String filename = getMetadataFileName(schema);
+            names.add(filename);
+
+            zip.putNextEntry(itemDir + filename);
+            writeMetadata(schema, myItem, zip.getOutputStream(), migrate);
+            zip.closeEntry();
+        }
+
+        String handle = migrate ? null : myItem.getHandle();
+        if (handle != null)
+        {
+            names.add("handle");
+        }
+
+        StringWriter contents = new StringWriter();
+        PrintWriter out = new PrintWriter(contents);
+
+        Bundle[] bundles = myItem.getBundles();
+        for (int j = 0; j < bundles.length; j++)
+        {
+            Bitstream[] bitstreams = bundles[j].getBitstreams();
+            for (int k = 0; k < bitstreams.length; k++)
+            {
+                Bitstream b = bitstreams[k];
+
+                // keep appending numbers to the filename until unique
+                String myName = b.getName();
+                int myPrefix = 1;
+                while (!names.add(myName))
+                {
+                    myName = myPrefix + "_" + b.getName();
+                    myPrefix++;
+                }
+
+                zip.write(itemDir + myName, b);
+
+                // write the manifest file entry
+                out.println(getContentsLine(b, myName, bundles[j]));
+            }
+        }
+        out.close();
+
+        // the contents file is written in the default encoding, as it is
+        // by writeBitstreams()
+        zip.putNextEntry(itemDir + "contents");
+        zip.getOutputStream().write(contents.toString().getBytes());
+        zip.closeEntry();
+
+        if (handle != null)
+        {
+            zip.putNextEntry(itemDir + "handle");
+            zip.getOutputStream().write((handle + System.getProperty("line.separator")).getBytes());
+            zip.closeEntry();
+        }
     }
 
     /**
@@ -960,30 +1237,12 @@ public class ItemExport
 
                         String fileName = assembleFileName("item", eperson,
                                 new Date());
-                        String workDir = getExportWorkDirectory()
-                                + System.getProperty("file.separator")
-                                + fileName;
                         String downloadDir = getExportDownloadDirectory(eperson
                                 .getID());
 
-                        File wkDir = new File(workDir);
-                        if (!wkDir.exists() && !wkDir.mkdirs())
-                        {
-                            log.error("Unable to create working directory");
-                        }
-
-                        File dnDir = new File(downloadDir);
-                        if (!dnDir.exists() && !dnDir.mkdirs())
-                        {
-                            log.error("Unable to create download directory");
-                        }
-
-                        // export the items using normal export method
-                        exportItem(context, iitems, workDir, 1, migrate);
-                        // now zip up the export directory created above
-                        zip(workDir, downloadDir
-                                + System.getProperty("file.separator")
-                                + fileName + ".zip");
+                        // export the items straight into the zip file
+                        exportAsZip(context, iitems, downloadDir,
+                                fileName + ".zip", 1, migrate);
                         // email message letting user know the file is ready for
                         // download
                         emailSuccessMessage(context, eperson, fileName + ".zip");
@@ -0,0 +1,267 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemexport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Utils;
+
+/**
+ * Writes the zip file of an export, with bitstreams copied straight from the
+ * assetstore.  The zip is written to a temporary file (its name with "_tmp"
+ * appended), which is only renamed when it is finished, so that an export
+ * which fails part way through is never mistaken for a complete one.
+ * <P>
+ * Files are compressed at the level (0-9) set by
+ * <code>org.dspace.app.itemexport.zip.level</code> (default 9).  Bitstreams
+ * can be given another level by their format:
+ * <code>org.dspace.app.itemexport.zip.level.N</code> lists the short
+ * descriptions of the formats to compress at level N.  Bitstreams at level 0
+ * (e.g. already compressed formats such as JPEG) are stored uncompressed.
+ *
+ * @version $Revision$
+ */
+class ZipWriter
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(ZipWriter.class);
+
+    private static final String LEVEL_PROPERTY = "org.dspace.app.itemexport.zip.level";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** the level of files whose format is not configured */
+    private static final int defaultLevel;
+
+    /** the levels of the configured formats, by short description */
+    private static final Map<String, Integer> formatLevels = new HashMap<String, Integer>();
+
+    static
+    {
+        defaultLevel = checkLevel(ConfigurationManager.getIntProperty(LEVEL_PROPERTY,
+                Deflater.BEST_COMPRESSION));
+
+        for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++)
+        {
+            String formats = ConfigurationManager.getProperty(LEVEL_PROPERTY + "." + level);
+            if (formats != null)
+            {
+                for (String format : formats.trim().split(",\\s*"))
+                {
+                    formatLevels.put(format, Integer.valueOf(level));
+                }
+            }
+        }
+    }
+
+    /** the file written once the zip is finished */
+    private final File target;
+
+    /** the file the zip is written to */
+    private final File tempFile;
+
+    private final ZipOutputStream zip;
+
+    private boolean finished = false;
+
+    /**
+     * Start writing a zip file.
+     *
+     * @param target
+     *            the zip file
+     * @throws IOException
+     */
+    ZipWriter(File target) throws IOException
+    {
+        this.target = target;
+        this.tempFile = new File(target.getPath() + "_tmp");
+        this.zip = new ZipOutputStream(new FileOutputStream(tempFile));
+    }
+
+    private static int checkLevel(int level)
+    {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            log.warn("Invalid " + LEVEL_PROPERTY + " " + level + ", using "
+                    + Deflater.BEST_COMPRESSION);
+            return Deflater.BEST_COMPRESSION;
+        }
+        return level;
+    }
+
+    /**
+     * Get the level bitstreams of a format are compressed at.
+     *
+     * @param format
+     *            the bitstream format
+     * @return the level, 0 meaning stored uncompressed
+     */
+    static int getLevel(BitstreamFormat format)
+    {
+        Integer level = null;
+        if (format != null)
+        {
+            level = formatLevels.get(format.getShortDescription());
+        }
+        return level == null ? defaultLevel : level.intValue();
+    }
+
+    /**
+     * Start a compressed file, to be written to <code>getOutputStream()</code>.
+     *
+     * @param name
+     *            the path of the file in the zip
+     * @throws IOException
+     */
+    void putNextEntry(String name) throws IOException
+    {
+        zip.setLevel(defaultLevel);
+        zip.putNextEntry(new ZipEntry(name));
+    }
+
+    /**
+     * @return the stream to write the current file to, which must not be closed
+     */
+    OutputStream getOutputStream()
+    {
+        return zip;
+    }
+
+    /**
+     * End the current file.
+     *
+     * @throws IOException
+     */
+    void closeEntry() throws IOException
+    {
+        zip.closeEntry();
+    }
+
+    /**
+     * Copy a bitstream into the zip, at the level of its format.  Stored
+     * files need their size and CRC before they are written, so those
+     * bitstreams are read twice; that is still much cheaper than compressing
+     * them.
+     *
+     * @param name
+     *            the path of the file in the zip
+     * @param b
+     *            the bitstream
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    void write(String name, Bitstream b) throws IOException, SQLException,
+            AuthorizeException
+    {
+        ZipEntry entry = new ZipEntry(name);
+
+        int level = getLevel(b.getFormat());
+        if (level == Deflater.NO_COMPRESSION)
+        {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            InputStream is = b.retrieve();
+            try
+            {
+                int count;
+                while ((count = is.read(buffer)) != -1)
+                {
+                    crc.update(buffer, 0, count);
+                    size += count;
+                }
+            }
+            finally
+            {
+                is.close();
+            }
+
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc.getValue());
+        }
+        else
+        {
+            zip.setLevel(level);
+        }
+
+        zip.putNextEntry(entry);
+        InputStream is = new BufferedInputStream(b.retrieve(), BUFFER_SIZE);
+        try
+        {
+            Utils.copy(is, zip);
+        }
+        finally
+        {
+            is.close();
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Finish the zip file, and rename it to its proper name.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException
+    {
+        zip.close();
+        finished = true;
+
+        if (target.exists() && !target.delete())
+        {
+            log.error("Unable to delete file: " + target.getName());
+        }
+        if (!tempFile.renameTo(target))
+        {
+            throw new IOException("Unable to rename " + tempFile + " to " + target);
+        }
+    }
+
+    /**
+     * Release the zip file.  If it was not finished, it is deleted.
+     */
+    void close()
+    {
+        if (!finished)
+        {
+            try
+            {
+                zip.close();
+            }
+            catch (IOException e)
+            {
+                // the zip is being thrown away
+                log.debug("Error closing " + tempFile, e);
+            }
+            if (tempFile.exists() && !tempFile.delete())
+            {
+                log.error("Unable to delete file: " + tempFile.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemimport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The item directories of an import, in the Simple Archive Format: either
+ * the subdirectories of a directory, or the top level directories of a zip
+ * file.  Files are read straight from the zip file, without extracting it.
+ * <P>
+ * Sources may be read by several threads at once.
+ *
+ * @version $Revision$
+ */
+abstract class ImportSource
+{
+    /**
+     * Get the item directories.
+     *
+     * @return the names of the item directories, sorted
+     * @throws IOException
+     */
+    abstract String[] getItemNames() throws IOException;
+
+    /**
+     * List an item directory.
+     *
+     * @param itemName
+     *            the name of the item directory
+     * @return the names of the files and directories in it
+     * @throws IOException
+     */
+    abstract String[] list(String itemName) throws IOException;
+
+    /**
+     * @param itemName
+     *            the name of the item directory
+     * @param fileName
+     *            the path of a file in the item directory
+     * @return whether the file exists
+     */
+    abstract boolean exists(String itemName, String fileName);
+
+    /**
+     * Open a file of an item.
+     *
+     * @param itemName
+     *            the name of the item directory
+     * @param fileName
+     *            the path of a file in the item directory
+     * @return the contents of the file, which the caller must close
+     * @throws FileNotFoundException
+     *             if there is no such file
+     * @throws IOException
+     */
+    abstract InputStream getInputStream(String itemName, String fileName)
+            throws IOException;
+
+    /**
+     * Describe a file of an item, for messages.
+     *
+     * @param itemName
+     *            the name of the item directory
+     * @param fileName
+     *            the path of a file in the item directory
+     * @return the path of the file
+     */
+    abstract String getPath(String itemName, String fileName);
+
+    /**
+     * Release the source.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException
+    {
+    }
+
+    /**
+     * @param dir
+     *            a directory containing item directories
+     * @return the source reading the directory
+     */
+    static ImportSource forDirectory(File dir)
+    {
+        return new DirectorySource(dir);
+    }
+
+    /**
+     * @param zip
+     *            a zip file containing item directories, which is closed
+     *            with the source
+     * @return the source reading the zip file
+     */
+    static ImportSource forZip(ZipFile zip)
+    {
+        return new ZipSource(zip);
+    }
+
+    private static class DirectorySource extends ImportSource
+    {
+        private final File dir;
+
+        DirectorySource(File dir)
+        {
+            this.dir = dir;
+        }
+
+        String[] getItemNames()
+        {
+            String[] names = dir.list(new FilenameFilter()
+            {
+                public boolean accept(File d, String n)
+                {
+                    return new File(d, n).isDirectory();
+                }
+            });
+            Arrays.sort(names);
+            return names;
+        }
+
+        String[] list(String itemName) throws IOException
+        {
+            String[] names = new File(dir, itemName).list();
+            if (names == null)
+            {
+                throw new FileNotFoundException(getPath(itemName, ""));
+            }
+            return names;
+        }
+
+        boolean exists(String itemName, String fileName)
+        {
+            return new File(getPath(itemName, fileName)).exists();
+        }
+
+        InputStream getInputStream(String itemName, String fileName)
+                throws IOException
+        {
+            return new FileInputStream(getPath(itemName, fileName));
+        }
+
+        String getPath(String itemName, String fileName)
+        {
+            return dir.getPath() + File.separatorChar + itemName
+                    + File.separatorChar + fileName;
+        }
+
+        public String toString()
+        {
+            return "directory: " + dir.getPath();
+        }
+    }
+
+    private static class ZipSource extends ImportSource
+    {
+        private final ZipFile zip;
+
+        /** the entries of the files of each item, by their path in the item directory */
+        private final Map<String, Map<String, ZipEntry>> items = new TreeMap<String, Map<String, ZipEntry>>();
+
+        ZipSource(ZipFile zip)
+        {
+            this.zip = zip;
+
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+
+                // zip files created on Windows may use backslashes
+                String name = entry.getName().replace('\\', '/');
+                int index = name.indexOf('/');
+                if (entry.isDirectory() || index <= 0 || index == name.length() - 1)
+                {
+                    continue;
+                }
+
+                String itemName = name.substring(0, index);
+                Map<String, ZipEntry> files = items.get(itemName);
+                if (files == null)
+                {
+                    files = new HashMap<String, ZipEntry>();
+                    items.put(itemName, files);
+                }
+                files.put(name.substring(index + 1), entry);
+            }
+        }
+
+        String[] getItemNames()
+        {
+            return items.keySet().toArray(new String[items.size()]);
+        }
+
+        String[] list(String itemName) throws IOException
+        {
+            Map<String, ZipEntry> files = items.get(itemName);
+            if (files == null)
+            {
+                throw new FileNotFoundException(getPath(itemName, ""));
+            }
+
+            // the top level of the item directory
+            Set<String> names = new TreeSet<String>();
+            for (String fileName : files.keySet())
+            {
+                int index = fileName.indexOf('/');
+                names.add(index == -1 ? fileName : fileName.substring(0, index));
+            }
+            return names.toArray(new String[names.size()]);
+        }
+
+        boolean exists(String itemName, String fileName)
+        {
+            return getEntry(itemName, fileName) != null;
+        }
+
+        InputStream getInputStream(String itemName, String fileName)
+                throws IOException
+        {
+            ZipEntry entry = getEntry(itemName, fileName);
+            if (entry == null)
+            {
+                throw new FileNotFoundException(getPath(itemName, fileName));
+            }
+            return zip.getInputStream(entry);
+        }
+
+        private ZipEntry getEntry(String itemName, String fileName)
+        {
+            Map<String, ZipEntry> files = items.get(itemName);
+            return files == null ? null : files.get(fileName.replace('\\', '/'));
+        }
+
+        String getPath(String itemName, String fileName)
+        {
+            return zip.getName() + "!/" + itemName + "/" + fileName;
+        }
+
+        void close() throws IOException
+        {
+            zip.close();
+        }
+
+        public String toString()
+        {
+            return "zip file: " + zip.getName();
+        }
+    }
+}
@@ -10,8 +10,8 @@ package org.dspace.app.itemimport;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipEntry;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -33,6 +33,7 @@ import org.dspace.content.Bitstream;
 import org.dspace.content.BitstreamFormat;
 import org.dspace.content.Bundle;
 import org.dspace.content.Collection;
+import org.dspace.content.DSpaceObject;
 import org.dspace.content.FormatIdentifier;
 import org.dspace.content.InstallItem;
 import org.dspace.content.Item;
@@ -42,6 +43,7 @@ import org.dspace.content.WorkspaceItem;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Constants;
 import org.dspace.core.Context;
+import org.dspace.event.Event;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 import org.dspace.handle.HandleManager;
@@ -80,32 +82,40 @@ public class ItemImport
 
     private static boolean isTest = false;
 
-    private static boolean isResume = false;
+    static boolean isResume = false;
 
     private static boolean isQuiet = false;
 
     private static boolean template = false;
 
-    private static PrintWriter mapOut = null;
+    static PrintWriter mapOut = null;
 
-    // File listing filter to look for metadata files
-    private static FilenameFilter metadataFileFilter = new FilenameFilter()
-    {
-        public boolean accept(File dir, String n)
-        {
-            return n.startsWith("metadata_");
-        }
-    };
+    // the stream under mapOut, to force the mapfile to disk
+    private static FileOutputStream mapFileOut = null;
 
-    // File listing filter to check for folders
-    private static FilenameFilter directoryFilter = new FilenameFilter()
-    {
-        public boolean accept(File dir, String n)
-        {
-            File item = new File(dir.getAbsolutePath() + File.separatorChar + n);
-            return item.isDirectory();
-        }
-    };
+    // number of items to add at once, each thread with its own Context
+    static int threads = 1;
+
+    // number of items to add in each transaction
+    static int batchSize = 1;
+
+    // leave the search and browse indexes until all items are added
+    private static boolean deferIndexing = false;
+
+    // the dispatcher without the search and browse consumers
+    private static final String DEFERRED_DISPATCHER = "noindex";
+
+    // number of items whose indexes are updated in each transaction
+    private static final int INDEX_BATCH_SIZE = 100;
+
+    // index of the next item to add
+    private final AtomicInteger nextItem = new AtomicInteger();
+
+    // set when a thread adding items fails, to stop the others
+    private volatile boolean stopped = false;
+
+    // IDs of the items added whose indexing has been deferred
+    private final List<Integer> deferredItemIDs = Collections.synchronizedList(new ArrayList<Integer>());
 
 
     public static void main(String[] argv) throws Exception
@@ -142,6 +152,12 @@ public class ItemImport
             options.addOption("R", "resume", false,
                     "resume a failed import (add only)");
             options.addOption("q", "quiet", false, "don't display metadata");
+            options.addOption("T", "threads", true,
+                    "number of items to add at once, each thread in its own transaction (add only)");
+            options.addOption("b", "batch", true,
+                    "number of items to add in each transaction (add only, default 1)");
+            options.addOption("D", "defer-indexing", false,
+                    "update the search and browse indexes once all items are added (add only)");
 
             options.addOption("h", "help", false, "help");
 
@@ -161,6 +177,8 @@ public class ItemImport
                        .println("\nadding items:    ItemImport -a -e eperson -c collection -s sourcedir -m mapfile");
                 System.out
                         .println("\nadding items from zip file:    ItemImport -a -e eperson -c collection -s sourcedir -z filename.zip -m mapfile");
+                System.out
+                        .println("adding items in parallel: ItemImport -a -e eperson -c collection -s sourcedir -m mapfile -T threads -b batchsize -D");
                 System.out
                         .println("replacing items: ItemImport -r -e eperson -c collection -s sourcedir -m mapfile");
                 System.out
@@ -238,9 +256,23 @@ public class ItemImport
                 isQuiet = true;
             }
 
+            if (line.hasOption('T'))
+            {
+                threads = Integer.parseInt(line.getOptionValue('T'));
+            }
+
+            if (line.hasOption('b'))
+            {
+                batchSize = Integer.parseInt(line.getOptionValue('b'));
+            }
+
+            if (line.hasOption('D'))
+            {
+                deferIndexing = true;
+            }
+
             boolean zip = false;
             String zipfilename = "";
-            String ziptempdir = ConfigurationManager.getProperty("org.dspace.app.itemexport.work.dir");
             if (line.hasOption('z'))
             {
                 zip = true;
@@ -313,6 +345,20 @@ public class ItemImport
                 System.exit(1);
             }
 
+            if ((threads != 1 || batchSize != 1 || deferIndexing) && !"add".equals(command))
+            {
+                System.out
+                        .println("Error - threads, batch and defer-indexing options only work with --add command");
+                System.exit(1);
+            }
+
+            if (threads < 1 || batchSize < 1)
+            {
+                System.out
+                        .println("Error - threads and batch size must be at least 1");
+                System.exit(1);
+            }
+
             // do checks around mapfile - if mapfile exists and 'add' is selected,
             // resume must be chosen
             File myFile = new File(mapfile);
@@ -326,37 +372,30 @@ public class ItemImport
                 System.exit(1);
             }
 
-            // does the zip file exist and can we write to the temp directory
+            // does the zip file exist
+            ImportSource source = null;
             if (zip)
             {
-                File zipfile = new File(sourcedir);
+                File zipfile = new File(zipfilename);
                 if (!zipfile.canRead())
                 {
-                    System.out.println("Zip file '" + sourcedir + "' does not exist, or is not readable.");
+                    System.out.println("Zip file '" + zipfilename + "' does not exist, or is not readable.");
                     System.exit(1);
                 }
 
-                if (ziptempdir == null)
-                {
-                    System.out.println("Unable to unzip import file as the key 'org.dspace.app.itemexport.work.dir' is not set in dspace.cfg");
-                    System.exit(1);
-                }
-                zipfile = new File(ziptempdir);
-                if (!zipfile.isDirectory())
+                // items are read straight from the zip file
+                source = ImportSource.forZip(new ZipFile(zipfile));
+            }
+            else if (sourcedir != null)
+            {
+                File d = new File(sourcedir);
+                if (!"delete".equals(command) && !d.isDirectory())
                 {
-                    System.out.println("'" + ConfigurationManager.getProperty("org.dspace.app.itemexport.work.dir") +
-                                       "' as defined by the key 'org.dspace.app.itemexport.work.dir' in dspace.cfg " +
-                                       "is not a valid directory");
+                    System.out.println("Error, cannot open source directory " + sourcedir);
                     System.exit(1);
                 }
-                File tempdir = new File(ziptempdir);
-                if (!tempdir.exists() && !tempdir.mkdirs())
-                {
-                    log.error("Unable to create temporary directory");
-                }
-                sourcedir = ziptempdir + System.getProperty("file.separator") + line.getOptionValue("z");
-                ziptempdir = ziptempdir + System.getProperty("file.separator") +
-                             line.getOptionValue("z") + System.getProperty("file.separator");
+
+                source = ImportSource.forDirectory(d);
             }
 
             ItemImport myloader = new ItemImport();
@@ -443,63 +482,15 @@ public class ItemImport
 
             try
             {
-                // If this is a zip archive, unzip it first
-                if (zip)
-                {
-                    ZipFile zf = new ZipFile(zipfilename);
-                    ZipEntry entry;
-                    Enumeration<? extends ZipEntry> entries = zf.entries();
-                    while (entries.hasMoreElements())
-                    {
-                        entry = entries.nextElement();
-                        if (entry.isDirectory())
-                        {
-                            if (!new File(ziptempdir + entry.getName()).mkdir())
-                            {
-                                log.error("Unable to create contents directory");
-                            }
-                        }
-                        else
-                        {
-                            System.out.println("Extracting file: " + entry.getName());
-                            int index = entry.getName().lastIndexOf('/');
-                            if (index == -1)
-                            {
-                                // Was it created on Windows instead?
-                                index = entry.getName().lastIndexOf('\\');
-                            }
-                            if (index > 0)
-                            {
-                                File dir = new File(ziptempdir + entry.getName().substring(0, index));
-                                if (!dir.mkdirs())
-                                {
-                                    log.error("Unable to create directory");
-                                }
-                            }
-                            byte[] buffer = new byte[1024];
-                            int len;
-                            InputStream in = zf.getInputStream(entry);
-                            BufferedOutputStream out = new BufferedOutputStream(
-                                new FileOutputStream(ziptempdir + entry.getName()));
-                            while((len = in.read(buffer)) >= 0)
-                            {
-                                out.write(buffer, 0, len);
-                            }
-                            in.close();
-                            out.close();
-                        }
-                    }
-                }
-
                 c.turnOffAuthorisationSystem();
 
                 if ("add".equals(command))
                 {
-                    myloader.addItems(c, mycollections, sourcedir, mapfile, template);
+                    myloader.addItems(c, mycollections, source, mapfile, template);
                 }
                 else if ("replace".equals(command))
                 {
-                    myloader.replaceItems(c, mycollections, sourcedir, mapfile, template);
+                    myloader.replaceItems(c, mycollections, source, mapfile, template);
                 }
                 else if ("delete".equals(command))
                 {
@@ -525,19 +516,9 @@ public class ItemImport
                 status = 1;
             }
 
-            // Delete the unzipped file
-            try
-            {
-                if (zip)
-                {
-                    System.gc();
-                    System.out.println("Deleting temporary zip directory: " + ziptempdir);
-                    ItemImport.deleteDirectory(new File(ziptempdir));
-                }
-            }
-            catch (Exception ex)
+            if (source != null)
             {
-                System.out.println("Unable to delete temporary zip archive location: " + ziptempdir);
+                source.close();
             }
 
             if (mapOut != null)
@@ -562,18 +543,15 @@ public class ItemImport
         System.exit(status);
     }
 
-    private void addItems(Context c, Collection[] mycollections,
-            String sourceDir, String mapFile, boolean template) throws Exception
+    void addItems(Context c, Collection[] mycollections,
+            ImportSource source, String mapFile, boolean template) throws Exception
     {
         Map<String, String> skipItems = new HashMap<String, String>(); // set of items to skip if in 'resume'
         // mode
 
-        System.out.println("Adding items from directory: " + sourceDir);
+        System.out.println("Adding items from " + source);
         System.out.println("Generating mapfile: " + mapFile);
 
-        // create the mapfile
-        File outFile = null;
-
         if (!isTest)
         {
             // get the directory names of items to skip (will be in keys of
@@ -584,56 +562,231 @@ public class ItemImport
             }
 
             // sneaky isResume == true means open file in append mode
-            outFile = new File(mapFile);
-            mapOut = new PrintWriter(new FileWriter(outFile, isResume));
+            mapFileOut = new FileOutputStream(mapFile, isResume);
+            mapOut = new PrintWriter(new OutputStreamWriter(mapFileOut));
+        }
 
-            if (mapOut == null)
+        String[] dircontents = source.getItemNames();
+
+        List<String> itemNames = new ArrayList<String>();
+        for (int i = 0; i < dircontents.length; i++)
+        {
+            if (skipItems.containsKey(dircontents[i]))
+            {
+                System.out.println("Skipping import of " + dircontents[i]);
+            }
+            else
             {
-                throw new Exception("can't open mapfile: " + mapFile);
+                itemNames.add(dircontents[i]);
             }
         }
 
-        // open and process the source directory
-        File d = new java.io.File(sourceDir);
+        if (deferIndexing)
+        {
+            c.setDispatcher(DEFERRED_DISPATCHER);
+        }
 
-        if (d == null || !d.isDirectory())
+        if (threads == 1 || itemNames.size() <= 1)
+        {
+            addItems(c, mycollections, source, itemNames, template);
+        }
+        else
         {
-            System.out.println("Error, cannot open source directory " + sourceDir);
-            System.exit(1);
+            addItemsInParallel(c, mycollections, source, itemNames, template);
         }
 
-        String[] dircontents = d.list(directoryFilter);
-        
-        Arrays.sort(dircontents);
+        if (deferIndexing && !isTest)
+        {
+            c.setDispatcher(null);
 
-        for (int i = 0; i < dircontents.length; i++)
+            // items added by the run being resumed may not have been indexed
+            for (String itemID : skipItems.values())
+            {
+                Item item = null;
+                if (itemID.indexOf('/') != -1)
+                {
+                    DSpaceObject dso = HandleManager.resolveToObject(c, itemID);
+                    if (dso != null && dso.getType() == Constants.ITEM)
+                    {
+                        item = (Item) dso;
+                    }
+                }
+                if (item != null)
+                {
+                    deferredItemIDs.add(Integer.valueOf(item.getID()));
+                    c.removeCached(item, item.getID());
+                }
+            }
+
+            updateIndexes(c);
+        }
+    }
+
+    /**
+     * Add the items from itemNames not yet taken by another thread,
+     * committing every batchSize items.  The mapfile lines of the items are
+     * only written once they are committed, so a resumed import does not
+     * skip items which were rolled back.
+     */
+    private void addItems(Context c, Collection[] mycollections,
+            ImportSource source, List<String> itemNames, boolean template)
+            throws Exception
+    {
+        List<String> mapLines = new ArrayList<String>();
+        List<Integer> itemIDs = new ArrayList<Integer>();
+
+        int i;
+        while (!stopped && (i = nextItem.getAndIncrement()) < itemNames.size())
         {
-            if (skipItems.containsKey(dircontents[i]))
+            Item myitem = addItem(c, mycollections, source, itemNames.get(i), null, mapLines, template);
+            System.out.println(i + " " + itemNames.get(i));
+
+            if (myitem != null && deferIndexing && !useWorkflow)
             {
-                System.out.println("Skipping import of " + dircontents[i]);
+                itemIDs.add(Integer.valueOf(myitem.getID()));
             }
-            else
+
+            if (mapLines.size() >= batchSize)
             {
-                addItem(c, mycollections, sourceDir, dircontents[i], mapOut, template);
-                System.out.println(i + " " + dircontents[i]);
-                c.clearCache();
+                commit(c, mapLines, itemIDs);
             }
+            c.clearCache();
         }
+
+        commit(c, mapLines, itemIDs);
     }
 
-    private void replaceItems(Context c, Collection[] mycollections,
-            String sourceDir, String mapFile, boolean template) throws Exception
+    /**
+     * Add items in several threads, each with its own Context.  If one
+     * thread fails, the others stop once they have finished their current
+     * item, and the first failure is thrown.
+     */
+    private void addItemsInParallel(Context c, Collection[] mycollections,
+            final ImportSource source, final List<String> itemNames,
+            final boolean template) throws Exception
+    {
+        final EPerson eperson = c.getCurrentUser();
+        final int[] collectionIDs = new int[mycollections.length];
+        for (int i = 0; i < mycollections.length; i++)
+        {
+            collectionIDs[i] = mycollections[i].getID();
+        }
+
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+        int count = Math.min(threads, itemNames.size());
+        System.out.println("Adding items in " + count + " threads");
+
+        Thread[] workers = new Thread[count];
+        for (int t = 0; t < count; t++)
+        {
+            workers[t] = new Thread("ItemImport-" + (t + 1))
+            {
+                public void run()
+                {
+                    Context context = null;
+                    try
+                    {
+                        context = new Context();
+                        context.setCurrentUser(eperson);
+                        context.turnOffAuthorisationSystem();
+                        if (deferIndexing)
+                        {
+                            context.setDispatcher(DEFERRED_DISPATCHER);
+                        }
+
+                        Collection[] collections = new Collection[collectionIDs.length];
+                        for (int i = 0; i < collectionIDs.length; i++)
+                        {
+                            collections[i] = Collection.find(context, collectionIDs[i]);
+                        }
+
+                        addItems(context, collections, source, itemNames, template);
+                        context.complete();
+                    }
+                    catch (Exception e)
+                    {
+                        stopped = true;
+                        log.error("Error adding items in " + getName(), e);
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        if (context != null && context.isValid())
+                        {
+                            context.abort();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        if (!errors.isEmpty())
+        {
+            throw errors.get(0);
+        }
+    }
+
+    /**
+     * Commit the items added so far, then record them in the mapfile and
+     * force it to disk, so that it can be used to resume the import.
+     */
+    private void commit(Context c, List<String> mapLines, List<Integer> itemIDs)
+            throws SQLException, IOException
     {
-        // verify the source directory
-        File d = new java.io.File(sourceDir);
+        c.commit();
 
-        if (d == null || !d.isDirectory())
+        if (mapOut != null && !mapLines.isEmpty())
         {
-            System.out.println("Error, cannot open source directory "
-                    + sourceDir);
-            System.exit(1);
+            synchronized (mapOut)
+            {
+                for (String mapLine : mapLines)
+                {
+                    mapOut.println(mapLine);
+                }
+                mapOut.flush();
+                mapFileOut.getFD().sync();
+            }
         }
+        mapLines.clear();
 
+        deferredItemIDs.addAll(itemIDs);
+        itemIDs.clear();
+    }
+
+    /**
+     * Update the search and browse indexes of the items added while they
+     * were deferred, by sending the events their consumers missed.
+     */
+    private void updateIndexes(Context c) throws SQLException
+    {
+        System.out.println("Updating search and browse indexes of "
+                + deferredItemIDs.size() + " items");
+
+        int count = 0;
+        for (Integer itemID : deferredItemIDs)
+        {
+            c.addEvent(new Event(Event.MODIFY_METADATA, Constants.ITEM,
+                    itemID.intValue(), null));
+
+            if (++count % INDEX_BATCH_SIZE == 0)
+            {
+                c.commit();
+                c.clearCache();
+            }
+        }
+        c.commit();
+    }
+
+    private void replaceItems(Context c, Collection[] mycollections,
+            ImportSource source, String mapFile, boolean template) throws Exception
+    {
         // read in HashMap first, to get list of handles & source dirs
         Map<String, String> myHash = readMapFile(mapFile);
 
@@ -662,26 +815,15 @@ public class ItemImport
             /* Rather than exposing public item methods to change handles --
              * two handles can't exist at the same time due to key constraints
              * so would require temp handle being stored, old being copied to new and
-             * new being copied to old, all a bit messy -- a handle file is written to
-             * the import directory containing the old handle, the existing item is
+             * new being copied to old, all a bit messy -- the existing item is
              * deleted and then the import runs as though it were loading an item which
-             * had already been assigned a handle (so a new handle is not even assigned).
+             * had already been assigned the old handle (so a new handle is not even assigned).
              * As a commit does not occur until after a successful add, it is safe to
              * do a delete as any error results in an aborted transaction without harming
              * the original item */
-            File handleFile = new File(sourceDir + File.separatorChar + newItemName + File.separatorChar + "handle");
-            PrintWriter handleOut = new PrintWriter(new FileWriter(handleFile, true));
-
-            if (handleOut == null)
-            {
-                throw new Exception("can't open handle file: " + handleFile.getCanonicalPath());
-            }
-
-            handleOut.println(oldHandle);
-            handleOut.close();
-
             deleteItem(c, oldItem);
-            addItem(c, mycollections, sourceDir, newItemName, null, template);
+            addItem(c, mycollections, source, newItemName, oldHandle, null, template);
+            c.commit();
             c.clearCache();
         }
     }
@@ -718,14 +860,16 @@ public class ItemImport
     }
 
     /**
-     * item? try and add it to the archive.
+     * item? try and add it to the archive.  The item is not committed.
      * @param mycollections - add item to these Collections.
-     * @param path - directory containing the item directories.
-     * @param itemname handle - non-null means we have a pre-defined handle already 
-     * @param mapOut - mapfile we're writing
+     * @param source - the item directories.
+     * @param itemname - the name of the item's directory.
+     * @param handle - non-null means we have a pre-defined handle already,
+     *                 otherwise it is read from the item's handle file
+     * @param mapLines - mapfile lines to add the item's line to, or null
      */
-    private Item addItem(Context c, Collection[] mycollections, String path,
-            String itemname, PrintWriter mapOut, boolean template) throws Exception
+    private Item addItem(Context c, Collection[] mycollections, ImportSource source,
+            String itemname, String handle, List<String> mapLines, boolean template) throws Exception
     {
         String mapOutput = null;
 
@@ -742,14 +886,13 @@ public class ItemImport
         }
 
         // now fill out dublin core for item
-        loadMetadata(c, myitem, path + File.separatorChar + itemname
-                + File.separatorChar);
+        loadMetadata(c, myitem, source, itemname);
 
         // and the bitstreams from the contents file
         // process contents file, add bistreams and bundles, return any
         // non-standard permissions
-        List<String> options = processContentsFile(c, myitem, path
-                + File.separatorChar + itemname, "contents");
+        List<String> options = processContentsFile(c, myitem, source,
+                itemname, "contents");
 
         if (useWorkflow)
         {
@@ -781,8 +924,11 @@ public class ItemImport
         else
         {
             // only process handle file if not using workflow system
-            String myhandle = processHandleFile(c, myitem, path
-                    + File.separatorChar + itemname, "handle");
+            String myhandle = handle;
+            if (myhandle == null)
+            {
+                myhandle = processHandleFile(c, myitem, source, itemname, "handle");
+            }
 
             // put item in system
             if (!isTest)
@@ -815,14 +961,12 @@ public class ItemImport
             }
         }
 
-        // made it this far, everything is fine, commit transaction
-        if (mapOut != null)
+        // made it this far, everything is fine, the caller commits the transaction
+        if (mapLines != null && mapOutput != null)
         {
-            mapOut.println(mapOutput);
+            mapLines.add(mapOutput);
         }
 
-        c.commit();
-
         return myitem;
     }
 
@@ -914,27 +1058,39 @@ public class ItemImport
     }
 
     // Load all metadata schemas into the item.
-    private void loadMetadata(Context c, Item myitem, String path)
+    private void loadMetadata(Context c, Item myitem, ImportSource source, String itemname)
             throws SQLException, IOException, ParserConfigurationException,
             SAXException, TransformerException, AuthorizeException
     {
         // Load the dublin core metadata
-        loadDublinCore(c, myitem, path + "dublin_core.xml");
+        loadDublinCore(c, myitem, source, itemname, "dublin_core.xml");
 
         // Load any additional metadata schemas
-        File folder = new File(path);
-        File file[] = folder.listFiles(metadataFileFilter);
-        for (int i = 0; i < file.length; i++)
+        String[] files = source.list(itemname);
+        for (int i = 0; i < files.length; i++)
         {
-            loadDublinCore(c, myitem, file[i].getAbsolutePath());
+            if (files[i].startsWith("metadata_"))
+            {
+                loadDublinCore(c, myitem, source, itemname, files[i]);
+            }
         }
     }
 
-    private void loadDublinCore(Context c, Item myitem, String filename)
+    private void loadDublinCore(Context c, Item myitem, ImportSource source,
+            String itemname, String filename)
             throws SQLException, IOException, ParserConfigurationException,
             SAXException, TransformerException, AuthorizeException
     {
-        Document document = loadXML(filename);
+        Document document;
+        InputStream is = source.getInputStream(itemname, filename);
+        try
+        {
+            document = loadXML(is);
+        }
+        finally
+        {
+            is.close();
+        }
 
         // Get the schema, for backward compatibility we will default to the
         // dublin core schema if the schema name is not available in the import
@@ -958,7 +1114,7 @@ public class ItemImport
 
         if (!isQuiet)
         {
-            System.out.println("\tLoading dublin core from " + filename);
+            System.out.println("\tLoading dublin core from " + source.getPath(itemname, filename));
         }
 
         // Add each one as a new format to the registry
@@ -1040,18 +1196,19 @@ public class ItemImport
     /**
      * Read in the handle file or return null if empty or doesn't exist
      */
-    private String processHandleFile(Context c, Item i, String path, String filename)
+    private String processHandleFile(Context c, Item i, ImportSource source,
+            String itemname, String filename)
     {
-        File file = new File(path + File.separatorChar + filename);
         String result = null;
 
         System.out.println("Processing handle file: " + filename);
-        if (file.exists())
+        if (source.exists(itemname, filename))
         {
             BufferedReader is = null;
             try
             {
-                is = new BufferedReader(new FileReader(file));
+                is = new BufferedReader(new InputStreamReader(
+                        source.getInputStream(itemname, filename)));
 
                 // result gets contents of file, or null
                 result = is.readLine();
@@ -1098,22 +1255,22 @@ public class ItemImport
      * contents file Returns a List of Strings with lines from the contents
      * file that request non-default bitstream permission
      */
-    private List<String> processContentsFile(Context c, Item i, String path,
-            String filename) throws SQLException, IOException,
+    private List<String> processContentsFile(Context c, Item i, ImportSource source,
+            String itemname, String filename) throws SQLException, IOException,
             AuthorizeException
     {
-        File contentsFile = new File(path + File.separatorChar + filename);
         String line = "";
         List<String> options = new ArrayList<String>();
 
-        System.out.println("\tProcessing contents file: " + contentsFile);
+        System.out.println("\tProcessing contents file: " + source.getPath(itemname, filename));
 
-        if (contentsFile.exists())
+        if (source.exists(itemname, filename))
         {
             BufferedReader is = null;
             try
             {
-                is = new BufferedReader(new FileReader(contentsFile));
+                is = new BufferedReader(new InputStreamReader(
+                        source.getInputStream(itemname, filename)));
 
                 while ((line = is.readLine()) != null)
                 {
@@ -1190,7 +1347,7 @@ public class ItemImport
                     if (bitstreamEndIndex == -1)
                     {
                         // no extra info
-                        processContentFileEntry(c, i, path, line, null, false);
+                        processContentFileEntry(c, i, source, itemname, line, null, false);
                         System.out.println("\tBitstream: " + line);
                     }
                     else
@@ -1259,14 +1416,14 @@ public class ItemImport
                             String bundleName = line.substring(bMarkerIndex
                                     + bundleMarker.length(), bEndIndex).trim();
 
-                            processContentFileEntry(c, i, path, bitstreamName, bundleName, primary);
+                            processContentFileEntry(c, i, source, itemname, bitstreamName, bundleName, primary);
                             System.out.println("\tBitstream: " + bitstreamName +
                                                "\tBundle: " + bundleName +
                                                primaryStr);
                         }
                         else
                         {
-                            processContentFileEntry(c, i, path, bitstreamName, null, primary);
+                            processContentFileEntry(c, i, source, itemname, bitstreamName, null, primary);
                             System.out.println("\tBitstream: " + bitstreamName + primaryStr);
                         }
 
@@ -1301,7 +1458,7 @@ public class ItemImport
         }
         else
         {
-            String[] dirListing = new File(path).list();
+            String[] dirListing = source.list(itemname);
             for (String fileName : dirListing)
             {
                 if (!"dublin_core.xml".equals(fileName) && !fileName.equals("handle") && !fileName.startsWith("metadata_"))
@@ -1320,22 +1477,21 @@ public class ItemImport
      * each entry represents a bitstream....
      * @param c
      * @param i
-     * @param path
+     * @param source
+     * @param itemname
      * @param fileName
      * @param bundleName
      * @throws SQLException
      * @throws IOException
      * @throws AuthorizeException
      */
-    private void processContentFileEntry(Context c, Item i, String path,
-            String fileName, String bundleName, boolean primary) throws SQLException,
-            IOException, AuthorizeException
+    private void processContentFileEntry(Context c, Item i, ImportSource source,
+            String itemname, String fileName, String bundleName, boolean primary)
+            throws SQLException, IOException, AuthorizeException
     {
-        String fullpath = path + File.separatorChar + fileName;
-
         // get an input stream
-        BufferedInputStream bis = new BufferedInputStream(new FileInputStream(
-                fullpath));
+        BufferedInputStream bis = new BufferedInputStream(
+                source.getInputStream(itemname, fileName));
 
         Bitstream bs = null;
         String newBundleName = bundleName;
@@ -1721,49 +1877,19 @@ public class ItemImport
     }
 
     /**
-     * Load in the XML from file.
+     * Load in the XML from a stream.
      * 
-     * @param filename
-     *            the filename to load from
+     * @param is
+     *            the stream to load from
      * 
      * @return the DOM representation of the XML file
      */
-    private static Document loadXML(String filename) throws IOException,
+    private static Document loadXML(InputStream is) throws IOException,
             ParserConfigurationException, SAXException
     {
         DocumentBuilder builder = DocumentBuilderFactory.newInstance()
                 .newDocumentBuilder();
 
-        return builder.parse(new File(filename));
-    }
-
-    /**
-     * Delete a directory and its child files and directories
-     * @param path The directory to delete
-     * @return Whether the deletion was successful or not
-     */
-    private static boolean deleteDirectory(File path)
-    {
-        if (path.exists())
-        {
-            File[] files = path.listFiles();
-            for (int i = 0; i < files.length; i++)
-            {
-                if (files[i].isDirectory())
-                {
-                    deleteDirectory(files[i]);
-                }
-                else
-                {
-                    if (!files[i].delete())
-                    {
-                        log.error("Unable to delete file: " + files[i].getName());
-                    }
-                }
-            }
-        }
-
-        boolean pathDeleted = path.delete();
-        return (pathDeleted);
+        return builder.parse(is);
     }
 }
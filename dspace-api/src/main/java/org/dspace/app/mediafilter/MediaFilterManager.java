@@ -14,6 +14,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -25,6 +29,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
 import org.dspace.authorize.AuthorizeManager;
 import org.dspace.content.Bitstream;
 import org.dspace.content.BitstreamFormat;
@@ -49,11 +54,22 @@ import org.dspace.search.DSIndexer;
  * MFM: -v verbose outputs all extracted text to STDOUT; -f force forces all
  * bitstreams to be processed, even if they have been before; -n noindex does not
  * recreate index after processing bitstreams; -i [identifier] limits processing 
- * scope to a community, collection or item; and -m [max] limits processing to a
- * maximum number of items.
+ * scope to a community, collection or item; -m [max] limits processing to a
+ * maximum number of items; and -t [threads] filters several items at once.
+ * <p>
+ * When filtering several items at once, each worker thread filters whole
+ * items in its own Context, committing after each item. The number of
+ * threads running a particular filter at once can be limited in dspace.cfg
+ * with <code>filter.&lt;class-name&gt;[.&lt;plugin-name&gt;].concurrency</code>,
+ * for filters which are expensive or run external processes. If a worker
+ * thread fails, the items not yet filtered are left, the search index is not
+ * updated and the exit status is 1.
  */
 public class MediaFilterManager
 {
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(MediaFilterManager.class);
+
 	//key (in dspace.cfg) which lists all enabled filters by name
     public static final String MEDIA_FILTER_PLUGINS_KEY = "filter.plugins";
 	
@@ -63,6 +79,9 @@ public class MediaFilterManager
     //suffix (in dspace.cfg) for input formats supported by each filter
     public static final String INPUT_FORMATS_SUFFIX = "inputFormats";
     
+    //suffix (in dspace.cfg) for the number of threads which may run each filter at once
+    public static final String CONCURRENCY_SUFFIX = "concurrency";
+    
     static boolean updateIndex = true; // default to updating index
 
     static boolean isVerbose = false; // default to not verbose
@@ -77,11 +96,32 @@ public class MediaFilterManager
     
     static int processed = 0;   // number items processed
     
-    private static Item currentItem = null;   // current item being processed
+    static int threads = 1;   // number of items filtered at once
+    
+    // current item being processed, by each thread
+    private static final ThreadLocal<Item> currentItem = new ThreadLocal<Item>();
+    
+    // items being filtered by worker threads, which may yet count towards max2Process
+    private static int reserved = 0;
+    
+    // guards processed and reserved when filtering with several threads
+    private static final Object processedLock = new Object();
+    
+    // item IDs waiting for worker threads, when filtering with several threads
+    private static BlockingQueue<Integer> itemQueue = null;
+    
+    // set when the worker threads have stopped taking items
+    private static volatile boolean workersStopped = false;
     
-    private static FormatFilter[] filterClasses = null;
+    // the first failure which stopped a worker thread, if any
+    private static volatile Throwable workerFailure = null;
     
-    private static Map<String, List<String>> filterFormats = new HashMap<String, List<String>>();
+    // limits on the number of threads running each filter at once (if limited)
+    private static Map<FormatFilter, Semaphore> filterLimits = new HashMap<FormatFilter, Semaphore>();
+    
+    static FormatFilter[] filterClasses = null;
+    
+    static Map<String, List<String>> filterFormats = new HashMap<String, List<String>>();
     
     private static List<String> skipList = null; //list of identifiers to skip during processing
     
@@ -113,6 +153,8 @@ public class MediaFilterManager
         		"ONLY process bitstreams belonging to identifier");
         options.addOption("m", "maximum", true,
 				"process no more than maximum items");
+        options.addOption("t", "threads", true,
+                "number of items to filter at once (default 1)");
         options.addOption("h", "help", false, "help");
 
         //create a "plugin" option (to specify specific MediaFilter plugins to run)
@@ -192,6 +234,28 @@ public class MediaFilterManager
         	}
         }
 
+        if (line.hasOption('t'))
+        {
+            try
+            {
+                threads = Integer.parseInt(line.getOptionValue('t'));
+            }
+            catch (NumberFormatException e)
+            {
+                System.err.println("\nERROR: -t (-threads) option requires a number of threads.\n" +
+                                   "(e.g. MediaFilterManager -t 4)\n");
+                HelpFormatter myhelp = new HelpFormatter();
+                myhelp.printHelp("MediaFilterManager\n", options);
+                System.exit(1);
+            }
+            if (threads < 1)
+            {
+                System.out.println("Invalid number of threads '" +
+                                   line.getOptionValue('t') + "' - ignoring");
+                threads = 1;
+            }
+        }
+
         String filterNames[] = null;
         if(line.hasOption('p'))
         {
@@ -268,6 +332,17 @@ public class MediaFilterManager
         	            (pluginName!=null ? FILTER_PLUGIN_SEPARATOR + pluginName : ""),
         	            Arrays.asList(formats.split(",[\\s]*")));
                 }
+                
+                //limit the number of threads running this filter at once, if configured
+                //(same key format as inputFormats above)
+                int concurrency = ConfigurationManager.getIntProperty(
+                    FILTER_PREFIX + "." + filterClassName + 
+                    (pluginName!=null ? "." + pluginName : "") +
+                    "." + CONCURRENCY_SUFFIX, 0);
+                if (concurrency > 0 && threads > 1)
+                {
+                    filterLimits.put(filter, new Semaphore(concurrency, true));
+                }
             }//end if filter!=null
         }//end for
         
@@ -327,33 +402,7 @@ public class MediaFilterManager
             // have to be super-user to do the filtering
             c.turnOffAuthorisationSystem();
 
-            // now apply the filters
-            if (identifier == null)
-            {
-            	applyFiltersAllItems(c);
-            }
-            else  // restrict application scope to identifier
-            {
-            	DSpaceObject dso = HandleManager.resolveToObject(c, identifier);
-            	if (dso == null)
-            	{
-            		throw new IllegalArgumentException("Cannot resolve "
-                                + identifier + " to a DSpace object");
-            	}
-            	
-            	switch (dso.getType())
-            	{
-            		case Constants.COMMUNITY:
-            						applyFiltersCommunity(c, (Community)dso);
-            						break;					
-            		case Constants.COLLECTION:
-            						applyFiltersCollection(c, (Collection)dso);
-            						break;						
-            		case Constants.ITEM:
-            						applyFiltersItem(c, (Item)dso);
-            						break;
-            	}
-            }
+            applyFilters(c);
           
             // update search index?
             if (updateIndex)
@@ -390,6 +439,56 @@ public class MediaFilterManager
         System.exit(status);
     }
 
+    /**
+     * Apply the filters to the items in scope: those of the object given by
+     * the identifier, or all of them.  If filtering several items at once and
+     * a worker thread fails, the items not yet filtered are left and the
+     * failure is thrown once the other threads have finished.
+     */
+    static void applyFilters(Context c) throws Exception
+    {
+        // start the worker threads, if filtering several items at once
+        Thread[] workers = (threads > 1) ? startWorkers() : null;
+
+        try
+        {
+            // now apply the filters
+            if (identifier == null)
+            {
+                applyFiltersAllItems(c);
+            }
+            else  // restrict application scope to identifier
+            {
+                DSpaceObject dso = HandleManager.resolveToObject(c, identifier);
+                if (dso == null)
+                {
+                    throw new IllegalArgumentException("Cannot resolve "
+                                + identifier + " to a DSpace object");
+                }
+
+                switch (dso.getType())
+                {
+                    case Constants.COMMUNITY:
+                                    applyFiltersCommunity(c, (Community)dso);
+                                    break;
+                    case Constants.COLLECTION:
+                                    applyFiltersCollection(c, (Collection)dso);
+                                    break;
+                    case Constants.ITEM:
+                                    applyFiltersItem(c, (Item)dso);
+                                    break;
+                }
+            }
+        }
+        finally
+        {
+            if (workers != null)
+            {
+                stopWorkers(workers);
+            }
+        }
+    }
+
     public static void applyFiltersAllItems(Context c) throws Exception
     {
         if(skipList!=null)
@@ -409,9 +508,9 @@ public class MediaFilterManager
             ItemIterator i = Item.findAll(c);
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && moreToProcess())
                 {
-                    applyFiltersItem(c, i.next());
+                    dispatchItem(c, i.next());
                 }
             }
             finally
@@ -452,9 +551,9 @@ public class MediaFilterManager
             ItemIterator i = collection.getItems();
             try
             {
-                while (i.hasNext() && processed < max2Process)
+                while (i.hasNext() && moreToProcess())
                 {
-                    applyFiltersItem(c, i.next());
+                    dispatchItem(c, i.next());
                 }
             }
             finally
@@ -474,7 +573,7 @@ public class MediaFilterManager
         {
     	  //cache this item in MediaFilterManager
     	  //so it can be accessed by MediaFilters as necessary
-    	  currentItem = item;
+    	  currentItem.set(item);
     	
           if (filterItem(c, item))
           {
@@ -485,10 +584,239 @@ public class MediaFilterManager
           }
           // clear item objects from context cache and internal cache
           item.decache();
-          currentItem = null;
+          currentItem.remove();
         }  
     }
 
+    /**
+     * Whether more items may be filtered, or the maximum has been reached.
+     */
+    private static boolean moreToProcess()
+    {
+        if (threads <= 1)
+        {
+            return processed < max2Process;
+        }
+
+        synchronized (processedLock)
+        {
+            return !workersStopped && processed < max2Process;
+        }
+    }
+
+    /**
+     * Filter an item found while iterating over the items in scope: at once,
+     * or by passing it to the worker threads when filtering several items at
+     * once.
+     */
+    private static void dispatchItem(Context c, Item item) throws Exception
+    {
+        if (threads <= 1)
+        {
+            applyFiltersItem(c, item);
+            return;
+        }
+
+        // the workers load the item in their own Context
+        int id = item.getID();
+        item.decache();
+        while (!workersStopped)
+        {
+            if (itemQueue.offer(Integer.valueOf(id), 1, TimeUnit.SECONDS))
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start the worker threads, which filter the items passed to them by
+     * dispatchItem.
+     *
+     * @return the threads
+     */
+    private static Thread[] startWorkers()
+    {
+        itemQueue = new ArrayBlockingQueue<Integer>(threads * 2);
+        workersStopped = false;
+        workerFailure = null;
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread("MediaFilter-" + i)
+            {
+                public void run()
+                {
+                    filterQueuedItems();
+                }
+            };
+            workers[i].start();
+        }
+        return workers;
+    }
+
+    /**
+     * Tell the worker threads there are no more items, and wait for them to
+     * finish.
+     *
+     * @param workers
+     *            the threads
+     * @throws Exception
+     *            if a worker thread failed
+     */
+    private static void stopWorkers(Thread[] workers) throws Exception
+    {
+        for (int i = 0; i < workers.length; i++)
+        {
+            while (!workersStopped
+                    && !itemQueue.offer(Integer.valueOf(-1), 1, TimeUnit.SECONDS))
+            {
+                // wait for room in the queue
+            }
+        }
+        for (Thread worker : workers)
+        {
+            worker.join();
+        }
+
+        if (workerFailure != null)
+        {
+            throw new Exception("Filtering stopped after an error in a worker thread", workerFailure);
+        }
+    }
+
+    /**
+     * Run by each worker thread: filter items from the queue in a Context of
+     * its own, committing after each item, until there are no more items or
+     * the maximum number of items has been filtered.
+     */
+    private static void filterQueuedItems()
+    {
+        Context c = null;
+        try
+        {
+            c = new Context();
+            c.turnOffAuthorisationSystem();
+
+            while (true)
+            {
+                Integer next = itemQueue.poll(1, TimeUnit.SECONDS);
+                if (next == null)
+                {
+                    // stop if another worker has failed or reached the maximum
+                    if (workersStopped)
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                int id = next.intValue();
+                if (id < 0)
+                {
+                    break;
+                }
+
+                // count the item towards max2Process until we know
+                // whether it was filtered
+                if (!reserveItem())
+                {
+                    break;
+                }
+
+                boolean filtered = false;
+                try
+                {
+                    Item item = Item.find(c, id);
+                    if (item != null && !inSkipList(item.getHandle()))
+                    {
+                        currentItem.set(item);
+                        filtered = filterItem(c, item);
+                        if (filtered)
+                        {
+                            // commit changes after each filtered item
+                            c.commit();
+                        }
+                        item.decache();
+                    }
+                }
+                finally
+                {
+                    currentItem.remove();
+                    releaseItem(filtered);
+                }
+            }
+
+            c.complete();
+            c = null;
+        }
+        catch (Throwable t)
+        {
+            log.error("Error filtering items", t);
+            System.out.println("ERROR filtering items: " + t);
+            t.printStackTrace();
+            if (workerFailure == null)
+            {
+                workerFailure = t;
+            }
+        }
+        finally
+        {
+            if (c != null)
+            {
+                c.abort();
+            }
+            // stop the others, and the thread dispatching items
+            synchronized (processedLock)
+            {
+                workersStopped = true;
+                processedLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reserve the filtering of an item against max2Process, waiting for the
+     * items already being filtered if they might reach the maximum.
+     *
+     * @return false if the maximum number of items has been filtered
+     */
+    private static boolean reserveItem() throws InterruptedException
+    {
+        synchronized (processedLock)
+        {
+            while (processed + reserved >= max2Process)
+            {
+                if (reserved == 0)
+                {
+                    return false;
+                }
+                processedLock.wait();
+            }
+            reserved++;
+            return true;
+        }
+    }
+
+    /**
+     * Release a reservation made by reserveItem.
+     *
+     * @param filtered
+     *            whether the item was filtered, and so counts as processed
+     */
+    private static void releaseItem(boolean filtered)
+    {
+        synchronized (processedLock)
+        {
+            reserved--;
+            if (filtered)
+            {
+                processed++;
+            }
+            processedLock.notifyAll();
+        }
+    }
+
     /**
      * Iterate through the item's bitstreams in the ORIGINAL bundle, applying
      * filters if possible.
@@ -558,7 +886,7 @@ public class MediaFilterManager
             	try
             	{
 		            // only update item if bitstream not skipped
-		            if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
+		            if (processBitstreamLimited(c, myItem, myBitstream, filterClasses[i]))
             	    {
 		           		myItem.update(); // Make sure new bitstream has a sequence
 		                                 	// number
@@ -646,7 +974,7 @@ public class MediaFilterManager
                     try
                     {
                         // only update item if bitstream not skipped
-                        if (processBitstream(c, myItem, myBitstream, filterClasses[i]))
+                        if (processBitstreamLimited(c, myItem, myBitstream, filterClasses[i]))
                         {
                                myItem.update(); // Make sure new bitstream has a sequence
                                                  // number
@@ -665,6 +993,30 @@ public class MediaFilterManager
         return filtered;
     }
     
+    /**
+     * Call processBitstream, first waiting until fewer threads are running
+     * the filter than its configured concurrency (if any).
+     */
+    private static boolean processBitstreamLimited(Context c, Item item, Bitstream source,
+            FormatFilter formatFilter) throws Exception
+    {
+        Semaphore limit = filterLimits.get(formatFilter);
+        if (limit == null)
+        {
+            return processBitstream(c, item, source, formatFilter);
+        }
+
+        limit.acquireUninterruptibly();
+        try
+        {
+            return processBitstream(c, item, source, formatFilter);
+        }
+        finally
+        {
+            limit.release();
+        }
+    }
+
     /**
      * A utility class that calls the virtual methods
      * from the current MediaFilter class.
@@ -801,13 +1153,14 @@ public class MediaFilterManager
      * <p>
      * This allows FormatFilters to retrieve the Item object
      * in case they need access to item-level information for their format
-     * transformations/conversions.
+     * transformations/conversions. When filtering several items at once, this
+     * is the item being processed by the calling thread.
      * 
      * @return current Item being processed by MediaFilterManager
      */
     public static Item getCurrentItem()
     {
-        return currentItem;
+        return currentItem.get();
     }
     
     /**
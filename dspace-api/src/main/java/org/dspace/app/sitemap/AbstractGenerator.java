@@ -7,14 +7,30 @@
  */
 package org.dspace.app.sitemap;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.log4j.Logger;
+import org.dspace.core.Utils;
+
 /**
  * Base class for creating sitemaps of various kinds. A sitemap consists of one
  * or more files which list significant URLs on a site for search engines to
@@ -33,11 +49,21 @@ import java.util.zip.GZIPOutputStream;
  *   }
  *   g.finish();
  * </pre>
+ * <P>
+ * URLs may be added with a key (e.g. an item ID), in ascending order of
+ * keys. If the generator is incremental, a manifest of the range of keys
+ * in each sitemap file is kept, and the next run puts URLs into the same
+ * files by their keys. Files whose contents have not changed since the
+ * last run are not written again. Files are compressed and written by a
+ * pool of threads, while the next file is being filled.
  * 
  * @author Robert Tansley
  */
 public abstract class AbstractGenerator
 {
+    /** Logger */
+    private static Logger log = Logger.getLogger(AbstractGenerator.class);
+
     /** Number of files written so far */
     protected int fileCount;
 
@@ -50,12 +76,48 @@ public abstract class AbstractGenerator
     /** Directory files are written to */
     protected File outputDir;
 
-    /** Current output */
-    protected PrintStream currentOutput;
+    /** Marked-up URLs of the current file */
+    private StringBuilder currentText;
+
+    /** Number of the current file */
+    private int currentNumber;
+
+    /** Highest key the current file may hold */
+    private int currentLastKey;
+
+    /** Digest of the current file on the last run, or null */
+    private String currentDigest;
+
+    /** Key of the last URL added */
+    private int lastKey = 0;
 
     /** Size in bytes of trailing boilerplate */
     private int trailingByteCount;
 
+    /** Whether to use the manifest of the last run */
+    private boolean incremental = false;
+
+    /** Number of threads writing files */
+    private int threads = 1;
+
+    /** Files of the last run, in order of keys */
+    private List<ManifestEntry> previous = null;
+
+    /** Index in previous of the next file */
+    private int nextPrevious = 0;
+
+    /** Files of this run, in order of keys */
+    private List<ManifestEntry> manifest = new ArrayList<ManifestEntry>();
+
+    /** Number of files whose contents changed */
+    private int filesChanged = 0;
+
+    /** Threads writing files */
+    private ThreadPoolExecutor writers = null;
+
+    /** Files being written */
+    private List<Future<Object>> writes = new ArrayList<Future<Object>>();
+
     /**
      * Initialize this generator to write to the given directory. This must be
      * called by any subclass constructor.
@@ -68,7 +130,33 @@ public abstract class AbstractGenerator
         fileCount = 0;
         outputDir = outputDirIn;
         trailingByteCount = getTrailingBoilerPlate().length();
-        currentOutput = null;
+        currentText = null;
+    }
+
+    /**
+     * Set whether to keep a manifest, and only write the files whose
+     * contents have changed since the last run. Must be called before any
+     * URLs are added.
+     * 
+     * @param incrementalIn
+     *            if {@code false}, all files are written, and the manifest
+     *            is started again
+     */
+    public void setIncremental(boolean incrementalIn)
+    {
+        incremental = incrementalIn;
+    }
+
+    /**
+     * Set the number of threads compressing and writing files. Must be
+     * called before any URLs are added.
+     * 
+     * @param threadsIn
+     *            the number of threads
+     */
+    public void setThreads(int threadsIn)
+    {
+        threads = Math.max(1, threadsIn);
     }
 
     /**
@@ -79,19 +167,36 @@ public abstract class AbstractGenerator
      */
     protected void startNewFile() throws IOException
     {
-        String lbp = getLeadingBoilerPlate();
+        if (previous == null)
+        {
+            previous = incremental ? readManifest() : new ArrayList<ManifestEntry>();
+            writers = new ThreadPoolExecutor(threads, threads, 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
 
-        OutputStream fo = new FileOutputStream(new File(outputDir,
-                getFilename(fileCount)));
+        if (nextPrevious < previous.size())
+        {
+            ManifestEntry entry = previous.get(nextPrevious++);
 
-        if (useCompression())
+            // the last file takes any new keys
+            startNewFile(entry.number,
+                    nextPrevious == previous.size() ? Integer.MAX_VALUE : entry.lastKey,
+                    entry.digest);
+        }
+        else
         {
-            fo = new GZIPOutputStream(fo);
+            startNewFile(previous.size() + fileCount - nextPrevious, Integer.MAX_VALUE, null);
         }
+    }
 
-        currentOutput = new PrintStream(fo);
-        currentOutput.print(lbp);
-        bytesWritten = lbp.length();
+    private void startNewFile(int number, int lastKeyIn, String digest)
+    {
+        currentText = new StringBuilder(getLeadingBoilerPlate());
+        currentNumber = number;
+        currentLastKey = lastKeyIn;
+        currentDigest = digest;
+        bytesWritten = currentText.length();
         urlsWritten = 0;
     }
 
@@ -106,10 +211,35 @@ public abstract class AbstractGenerator
      *             if an error occurs writing
      */
     public void addURL(String url, Date lastMod) throws IOException
+    {
+        addURL(url, lastMod, lastKey);
+    }
+
+    /**
+     * Add the given URL to the sitemap.
+     * 
+     * @param url
+     *            Full URL to add
+     * @param lastMod
+     *            Date URL was last modified, or {@code null}
+     * @param key
+     *            Key of the URL, which must not be less than that of the
+     *            URL added before it
+     * @throws IOException
+     *             if an error occurs writing
+     */
+    public void addURL(String url, Date lastMod, int key) throws IOException
     {
         // Kick things off if this is the first call
-        if (currentOutput == null)
+        if (currentText == null)
+        {
+            startNewFile();
+        }
+
+        // the URL belongs in a later file of the last run
+        while (key > currentLastKey)
         {
+            closeCurrentFile(currentLastKey);
             startNewFile();
         }
 
@@ -118,13 +248,25 @@ public abstract class AbstractGenerator
         if (bytesWritten + newURLText.length() + trailingByteCount > getMaxSize()
                 || urlsWritten + 1 > getMaxURLs())
         {
-            closeCurrentFile();
-            startNewFile();
+            // the rest of the file's keys go in a new file, unless the file
+            // was split the same way on the last run
+            int restLastKey = currentLastKey;
+            closeCurrentFile(lastKey);
+            if (restLastKey != Integer.MAX_VALUE && nextPrevious < previous.size()
+                    && previous.get(nextPrevious).lastKey == restLastKey)
+            {
+                startNewFile();
+            }
+            else
+            {
+                startNewFile(previous.size() + fileCount - nextPrevious, restLastKey, null);
+            }
         }
 
-        currentOutput.print(newURLText);
+        currentText.append(newURLText);
         bytesWritten += newURLText.length();
         urlsWritten++;
+        lastKey = key;
     }
 
     /**
@@ -135,8 +277,33 @@ public abstract class AbstractGenerator
      */
     protected void closeCurrentFile() throws IOException
     {
-        currentOutput.print(getTrailingBoilerPlate());
-        currentOutput.close();
+        closeCurrentFile(currentLastKey == Integer.MAX_VALUE ? lastKey : currentLastKey);
+    }
+
+    /**
+     * Finish with the current sitemap file, writing it unless its contents
+     * are the same as on the last run.
+     * 
+     * @param fileLastKey
+     *            highest key the file holds, for the manifest
+     * @throws IOException
+     *             if an error occurs writing
+     */
+    private void closeCurrentFile(int fileLastKey) throws IOException
+    {
+        currentText.append(getTrailingBoilerPlate());
+        String text = currentText.toString();
+        currentText = null;
+
+        String digest = digest(text);
+        File file = new File(outputDir, getFilename(currentNumber));
+        if (!digest.equals(currentDigest) || !file.exists())
+        {
+            writes.add(writers.submit(new FileWriter(file, text)));
+            filesChanged++;
+        }
+
+        manifest.add(new ManifestEntry(currentNumber, fileLastKey, digest));
         fileCount++;
     }
 
@@ -152,8 +319,43 @@ public abstract class AbstractGenerator
      */
     public int finish() throws IOException
     {
+        if (currentText == null)
+        {
+            startNewFile();
+        }
         closeCurrentFile();
 
+        // files of the last run whose keys are all gone are left empty
+        while (nextPrevious < previous.size())
+        {
+            startNewFile();
+            closeCurrentFile();
+        }
+
+        try
+        {
+            for (Future<Object> write : writes)
+            {
+                write.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("Interrupted writing sitemap files");
+        }
+        catch (ExecutionException e)
+        {
+            IOException ioe = new IOException("Error writing sitemap files: " + e.getCause());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+        finally
+        {
+            writers.shutdown();
+        }
+
+        log.info("Wrote " + filesChanged + " of " + fileCount + " sitemap files to " + outputDir);
+
         OutputStream fo = new FileOutputStream(new File(outputDir,
                 getIndexFilename()));
 
@@ -165,10 +367,187 @@ public abstract class AbstractGenerator
         PrintStream out = new PrintStream(fo);
         writeIndex(out, fileCount);
         out.close();
-        
+
+        writeManifest();
+
         return fileCount;
     }
 
+    /**
+     * @return the number of sitemap files whose contents changed, and were
+     *         written, by the last call to {@link #finish()}.
+     */
+    public int getFilesChanged()
+    {
+        return filesChanged;
+    }
+
+    private File getManifestFile()
+    {
+        return new File(outputDir, getIndexFilename() + ".manifest");
+    }
+
+    /**
+     * Read the manifest of the last run.
+     * 
+     * @return the files of the last run in order of keys, or an empty list
+     *         if there is no usable manifest
+     */
+    private List<ManifestEntry> readManifest() throws IOException
+    {
+        List<ManifestEntry> entries = new ArrayList<ManifestEntry>();
+        File file = getManifestFile();
+        if (!file.exists())
+        {
+            return entries;
+        }
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.startsWith("#") || line.trim().length() == 0)
+                {
+                    continue;
+                }
+
+                String[] fields = line.trim().split("\\s+");
+                entries.add(new ManifestEntry(Integer.parseInt(fields[0]),
+                        Integer.parseInt(fields[1]), fields[2]));
+            }
+
+            // the files must be numbered from 0 with no gaps
+            boolean[] numbers = new boolean[entries.size()];
+            for (ManifestEntry entry : entries)
+            {
+                if (entry.number < 0 || entry.number >= numbers.length || numbers[entry.number])
+                {
+                    throw new NumberFormatException("file " + entry.number);
+                }
+                numbers[entry.number] = true;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Ignoring unusable sitemap manifest " + file + ": " + e);
+            entries.clear();
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return entries;
+    }
+
+    private void writeManifest() throws IOException
+    {
+        // written even if this run was not incremental, for the next one
+        File file = getManifestFile();
+        File temp = new File(file.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(new FileOutputStream(temp));
+        out.println("# sitemap file number, highest key, MD5 of contents");
+        for (ManifestEntry entry : manifest)
+        {
+            out.println(entry.number + " " + entry.lastKey + " " + entry.digest);
+        }
+        out.close();
+
+        if (file.exists() && !file.delete())
+        {
+            log.error("Unable to delete " + file);
+        }
+        if (!temp.renameTo(file))
+        {
+            throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+    }
+
+    private static String digest(String text) throws IOException
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            return Utils.toHex(md.digest(text.getBytes("UTF-8")));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A sitemap file of a run.
+     */
+    private static final class ManifestEntry
+    {
+        /** number of the file */
+        private final int number;
+
+        /** highest key of the URLs in the file */
+        private final int lastKey;
+
+        /** MD5 of the contents of the file */
+        private final String digest;
+
+        ManifestEntry(int number, int lastKey, String digest)
+        {
+            this.number = number;
+            this.lastKey = lastKey;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Writes a sitemap file, compressed if the generator uses compression.
+     * The file is written under another name and then renamed, so that it
+     * is never served half written.
+     */
+    private final class FileWriter implements Callable<Object>
+    {
+        private final File file;
+
+        private final String text;
+
+        FileWriter(File file, String text)
+        {
+            this.file = file;
+            this.text = text;
+        }
+
+        public Object call() throws IOException
+        {
+            File temp = new File(file.getPath() + ".tmp");
+
+            OutputStream fo = new FileOutputStream(temp);
+
+            if (useCompression())
+            {
+                fo = new GZIPOutputStream(fo);
+            }
+
+            PrintStream out = new PrintStream(fo);
+            out.print(text);
+            out.close();
+
+            if (out.checkError())
+            {
+                throw new IOException("Error writing " + temp);
+            }
+            if (file.exists() && !file.delete())
+            {
+                log.error("Unable to delete " + file);
+            }
+            if (!temp.renameTo(file))
+            {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+            return null;
+        }
+    }
+
     /**
      * Return marked-up text to be included in a sitemap about a given URL.
      * 
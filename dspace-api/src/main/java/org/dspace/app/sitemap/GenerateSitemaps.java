@@ -28,11 +28,13 @@ import org.apache.commons.cli.PosixParser;
 import org.apache.log4j.Logger;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
-import org.dspace.content.Item;
-import org.dspace.content.ItemIterator;
 import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
 
 /**
  * Command-line utility for generating HTML and Sitemaps.org protocol Sitemaps.
@@ -64,6 +66,8 @@ public class GenerateSitemaps
         options
                 .addOption("p", "ping", true,
                         "ping specified search engine URL");
+        options.addOption("f", "full", false,
+                "write all sitemap files, ignoring the manifest of the last run");
 
         CommandLine line = null;
 
@@ -107,7 +111,8 @@ public class GenerateSitemaps
         // Note the negation (CLI options indicate NOT to generate a sitemap)
         if (!line.hasOption('b') || !line.hasOption('s'))
         {
-            generateSitemaps(!line.hasOption('b'), !line.hasOption('s'));
+            generateSitemaps(!line.hasOption('b'), !line.hasOption('s'),
+                    !line.hasOption('f'));
         }
 
         if (line.hasOption('a'))
@@ -133,7 +138,8 @@ public class GenerateSitemaps
     }
 
     /**
-     * Generate sitemap.org protocol and/or basic HTML sitemaps.
+     * Generate sitemap.org protocol and/or basic HTML sitemaps, writing only
+     * the files which have changed since the last run.
      * 
      * @param makeHTMLMap
      *            if {@code true}, generate an HTML sitemap.
@@ -146,6 +152,33 @@ public class GenerateSitemaps
      */
     public static void generateSitemaps(boolean makeHTMLMap,
             boolean makeSitemapOrg) throws SQLException, IOException
+    {
+        generateSitemaps(makeHTMLMap, makeSitemapOrg, true);
+    }
+
+    /**
+     * Generate sitemap.org protocol and/or basic HTML sitemaps.
+     * <P>
+     * Items are put into sitemap files by ID, using the ranges of IDs of the
+     * files of the last run, so that a file only changes when one of its
+     * items is added, removed or modified.  Files whose contents have not
+     * changed are not written again.
+     * 
+     * @param makeHTMLMap
+     *            if {@code true}, generate an HTML sitemap.
+     * @param makeSitemapOrg
+     *            if {@code true}, generate an sitemap.org sitemap.
+     * @param incremental
+     *            if {@code false}, write all files, with the items divided
+     *            between them afresh
+     * @throws SQLException
+     *             if a database error occurs.
+     * @throws IOException
+     *             if IO error occurs.
+     */
+    public static void generateSitemaps(boolean makeHTMLMap,
+            boolean makeSitemapOrg, boolean incremental) throws SQLException,
+            IOException
     {
         String sitemapStem = ConfigurationManager.getProperty("dspace.url")
                 + "/sitemap";
@@ -159,6 +192,9 @@ public class GenerateSitemaps
         {
             log.error("Unable to create output directory");
         }
+
+        int threads = ConfigurationManager.getIntProperty("sitemap.threads",
+                Runtime.getRuntime().availableProcessors());
         
         AbstractGenerator html = null;
         AbstractGenerator sitemapsOrg = null;
@@ -167,12 +203,16 @@ public class GenerateSitemaps
         {
             html = new HTMLSitemapGenerator(outputDir, htmlMapStem + "?map=",
                     null);
+            html.setIncremental(incremental);
+            html.setThreads(threads);
         }
 
         if (makeSitemapOrg)
         {
             sitemapsOrg = new SitemapsOrgGenerator(outputDir, sitemapStem
                     + "?map=", null);
+            sitemapsOrg.setIncremental(incremental);
+            sitemapsOrg.setThreads(threads);
         }
 
         Context c = new Context();
@@ -209,26 +249,32 @@ public class GenerateSitemaps
             }
         }
 
-        ItemIterator allItems = Item.findAll(c);
+        // only the handle and date of each item are needed, so there is no
+        // need to instantiate the items
+        TableRowIterator allItems = DatabaseManager.queryStreaming(c,
+                "SELECT item.item_id, handle.handle, item.last_modified FROM item, handle "
+                        + "WHERE item.in_archive = '1' AND handle.resource_type_id = ? "
+                        + "AND handle.resource_id = item.item_id ORDER BY item.item_id",
+                Constants.ITEM);
         try
         {
             int itemCount = 0;
 
             while (allItems.hasNext())
             {
-                Item i = allItems.next();
-                String url = handleURLStem + i.getHandle();
-                Date lastMod = i.getLastModified();
+                TableRow row = allItems.next();
+                int itemID = row.getIntColumn("item_id");
+                String url = handleURLStem + row.getStringColumn("handle");
+                Date lastMod = row.getDateColumn("last_modified");
 
                 if (makeHTMLMap)
                 {
-                    html.addURL(url, lastMod);
+                    html.addURL(url, lastMod, itemID);
                 }
                 if (makeSitemapOrg)
                 {
-                    sitemapsOrg.addURL(url, lastMod);
+                    sitemapsOrg.addURL(url, lastMod, itemID);
                 }
-                i.decache();
 
                 itemCount++;
             }
@@ -237,7 +283,8 @@ public class GenerateSitemaps
             {
                 int files = html.finish();
                 log.info(LogManager.getHeader(c, "write_sitemap",
-                        "type=html,num_files=" + files + ",communities="
+                        "type=html,num_files=" + files + ",files_changed="
+                                + html.getFilesChanged() + ",communities="
                                 + comms.length + ",collections=" + colls.length
                                 + ",items=" + itemCount));
             }
@@ -246,7 +293,8 @@ public class GenerateSitemaps
             {
                 int files = sitemapsOrg.finish();
                 log.info(LogManager.getHeader(c, "write_sitemap",
-                        "type=html,num_files=" + files + ",communities="
+                        "type=html,num_files=" + files + ",files_changed="
+                                + sitemapsOrg.getFilesChanged() + ",communities="
                                 + comms.length + ",collections=" + colls.length
                                 + ",items=" + itemCount));
             }
@@ -0,0 +1,257 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.statistics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The counts gathered by LogAnalyser from one or more log files: the number
+ * of lines and warnings, the range of dates, and the number of times each
+ * action, search word, user login and item view occurred.  Counts are kept
+ * in one element arrays, so that counting does not create an Integer for
+ * every line.
+ * <P>
+ * The aggregates of separate log files are combined with
+ * <code>merge</code>.  An aggregate can be written to a checkpoint file and
+ * read back, so that log files which have already been analysed need not be
+ * read again.
+ *
+ * @version $Revision$
+ */
+class LogAggregate
+{
+    /** the number of times each action was performed */
+    final Map<String, int[]> actions = new HashMap<String, int[]>();
+
+    /** the number of searches for each search word */
+    final Map<String, int[]> searches = new HashMap<String, int[]>();
+
+    /** the number of logins of each user */
+    final Map<String, int[]> users = new HashMap<String, int[]>();
+
+    /** the number of views of each item, by handle */
+    final Map<String, int[]> items = new HashMap<String, int[]>();
+
+    /** the number of lines analysed */
+    int lines = 0;
+
+    /** the number of warnings */
+    int warnings = 0;
+
+    /** the date of the earliest line analysed, or null */
+    Date startDate = null;
+
+    /** the date of the latest line analysed, or null */
+    Date endDate = null;
+
+    /**
+     * Add one to the count of a key.
+     *
+     * @param map
+     *            the counts
+     * @param key
+     *            the key to count
+     */
+    static void increment(Map<String, int[]> map, String key)
+    {
+        add(map, key, 1);
+    }
+
+    private static void add(Map<String, int[]> map, String key, int count)
+    {
+        int[] counter = map.get(key);
+        if (counter == null)
+        {
+            map.put(key, new int[] { count });
+        }
+        else
+        {
+            counter[0] += count;
+        }
+    }
+
+    /**
+     * @param map
+     *            the counts
+     * @param key
+     *            a key
+     * @return the count of the key, which is 0 if it has not been counted
+     */
+    static int get(Map<String, int[]> map, String key)
+    {
+        int[] counter = map.get(key);
+        return counter == null ? 0 : counter[0];
+    }
+
+    /**
+     * Widen the range of dates to include the date of a line.
+     *
+     * @param date
+     *            the date of the line
+     */
+    void addDate(Date date)
+    {
+        if (startDate == null || date.before(startDate))
+        {
+            startDate = date;
+        }
+        if (endDate == null || date.after(endDate))
+        {
+            endDate = date;
+        }
+    }
+
+    /**
+     * Add the counts of another aggregate to this one.
+     *
+     * @param other
+     *            the aggregate to add
+     */
+    void merge(LogAggregate other)
+    {
+        lines += other.lines;
+        warnings += other.warnings;
+        if (other.startDate != null)
+        {
+            addDate(other.startDate);
+        }
+        if (other.endDate != null)
+        {
+            addDate(other.endDate);
+        }
+
+        merge(actions, other.actions);
+        merge(searches, other.searches);
+        merge(users, other.users);
+        merge(items, other.items);
+    }
+
+    private static void merge(Map<String, int[]> map, Map<String, int[]> other)
+    {
+        for (Map.Entry<String, int[]> entry : other.entrySet())
+        {
+            add(map, entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * Write the aggregate to a checkpoint file, ending with a line reading
+     * "end".
+     *
+     * @param out
+     *            the checkpoint file
+     */
+    void write(PrintWriter out)
+    {
+        out.println("lines=" + lines);
+        out.println("warnings=" + warnings);
+        if (startDate != null)
+        {
+            // in milliseconds, so that the times of day are kept too
+            out.println("start_date=" + startDate.getTime());
+            out.println("end_date=" + endDate.getTime());
+        }
+        write(out, "action.", actions);
+        write(out, "search.", searches);
+        write(out, "user.", users);
+        write(out, "item.", items);
+        out.println("end");
+    }
+
+    private static void write(PrintWriter out, String prefix, Map<String, int[]> map)
+    {
+        for (Map.Entry<String, int[]> entry : map.entrySet())
+        {
+            out.println(prefix + entry.getKey() + "=" + entry.getValue()[0]);
+        }
+    }
+
+    /**
+     * Read an aggregate written by <code>write</code>.
+     *
+     * @param in
+     *            the checkpoint file
+     * @return the aggregate, or null if the file ended before the whole
+     *         aggregate was read
+     * @throws IOException
+     *             if a line is not one written by <code>write</code>
+     */
+    static LogAggregate read(BufferedReader in) throws IOException
+    {
+        LogAggregate aggregate = new LogAggregate();
+
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            if (line.equals("end"))
+            {
+                return aggregate;
+            }
+
+            // keys (e.g. search words) may contain '=', values do not
+            int index = line.lastIndexOf('=');
+            if (index == -1)
+            {
+                throw new IOException("Invalid checkpoint line: " + line);
+            }
+            String key = line.substring(0, index);
+            String value = line.substring(index + 1);
+
+            try
+            {
+                if (key.equals("lines"))
+                {
+                    aggregate.lines = Integer.parseInt(value);
+                }
+                else if (key.equals("warnings"))
+                {
+                    aggregate.warnings = Integer.parseInt(value);
+                }
+                else if (key.equals("start_date"))
+                {
+                    aggregate.startDate = new Date(Long.parseLong(value));
+                }
+                else if (key.equals("end_date"))
+                {
+                    aggregate.endDate = new Date(Long.parseLong(value));
+                }
+                else if (key.startsWith("action."))
+                {
+                    add(aggregate.actions, key.substring(7), Integer.parseInt(value));
+                }
+                else if (key.startsWith("search."))
+                {
+                    add(aggregate.searches, key.substring(7), Integer.parseInt(value));
+                }
+                else if (key.startsWith("user."))
+                {
+                    add(aggregate.users, key.substring(5), Integer.parseInt(value));
+                }
+                else if (key.startsWith("item."))
+                {
+                    add(aggregate.items, key.substring(5), Integer.parseInt(value));
+                }
+                else
+                {
+                    throw new IOException("Invalid checkpoint line: " + line);
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Invalid checkpoint line: " + line);
+            }
+        }
+
+        return null;
+    }
+}
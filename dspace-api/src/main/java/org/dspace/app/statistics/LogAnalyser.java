@@ -10,6 +10,7 @@ package org.dspace.app.statistics;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.core.LogManager;
+import org.dspace.core.Utils;
 import org.dspace.storage.rdbms.DatabaseManager;
 import org.dspace.storage.rdbms.TableRow;
 
@@ -29,19 +30,33 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 
 /**
  * This class performs all the actual analysis of a given set of DSpace log
  * files.  Most input can be configured; use the -help flag for a full list
  * of usage information.
  *
+ * Log files are analysed in parallel, and the counts of each one are kept in
+ * a checkpoint file, so that they are only read again if they change.
+ *
  * The output of this file is plain text and forms an "aggregation" file which
  * can then be used for display purposes using the related ReportGenerator
  * class.
@@ -59,26 +74,14 @@ public class LogAnalyser
     // aggregators
     /////////////////
     
-    /** aggregator for all actions performed in the system */
-    private static Map<String, Integer> actionAggregator;
-    
-    /** aggregator for all searches performed */
-    private static Map<String, Integer> searchAggregator;
-    
-    /** aggregator for user logins */
-    private static Map<String, Integer> userAggregator;
-    
-    /** aggregator for item views */
-    private static Map<String, Integer> itemAggregator;
+    /**
+     * aggregator for all actions performed in the system, searches, user
+     * logins and item views, with the line and warning counters
+     */
+    private static LogAggregate aggregate;
     
     /** aggregator for current archive state statistics */
     private static Map<String, Integer> archiveStats;
-    
-    /** warning counter */
-    private static int warnCount = 0;
-    
-    /** log line counter */
-    private static int lineCount = 0;
         
     //////////////////
     // config data
@@ -202,12 +205,6 @@ public class LogAnalyser
         
    /** the end date of the report */
    private static Date endDate = null;
-        
-   /** the starting date of the report as obtained from the log files */
-   private static Date logStartDate = null;
-        
-   /** the end date of the report as obtained from the log files */
-   private static Date logEndDate = null;
 
     /**
      * main method to be run from command line.  See usage information for
@@ -307,10 +304,7 @@ public class LogAnalyser
         startTime = new GregorianCalendar();
                 
         //instantiate aggregators
-        actionAggregator = new HashMap<String, Integer>();
-        searchAggregator = new HashMap<String, Integer>();
-        userAggregator = new HashMap<String, Integer>();
-        itemAggregator = new HashMap<String, Integer>();
+        aggregate = new LogAggregate();
         archiveStats = new HashMap<String, Integer>();
         
         //instantiate lists
@@ -323,10 +317,6 @@ public class LogAnalyser
         // set the parameters for this analysis
         setParameters(myLogDir, myFileTemplate, myConfigFile, myOutFile, myStartDate, myEndDate, myLookUp);
         
-        // pre prepare our standard file readers and buffered readers
-        FileReader fr = null;
-        BufferedReader br = null;
-        
         // read in the config information, throwing an error if we fail to open
         // the given config file
         readConfig(configFile);
@@ -341,151 +331,13 @@ public class LogAnalyser
         // standard loop counter
         int i = 0;
         
-        // for every log file do analysis
+        // analyse the log files, and add up their counts
         // FIXME: it is easy to implement not processing log files after the
         // dates exceed the end boundary, but is there an easy way to do it
         // for the start of the file?  Note that we can assume that the contents
         // of the log file are sequential, but can we assume the files are
         // provided in a data sequence?
-        for (i = 0; i < logFiles.length; i++)
-        {
-            // check to see if this file is a log file agains the global regex
-            Matcher matchRegex = logRegex.matcher(logFiles[i].getName());
-            if (matchRegex.matches())
-            {
-                // if it is a log file, open it up and lets have a look at the
-                // contents.
-                try 
-                {  
-                    fr = new FileReader(logFiles[i].toString());  
-                    br = new BufferedReader(fr);
-                } 
-                catch (IOException e) 
-                {  
-                    System.out.println("Failed to read log file " + logFiles[i].toString());
-                    System.exit(0);
-                } 
-
-                // for each line in the file do the analysis
-                // FIXME: perhaps each section needs to be dolled out to an
-                // analysing class to allow pluggability of other methods of
-                // analysis, and ease of code reading too - Pending further thought
-                String line = null;
-                while ((line = br.readLine()) != null)
-                {
-                    // get the log line object
-                    LogLine logLine = getLogLine(line);
-                    
-                    // if there are line segments get on with the analysis
-                    if (logLine != null)
-                    {
-                        // first find out if we are constraining by date and 
-                        // if so apply the restrictions
-                        if ((startDate != null) && (!logLine.afterDate(startDate)))
-                        {
-                            continue;
-                        }
-                        
-                        if ((endDate !=null) && (!logLine.beforeDate(endDate)))
-                        {
-                            break;
-                        }
-                        
-                        // count the number of lines parsed
-                        lineCount++;
-                        
-                        // if we are not constrained by date, register the date
-                        // as the start/end date if it is the earliest/latest so far
-                        // FIXME: this should probably have a method of its own
-                        if (startDate == null)
-                        {
-                            if (logStartDate != null)
-                            {
-                                if (logLine.beforeDate(logStartDate))
-                                {
-                                    logStartDate = logLine.getDate();
-                                }
-                            }
-                            else
-                            {
-                                logStartDate = logLine.getDate();
-                            }
-                        }
-                        
-                        if (endDate == null)
-                        {
-                            if (logEndDate != null)
-                            {
-                                if (logLine.afterDate(logEndDate))
-                                {
-                                    logEndDate = logLine.getDate();
-                                }
-                            }
-                            else
-                            {
-                                logEndDate = logLine.getDate();
-                            }
-                        }
-                        
-                        // count the warnings
-                        if (logLine.isLevel("WARN"))
-                        {
-                            // FIXME: really, this ought to be some kind of level
-                            // aggregator
-                            warnCount++;
-                        }
-
-                        // is the action a search?
-                        if (logLine.isAction("search"))
-                        {
-                            // get back all the valid search words from the query
-                            String[] words = analyseQuery(logLine.getParams());
-                            
-                            // for each search word add to the aggregator or
-                            // increment the aggregator's counter
-                            for (int j = 0; j < words.length; j++)
-                            {
-                                // FIXME: perhaps aggregators ought to be objects
-                                // themselves
-                                searchAggregator.put(words[j], increment(searchAggregator, words[j]));
-                            }
-                        }
-
-                        // is the action a login, and are we counting user logins?
-                        if (logLine.isAction("login") && !userEmail.equals("off"))
-                        {
-                            userAggregator.put(logLine.getUser(), increment(userAggregator, logLine.getUser()));
-                        }
-
-                        // is the action an item view?
-                        if (logLine.isAction("view_item"))
-                        {
-                            String handle = logLine.getParams();
-
-                            // strip the handle string
-                            Matcher matchHandle = handleRX.matcher(handle);
-                            handle = matchHandle.replaceAll("");
-                            
-                            // strip the item id string
-                            Matcher matchItem = itemRX.matcher(handle);
-                            handle = matchItem.replaceAll("").trim();
-
-                            // either add the handle to the aggregator or
-                            // increment its counter
-                            itemAggregator.put(handle, increment(itemAggregator, handle));
-                        }
-
-                        // log all the activity
-                        actionAggregator.put(logLine.getAction(), increment(actionAggregator, logLine.getAction()));
-                    }
-                }
-
-                // close the file reading buffers
-                br.close();
-                fr.close();
-
-            }
-        }
+        analyseLogFiles(logFiles);
         
         // do we want to do a database lookup?  Do so only if the start and
         // end dates are null or lookUp is true
@@ -513,7 +365,7 @@ public class LogAnalyser
             // FIXME: this is dependent on their being a query on the db, which
             // there might not always be if it becomes configurable
             Double avg = Math.ceil(
-                            (actionAggregator.get("view_item")).doubleValue() /
+                            (double) LogAggregate.get(aggregate.actions, "view_item") /
                             (archiveStats.get("All Items")).doubleValue());
             views = avg.intValue();
         }
@@ -525,6 +377,190 @@ public class LogAnalyser
     }
    
     
+    /**
+     * Analyse the log files whose names match the file template, one file
+     * per thread (<code>report.analyser.threads</code> in dspace.cfg,
+     * default the number of processors), and add their counts to the
+     * aggregate.  Gzipped log files (ending in ".gz") are read as they are.
+     * <P>
+     * The counts of each log file are saved in a checkpoint file next to the
+     * output file as soon as it has been analysed.  On the next run with the
+     * same dates and config file, log files which have not changed since are
+     * not read again.
+     *
+     * @param   logFiles    the files in the log directory
+     */
+    private static void analyseLogFiles(File[] logFiles)
+        throws IOException
+    {
+        File checkpointFile = new File(outFile + ".checkpoint");
+        String signature = getSignature();
+        Map<String, LogAggregate> analysed = readCheckpoint(checkpointFile, signature);
+        Map<String, LogAggregate> kept = new HashMap<String, LogAggregate>();
+        List<File> toAnalyse = new ArrayList<File>();
+        
+        for (int i = 0; i < logFiles.length; i++)
+        {
+            // check to see if this file is a log file agains the global regex
+            Matcher matchRegex = logRegex.matcher(logFiles[i].getName());
+            if (matchRegex.matches())
+            {
+                LogAggregate fileAggregate = analysed.get(getCheckpointKey(logFiles[i]));
+                if (fileAggregate != null)
+                {
+                    kept.put(getCheckpointKey(logFiles[i]), fileAggregate);
+                    aggregate.merge(fileAggregate);
+                }
+                else
+                {
+                    toAnalyse.add(logFiles[i]);
+                }
+            }
+        }
+        
+        if (!kept.isEmpty())
+        {
+            System.out.println("Using counts from " + checkpointFile + " for "
+                    + kept.size() + " log files");
+        }
+        
+        // start the checkpoint again, with the log files still to be counted
+        Checkpoint checkpoint = new Checkpoint(checkpointFile, signature, kept);
+        
+        int threads = ConfigurationManager.getIntProperty("report.analyser.threads",
+                Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try
+        {
+            List<Future<LogAggregate>> results = new ArrayList<Future<LogAggregate>>();
+            for (File logFile : toAnalyse)
+            {
+                results.add(executor.submit(new FileAnalyser(logFile, checkpoint)));
+            }
+            
+            for (Future<LogAggregate> result : results)
+            {
+                aggregate.merge(result.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("Interrupted analysing log files");
+        }
+        catch (ExecutionException e)
+        {
+            IOException ioe = new IOException("Failed to read log file: " + e.getCause().getMessage());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            checkpoint.close();
+        }
+    }
+    
+    
+    /**
+     * @return  a description of the parameters the counts of log files
+     *          depend on: the dates of the analysis, and the config file
+     */
+    private static String getSignature()
+        throws IOException
+    {
+        File config = new File(configFile);
+        byte[] contents = new byte[(int) config.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(config));
+        try
+        {
+            in.readFully(contents);
+        }
+        finally
+        {
+            in.close();
+        }
+        
+        return "start=" + (startDate == null ? "" : unParseDate(startDate))
+                + ",end=" + (endDate == null ? "" : unParseDate(endDate))
+                + ",config=" + Utils.getMD5(contents);
+    }
+    
+    
+    /**
+     * @param   logFile     a log file
+     * @return  the key of the log file in the checkpoint, which changes if
+     *          the file does
+     */
+    private static String getCheckpointKey(File logFile)
+    {
+        return logFile.getName() + "|" + logFile.length() + "|" + logFile.lastModified();
+    }
+    
+    
+    /**
+     * read the counts of the log files analysed by earlier runs
+     *
+     * @param   checkpointFile  the checkpoint file
+     * @param   signature   the parameters of this analysis
+     * @return  the counts of each log file, by checkpoint key; empty if
+     *          there is no checkpoint, or it is for other parameters
+     */
+    private static Map<String, LogAggregate> readCheckpoint(File checkpointFile,
+                                                            String signature)
+    {
+        Map<String, LogAggregate> analysed = new HashMap<String, LogAggregate>();
+        if (!checkpointFile.exists())
+        {
+            return analysed;
+        }
+        
+        try
+        {
+            BufferedReader in = new BufferedReader(new FileReader(checkpointFile));
+            try
+            {
+                String line = in.readLine();
+                while (line != null && line.startsWith("#"))
+                {
+                    line = in.readLine();
+                }
+                if (line == null || !line.equals("signature=" + signature))
+                {
+                    // the dates or the config file have changed
+                    return analysed;
+                }
+                
+                while ((line = in.readLine()) != null)
+                {
+                    if (!line.startsWith("file="))
+                    {
+                        throw new IOException("Invalid checkpoint line: " + line);
+                    }
+                    
+                    // a run which failed may have left the last one unfinished
+                    LogAggregate fileAggregate = LogAggregate.read(in);
+                    if (fileAggregate == null)
+                    {
+                        break;
+                    }
+                    analysed.put(line.substring(5), fileAggregate);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (Exception e)
+        {
+            System.out.println("Ignoring checkpoint file " + checkpointFile + ": " + e.getMessage());
+            analysed.clear();
+        }
+        
+        return analysed;
+    }
+   
+    
     /**
      * set the passed parameters up as global class variables.  This has to
      * be done in a separate method because the API permits for running from
@@ -590,10 +626,10 @@ public class LogAnalyser
         Iterator<String> keys = null;
         
         // output the number of lines parsed
-        summary.append("log_lines=" + Integer.toString(lineCount) + "\n");
+        summary.append("log_lines=" + Integer.toString(aggregate.lines) + "\n");
         
         // output the number of warnings encountered
-        summary.append("warnings=" + Integer.toString(warnCount) + "\n");
+        summary.append("warnings=" + Integer.toString(aggregate.warnings) + "\n");
         
         // set the general summary config up in the aggregator file
         for (int i = 0; i < generalSummary.size(); i++)
@@ -614,18 +650,18 @@ public class LogAnalyser
         {
             summary.append("start_date=" + sdf.format(startDate) + "\n");
         }
-        else if (logStartDate != null)
+        else if (aggregate.startDate != null)
         {
-            summary.append("start_date=" + sdf.format(logStartDate) + "\n");
+            summary.append("start_date=" + sdf.format(aggregate.startDate) + "\n");
         }
         
         if (endDate != null)
         {
             summary.append("end_date=" + sdf.format(endDate) + "\n");
         }
-        else if (logEndDate != null)
+        else if (aggregate.endDate != null)
         {
-            summary.append("end_date=" + sdf.format(logEndDate) + "\n");
+            summary.append("end_date=" + sdf.format(aggregate.endDate) + "\n");
         }
         
         // write out the archive stats
@@ -637,18 +673,18 @@ public class LogAnalyser
         }
         
         // write out the action aggregation results
-        keys = actionAggregator.keySet().iterator();
+        keys = aggregate.actions.keySet().iterator();
         while (keys.hasNext())
         {
             String key = keys.next();
-            summary.append("action." + key + "=" + actionAggregator.get(key) + "\n");
+            summary.append("action." + key + "=" + LogAggregate.get(aggregate.actions, key) + "\n");
         }
         
         // depending on the config settings for reporting on emails output the
         // login information
         summary.append("user_email=" + userEmail + "\n");
         int address = 1;
-        keys = userAggregator.keySet().iterator();
+        keys = aggregate.users.keySet().iterator();
 
         // for each email address either write out the address and the count
         // or alias it with an "Address X" label, to keep the data confidential
@@ -659,11 +695,11 @@ public class LogAnalyser
             summary.append("user.");
             if (userEmail.equals("on"))
             {
-                summary.append(key + "=" + userAggregator.get(key) + "\n");
+                summary.append(key + "=" + LogAggregate.get(aggregate.users, key) + "\n");
             }
             else if (userEmail.equals("alias"))
             {
-                summary.append("Address " + Integer.toString(address++) + "=" + userAggregator.get(key) + "\n");
+                summary.append("Address " + Integer.toString(address++) + "=" + LogAggregate.get(aggregate.users, key) + "\n");
             }
         }
         
@@ -673,13 +709,14 @@ public class LogAnalyser
         
         // output the search word information
         summary.append("search_floor=" + searchFloor + "\n");
-        keys = searchAggregator.keySet().iterator();
+        keys = aggregate.searches.keySet().iterator();
         while (keys.hasNext())
         {
             String key = keys.next();
-            if ((searchAggregator.get(key)).intValue() >= searchFloor)
+            int count = LogAggregate.get(aggregate.searches, key);
+            if (count >= searchFloor)
             {
-                summary.append("search." + key + "=" + searchAggregator.get(key) + "\n");
+                summary.append("search." + key + "=" + count + "\n");
             }
         }
         
@@ -696,13 +733,14 @@ public class LogAnalyser
         summary.append("item_lookup=" + itemLookup + "\n");
         
         // write out the item access information
-        keys = itemAggregator.keySet().iterator();
+        keys = aggregate.items.keySet().iterator();
         while (keys.hasNext())
         {
             String key = keys.next();
-            if ((itemAggregator.get(key)).intValue() >= itemFloor)
+            int count = LogAggregate.get(aggregate.items, key);
+            if (count >= itemFloor)
             {
-                summary.append("item." + key + "=" + itemAggregator.get(key) + "\n");
+                summary.append("item." + key + "=" + count + "\n");
             }
         }
         
@@ -872,10 +910,7 @@ public class LogAnalyser
     public static void readConfig(String configFile) throws IOException
     {
         //instantiate aggregators
-        actionAggregator = new HashMap<String, Integer>();
-        searchAggregator = new HashMap<String, Integer>();
-        userAggregator = new HashMap<String, Integer>();
-        itemAggregator = new HashMap<String, Integer>();
+        aggregate = new LogAggregate();
         archiveStats = new HashMap<String, Integer>();
 
         //instantiate lists
@@ -919,7 +954,7 @@ public class LogAnalyser
                 // documentation for more info on config params)
                 if (key.equals("general.summary"))
                 {
-                    actionAggregator.put(value, Integer.valueOf(0));
+                    aggregate.actions.put(value, new int[1]);
                     generalSummary.add(value);
                 }
                 
@@ -1106,35 +1141,7 @@ public class LogAnalyser
      */
     public static LogLine getLogLine(String line)
     {
-        // FIXME: consider moving this code into the LogLine class.  To do this
-        // we need to much more carefully define the structure and behaviour
-        // of the LogLine class
-        Matcher match;
-        
-        if (line.indexOf(":ip_addr") > 0)
-        {
-            match = valid14.matcher(line);
-        }
-        else
-        {
-            match = valid13.matcher(line);
-        }
-        
-        if (match.matches())
-        {
-            // set up a new log line object
-            LogLine logLine = new LogLine(parseDate(match.group(1).trim()),
-                                          LogManager.unescapeLogField(match.group(2)).trim(),
-                                          LogManager.unescapeLogField(match.group(3)).trim(),
-                                          LogManager.unescapeLogField(match.group(4)).trim(),
-                                          LogManager.unescapeLogField(match.group(5)).trim());
-            
-            return logLine;
-        }
-        else
-        {
-            return null;
-        }
+        return new LineParser().parse(line);
     }
  
     
@@ -1301,6 +1308,7 @@ public class LogAnalyser
                             "\tSpecify a regular expression as the file name template.\n" +
                             "\tCurrently this needs to be correctly escaped for Java string handling (FIXME)\n" +
                             "\tDefault uses dspace.log*\n" +
+                            "\tLog files ending in .gz are read without unzipping them\n" +
                         "-cfg [config file path]\n" +
                             "\tOptional\n" +
                             "\tSpecify a config file to be used\n" +
@@ -1309,6 +1317,9 @@ public class LogAnalyser
                             "\tOptional\n" +
                             "\tSpecify an output file to write results into\n" +
                             "\tDefault uses dstat.dat in dspace log directory\n" +
+                            "\tThe counts of each log file are kept in [output file].checkpoint,\n" +
+                            "\tso that log files which have not changed are not read again.\n" +
+                            "\tDelete it to analyse all the log files again\n" +
                         "-start [YYYY-MM-DD]\n" +
                             "\tOptional\n" +
                             "\tSpecify the start date of the analysis\n" +
@@ -1332,4 +1343,267 @@ public class LogAnalyser
         
         System.out.println(usage);
     }
+    
+    
+    /**
+     * Analyses one log file, giving its counts.
+     */
+    private static class FileAnalyser implements Callable<LogAggregate>
+    {
+        /** the log file */
+        private final File logFile;
+        
+        /** where to save the counts */
+        private final Checkpoint checkpoint;
+        
+        FileAnalyser(File logFile, Checkpoint checkpoint)
+        {
+            this.logFile = logFile;
+            this.checkpoint = checkpoint;
+        }
+        
+        public LogAggregate call() throws IOException
+        {
+            String checkpointKey = getCheckpointKey(logFile);
+            LogAggregate fileAggregate = new LogAggregate();
+            LineParser parser = new LineParser();
+            
+            InputStream in = new FileInputStream(logFile);
+            if (logFile.getName().endsWith(".gz"))
+            {
+                in = new GZIPInputStream(in, 65536);
+            }
+            BufferedReader br = new BufferedReader(new InputStreamReader(in), 65536);
+            
+            try
+            {
+                // for each line in the file do the analysis
+                // FIXME: perhaps each section needs to be dolled out to an
+                // analysing class to allow pluggability of other methods of
+                // analysis, and ease of code reading too - Pending further thought
+                String line = null;
+                while ((line = br.readLine()) != null)
+                {
+                    // get the log line object
+                    LogLine logLine = parser.parse(line);
+                    
+                    // if there are line segments get on with the analysis
+                    if (logLine == null)
+                    {
+                        continue;
+                    }
+                    
+                    // first find out if we are constraining by date and 
+                    // if so apply the restrictions
+                    if ((startDate != null) && (!logLine.afterDate(startDate)))
+                    {
+                        continue;
+                    }
+                    
+                    if ((endDate !=null) && (!logLine.beforeDate(endDate)))
+                    {
+                        break;
+                    }
+                    
+                    // count the number of lines parsed, and register the
+                    // date as the start/end date if it is the earliest/latest
+                    // so far
+                    fileAggregate.lines++;
+                    fileAggregate.addDate(logLine.getDate());
+                    
+                    // count the warnings
+                    if (logLine.isLevel("WARN"))
+                    {
+                        // FIXME: really, this ought to be some kind of level
+                        // aggregator
+                        fileAggregate.warnings++;
+                    }
+                    
+                    // is the action a search?
+                    if (logLine.isAction("search"))
+                    {
+                        // get back all the valid search words from the query
+                        String[] words = analyseQuery(logLine.getParams());
+                        
+                        // for each search word add to the aggregator or
+                        // increment the aggregator's counter
+                        for (int j = 0; j < words.length; j++)
+                        {
+                            LogAggregate.increment(fileAggregate.searches, words[j]);
+                        }
+                    }
+                    
+                    // is the action a login, and are we counting user logins?
+                    if (logLine.isAction("login") && !userEmail.equals("off"))
+                    {
+                        LogAggregate.increment(fileAggregate.users, logLine.getUser());
+                    }
+                    
+                    // is the action an item view?
+                    if (logLine.isAction("view_item"))
+                    {
+                        LogAggregate.increment(fileAggregate.items,
+                                parser.getHandle(logLine.getParams()));
+                    }
+                    
+                    // log all the activity
+                    LogAggregate.increment(fileAggregate.actions, logLine.getAction());
+                }
+            }
+            finally
+            {
+                br.close();
+            }
+            
+            checkpoint.add(checkpointKey, fileAggregate);
+            return fileAggregate;
+        }
+    }
+    
+    
+    /**
+     * Splits log lines into their segments, reusing its matchers from line
+     * to line.  Each thread needs its own.
+     */
+    private static class LineParser
+    {
+        private final Matcher match13 = valid13.matcher("");
+        
+        private final Matcher match14 = valid14.matcher("");
+        
+        private final Matcher matchHandle = handleRX.matcher("");
+        
+        private final Matcher matchItem = itemRX.matcher("");
+        
+        /** the date of the last line parsed, since it is usually the same */
+        private String lastDateString = null;
+        
+        private Date lastDate = null;
+        
+        /**
+         * split the given line into it's relevant segments if applicable
+         * (i.e. the line matches the required regular expression.
+         *
+         * @param   line    the line to be segmented
+         * @return          a Log Line object for the given line, or null
+         */
+        LogLine parse(String line)
+        {
+            // FIXME: consider moving this code into the LogLine class.  To do this
+            // we need to much more carefully define the structure and behaviour
+            // of the LogLine class
+            Matcher match;
+            
+            if (line.indexOf(":ip_addr") > 0)
+            {
+                match = match14.reset(line);
+            }
+            else
+            {
+                match = match13.reset(line);
+            }
+            
+            if (match.matches())
+            {
+                String dateString = match.group(1).trim();
+                if (!dateString.equals(lastDateString))
+                {
+                    lastDate = parseDate(dateString);
+                    lastDateString = dateString;
+                }
+                
+                // set up a new log line object
+                return new LogLine(lastDate,
+                                   LogManager.unescapeLogField(match.group(2)).trim(),
+                                   LogManager.unescapeLogField(match.group(3)).trim(),
+                                   LogManager.unescapeLogField(match.group(4)).trim(),
+                                   LogManager.unescapeLogField(match.group(5)).trim());
+            }
+            else
+            {
+                return null;
+            }
+        }
+        
+        /**
+         * @param   params  the parameters of a view_item line
+         * @return  the handle of the item viewed
+         */
+        String getHandle(String params)
+        {
+            // strip the handle string
+            String handle = matchHandle.reset(params).replaceAll("");
+            
+            // strip the item id string
+            return matchItem.reset(handle).replaceAll("").trim();
+        }
+    }
+    
+    
+    /**
+     * The checkpoint file, holding the counts of each log file analysed.  It
+     * is rewritten with the counts still current when a run starts, and the
+     * counts of each log file are added as soon as it has been analysed, so
+     * that a run which fails part way through can be resumed.
+     */
+    private static class Checkpoint
+    {
+        private final PrintWriter out;
+        
+        /**
+         * Start the checkpoint file.
+         *
+         * @param   checkpointFile  the file
+         * @param   signature   the parameters of this analysis
+         * @param   kept    the counts of log files from earlier runs which
+         *                  are still current, by checkpoint key
+         */
+        Checkpoint(File checkpointFile, String signature, Map<String, LogAggregate> kept)
+            throws IOException
+        {
+            File temp = new File(checkpointFile.getPath() + ".tmp");
+            PrintWriter tempOut = new PrintWriter(new BufferedWriter(new FileWriter(temp)));
+            tempOut.println("# LogAnalyser checkpoint: the counts of the log files analysed so far");
+            tempOut.println("signature=" + signature);
+            for (Map.Entry<String, LogAggregate> entry : kept.entrySet())
+            {
+                tempOut.println("file=" + entry.getKey());
+                entry.getValue().write(tempOut);
+            }
+            tempOut.close();
+            if (tempOut.checkError())
+            {
+                throw new IOException("Unable to write checkpoint file " + temp);
+            }
+            
+            if (checkpointFile.exists() && !checkpointFile.delete())
+            {
+                throw new IOException("Unable to delete checkpoint file " + checkpointFile);
+            }
+            if (!temp.renameTo(checkpointFile))
+            {
+                throw new IOException("Unable to rename " + temp + " to " + checkpointFile);
+            }
+            
+            out = new PrintWriter(new BufferedWriter(new FileWriter(checkpointFile, true)));
+        }
+        
+        /**
+         * Save the counts of a log file.
+         *
+         * @param   checkpointKey   the key of the log file
+         * @param   fileAggregate   its counts
+         */
+        synchronized void add(String checkpointKey, LogAggregate fileAggregate)
+        {
+            out.println("file=" + checkpointKey);
+            fileAggregate.write(out);
+            out.flush();
+        }
+        
+        synchronized void close()
+        {
+            out.close();
+        }
+    }
 }
@@ -9,7 +9,12 @@ package org.dspace.authorize;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.dspace.content.DSpaceObject;
 import org.dspace.core.Constants;
@@ -37,6 +42,9 @@ import org.dspace.storage.rdbms.TableRowIterator;
  */
 public class AuthorizeManager
 {
+    /** Maximum number of objects whose policies are read with one query */
+    private static final int POLICY_BATCH_SIZE = 500;
+
     /**
      * Utility method, checks that the current user of the given context can
      * perform all of the specified actions on the given object. An
@@ -251,6 +259,233 @@ public class AuthorizeManager
         return isAuthorized;
     }
 
+    /**
+     * Check whether the current user can perform the given action on each of
+     * several objects, e.g. a page of search results or the bitstreams of an
+     * item. The result is the same as calling
+     * <code>authorizeActionBoolean(c, o, a)</code> for each object, but the
+     * policies of all of the objects are read with one query (per 500
+     * objects), and the ADMIN policies used for inheritance with one query
+     * per level of the hierarchy.
+     * 
+     * @param c
+     *            DSpace context, containing current user
+     * @param objects
+     *            the objects, which may include nulls
+     * @param a
+     *            action being attempted, from
+     *            <code>org.dspace.core.Constants</code>
+     * 
+     * @return a BitSet with bit i set if the current user is authorized to
+     *         perform the action on <code>objects[i]</code>
+     */
+    public static BitSet authorizeActionBoolean(Context c, DSpaceObject[] objects,
+            int a) throws SQLException
+    {
+        BitSet authorized = new BitSet(objects.length);
+
+        // authorization disabled, or a system admin?
+        if (c.ignoreAuthorization() || isAdmin(c))
+        {
+            for (int i = 0; i < objects.length; i++)
+            {
+                if (objects[i] != null)
+                {
+                    authorized.set(i);
+                }
+            }
+            return authorized;
+        }
+
+        Set<String> allowed = findAuthorized(c, objects, a);
+        for (int i = 0; i < objects.length; i++)
+        {
+            if (objects[i] != null && allowed.contains(policyKey(objects[i])))
+            {
+                authorized.set(i);
+            }
+        }
+
+        // the rest may be allowed by ADMIN on the object or its parents
+        if (c.getCurrentUser() != null)
+        {
+            DSpaceObject[] adminObjects = new DSpaceObject[objects.length];
+            for (int i = 0; i < objects.length; i++)
+            {
+                if (objects[i] != null && !authorized.get(i))
+                {
+                    adminObjects[i] = objects[i].getAdminObject(a);
+                }
+            }
+
+            authorized.or(isAdmin(c, adminObjects));
+        }
+
+        return authorized;
+    }
+
+    /**
+     * Check whether the current user is an Administrator of each of several
+     * objects, through ADMIN policies on the objects or their parents. This
+     * is the same as <code>isAdmin(c, o)</code> for each object, apart from
+     * not checking whether the user is a System Admin.
+     * 
+     * @param c
+     *            current context
+     * @param objects
+     *            the objects, which may include nulls
+     * @return a BitSet with bit i set if the user is an Administrator of
+     *         <code>objects[i]</code>
+     */
+    private static BitSet isAdmin(Context c, DSpaceObject[] objects)
+            throws SQLException
+    {
+        BitSet admin = new BitSet(objects.length);
+
+        // walk up the hierarchy a level at a time, checking the objects
+        // (or their parents) which are not yet known to be administered
+        DSpaceObject[] level = objects.clone();
+        boolean more = true;
+        while (more)
+        {
+            Set<String> allowed = findAuthorized(c, level, Constants.ADMIN);
+
+            more = false;
+            for (int i = 0; i < level.length; i++)
+            {
+                if (level[i] == null)
+                {
+                    continue;
+                }
+
+                if (allowed.contains(policyKey(level[i])))
+                {
+                    admin.set(i);
+                    level[i] = null;
+                }
+                else
+                {
+                    level[i] = level[i].getParentObject();
+                    more |= (level[i] != null);
+                }
+            }
+        }
+
+        return admin;
+    }
+
+    /**
+     * Find which of several objects have a date-valid policy for the given
+     * action which applies to the current user, either directly or through
+     * one of the user's groups.
+     * 
+     * @param c
+     *            current context
+     * @param objects
+     *            the objects, which may include nulls
+     * @param actionID
+     *            action (defined in class Constants)
+     * @return the keys (see <code>policyKey</code>) of the objects
+     */
+    private static Set<String> findAuthorized(Context c, DSpaceObject[] objects,
+            int actionID) throws SQLException
+    {
+        Set<String> allowed = new HashSet<String>();
+
+        // the distinct objects, by key
+        Map<String, DSpaceObject> distinct = new LinkedHashMap<String, DSpaceObject>();
+        for (DSpaceObject o : objects)
+        {
+            if (o != null)
+            {
+                distinct.put(policyKey(o), o);
+            }
+        }
+        if (distinct.isEmpty())
+        {
+            return allowed;
+        }
+
+        EPerson e = c.getCurrentUser();
+        int userid = (e == null) ? 0 : e.getID();
+
+        List<DSpaceObject> all = new ArrayList<DSpaceObject>(distinct.values());
+        for (int start = 0; start < all.size(); start += POLICY_BATCH_SIZE)
+        {
+            List<DSpaceObject> batch = all.subList(start,
+                    Math.min(start + POLICY_BATCH_SIZE, all.size()));
+
+            // one IN list of IDs for each type of object in the batch
+            Map<Integer, List<Integer>> idsByType = new LinkedHashMap<Integer, List<Integer>>();
+            for (DSpaceObject o : batch)
+            {
+                List<Integer> ids = idsByType.get(Integer.valueOf(o.getType()));
+                if (ids == null)
+                {
+                    ids = new ArrayList<Integer>();
+                    idsByType.put(Integer.valueOf(o.getType()), ids);
+                }
+                ids.add(Integer.valueOf(o.getID()));
+            }
+
+            StringBuilder query = new StringBuilder(
+                    "SELECT * FROM resourcepolicy WHERE action_id= ? AND (");
+            List<Object> parameters = new ArrayList<Object>();
+            parameters.add(Integer.valueOf(actionID));
+            boolean first = true;
+            for (Map.Entry<Integer, List<Integer>> type : idsByType.entrySet())
+            {
+                if (!first)
+                {
+                    query.append(" OR ");
+                }
+                first = false;
+
+                query.append("(resource_type_id= ? AND resource_id IN (");
+                parameters.add(type.getKey());
+                for (int i = 0; i < type.getValue().size(); i++)
+                {
+                    query.append((i == 0) ? "?" : ", ?");
+                    parameters.add(type.getValue().get(i));
+                }
+                query.append("))");
+            }
+            query.append(")");
+
+            TableRowIterator tri = DatabaseManager.queryTable(c, "resourcepolicy",
+                    query.toString(), parameters.toArray());
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    ResourcePolicy rp = toPolicy(c, tri.next());
+                    if (appliesTo(c, rp, userid))
+                    {
+                        allowed.add(rp.getResourceType() + ":" + rp.getResourceID());
+                    }
+                }
+            }
+            finally
+            {
+                if (tri != null)
+                {
+                    tri.close();
+                }
+            }
+        }
+
+        return allowed;
+    }
+
+    /**
+     * @return the key of an object in the sets returned by findAuthorized
+     */
+    private static String policyKey(DSpaceObject o)
+    {
+        return o.getType() + ":" + o.getID();
+    }
+
     /**
      * Check to see if the given user can perform the given action on the given
      * object. Always returns true if the ignore authorization flat is set in
@@ -306,21 +541,9 @@ public class AuthorizeManager
 
         for (ResourcePolicy rp : getPoliciesActionFilter(c, o, action))
         {
-            // check policies for date validity
-            if (rp.isDateValid())
+            if (appliesTo(c, rp, userid))
             {
-                if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
-                {
-                    return true; // match
-                }
-
-                if ((rp.getGroupID() != -1)
-                        && (Group.isMember(c, rp.getGroupID())))
-                {
-                    // group was set, and eperson is a member
-                    // of that group
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -328,6 +551,38 @@ public class AuthorizeManager
         return false;
     }
 
+    /**
+     * Check whether a policy grants its action to the current user: it must
+     * be date-valid, and be for the user or for a group the user is a
+     * member of.
+     * 
+     * @param c
+     *            current context
+     * @param rp
+     *            the policy
+     * @param userid
+     *            ID of the current user, or 0 for anonymous
+     * @return <code>true</code> if the policy applies to the user
+     * @throws SQLException
+     */
+    private static boolean appliesTo(Context c, ResourcePolicy rp, int userid)
+            throws SQLException
+    {
+        // check policies for date validity
+        if (!rp.isDateValid())
+        {
+            return false;
+        }
+
+        if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
+        {
+            return true; // match
+        }
+
+        // group was set, and eperson is a member of that group
+        return (rp.getGroupID() != -1) && Group.isMember(c, rp.getGroupID());
+    }
+
     ///////////////////////////////////////////////
     // admin check methods
     ///////////////////////////////////////////////
@@ -375,21 +630,9 @@ public class AuthorizeManager
         
         for (ResourcePolicy rp : policies)
         {
-            // check policies for date validity
-            if (rp.isDateValid())
+            if (appliesTo(c, rp, userid))
             {
-                if ((rp.getEPersonID() != -1) && (rp.getEPersonID() == userid))
-                {
-                    return true; // match
-                }
-
-                if ((rp.getGroupID() != -1)
-                        && (Group.isMember(c, rp.getGroupID())))
-                {
-                    // group was set, and eperson is a member
-                    // of that group
-                    return true;
-                }
+                return true;
             }
         }
 
@@ -518,20 +761,7 @@ public class AuthorizeManager
         {
             while (tri.hasNext())
             {
-                TableRow row = tri.next();
-
-                // first check the cache (FIXME: is this right?)
-                ResourcePolicy cachepolicy = (ResourcePolicy) c.fromCache(
-                        ResourcePolicy.class, row.getIntColumn("policy_id"));
-
-                if (cachepolicy != null)
-                {
-                    policies.add(cachepolicy);
-                }
-                else
-                {
-                    policies.add(new ResourcePolicy(c, row));
-                }
+                policies.add(toPolicy(c, tri.next()));
             }
         }
         finally
@@ -566,20 +796,7 @@ public class AuthorizeManager
         {
             while (tri.hasNext())
             {
-                TableRow row = tri.next();
-
-                // first check the cache (FIXME: is this right?)
-                ResourcePolicy cachepolicy = (ResourcePolicy) c.fromCache(
-                        ResourcePolicy.class, row.getIntColumn("policy_id"));
-
-                if (cachepolicy != null)
-                {
-                    policies.add(cachepolicy);
-                }
-                else
-                {
-                    policies.add(new ResourcePolicy(c, row));
-                }
+                policies.add(toPolicy(c, tri.next()));
             }
         }
         finally
@@ -619,20 +836,7 @@ public class AuthorizeManager
         {
             while (tri.hasNext())
             {
-                TableRow row = tri.next();
-
-                // first check the cache (FIXME: is this right?)
-                ResourcePolicy cachepolicy = (ResourcePolicy) c.fromCache(
-                        ResourcePolicy.class, row.getIntColumn("policy_id"));
-
-                if (cachepolicy != null)
-                {
-                    policies.add(cachepolicy);
-                }
-                else
-                {
-                    policies.add(new ResourcePolicy(c, row));
-                }
+                policies.add(toPolicy(c, tri.next()));
             }
         }
         finally
@@ -646,6 +850,27 @@ public class AuthorizeManager
         return policies;
     }
 
+    /**
+     * Get the policy read from a resourcepolicy row, from the Context's
+     * object cache if it is there.
+     * 
+     * @param c
+     *            context
+     * @param row
+     *            the resourcepolicy row
+     * @return the policy
+     * @throws SQLException
+     */
+    private static ResourcePolicy toPolicy(Context c, TableRow row)
+            throws SQLException
+    {
+        // first check the cache (FIXME: is this right?)
+        ResourcePolicy cachepolicy = (ResourcePolicy) c.fromCache(
+                ResourcePolicy.class, row.getIntColumn("policy_id"));
+
+        return (cachepolicy != null) ? cachepolicy : new ResourcePolicy(c, row);
+    }
+
     /**
      * Add policies to an object to match those from a previous object
      * 
@@ -113,6 +113,9 @@ public class BrowseConsumer implements Consumer
         
         if (toUpdate != null)
         {
+            // one indexer for the whole batch, so the browse configuration
+            // is only read once
+            IndexBrowse ib = new IndexBrowse(ctx);
 
             // Update/Add items
             for (ItemHolder i : toUpdate.values())
@@ -122,7 +125,6 @@ public class BrowseConsumer implements Consumer
                 {
                     // Update browse indices
                     ctx.turnOffAuthorisationSystem();
-                    IndexBrowse ib = new IndexBrowse(ctx);
                     ib.indexItem(i.item, i.createEvent);
                     ctx.restoreAuthSystemState();
                 }
@@ -140,11 +142,22 @@ public class BrowseConsumer implements Consumer
                 }
             }
 
-            // NOTE: Removed items are necessarily handled inline (ugh).
+            // remove the values that the updated items no longer use
+            try
+            {
+                ib.pruneUnusedValues();
+            }
+            catch (BrowseException e)
+            {
+                log.error("caught exception: ", e);
+            }
 
-            // browse updates wrote to the DB, so we have to commit.
-            ctx.getDBConnection().commit();
+            // NOTE: Removed items are necessarily handled inline (ugh).
 
+            // browse updates wrote to the DB; they are committed by the
+            // context which dispatched the events, which then tells the
+            // count cache that the totals of the browses may have changed
+            BrowseCountCache.invalidate(ctx);
         }
         
         // clean out toUpdate
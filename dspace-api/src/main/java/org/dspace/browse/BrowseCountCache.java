@@ -0,0 +1,205 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Process-wide cache of the total number of results of browses, keyed by
+ * the count query and its parameters (so by index, container, filter value
+ * and so on).  Every page of a browse needs the total, which otherwise costs
+ * a full count over the index and container.
+ *
+ * The cache is emptied whenever IndexBrowse changes the browse tables in this
+ * JVM, and again when the Context which did so commits or aborts, since
+ * other Contexts may have cached the previously committed totals in the
+ * meantime.  The cache is not used at all by a Context with such changes in
+ * progress, so uncommitted totals are never cached.  Entries also expire after <code>browse.count.cache.ttl</code> seconds
+ * (default 300), so that changes made by other processes are seen; setting
+ * it to 0 disables the cache.  The number of entries is limited by
+ * <code>browse.count.cache.size</code> (default 1000).
+ *
+ * @version $Revision$
+ */
+public class BrowseCountCache
+{
+    /** how long entries are kept, in milliseconds */
+    private static final long ttl;
+
+    /** the cached counts, in least recently used order */
+    private static final Map<String, Entry> counts;
+
+    /**
+     * Incremented on every invalidation, so that counts made while the
+     * browse tables were being changed are not cached
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /** Contexts which have changed the browse tables in their current transaction */
+    private static final Map<Context, Boolean> pending =
+            Collections.synchronizedMap(new WeakHashMap<Context, Boolean>());
+
+    static
+    {
+        ttl = Math.max(0, ConfigurationManager.getIntProperty("browse.count.cache.ttl", 300)) * 1000L;
+
+        final int size = ConfigurationManager.getIntProperty("browse.count.cache.size", 1000);
+        counts = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /** Not instantiable */
+    private BrowseCountCache()
+    {
+    }
+
+    /**
+     * Make the key for a count query.
+     *
+     * @param query     the SQL of the count query
+     * @param params    the parameters bound to the query
+     * @return  the key
+     */
+    static String key(String query, Object[] params)
+    {
+        return query + Arrays.toString(params);
+    }
+
+    /**
+     * Get the current generation of the cache.  This must be read before
+     * running the count query, and passed to <code>put</code>.
+     *
+     * @return  the number of invalidations so far
+     */
+    static long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Get a cached count.
+     *
+     * @param context   the Context running the count query
+     * @param key   the key of the count query
+     * @return  the count, or -1 if it is not cached
+     */
+    static int get(Context context, String key)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return -1;
+        }
+
+        synchronized (counts)
+        {
+            Entry entry = counts.get(key);
+            if (entry == null)
+            {
+                return -1;
+            }
+
+            if (System.currentTimeMillis() - entry.time > ttl)
+            {
+                counts.remove(key);
+                return -1;
+            }
+
+            return entry.count;
+        }
+    }
+
+    /**
+     * Cache a count, unless the browse tables have changed since
+     * <code>readGeneration</code>, or the Context has changed them in its
+     * current transaction.
+     *
+     * @param context   the Context which ran the count query
+     * @param key   the key of the count query
+     * @param count the count
+     * @param readGeneration    the value of <code>getGeneration()</code>
+     *                          before the count query was run
+     */
+    static void put(Context context, String key, int count, long readGeneration)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return;
+        }
+
+        synchronized (counts)
+        {
+            if (generation.get() == readGeneration)
+            {
+                counts.put(key, new Entry(count, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Forget all cached counts.  Called whenever the browse tables change;
+     * they are forgotten again when the Context commits or aborts.
+     *
+     * @param context   the Context changing the browse tables
+     */
+    static void invalidate(Context context)
+    {
+        pending.put(context, Boolean.TRUE);
+        clear();
+    }
+
+    /**
+     * Called when the given Context's transaction has been committed or
+     * rolled back.  If it changed the browse tables, the cached counts are
+     * forgotten, since other Contexts may have cached the previously
+     * committed totals.
+     *
+     * @param context   the Context whose transaction has ended
+     */
+    public static void endTransaction(Context context)
+    {
+        if (pending.remove(context) != null)
+        {
+            clear();
+        }
+    }
+
+    private static void clear()
+    {
+        synchronized (counts)
+        {
+            generation.incrementAndGet();
+            counts.clear();
+        }
+    }
+
+    private static final class Entry
+    {
+        private final int count;
+
+        private final long time;
+
+        Entry(int count, long time)
+        {
+            this.count = count;
+            this.time = time;
+        }
+    }
+}
@@ -208,6 +208,22 @@ public interface BrowseCreateDAO
      * @throws BrowseException
      */
     public String dropView(String view, boolean execute) throws BrowseException;
+
+    /**
+     * Rename the given table, along with its sequence (the table name followed by
+     * <code>_seq</code>) and any of its indexes whose names start with the table
+     * name.  This is used to swap a rebuilt browse table into the place of the
+     * one it replaces; where the database allows, this should be done within the
+     * current transaction.  If the boolean execute is true this operation should
+     * be carried out, and if it is false it should not.
+     *
+     * @param from          the current name of the table
+     * @param to            the new name of the table
+     * @param execute       whether to action the rename or not
+     * @return              The instructions (SQL) that effect the rename
+     * @throws BrowseException
+     */
+    public String[] renameTable(String from, String to, boolean execute) throws BrowseException;
     
 	/**
 	 * Create the sequence with the given name.  This is relevant to most forms of database, but not all.
@@ -131,12 +131,12 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
 
             if (value)
             {
-                array.add("CREATE INDEX " + table + "_value_idx ON " + table + "(sort_value);");
+                array.add("CREATE INDEX " + table + "_value_idx ON " + table + "(sort_value, item_id);");
             }
 
             for (Integer i : sortCols)
             {
-                array.add("CREATE INDEX " + table + "_s" + i + "_idx ON " + table + "(sort_" + i + ");");
+                array.add("CREATE INDEX " + table + "_s" + i + "_idx ON " + table + "(sort_" + i + ", item_id);");
             }
             
             if (execute)
@@ -165,7 +165,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         try
         {
             String[] arr = new String[5];
-            arr[0] = "CREATE INDEX " + disTable + "_svalue_idx ON " + disTable + "(sort_value)";
+            arr[0] = "CREATE INDEX " + disTable + "_svalue_idx ON " + disTable + "(sort_value, id)";
             arr[1] = "CREATE INDEX " + disTable + "_value_idx ON " + disTable + "(value)";
             arr[2] = "CREATE INDEX " + disTable + "_uvalue_idx ON " + disTable + "(UPPER(value))";
             arr[3] = "CREATE INDEX " + mapTable + "_item_id_idx ON " + mapTable + "(item_id)";
@@ -224,6 +224,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         try
         {
             Set<Integer> addDistinctIDs = null;
+            List<Object[]> removedMapIDs = new ArrayList<Object[]>();
 
             // Find all existing mappings for this item
             TableRowIterator tri = DatabaseManager.queryTable(context, table, "SELECT * FROM " + table + " WHERE item_id=?", itemID);
@@ -252,7 +253,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                         if (!itemIsMapped)
                         {
                             results.addRemovedDistinctId(trDistinctID);
-                            DatabaseManager.delete(context, tr);
+                            removedMapIDs.add(new Object[] { Integer.valueOf(tr.getIntColumn("map_id")) });
                         }
                     }
                 }
@@ -266,7 +267,10 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                 addDistinctIDs = distinctIDs;
             }
 
+            DatabaseManager.updateQueryBatch(context, "DELETE FROM " + table + " WHERE map_id=?", removedMapIDs);
+
             // Any remaining mappings need to be added to the database
+            List<TableRow> addedRows = new ArrayList<TableRow>();
             for (int distinctID : addDistinctIDs)
             {
                 if (distinctID > -1)
@@ -274,10 +278,11 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     TableRow row = DatabaseManager.row(table);
                     row.setColumn("item_id", itemID);
                     row.setColumn("distinct_id", distinctID);
-                    DatabaseManager.insert(context, row);
+                    addedRows.add(row);
                     results.addAddedDistinctId(distinctID);
                 }
             }
+            DatabaseManager.insertBatch(context, addedRows);
         }
         catch (SQLException e)
         {
@@ -458,6 +463,56 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameTable(java.lang.String, java.lang.String, boolean)
+     */
+    public String[] renameTable(String from, String to, boolean execute)
+        throws BrowseException
+    {
+        TableRowIterator tri = null;
+        try
+        {
+            List<String> renames = new ArrayList<String>();
+            renames.add("ALTER TABLE " + from + " RENAME TO " + to + ";");
+            renames.add("ALTER SEQUENCE " + from + "_seq RENAME TO " + to + "_seq;");
+
+            // indexes keep their names when the table is renamed, so
+            // rename those named after the table too
+            String prefix = from.toLowerCase();
+            tri = DatabaseManager.query(context, "SELECT indexname FROM pg_indexes WHERE tablename = ?", prefix);
+            while (tri.hasNext())
+            {
+                String index = tri.next().getStringColumn("indexname");
+                if (index != null && index.toLowerCase().startsWith(prefix))
+                {
+                    renames.add("ALTER INDEX " + index + " RENAME TO " + to + index.substring(prefix.length()) + ";");
+                }
+            }
+
+            if (execute)
+            {
+                for (String rename : renames)
+                {
+                    DatabaseManager.updateQuery(context, rename);
+                }
+            }
+
+            return renames.toArray(new String[renames.size()]);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#dropView(java.lang.String, boolean)
      */
@@ -588,6 +643,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
             }
 
             // Find all existing mappings for this item
+            List<Object[]> removedIDs = new ArrayList<Object[]>();
             TableRowIterator tri = DatabaseManager.queryTable(context, "Communities2Item", "SELECT * FROM Communities2Item WHERE item_id=?", itemID);
             if (tri != null)
             {
@@ -614,7 +670,7 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                         // The item is no longer mapped to this community, so remove the database record
                         if (!itemIsMapped)
                         {
-                            DatabaseManager.delete(context, tr);
+                            removedIDs.add(new Object[] { Integer.valueOf(tr.getIntColumn("id")) });
                         }
                     }
                 }
@@ -624,7 +680,10 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                 }
             }
 
+            DatabaseManager.updateQueryBatch(context, "DELETE FROM Communities2Item WHERE id=?", removedIDs);
+
             // Any remaining mappings need to be added to the database
+            List<TableRow> addedRows = new ArrayList<TableRow>();
             for (int i = 0; i < commID.length; i++)
             {
                 if (commID[i] > -1)
@@ -632,9 +691,10 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     TableRow row = DatabaseManager.row("Communities2Item");
                     row.setColumn("item_id", itemID);
                     row.setColumn("community_id", commID[i]);
-                    DatabaseManager.insert(context, row);
+                    addedRows.add(row);
                 }
             }
+            DatabaseManager.insertBatch(context, addedRows);
         }
         catch (SQLException e)
         {
@@ -778,9 +838,14 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                 {
                     TableRow tr = tri.next();
                     distinctIds.add(tr.getIntColumn("distinct_id"));
-                    DatabaseManager.delete(context, tr);
                 }
             }
+
+            // Remove all the mappings in one statement, rather than row by row
+            if (!distinctIds.isEmpty())
+            {
+                DatabaseManager.updateQuery(context, "DELETE FROM " + mapTable + " WHERE item_id=?", itemID);
+            }
         }
         catch (SQLException e)
         {
@@ -820,9 +885,9 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -918,9 +983,9 @@ public class BrowseCreateDAOPostgres implements BrowseCreateDAO
                     for (Integer distinctId : distinctIds)
                     {
                         stmt.setInt(1, distinctId);
-                        stmt.execute();
-                        stmt.clearParameters();
+                        stmt.addBatch();
                     }
+                    stmt.executeBatch();
                 }
                 finally
                 {
@@ -383,6 +383,31 @@ public interface BrowseDAO
      */
     public String getContainerTable();
 
+    /**
+     * Start the browse from a given row, rather than at an offset.  The
+     * results are the rows which come after the row in the browse order or,
+     * if backwards is true, the rows which come immediately before it (still
+     * returned in browse order).  The row is identified by its value in the
+     * order field and its id (the item id, or the distinct value id for a
+     * distinct browse), which are also used to order rows with the same
+     * value, so that every page can be read with a single range scan of the
+     * index.
+     *
+     * @param key       the row to start from, or null to browse by offset
+     * @param backwards true to return the rows before the key, false for
+     *                  the rows after it
+     */
+    public void setKeyset(BrowseKey key, boolean backwards);
+
+    /**
+     * Get the keys of the rows returned by the last call to doQuery or
+     * doValueQuery, in the same order as the results.  These can be passed to
+     * setKeyset to browse from any of the rows.
+     *
+     * @return  the keys of the last results
+     */
+    public List<BrowseKey> getResultKeys();
+
     public void setAuthorityValue(String value);
 
     public String getAuthorityValue();
@@ -10,6 +10,7 @@ package org.dspace.browse;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang.ArrayUtils;
@@ -101,6 +102,21 @@ public class BrowseDAOPostgres implements BrowseDAO
     /** whether this is a distinct browse or not */
     private boolean distinct = false;
 
+    /** the row to start a keyset browse from, or null to browse by offset */
+    private BrowseKey keysetKey = null;
+
+    /** whether to read the rows before the keyset row, rather than after it */
+    private boolean keysetBackwards = false;
+
+    /**
+     * which part of a keyset browse is being read: 1 for the rows with the
+     * same null-ness of order value as the key, 2 for the others
+     */
+    private int keysetPart = 1;
+
+    /** the keys of the rows returned by the last query */
+    private List<BrowseKey> resultKeys = new ArrayList<BrowseKey>();
+
     // administrative attributes for this class
 
     /** a cache of the actual query to be executed */
@@ -145,6 +161,15 @@ public class BrowseDAOPostgres implements BrowseDAO
             log.debug(LogManager.getHeader(context, "executing_count_query", "query=" + query));
         }
 
+        // the total is needed for every page of a browse, so is cached
+        String cacheKey = BrowseCountCache.key(query, params);
+        int cached = BrowseCountCache.get(context, cacheKey);
+        if (cached >= 0)
+        {
+            return cached;
+        }
+        long generation = BrowseCountCache.getGeneration();
+
         TableRowIterator tri = null;
 
         try
@@ -155,10 +180,13 @@ public class BrowseDAOPostgres implements BrowseDAO
             if (tri.hasNext())
             {
                 TableRow row = tri.next();
-                return (int) row.getLongColumn("num");
+                int count = (int) row.getLongColumn("num");
+                BrowseCountCache.put(context, cacheKey, count, generation);
+                return count;
             }
             else
             {
+                BrowseCountCache.put(context, cacheKey, 0, generation);
                 return 0;
             }
         }
@@ -344,25 +372,12 @@ public class BrowseDAOPostgres implements BrowseDAO
     public List<BrowseItem> doQuery()
         throws BrowseException
     {
-        String query = getQuery();
-        Object[] params = getQueryParams();
-
-        if (log.isDebugEnabled())
-        {
-            log.debug(LogManager.getHeader(context, "executing_full_query", "query=" + query));
-        }
-
-        TableRowIterator tri = null;
         try
         {
-            // now run the query
-            tri = DatabaseManager.query(context, query, params);
-
             // go over the query results and process
             List<BrowseItem> results = new ArrayList<BrowseItem>();
-            while (tri.hasNext())
+            for (TableRow row : readRows("item_id", "executing_full_query"))
             {
-                TableRow row = tri.next();
                 BrowseItem browseItem = new BrowseItem(context, row.getIntColumn("item_id"),
                                                   itemsInArchive,
                                                   itemsWithdrawn);
@@ -374,14 +389,7 @@ public class BrowseDAOPostgres implements BrowseDAO
         catch (SQLException e)
         {
             log.error("caught exception: ", e);
-            throw new BrowseException("problem with query: " + query, e);
-        }
-        finally
-        {
-            if (tri != null)
-            {
-                tri.close();
-            }
+            throw new BrowseException("problem with query: " + getQuery(), e);
         }
     }
 
@@ -391,22 +399,12 @@ public class BrowseDAOPostgres implements BrowseDAO
     public List<String[]> doValueQuery()
         throws BrowseException
     {
-        String query = getQuery();
-        Object[] params = getQueryParams();
-        log.debug(LogManager.getHeader(context, "executing_value_query", "query=" + query));
-
-        TableRowIterator tri = null;
-
         try
         {
-            // now run the query
-            tri = DatabaseManager.query(context, query, params);
-
             // go over the query results and process
             List<String[]> results = new ArrayList<String[]>();
-            while (tri.hasNext())
+            for (TableRow row : readRows("id", "executing_value_query"))
             {
-                TableRow row = tri.next();
                 String valueResult = row.getStringColumn("value");
                 String authorityResult = row.getStringColumn("authority");
                 results.add(new String[]{valueResult,authorityResult});
@@ -419,6 +417,90 @@ public class BrowseDAOPostgres implements BrowseDAO
             log.error("caught exception: ", e);
             throw new BrowseException(e);
         }
+    }
+
+    /**
+     * Run the query, and record the keys of the rows returned.  A keyset
+     * browse is read in up to two parts, each a single range of the index:
+     * the rows with a non-null order value, and those with a null one (which
+     * sort last).
+     *
+     * @param idColumn  the column holding the id of each row
+     * @param action    the action to log the query under
+     * @return  the rows, in browse order
+     */
+    private List<TableRow> readRows(String idColumn, String action)
+        throws SQLException, BrowseException
+    {
+        List<TableRow> rows = new ArrayList<TableRow>();
+
+        setKeysetPart(1);
+        readRows(rows, action);
+
+        if (keysetKey != null && (keysetBackwards == (keysetKey.getValue() == null))
+                && (limit <= 0 || rows.size() < limit))
+        {
+            // carry on into the rows with the other null-ness of order value
+            int pageLimit = limit;
+            if (limit > 0)
+            {
+                limit -= rows.size();
+            }
+
+            try
+            {
+                setKeysetPart(2);
+                readRows(rows, action);
+            }
+            finally
+            {
+                limit = pageLimit;
+                setKeysetPart(1);
+            }
+        }
+
+        if (keysetKey != null && keysetBackwards)
+        {
+            // the rows were read nearest first
+            Collections.reverse(rows);
+        }
+
+        resultKeys.clear();
+        for (TableRow row : rows)
+        {
+            String keyValue = null;
+            if (orderField != null && row.hasColumn(orderField))
+            {
+                keyValue = row.getStringColumn(orderField);
+            }
+            resultKeys.add(new BrowseKey(keyValue, row.getIntColumn(idColumn)));
+        }
+
+        return rows;
+    }
+
+    private void readRows(List<TableRow> rows, String action)
+        throws SQLException, BrowseException
+    {
+        String query = getQuery();
+        Object[] params = getQueryParams();
+
+        if (log.isDebugEnabled())
+        {
+            log.debug(LogManager.getHeader(context, action, "query=" + query));
+        }
+
+        TableRowIterator tri = null;
+        try
+        {
+            // now run the query
+            tri = DatabaseManager.query(context, query, params);
+
+            while (tri.hasNext())
+            {
+                rows.add(tri.next());
+            }
+        }
         finally
         {
             if (tri != null)
@@ -428,6 +510,15 @@ public class BrowseDAOPostgres implements BrowseDAO
         }
     }
 
+    private void setKeysetPart(int part)
+    {
+        if (keysetKey != null && keysetPart != part)
+        {
+            keysetPart = part;
+            this.rebuildQuery = true;
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseDAO#getContainerID()
      */
@@ -767,6 +858,9 @@ public class BrowseDAOPostgres implements BrowseDAO
         // and include container support
         buildWhereClauseDistinctConstraints(queryBuf, params);
 
+        // start from the keyset row if there is one
+        buildWhereClauseKeyset(queryBuf, params);
+
         // assemble the order by field
         buildOrderBy(queryBuf);
 
@@ -811,6 +905,9 @@ public class BrowseDAOPostgres implements BrowseDAO
         // and include container support
         buildWhereClauseFullConstraints(queryBuf, params);
 
+        // start from the keyset row if there is one
+        buildWhereClauseKeyset(queryBuf, params);
+
         // assemble the order by field
         buildOrderBy(queryBuf);
 
@@ -834,9 +931,12 @@ public class BrowseDAOPostgres implements BrowseDAO
     {
         if (orderField != null)
         {
+            // rows before a key are read backwards, nearest first
+            boolean ascending = isAscending() != (keysetKey != null && keysetBackwards);
+
             queryBuf.append(" ORDER BY ");
             queryBuf.append(orderField);
-            if (isAscending())
+            if (ascending)
             {
                 queryBuf.append(" ASC ");
             }
@@ -844,10 +944,86 @@ public class BrowseDAOPostgres implements BrowseDAO
             {
                 queryBuf.append(" DESC ");
             }
-            queryBuf.append(" NULLS LAST ");
+
+            if (keysetKey != null && keysetBackwards)
+            {
+                queryBuf.append(" NULLS FIRST ");
+            }
+            else
+            {
+                queryBuf.append(" NULLS LAST ");
+            }
+
+            // break ties between equal values on the id, so that the order
+            // is stable and keyset browsing sees every row exactly once
+            queryBuf.append(", ").append(getKeysetIDColumn());
+            queryBuf.append(ascending ? " ASC " : " DESC ");
+        }
+    }
+
+    /**
+     * Get the clause to start the browse from the keyset row.  For the part
+     * of the browse holding rows with a non-null order value, this will be of
+     * the form (for an ascending browse after the key):
+     *
+     * <code>
+     * [order field] >= ? AND ([order field] > ? OR [id] > ?)
+     * </code>
+     *
+     * which can be answered with a single range scan of the index on the
+     * order field and id.  The rows with a null order value sort last, so are
+     * selected with <code>[order field] IS NULL</code>, and ordered by id
+     * alone.
+     */
+    private void buildWhereClauseKeyset(StringBuffer queryBuf, List<Serializable> params)
+    {
+        if (keysetKey == null || orderField == null)
+        {
+            return;
+        }
+
+        String id = getKeysetIDColumn();
+        String comparator = (isAscending() != keysetBackwards) ? ">" : "<";
+        boolean keyIsNull = (keysetKey.getValue() == null);
+
+        buildWhereClauseOpInsert(queryBuf);
+        queryBuf.append(" ");
+
+        if (keysetPart == 1 && !keyIsNull)
+        {
+            queryBuf.append(orderField).append(comparator).append("=? AND (");
+            queryBuf.append(orderField).append(comparator).append("? OR ");
+            queryBuf.append(id).append(comparator).append("?) ");
+            params.add(keysetKey.getValue());
+            params.add(keysetKey.getValue());
+            params.add(Integer.valueOf(keysetKey.getID()));
+        }
+        else if (keysetPart == 1)
+        {
+            queryBuf.append(orderField).append(" IS NULL AND ");
+            queryBuf.append(id).append(comparator).append("? ");
+            params.add(Integer.valueOf(keysetKey.getID()));
+        }
+        else if (keyIsNull)
+        {
+            // before the first null: the rows with a value, from the end
+            queryBuf.append(orderField).append(" IS NOT NULL ");
+        }
+        else
+        {
+            // after the last value: the rows with a null value
+            queryBuf.append(orderField).append(" IS NULL ");
         }
     }
 
+    /**
+     * @return  the column identifying rows within the browse table
+     */
+    private String getKeysetIDColumn()
+    {
+        return table + (distinct ? ".id" : ".item_id");
+    }
+
     /**
      * Get the limit clause to perform search result truncation.  Will return
      * something of the form:
@@ -1385,6 +1561,25 @@ public class BrowseDAOPostgres implements BrowseDAO
         return queryParams.toArray();
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseDAO#setKeyset(org.dspace.browse.BrowseKey, boolean)
+     */
+    public void setKeyset(BrowseKey key, boolean backwards)
+    {
+        this.keysetKey = key;
+        this.keysetBackwards = backwards;
+        this.keysetPart = 1;
+        this.rebuildQuery = true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseDAO#getResultKeys()
+     */
+    public List<BrowseKey> getResultKeys()
+    {
+        return Collections.unmodifiableList(resultKeys);
+    }
+
     public void setAuthorityValue(String value) {
         authority = value;
     }
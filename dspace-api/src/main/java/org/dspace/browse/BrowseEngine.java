@@ -159,6 +159,7 @@ public class BrowseEngine
             orderBy = "sort_" + Integer.toString(scope.getSortBy());
         }
         dao.setOrderField(orderBy);
+        dao.setKeyset(null, false);
 
         // now run the query
         List<BrowseItem> results = dao.doQuery();
@@ -271,9 +272,14 @@ public class BrowseEngine
             }
             dao.setOrderField(orderBy);
 
+            // start from a given row rather than an offset, if asked to
+            BrowseKey key = getKeyset();
+            boolean backwards = (key != null && !scope.hasAfter());
+            dao.setKeyset(key, backwards);
+
             int offset = scope.getOffset();
             String rawFocusValue = null;
-            if (offset < 1 && (scope.hasJumpToItem() || scope.hasJumpToValue() || scope.hasStartsWith()))
+            if (key == null && offset < 1 && (scope.hasJumpToItem() || scope.hasJumpToValue() || scope.hasStartsWith()))
             {
                 // We need to convert these to an offset for the actual browse query.
                 // First, get a value that we can look up in the ordering field
@@ -288,19 +294,32 @@ public class BrowseEngine
                 offset = getOffsetForValue(focusValue);
             }
 
-            dao.setOffset(offset);
-
-            // assemble the LIMIT clause
-            dao.setLimit(scope.getResultsPerPage());
+            setPage(key, offset);
 
             // Holder for the results
             List<BrowseItem> results = null;
+            List<BrowseKey> keys = null;
+            boolean more = false;
 
             // Does this browse have any contents?
             if (total > 0)
             {
                 // now run the query
                 results = dao.doQuery();
+                keys = new ArrayList<BrowseKey>(dao.getResultKeys());
+                more = trimPage(key, backwards, results, keys);
+
+                if (key != null && results.size() == 0)
+                {
+                    // there is nothing beyond the row we started from (it may
+                    // have gone), so fall back to the first or last page
+                    offset = backwards ? 0 : Math.max(total - scope.getResultsPerPage(), 0);
+                    key = null;
+                    dao.setKeyset(null, false);
+                    setPage(null, offset);
+                    results = dao.doQuery();
+                    keys = new ArrayList<BrowseKey>(dao.getResultKeys());
+                }
 
                 // now, if we don't have any results, we are at the end of the browse.  This will
                 // be because a starts_with value has been supplied for which we don't have
@@ -315,19 +334,22 @@ public class BrowseEngine
                     }
 
                     // And rerun the query
-                    dao.setOffset(offset);
+                    setPage(null, offset);
                     results = dao.doQuery();
+                    keys = new ArrayList<BrowseKey>(dao.getResultKeys());
                 }
             }
             else
             {
                 // No records, so make an empty list
                 results = new ArrayList<BrowseItem>();
+                keys = new ArrayList<BrowseKey>();
             }
 
             // construct the BrowseInfo object to pass back
 //            BrowseInfo browseInfo = new BrowseInfo(results, position, total, offset);
             BrowseInfo browseInfo = new BrowseInfo(results, offset, total, offset);
+            setTokens(browseInfo, key, backwards, more, keys, offset, total);
 
             if (offset + scope.getResultsPerPage() < total)
             {
@@ -448,9 +470,15 @@ public class BrowseEngine
             // - sort_value < myvalue
             // = sort_1 > myvalue
             dao.setJumpToField("sort_value");
+
+            // start from a given value rather than an offset, if asked to
+            BrowseKey key = getKeyset();
+            boolean backwards = (key != null && !scope.hasAfter());
+            dao.setKeyset(key, backwards);
+
             int offset = scope.getOffset();
             String rawFocusValue = null;
-            if (offset < 1 && scope.hasJumpToValue() || scope.hasStartsWith())
+            if (key == null && (offset < 1 && scope.hasJumpToValue() || scope.hasStartsWith()))
             {
                 String focusValue = getJumpToValue();
 
@@ -463,19 +491,33 @@ public class BrowseEngine
                 offset = getOffsetForDistinctValue(focusValue);
             }
 
-
             // assemble the offset and limit
-            dao.setOffset(offset);
-            dao.setLimit(scope.getResultsPerPage());
+            setPage(key, offset);
 
             // Holder for the results
             List<String[]> results = null;
+            List<BrowseKey> keys = null;
+            boolean more = false;
 
             // Does this browse have any contents?
             if (total > 0)
             {
                 // now run the query
                 results = dao.doValueQuery();
+                keys = new ArrayList<BrowseKey>(dao.getResultKeys());
+                more = trimPage(key, backwards, results, keys);
+
+                if (key != null && results.size() == 0)
+                {
+                    // there is nothing beyond the value we started from (it may
+                    // have gone), so fall back to the first or last page
+                    offset = backwards ? 0 : Math.max(total - scope.getResultsPerPage(), 0);
+                    key = null;
+                    dao.setKeyset(null, false);
+                    setPage(null, offset);
+                    results = dao.doValueQuery();
+                    keys = new ArrayList<BrowseKey>(dao.getResultKeys());
+                }
 
                 // now, if we don't have any results, we are at the end of the browse.  This will
                 // be because a starts_with value has been supplied for which we don't have
@@ -490,18 +532,21 @@ public class BrowseEngine
                     }
 
                     // And rerun the query
-                    dao.setOffset(offset);
+                    setPage(null, offset);
                     results = dao.doValueQuery();
+                    keys = new ArrayList<BrowseKey>(dao.getResultKeys());
                 }
             }
             else
             {
                 // No records, so make an empty list
                 results = new ArrayList<String[]>();
+                keys = new ArrayList<BrowseKey>();
             }
 
             // construct the BrowseInfo object to pass back
             BrowseInfo browseInfo = new BrowseInfo(results, offset, total, offset);
+            setTokens(browseInfo, key, backwards, more, keys, offset, total);
 
             if (offset + scope.getResultsPerPage() < total)
             {
@@ -548,6 +593,109 @@ public class BrowseEngine
         }
     }
 
+    /**
+     * Get the key of the row to start the browse after or end it before, if
+     * the scope gives a valid one.  Keyset browsing is only used for paged
+     * browses.
+     *
+     * @return  the key, or null to browse by offset
+     */
+    private BrowseKey getKeyset()
+    {
+        if (scope.getResultsPerPage() <= 0)
+        {
+            return null;
+        }
+
+        if (scope.hasAfter())
+        {
+            return BrowseKey.fromToken(scope.getAfter());
+        }
+
+        if (scope.hasBefore())
+        {
+            return BrowseKey.fromToken(scope.getBefore());
+        }
+
+        return null;
+    }
+
+    /**
+     * Set the offset and limit of the browse query.  A keyset browse reads one
+     * row more than a page, to find out whether there is another page beyond.
+     *
+     * @param key       the keyset row, or null to browse by offset
+     * @param offset    the offset to browse from
+     */
+    private void setPage(BrowseKey key, int offset)
+    {
+        if (key != null)
+        {
+            dao.setOffset(0);
+            dao.setLimit(scope.getResultsPerPage() + 1);
+        }
+        else
+        {
+            dao.setOffset(offset);
+            dao.setLimit(scope.getResultsPerPage());
+        }
+    }
+
+    /**
+     * Drop the extra row read by a keyset browse, if there was one.
+     *
+     * @return  true if there was an extra row, so another page beyond this one
+     */
+    private <T> boolean trimPage(BrowseKey key, boolean backwards, List<T> results, List<BrowseKey> keys)
+    {
+        if (key == null || results.size() <= scope.getResultsPerPage())
+        {
+            return false;
+        }
+
+        // the extra row is the one furthest from the key
+        int extra = backwards ? 0 : results.size() - 1;
+        results.remove(extra);
+        keys.remove(extra);
+        return true;
+    }
+
+    /**
+     * Tell the BrowseInfo the tokens to pass back to get the next and previous
+     * pages.
+     */
+    private void setTokens(BrowseInfo browseInfo, BrowseKey key, boolean backwards, boolean more,
+                           List<BrowseKey> keys, int offset, int total)
+    {
+        if (keys.size() == 0)
+        {
+            return;
+        }
+
+        boolean hasNext;
+        boolean hasPrev;
+        if (key != null)
+        {
+            hasNext = backwards || more;
+            hasPrev = !backwards || more;
+        }
+        else
+        {
+            hasNext = offset + keys.size() < total;
+            hasPrev = offset > 0;
+        }
+
+        if (hasNext)
+        {
+            browseInfo.setNextToken(keys.get(keys.size() - 1).toToken());
+        }
+
+        if (hasPrev)
+        {
+            browseInfo.setPrevToken(keys.get(0).toToken());
+        }
+    }
+
     /**
      * Return the focus value.
      *
@@ -90,6 +90,12 @@ public class BrowseInfo
 	/** offset of the item at the top of the previous page */
 	private int prevOffset = -1;
 
+	/** key of the last row on this page, if there is a next page */
+	private String nextToken = null;
+
+	/** key of the first row on this page, if there is a previous page */
+	private String prevToken = null;
+
 	/** the value upon which we are focusing */
 	private String focus;
 
@@ -375,6 +381,40 @@ public class BrowseInfo
 		this.prevOffset = prevOffset;
 	}
 
+	/**
+	 * @return the token to pass to BrowserScope.setAfter to get the next
+	 *         page, or null if there is no next page
+	 */
+	public String getNextToken()
+	{
+		return nextToken;
+	}
+
+	/**
+	 * @param nextToken The nextToken to set.
+	 */
+	public void setNextToken(String nextToken)
+	{
+		this.nextToken = nextToken;
+	}
+
+	/**
+	 * @return the token to pass to BrowserScope.setBefore to get the
+	 *         previous page, or null if there is no previous page
+	 */
+	public String getPrevToken()
+	{
+		return prevToken;
+	}
+
+	/**
+	 * @param prevToken The prevToken to set.
+	 */
+	public void setPrevToken(String prevToken)
+	{
+		this.prevToken = prevToken;
+	}
+
 	/**
 	 * @return Returns the sortOption.
 	 */
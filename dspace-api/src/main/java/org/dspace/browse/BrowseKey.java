@@ -0,0 +1,98 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+/**
+ * The position of a row in a browse: its value in the column the browse is
+ * ordered by, and its id (the item id, or the id of a distinct value), which
+ * breaks ties between rows with the same value.
+ *
+ * A browse can be started after or before a key, rather than at an offset
+ * (see BrowserScope.setAfter and setBefore), so that a page costs a single
+ * range scan of the index however deep into the browse it is.  Keys are
+ * passed to and from the user interface as tokens of the form
+ * <code>[id]:[value]</code>, or just <code>[id]</code> if the value is null.
+ *
+ * @version $Revision$
+ */
+public final class BrowseKey
+{
+    /** the value of the row in the order column, may be null */
+    private final String value;
+
+    /** the item or distinct value id of the row */
+    private final int id;
+
+    /**
+     * Create a key for a row.
+     *
+     * @param value the value in the column the browse is ordered by, may be null
+     * @param id    the item id, or the id of the distinct value
+     */
+    public BrowseKey(String value, int id)
+    {
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * @return  the value in the column the browse is ordered by, or null
+     */
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return  the item id, or the id of the distinct value
+     */
+    public int getID()
+    {
+        return id;
+    }
+
+    /**
+     * @return  this key as a token to pass to the user interface
+     */
+    public String toToken()
+    {
+        return (value == null) ? Integer.toString(id) : id + ":" + value;
+    }
+
+    /**
+     * Read a key from a token made by toToken.
+     *
+     * @param token the token
+     * @return  the key, or null if the token is not valid
+     */
+    public static BrowseKey fromToken(String token)
+    {
+        if (token == null)
+        {
+            return null;
+        }
+
+        int colon = token.indexOf(':');
+        String idPart = (colon < 0) ? token : token.substring(0, colon);
+        String valuePart = (colon < 0) ? null : token.substring(colon + 1);
+
+        try
+        {
+            return new BrowseKey(valuePart, Integer.parseInt(idPart));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    public String toString()
+    {
+        return toToken();
+    }
+}
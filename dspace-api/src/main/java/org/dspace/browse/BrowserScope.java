@@ -78,6 +78,12 @@ public class BrowserScope
     /** the number of items to offset into the result ie. 0 = 1st record */
     private int offset = 0;
 
+    /** the key of the row to start the browse after, as a BrowseKey token */
+    private String after = null;
+
+    /** the key of the row to end the browse before, as a BrowseKey token */
+    private String before = null;
+
     private String authority = null;
 
     /**
@@ -393,6 +399,62 @@ public class BrowserScope
         this.offset = offset;
     }
 
+    /**
+     * Start the browse with the row after the given key, rather than at an
+     * offset.  This is much cheaper than an offset deep into a large browse.
+     * The offset, if set, is then only used to number the results.
+     *
+     * @param after  a BrowseKey token, as given by BrowseInfo.getNextToken
+     */
+    public void setAfter(String after)
+    {
+        this.after = after;
+    }
+
+    /**
+     * @return  the token of the row to start the browse after, or null
+     */
+    public String getAfter()
+    {
+        return after;
+    }
+
+    /**
+     * @return  true if the browse starts after a given row
+     */
+    public boolean hasAfter()
+    {
+        return after != null && !"".equals(after);
+    }
+
+    /**
+     * End the browse with the row before the given key, rather than starting
+     * at an offset.  This is much cheaper than an offset deep into a large
+     * browse.  The offset, if set, is then only used to number the results.
+     *
+     * @param before  a BrowseKey token, as given by BrowseInfo.getPrevToken
+     */
+    public void setBefore(String before)
+    {
+        this.before = before;
+    }
+
+    /**
+     * @return  the token of the row to end the browse before, or null
+     */
+    public String getBefore()
+    {
+        return before;
+    }
+
+    /**
+     * @return  true if the browse ends before a given row
+     */
+    public boolean hasBefore()
+    {
+        return before != null && !"".equals(before);
+    }
+
     /**
      * Obtain the sort option
      *
@@ -9,14 +9,19 @@ package org.dspace.browse;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,10 +35,14 @@ import org.dspace.content.DCValue;
 import org.dspace.content.Item;
 import org.dspace.content.authority.ChoiceAuthorityManager;
 import org.dspace.content.authority.MetadataAuthorityManager;
+import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
 import org.dspace.sort.SortOption;
 import org.dspace.sort.SortException;
 import org.dspace.sort.OrderFormat;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
 
 /**
  * Tool to create Browse indexes.  This class is used from the command line to
@@ -43,6 +52,16 @@ import org.dspace.sort.OrderFormat;
  * To see a full definition of the usage of this class just run it without any
  * arguments, and you will get the help message.
  * 
+ * Updating an item only changes the rows of the browse tables that differ.
+ * The distinct values (e.g. authors) that a batch of updates leaves unused
+ * are removed together at the end of the batch (see pruneUnusedValues).
+ * 
+ * A full rebuild (-f -r) builds the new browse tables alongside the existing
+ * ones, which carry on serving browses, using several threads (-n), and then
+ * swaps the new tables into place.  Items changed while the rebuild runs are
+ * indexed again into the new tables before the swap, as the updates made to
+ * the old tables in the meantime are lost with them.
+ * 
  * @author Richard Jones
  */
 public class IndexBrowse
@@ -85,6 +104,30 @@ public class IndexBrowse
     
     /** the outputter class */
 	private BrowseOutput output;
+
+    /** how many items each thread of a rebuild indexes between commits */
+    private static final int COMMIT_INTERVAL = 100;
+
+    /** suffix given to the names of the tables a rebuild is built in */
+    private static final String SHADOW_SUFFIX = "_new";
+
+    /** whether to write to the tables of a rebuild, rather than the live tables */
+    private boolean shadow = false;
+
+    /** the number of threads to index with in a rebuild */
+    private int threads = 1;
+
+    /** how long before a rebuild began to look for items changed during it, in milliseconds */
+    private static final long CATCH_UP_MARGIN = 60 * 1000L;
+
+    /** the most times to look for items changed during a rebuild */
+    private static final int CATCH_UP_PASSES = 3;
+
+    /** distinct value ids shared by the threads of a rebuild, or null */
+    private SharedDistinctIDs sharedDistinctIDs = null;
+
+    /** distinct values which may have become unused, by distinct table */
+    private final Map<String, PendingPrune> pendingPrune = new HashMap<String, PendingPrune>();
 	
     /**
      * Construct a new index browse.  If done this way, an internal
@@ -268,6 +311,22 @@ public class IndexBrowse
     {
     	return this.outFile;
     }
+
+    /**
+     * @param threads	the number of threads to index with in a rebuild
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * @return	the number of threads to index with in a rebuild
+     */
+    public int getThreads()
+    {
+        return this.threads;
+    }
     
     /**
      * Prune indexes - called from the public interfaces or at the end of a batch indexing process
@@ -286,6 +345,7 @@ public class IndexBrowse
 
         dao.pruneExcess(BrowseIndex.getItemBrowseIndex().getTableName(), false);
         dao.pruneExcess(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), true);
+        BrowseCountCache.invalidate(context);
     }
 
     private void pruneDistinctIndex(BrowseIndex bi, List<Integer> removedIds) throws BrowseException
@@ -294,6 +354,84 @@ public class IndexBrowse
         dao.pruneDistinct(bi.getDistinctTableName(), bi.getMapTableName(), removedIds);
     }
 
+    /**
+     * Note distinct values that an item no longer uses, to be removed by the
+     * next call to pruneUnusedValues if no other item uses them either.
+     */
+    private void deferPrune(BrowseIndex bi, List<Integer> distinctIds)
+    {
+        if (shadow || distinctIds == null || distinctIds.isEmpty())
+        {
+            return;
+        }
+
+        PendingPrune pending = pendingPrune.get(bi.getDistinctTableName());
+        if (pending == null)
+        {
+            pending = new PendingPrune(bi.getDistinctTableName(), bi.getMapTableName());
+            pendingPrune.put(pending.distinctTable, pending);
+        }
+        pending.distinctIds.addAll(distinctIds);
+    }
+
+    /**
+     * Remove the distinct values that the items indexed or removed since the
+     * last call have stopped using, unless other items still use them.  This
+     * is done in the context of this IndexBrowse, so is committed along with
+     * the changes which left the values unused.
+     *
+     * @throws BrowseException
+     */
+    public void pruneUnusedValues()
+        throws BrowseException
+    {
+        for (PendingPrune pending : pendingPrune.values())
+        {
+            List<Integer> ids = new ArrayList<Integer>(pending.distinctIds);
+            log.debug("Pruning " + ids.size() + " values from " + pending.distinctTable);
+            dao.pruneMapExcess(pending.mapTable, false, ids);
+            dao.pruneDistinct(pending.distinctTable, pending.mapTable, ids);
+        }
+        pendingPrune.clear();
+    }
+
+    /**
+     * @return	the name to use for the given browse table: its own, or that of
+     *          the table rebuilding it
+     */
+    private String tableName(String table)
+    {
+        return shadow ? table + SHADOW_SUFFIX : table;
+    }
+
+    /**
+     * @return	the name to use for the given browse table sequence
+     */
+    private String sequenceName(String sequence)
+    {
+        if (shadow && sequence.endsWith("_seq"))
+        {
+            return tableName(sequence.substring(0, sequence.length() - 4)) + "_seq";
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Get the id of a distinct value, adding it if it is not yet in the index
+     */
+    private int getDistinctID(BrowseIndex bi, String value, String authority, String sortValue)
+        throws BrowseException
+    {
+        String table = tableName(bi.getDistinctTableName());
+        if (sharedDistinctIDs != null)
+        {
+            return sharedDistinctIDs.getDistinctID(table, value, authority, sortValue);
+        }
+
+        return dao.getDistinctID(table, value, authority, sortValue);
+    }
+
     /**
      * Index the given item
      * 
@@ -303,6 +441,8 @@ public class IndexBrowse
     public void indexItem(Item item) throws BrowseException
     {
         indexItem(item, false);
+        pruneUnusedValues();
+        BrowseCountCache.invalidate(context);
     }
 
     void indexItem(Item item, boolean addingNewItem) throws BrowseException
@@ -346,12 +486,12 @@ public class IndexBrowse
             if (item.isArchived() && !item.isWithdrawn())
             {
                 // Try to update an existing record in the item index
-                if (!dao.updateIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap))
+                if (!dao.updateIndex(tableName(BrowseIndex.getItemBrowseIndex().getTableName()), item.getID(), sortMap))
                 {
                     // Record doesn't exist - ensure that it doesn't exist in the withdrawn index,
                     // and add it to the archived item index
-                    dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID(), sortMap);
+                    dao.deleteByItemID(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), item.getID());
+                    dao.insertIndex(tableName(BrowseIndex.getItemBrowseIndex().getTableName()), item.getID(), sortMap);
                 }
 
                 reqCommunityMappings = true;
@@ -359,19 +499,19 @@ public class IndexBrowse
             else if (item.isWithdrawn())
             {
                 // Try to update an existing record in the withdrawn index
-                if (!dao.updateIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap))
+                if (!dao.updateIndex(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), item.getID(), sortMap))
                 {
                     // Record doesn't exist - ensure that it doesn't exist in the item index,
                     // and add it to the withdrawn item index
-                    dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                    dao.insertIndex(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID(), sortMap);
+                    dao.deleteByItemID(tableName(BrowseIndex.getItemBrowseIndex().getTableName()), item.getID());
+                    dao.insertIndex(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), item.getID(), sortMap);
                 }
             }
             else
             {
                 // This item shouldn't exist in either index - ensure that it is removed
-                dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), item.getID());
-                dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), item.getID());
+                dao.deleteByItemID(tableName(BrowseIndex.getItemBrowseIndex().getTableName()), item.getID());
+                dao.deleteByItemID(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), item.getID());
             }
 
             // Update the community mappings if they are required, or remove them if they aren't
@@ -445,7 +585,7 @@ public class IndexBrowse
                                                 for (String var : variants)
                                                 {
                                                     String nVal = OrderFormat.makeSortString(var, value.language, bis[i].getDataType());
-                                                    distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), var, value.authority, nVal));
+                                                    distIDSet.add(getDistinctID(bis[i], var, value.authority, nVal));
                                                     if (var.equals(value.value))
                                                     {
                                                         isValueInVariants = true;
@@ -458,14 +598,14 @@ public class IndexBrowse
                                             {
                                                 // get the normalised version of the value
                                                 String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                                distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, value.authority, nVal));
+                                                distIDSet.add(getDistinctID(bis[i], value.value, value.authority, nVal));
                                             }
                                         }
                                         else // put it in the browse index as if it hasn't have an authority key
                                         {
                                             // get the normalised version of the value
                                             String nVal = OrderFormat.makeSortString(value.value, value.language, bis[i].getDataType());
-                                            distIDSet.add(dao.getDistinctID(bis[i].getDistinctTableName(), value.value, null, nVal));
+                                            distIDSet.add(getDistinctID(bis[i], value.value, null, nVal));
                                         }
                                     }
                                 }
@@ -479,21 +619,15 @@ public class IndexBrowse
                         if (!addingNewItem)
                         {
                             // remove any old mappings
-                            List<Integer> distinctIds = dao.deleteMappingsByItemID(bis[i].getMapTableName(), item.getID());
-                            if (distinctIds != null && distinctIds.size() > 0)
-                            {
-                                dao.pruneDistinct(bis[i].getDistinctTableName(), bis[i].getMapTableName(), distinctIds);
-                            }
+                            List<Integer> distinctIds = dao.deleteMappingsByItemID(tableName(bis[i].getMapTableName()), item.getID());
+                            deferPrune(bis[i], distinctIds);
                         }
                     }
                     else
                     {
                         // Update the existing mappings
-                        MappingResults results = dao.updateDistinctMappings(bis[i].getMapTableName(), item.getID(), distIDSet);
-                        if (results.getRemovedDistinctIds() != null && results.getRemovedDistinctIds().size() > 0)
-                        {
-                            pruneDistinctIndex(bis[i], results.getRemovedDistinctIds());
-                        }
+                        MappingResults results = dao.updateDistinctMappings(tableName(bis[i].getMapTableName()), item.getID(), distIDSet);
+                        deferPrune(bis[i], results.getRemovedDistinctIds());
                     }
                 }
             }
@@ -600,7 +734,7 @@ public class IndexBrowse
 		    if (bis[i].isMetadataIndex())
 		    {
     			log.debug("Removing indexing for removed item " + itemID + ", for index: " + bis[i].getTableName());
-    			dao.deleteByItemID(bis[i].getMapTableName(), itemID);
+    			deferPrune(bis[i], dao.deleteMappingsByItemID(bis[i].getMapTableName(), itemID));
 		    }
 	    }
 
@@ -608,6 +742,8 @@ public class IndexBrowse
         dao.deleteByItemID(BrowseIndex.getItemBrowseIndex().getTableName(), itemID);
         dao.deleteByItemID(BrowseIndex.getWithdrawnBrowseIndex().getTableName(), itemID);
         dao.deleteCommunityMappings(itemID);
+        pruneUnusedValues();
+        BrowseCountCache.invalidate(context);
 
         return true;
 	}
@@ -646,6 +782,10 @@ public class IndexBrowse
             options.addOption("p", "print", false, "write the remove and create SQL to the stdout. For use with -t and -f");
             options.addOption("x", "execute", false, "execute all the remove and create SQL against the database. For use with -t and -f");
             options.addOption("s", "start", true, "[-s <int>] start from this index number and work upward (mostly only useful for debugging). For use with -t and -f");
+            options.addOption("n", "threads", true, "[-n <int>] the number of threads to index with when rebuilding.  For use with -f -r");
+
+            // remove unused values and rows of items no longer in the archive
+            options.addOption("u", "prune", false, "remove distinct values no longer used by any item, and index entries for items no longer in the archive");
 
             // this option can be used with any argument
             options.addOption("v", "verbose", false, "print extra information to the stdout.  If used in conjunction with -p, you cannot use the stdout to generate your database structure");
@@ -673,11 +813,39 @@ public class IndexBrowse
                 return;
             }
 
+            if (line.hasOption("u"))
+            {
+                indexer.pruneIndexes();
+                context.complete();
+                return;
+            }
+
             if (line.hasOption("f"))
             {
                 if (line.hasOption('r'))
                 {
                     indexer.setRebuild(true);
+                    if (line.hasOption("n"))
+                    {
+                        int threads = 0;
+                        try
+                        {
+                            threads = Integer.parseInt(line.getOptionValue("n"));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            // reported below
+                        }
+
+                        if (threads < 1)
+                        {
+                            System.err.println("-n must be a whole number of threads, 1 or more");
+                            indexer.usage(options);
+                            context.abort();
+                            System.exit(1);
+                        }
+                        indexer.setThreads(threads);
+                    }
                 }
                 else if (line.hasOption("d"))
                 {
@@ -753,8 +921,17 @@ public class IndexBrowse
     {
         try
         {
-            // first, erase the existing indexes
-            clearDatabase();
+            // first, erase the existing indexes, or what is left of a
+            // previous rebuild when rebuilding alongside them
+            if (shadow)
+            {
+                dropShadowTables();
+            }
+            else
+            {
+                clearDatabase();
+                BrowseCountCache.invalidate(context);
+            }
 
             createItemTables();
 
@@ -789,6 +966,18 @@ public class IndexBrowse
     public void clearDatabase()
 		throws BrowseException
 	{
+        clearDatabase(true);
+	}
+
+	/**
+	 * delete all the existing browse tables
+	 * 
+	 * @param commit	whether to commit once the tables are deleted
+	 * @throws BrowseException
+	 */
+    private void clearDatabase(boolean commit)
+		throws BrowseException
+	{
     	try
     	{
     		output.message("Deleting old indices");
@@ -884,7 +1073,7 @@ public class IndexBrowse
             dropItemTables(BrowseIndex.getItemBrowseIndex());
             dropItemTables(BrowseIndex.getWithdrawnBrowseIndex());
             
-    		if (execute())
+    		if (commit && execute())
     		{
     			context.commit();
     		}
@@ -896,6 +1085,285 @@ public class IndexBrowse
     	}
 	}
 
+    /**
+     * drop any tables left by a previous rebuild that did not complete
+     * 
+     * @throws BrowseException
+     */
+    private void dropShadowTables()
+        throws BrowseException
+    {
+        try
+        {
+            List<String> tables = new ArrayList<String>();
+            tables.add(tableName(BrowseIndex.getItemBrowseIndex().getTableName()));
+            tables.add(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()));
+            for (int i = 0; i < bis.length; i++)
+            {
+                if (bis[i].isMetadataIndex())
+                {
+                    // the map refers to the distinct table, so goes first
+                    tables.add(tableName(bis[i].getMapTableName()));
+                    tables.add(tableName(bis[i].getDistinctTableName()));
+                }
+            }
+
+            for (String table : tables)
+            {
+                if (dao.testTableExistence(table))
+                {
+                    output.message("Deleting incomplete rebuild table: " + table);
+                    output.sql(dao.dropIndexAndRelated(table, this.execute()));
+                    output.sql(dao.dropSequence(table + "_seq", this.execute()));
+                }
+            }
+
+            if (execute())
+            {
+                context.commit();
+            }
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /**
+     * index again, into the tables of a rebuild, the items changed since the
+     * rebuild began.  The browse consumer carries on updating the old tables
+     * while a rebuild runs, and those updates are lost when the new tables are
+     * swapped in.  Changed items are found by their last modified date, from a
+     * minute before the rebuild began, to allow for transactions which were
+     * still open then.  Each pass looks for the items changed since the one
+     * before began, until one finds none or <code>CATCH_UP_PASSES</code> have
+     * been made.  Items which have been deleted or have left the archive are
+     * then pruned from the new tables.
+     * 
+     * Mapping an item to a collection, or unmapping it, does not change its
+     * last modified date.  The community mappings of the items (which are
+     * shared by the old and new tables) are written by the rebuild from what
+     * it read at the time, so may undo a mapping made meanwhile; each pass
+     * therefore also indexes again the items whose community mappings differ
+     * from those of their collections.
+     * 
+     * Changes committed between the last pass and the swap are not in the new
+     * tables until the item is next updated, or the next rebuild.
+     * 
+     * @param rebuildStart	when the rebuild began
+     * @throws BrowseException
+     */
+    void catchUpShadowTables(Date rebuildStart)
+        throws BrowseException
+    {
+        try
+        {
+            long since = rebuildStart.getTime();
+            for (int pass = 0; pass < CATCH_UP_PASSES; pass++)
+            {
+                long passStart = System.currentTimeMillis();
+
+                Set<Integer> changed = new LinkedHashSet<Integer>();
+                TableRowIterator tri = DatabaseManager.query(context,
+                        "SELECT item_id FROM item WHERE last_modified >= ?",
+                        new Timestamp(since - CATCH_UP_MARGIN));
+                try
+                {
+                    while (tri.hasNext())
+                    {
+                        changed.add(Integer.valueOf(tri.next().getIntColumn("item_id")));
+                    }
+                }
+                finally
+                {
+                    tri.close();
+                }
+                changed.addAll(findMismappedItems());
+
+                if (changed.isEmpty())
+                {
+                    break;
+                }
+
+                output.message("Indexing " + changed.size() + " items changed during the rebuild");
+                for (Integer id : changed)
+                {
+                    Item item = Item.find(context, id.intValue());
+                    if (item != null)
+                    {
+                        indexItem(item, false);
+                    }
+                    context.commit();
+                    context.clearCache();
+                }
+
+                since = passStart;
+            }
+
+            // remove the items which have been deleted or withdrawn meanwhile,
+            // and the values only they used
+            dao.pruneExcess(tableName(BrowseIndex.getItemBrowseIndex().getTableName()), false);
+            dao.pruneExcess(tableName(BrowseIndex.getWithdrawnBrowseIndex().getTableName()), true);
+            for (int i = 0; i < bis.length; i++)
+            {
+                if (bis[i].isMetadataIndex())
+                {
+                    dao.pruneMapExcess(tableName(bis[i].getMapTableName()), false, null);
+                    dao.pruneDistinct(tableName(bis[i].getDistinctTableName()),
+                            tableName(bis[i].getMapTableName()), null);
+                }
+            }
+            context.commit();
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
+    /**
+     * find the items whose community mappings are not those of the
+     * collections they are in: every community above those collections for
+     * an archived item, and none for any other.
+     * 
+     * @return	the ids of the items
+     * @throws SQLException
+     */
+    private Set<Integer> findMismappedItems()
+        throws SQLException
+    {
+        Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT parent_comm_id, child_comm_id FROM community2community");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                parents.put(Integer.valueOf(row.getIntColumn("child_comm_id")),
+                        Integer.valueOf(row.getIntColumn("parent_comm_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        Map<Integer, Set<Integer>> expected = new HashMap<Integer, Set<Integer>>();
+        tri = DatabaseManager.query(context,
+                "SELECT community2item.item_id, community2item.community_id "
+                + "FROM community2item, item WHERE community2item.item_id = item.item_id "
+                + "AND item.in_archive = '1' AND item.withdrawn = '0'");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                Set<Integer> communities = mappings(expected, row.getIntColumn("item_id"));
+                Integer community = Integer.valueOf(row.getIntColumn("community_id"));
+                while (community != null && communities.add(community))
+                {
+                    community = parents.get(community);
+                }
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        Map<Integer, Set<Integer>> actual = new HashMap<Integer, Set<Integer>>();
+        tri = DatabaseManager.query(context,
+                "SELECT item_id, community_id FROM communities2item");
+        try
+        {
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                mappings(actual, row.getIntColumn("item_id")).add(
+                        Integer.valueOf(row.getIntColumn("community_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+
+        Set<Integer> mismapped = new LinkedHashSet<Integer>();
+        for (Map.Entry<Integer, Set<Integer>> entry : expected.entrySet())
+        {
+            if (!entry.getValue().equals(actual.remove(entry.getKey())))
+            {
+                mismapped.add(entry.getKey());
+            }
+        }
+        mismapped.addAll(actual.keySet());
+        return mismapped;
+    }
+
+    private static Set<Integer> mappings(Map<Integer, Set<Integer>> mappings, int itemID)
+    {
+        Set<Integer> communities = mappings.get(Integer.valueOf(itemID));
+        if (communities == null)
+        {
+            communities = new HashSet<Integer>();
+            mappings.put(Integer.valueOf(itemID), communities);
+        }
+        return communities;
+    }
+
+    /**
+     * replace the browse tables with those built by a rebuild.  On databases
+     * with transactional DDL (PostgreSQL) browses see either the old tables or
+     * the new ones, and never neither.
+     * 
+     * @throws BrowseException
+     */
+    void swapShadowTables()
+        throws BrowseException
+    {
+        try
+        {
+            output.message("Replacing browse tables with the rebuilt ones");
+
+            List<String> tables = new ArrayList<String>();
+            tables.add(BrowseIndex.getItemBrowseIndex().getTableName());
+            tables.add(BrowseIndex.getWithdrawnBrowseIndex().getTableName());
+            for (int i = 0; i < bis.length; i++)
+            {
+                if (bis[i].isMetadataIndex())
+                {
+                    tables.add(bis[i].getDistinctTableName());
+                    tables.add(bis[i].getMapTableName());
+                }
+            }
+
+            shadow = false;
+            clearDatabase(false);
+
+            for (String table : tables)
+            {
+                for (String rename : dao.renameTable(table + SHADOW_SUFFIX, table, this.execute()))
+                {
+                    output.sql(rename);
+                }
+            }
+
+            if (execute())
+            {
+                context.commit();
+            }
+            BrowseCountCache.invalidate(context);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+    }
+
     /**
      * drop the tables and related database entries for the internal
      * 'item' tables
@@ -967,9 +1435,9 @@ public class IndexBrowse
     private void createItemTables(BrowseIndex bix, List<Integer> sortCols)
             throws BrowseException
     {
-        String tableName = bix.getTableName();
+        String tableName = tableName(bix.getTableName());
 
-        String itemSeq   = dao.createSequence(bix.getSequenceName(false, false), this.execute());
+        String itemSeq   = dao.createSequence(sequenceName(bix.getSequenceName(false, false)), this.execute());
         String itemTable = dao.createPrimaryTable(tableName, sortCols, execute);
         String[] itemIndices = dao.createDatabaseIndices(tableName, sortCols, false, this.execute());
 
@@ -995,10 +1463,10 @@ public class IndexBrowse
 			if (bi.isMetadataIndex())
 			{
 	            // if this is a single view, create the DISTINCT tables and views
-                String distinctTableName = bi.getDistinctTableName();
-				String distinctSeq = bi.getSequenceName(true, false);
-                String distinctMapName = bi.getMapTableName();
-				String mapSeq = bi.getSequenceName(false, true);
+                String distinctTableName = tableName(bi.getDistinctTableName());
+				String distinctSeq = sequenceName(bi.getSequenceName(true, false));
+                String distinctMapName = tableName(bi.getMapTableName());
+				String mapSeq = sequenceName(bi.getSequenceName(false, true));
 
 				// FIXME: at the moment we have not defined INDEXes for this data
 				// add this later when necessary
@@ -1062,7 +1530,7 @@ public class IndexBrowse
 	    {
 	    	output.message("Preparing browse tables");
 	    	
-	    	prepTables();
+	    	prepShadowTables();
 	    	
 	    	output.message("Browse tables prepared");
 	    }
@@ -1073,8 +1541,17 @@ public class IndexBrowse
 	    
 	    output.message("tables prepped (" + Long.toString(prep) + " ms, " + Long.toString(prepinit) + " ms)");
 	    
+	    // the old tables carry on being updated while the new ones are built
+	    Date rebuildStart = new Date();
+	    
 	    int count = createIndex();
 	    
+	    if (shadow)
+	    {
+	        catchUpShadowTables(rebuildStart);
+	        swapShadowTables();
+	    }
+	    
 	    context.complete();
 	    
 	    Date endDate = new Date();
@@ -1096,13 +1573,27 @@ public class IndexBrowse
 	    output.message("Browse indexing completed");
 	}
 
+    /**
+     * Prepare the tables of a rebuild alongside the browse tables, which
+     * carry on serving browses until the new ones are swapped in, and index
+     * into them from now on
+     * 
+     * @throws BrowseException
+     */
+    void prepShadowTables()
+        throws BrowseException
+    {
+        shadow = true;
+        prepTables();
+    }
+
     /**
      * create the indices for all the items
      * 
      * @return
      * @throws BrowseException
      */
-    private int createIndex()
+    int createIndex()
     	throws BrowseException
     {
     	try
@@ -1118,6 +1609,14 @@ public class IndexBrowse
             BrowseItemDAO biDao = BrowseDAOFactory.getItemInstance(context);
             BrowseItem[] items = biDao.findAll();
 
+            // new tables are not seen until swapped in, so can be
+            // written by several threads
+            if (shadow && threads > 1 && items.length > 1)
+            {
+                createIndexParallel(items);
+                return items.length;
+            }
+
     		// go through every item id, grab the relevant metadata
     		// and write it into the database
     		
@@ -1143,6 +1642,133 @@ public class IndexBrowse
     	}
     }
     
+    /**
+     * Index the given items into the tables of a rebuild with several threads,
+     * each with its own context.  Each thread commits every
+     * <code>COMMIT_INTERVAL</code> items; new distinct values are committed as
+     * they are added, so that every thread can map items to them.
+     * 
+     * @param items	the items to index
+     * @throws BrowseException
+     */
+    private void createIndexParallel(final BrowseItem[] items)
+        throws BrowseException
+    {
+        int workerCount = Math.min(threads, items.length);
+        output.message("Indexing " + items.length + " items with " + workerCount + " threads");
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        SharedDistinctIDs shared = null;
+        Context[] contexts = new Context[workerCount];
+        Thread[] workers = new Thread[workerCount];
+        try
+        {
+            shared = new SharedDistinctIDs(new Context());
+
+            // Create the workers' contexts up front, so that a failure to get
+            // a database connection is reported before anything is indexed
+            for (int i = 0; i < workerCount; i++)
+            {
+                contexts[i] = new Context();
+                contexts[i].setIgnoreAuthorization(true);
+
+                final Context workerContext = contexts[i];
+                final IndexBrowse worker = new IndexBrowse(workerContext);
+                worker.shadow = true;
+                worker.sharedDistinctIDs = shared;
+
+                workers[i] = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            int count = 0;
+                            int j;
+                            while (failure.get() == null && (j = next.getAndIncrement()) < items.length)
+                            {
+                                BrowseItem item = new BrowseItem(workerContext, items[j].getID(),
+                                        items[j].isArchived(), items[j].isWithdrawn());
+                                worker.indexItem(new ItemMetadataProxy(item.getID(), item), true);
+
+                                if (++count % COMMIT_INTERVAL == 0)
+                                {
+                                    workerContext.commit();
+                                    workerContext.clearCache();
+                                }
+                            }
+                            workerContext.commit();
+                        }
+                        catch (Exception e)
+                        {
+                            log.error("caught exception: ", e);
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }, "IndexBrowse-" + i);
+            }
+        }
+        catch (SQLException e)
+        {
+            abortAll(contexts, shared);
+            throw new BrowseException(e);
+        }
+        catch (BrowseException e)
+        {
+            abortAll(contexts, shared);
+            throw e;
+        }
+
+        try
+        {
+            for (Thread worker : workers)
+            {
+                worker.start();
+            }
+
+            for (Thread worker : workers)
+            {
+                try
+                {
+                    worker.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+        finally
+        {
+            abortAll(contexts, shared);
+        }
+
+        // leave the old tables in place if the rebuild is incomplete
+        if (failure.get() != null)
+        {
+            throw new BrowseException("Browse rebuild failed; the existing browse tables have been kept", failure.get());
+        }
+    }
+
+    private static void abortAll(Context[] contexts, SharedDistinctIDs shared)
+    {
+        for (Context c : contexts)
+        {
+            if (c != null && c.isValid())
+            {
+                c.abort();
+            }
+        }
+
+        if (shared != null)
+        {
+            shared.close();
+        }
+    }
+
     /**
      * Currently does nothing
      *
@@ -1184,6 +1810,82 @@ public class IndexBrowse
 		return field;
 	}
 	
+    /**
+     * Distinct values pending pruning, for one distinct table
+     */
+    private static class PendingPrune
+    {
+        private final String distinctTable;
+        private final String mapTable;
+        private final Set<Integer> distinctIds = new HashSet<Integer>();
+
+        PendingPrune(String distinctTable, String mapTable)
+        {
+            this.distinctTable = distinctTable;
+            this.mapTable = mapTable;
+        }
+    }
+
+    /**
+     * Finds and adds distinct values for all the threads of a rebuild.  New
+     * values are committed straight away, in a context of their own, so that
+     * all the threads see them and each value is added only once.  The most
+     * recently used ids are cached.
+     */
+    private static class SharedDistinctIDs
+    {
+        private static final int CACHE_SIZE = 100000;
+
+        private final Context context;
+        private final BrowseCreateDAO dao;
+        private final boolean caseInsensitive =
+                ConfigurationManager.getBooleanProperty("webui.browse.metadata.case-insensitive", false);
+
+        private final Map<String, Integer> cache = new LinkedHashMap<String, Integer>(1024, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+            {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        SharedDistinctIDs(Context context) throws BrowseException
+        {
+            this.context = context;
+            this.dao = BrowseDAOFactory.getCreateInstance(context);
+        }
+
+        synchronized int getDistinctID(String table, String value, String authority, String sortValue)
+            throws BrowseException
+        {
+            String key = table + '\u0000' + (caseInsensitive ? value.toUpperCase() : value) + '\u0000' + authority;
+            Integer id = cache.get(key);
+            if (id == null)
+            {
+                try
+                {
+                    id = Integer.valueOf(dao.getDistinctID(table, value, authority, sortValue));
+                    context.commit();
+                }
+                catch (SQLException e)
+                {
+                    throw new BrowseException(e);
+                }
+                cache.put(key, id);
+            }
+
+            return id.intValue();
+        }
+
+        synchronized void close()
+        {
+            if (context.isValid())
+            {
+                context.abort();
+            }
+        }
+    }
+
 	// private inner class
 	//	 Hides the Item / BrowseItem in such a way that we can remove
 	//	 the duplication in indexing an item.
@@ -0,0 +1,160 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.Item;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Class for keeping the cached item counts of communities and collections
+ * (see ItemCounter) up to date from content events, so that they do not
+ * have to be rebuilt.  Does nothing unless <code>webui.strengths.cache</code>
+ * is true.
+ *
+ * Collections which items were added to or removed from (including
+ * mapping, unmapping and deletion), and the collections of items which were
+ * installed, withdrawn or reinstated, are recounted in end().  The
+ * difference is added to the counts of the communities above them.
+ * Communities which collections or sub-communities were added to or removed
+ * from are recalculated from the counts of their children, and the
+ * difference added to the communities above them in the same way.
+ *
+ * Recommended filter:  Item+Install|Modify:Collection|Community+Add|Remove
+ *
+ * @version $Revision$
+ */
+public class ItemCountConsumer implements Consumer
+{
+    /** log4j logger */
+    private static Logger log = Logger.getLogger(ItemCountConsumer.class);
+
+    /** ids of the collections to recount */
+    private Set<Integer> collections = null;
+
+    /** ids of the communities to recalculate */
+    private Set<Integer> communities = null;
+
+    public void initialize()
+        throws Exception
+    {
+
+    }
+
+    public void consume(Context ctx, Event event)
+        throws Exception
+    {
+        if (!ConfigurationManager.getBooleanProperty("webui.strengths.cache"))
+        {
+            return;
+        }
+
+        if (collections == null)
+        {
+            collections = new HashSet<Integer>();
+            communities = new HashSet<Integer>();
+        }
+
+        int st = event.getSubjectType();
+        int et = event.getEventType();
+
+        switch (st)
+        {
+        // installing, withdrawing or reinstating an item changes whether it
+        // is counted in all of its collections
+        case Constants.ITEM:
+            if (et == Event.INSTALL
+                    || (et == Event.MODIFY && ("WITHDRAW".equals(event.getDetail())
+                            || "REINSTATE".equals(event.getDetail()))))
+            {
+                Item item = (Item) event.getSubject(ctx);
+                if (item != null)
+                {
+                    Collection[] itemCollections = item.getCollections();
+                    for (int i = 0; i < itemCollections.length; i++)
+                    {
+                        collections.add(Integer.valueOf(itemCollections[i].getID()));
+                    }
+                }
+            }
+            break;
+        // items added to or removed from a collection
+        case Constants.COLLECTION:
+            if (event.getObjectType() == Constants.ITEM && (et == Event.ADD || et == Event.REMOVE))
+            {
+                collections.add(Integer.valueOf(event.getSubjectID()));
+            }
+            break;
+        // collections or sub-communities added to or removed from a community
+        case Constants.COMMUNITY:
+            if ((event.getObjectType() == Constants.COLLECTION || event.getObjectType() == Constants.COMMUNITY)
+                    && (et == Event.ADD || et == Event.REMOVE))
+            {
+                communities.add(Integer.valueOf(event.getSubjectID()));
+            }
+            break;
+        default:
+            log.debug("consume() ignoring event: " + event.toString());
+        }
+    }
+
+    public void end(Context ctx)
+        throws Exception
+    {
+        if (collections != null && (!collections.isEmpty() || !communities.isEmpty()))
+        {
+            ItemCounter counter = new ItemCounter(ctx);
+
+            try
+            {
+                // containers deleted in the same transaction are no longer
+                // found, and their counts have already been removed
+                for (Integer id : communities)
+                {
+                    Community community = Community.find(ctx, id.intValue());
+                    if (community != null)
+                    {
+                        counter.update(community);
+                    }
+                }
+
+                for (Integer id : collections)
+                {
+                    Collection collection = Collection.find(ctx, id.intValue());
+                    if (collection != null)
+                    {
+                        counter.update(collection);
+                    }
+                }
+            }
+            catch (ItemCountException e)
+            {
+                // the counts are committed with the rest of the transaction;
+                // if they are now wrong, the itemcounter rebuilds them
+                log.error("caught exception: ", e);
+            }
+        }
+
+        collections = null;
+        communities = null;
+    }
+
+    public void finish(Context ctx)
+    {
+
+    }
+}
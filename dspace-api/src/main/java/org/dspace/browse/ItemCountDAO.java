@@ -47,6 +47,18 @@ public interface ItemCountDAO
 	 */
 	public void collectionCount(Collection collection, int count) throws ItemCountException;
 	
+	/**
+	 * Add the given (possibly negative) number to the number of items in the
+	 * given community, in a single update so that concurrent changes are not
+	 * lost.  Nothing is stored if there is no count for the community yet.
+	 * 
+	 * @param community
+	 * @param delta
+	 * @return whether there was a count for the community to update
+	 * @throws ItemCountException
+	 */
+	public boolean addToCommunityCount(Community community, int delta) throws ItemCountException;
+	
 	/**
 	 * Get the number of items in the given DSpaceObject container.  This method will
 	 * only succeed if the DSpaceObject is an instance of either a Community or a
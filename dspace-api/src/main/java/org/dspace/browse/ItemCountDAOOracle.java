@@ -55,6 +55,9 @@ public class ItemCountDAOOracle implements ItemCountDAO
 	/** SQL to update an existing community record */
 	private String communityUpdate = "UPDATE community_item_count SET count = ? WHERE community_id = ?";
 	
+	/** SQL to add to an existing community record */
+	private String communityAdd = "UPDATE community_item_count SET count = count + ? WHERE community_id = ?";
+	
 	/** SQL to remove a community record */
 	private String communityRemove = "DELETE FROM community_item_count WHERE community_id = ?";
 	
@@ -142,6 +145,29 @@ public class ItemCountDAOOracle implements ItemCountDAO
         }
     }
 
+	/**
+	 * Add to the count of the given community
+	 * 
+	 * @param community
+	 * @param delta
+	 * @return whether there was a count for the community to update
+	 * @throws ItemCountException
+	 */
+	public boolean addToCommunityCount(Community community, int delta)
+		throws ItemCountException
+	{
+		try
+		{
+			Object[] params = { Integer.valueOf(delta), Integer.valueOf(community.getID()) };
+			return DatabaseManager.updateQuery(context, communityAdd, params) > 0;
+		}
+		catch (SQLException e)
+		{
+			log.error("caught exception: ", e);
+			throw new ItemCountException(e);
+		}
+	}
+
 	/**
 	 * Set the dspace context to use
 	 * 
@@ -15,6 +15,8 @@ import org.dspace.content.DSpaceObject;
 import org.dspace.core.ConfigurationManager;
 
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class provides a standard interface to all item counting
@@ -28,6 +30,11 @@ import java.sql.SQLException;
  * the data cache is not being used, this class will return direct
  * real time counts of content.
  * 
+ * Once the cache has been built, ItemCountConsumer keeps it up to date
+ * as items are installed, withdrawn, reinstated, mapped and removed, by
+ * recounting only the collections affected and adding the difference to
+ * the communities above them.
+ * 
  * @author Richard Jones
  *
  */
@@ -44,8 +51,8 @@ public class ItemCounter
 	
 	/**
 	 * method invoked by CLI which will result in the number of items
-	 * in each community and collection being cached.  These counts will
-	 * not update themselves until this is run again.
+	 * in each community and collection being cached.  These counts are
+	 * then kept up to date by ItemCountConsumer, if it is enabled.
 	 * 
 	 * @param args
 	 */
@@ -75,7 +82,9 @@ public class ItemCounter
 	/**
 	 * This method does the grunt work of drilling through and iterating
 	 * over all of the communities and collections in the system and 
-	 * obtaining and caching the item counts for each one.
+	 * obtaining and caching the item counts for each one.  Each collection
+	 * is counted once, and each community's count is the sum of its
+	 * children's.
 	 * 
 	 * @throws ItemCountException
 	 */
@@ -84,10 +93,11 @@ public class ItemCounter
 	{
 		try
 		{
+			Map<Integer, Integer> counted = new HashMap<Integer, Integer>();
 			Community[] tlc = Community.findAllTop(context);
 			for (int i = 0; i < tlc.length; i++)
 			{
-				count(tlc[i]);
+				count(tlc[i], counted);
 			}
 		}
 		catch (SQLException e)
@@ -154,40 +164,159 @@ public class ItemCounter
 		dao.remove(dso);
 	}
 	
+	/**
+	 * Recount the items in the given collection, and bring the cached
+	 * counts of the collection and of every community above it up to date.
+	 * 
+	 * @param collection
+	 * @throws ItemCountException
+	 */
+	public void update(Collection collection)
+		throws ItemCountException
+	{
+		try
+		{
+			int count = collection.countItems();
+			int delta = count - dao.getCount(collection);
+			dao.collectionCount(collection, count);
+			
+			// the communities the collection appears in, directly or
+			// through sub-communities (nearest first)
+			if (delta != 0)
+			{
+				Community[] parents = collection.getCommunities();
+				for (int i = 0; i < parents.length; i++)
+				{
+					addToCount(parents[i], delta);
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			log.error("caught exception: ", e);
+			throw new ItemCountException(e);
+		}
+	}
+	
+	/**
+	 * Recalculate the cached count of the given community from the cached
+	 * counts of its sub-communities and collections, after they have been
+	 * added or removed, and bring the counts of the communities above it
+	 * up to date.
+	 * 
+	 * @param community
+	 * @throws ItemCountException
+	 */
+	public void update(Community community)
+		throws ItemCountException
+	{
+		try
+		{
+			int count = sumOfChildren(community);
+			int delta = count - dao.getCount(community);
+			dao.communityCount(community, count);
+			
+			if (delta != 0)
+			{
+				Community[] parents = community.getAllParents();
+				for (int i = 0; i < parents.length; i++)
+				{
+					addToCount(parents[i], delta);
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			log.error("caught exception: ", e);
+			throw new ItemCountException(e);
+		}
+	}
+	
+	/**
+	 * Add the given number to the cached count of the community.
+	 * 
+	 * @param community
+	 * @param delta
+	 * @throws ItemCountException
+	 */
+	private void addToCount(Community community, int delta)
+		throws ItemCountException, SQLException
+	{
+		if (!dao.addToCommunityCount(community, delta))
+		{
+			// not counted yet, so count it from its children (which
+			// already include the change)
+			dao.communityCount(community, sumOfChildren(community));
+		}
+	}
+	
+	/**
+	 * Add up the cached counts of the sub-communities and collections of
+	 * the given community.
+	 * 
+	 * @param community
+	 * @return the sum of their counts
+	 * @throws ItemCountException
+	 */
+	private int sumOfChildren(Community community)
+		throws ItemCountException, SQLException
+	{
+		int count = 0;
+		
+		Community[] scs = community.getSubcommunities();
+		for (int i = 0; i < scs.length; i++)
+		{
+			count += dao.getCount(scs[i]);
+		}
+		
+		Collection[] cols = community.getCollections();
+		for (int i = 0; i < cols.length; i++)
+		{
+			count += dao.getCount(cols[i]);
+		}
+		
+		return count;
+	}
+	
 	/**
 	 * count and cache the number of items in the community.  This
 	 * will include all sub-communities and collections in the
 	 * community.  It will also recurse into sub-communities and
-	 * collections and call count() on them also.
+	 * collections and call count() on them also, and add up their
+	 * counts.
 	 * 
 	 * Therefore, the count the contents of the entire system, it is
 	 * necessary just to call this method on each top level community
 	 * 
 	 * @param community
+	 * @param counted the counts of the collections counted so far, by id
+	 * @return the number of items in the community
 	 * @throws ItemCountException
 	 */
-	private void count(Community community)
+	private int count(Community community, Map<Integer, Integer> counted)
 		throws ItemCountException
 	{
 		try
 		{
-			// first count the community we are in
-			int count = community.countItems();
-			dao.communityCount(community, count);
+			int count = 0;
 			
-			// now get the sub-communities
+			// first get the sub-communities
 			Community[] scs = community.getSubcommunities();
 			for (int i = 0; i < scs.length; i++)
 			{
-				count(scs[i]);
+				count += count(scs[i], counted);
 			}
 			
 			// now get the collections
 			Collection[] cols = community.getCollections();
 			for (int i = 0; i < cols.length; i++)
 			{
-				count(cols[i]);
+				count += count(cols[i], counted);
 			}
+			
+			// then the community we are in is the sum of them
+			dao.communityCount(community, count);
+			return count;
 		}
 		catch (SQLException e)
 		{
@@ -197,18 +326,29 @@ public class ItemCounter
 	}
 	
 	/**
-	 * count and cache the number of items in the given collection
+	 * count and cache the number of items in the given collection, unless
+	 * it has already been counted (through another community)
 	 * 
 	 * @param collection
+	 * @param counted the counts of the collections counted so far, by id
+	 * @return the number of items in the collection
 	 * @throws ItemCountException
 	 */
-	private void count(Collection collection)
+	private int count(Collection collection, Map<Integer, Integer> counted)
 		throws ItemCountException
 	{
+		Integer ccount = counted.get(Integer.valueOf(collection.getID()));
+		if (ccount != null)
+		{
+			return ccount.intValue();
+		}
+		
 		try
 		{
-			int ccount = collection.countItems();
-			dao.collectionCount(collection, ccount);
+			ccount = Integer.valueOf(collection.countItems());
+			dao.collectionCount(collection, ccount.intValue());
+			counted.put(Integer.valueOf(collection.getID()), ccount);
+			return ccount.intValue();
 		}
 		catch (SQLException e)
 		{
@@ -7,6 +7,7 @@
  */
 package org.dspace.checker;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
@@ -66,4 +67,40 @@ public class BitstreamDAO
 
         return is;
     }
+
+    /**
+     * Gets the file holding the bitstream, if it is in a local assetstore.
+     * 
+     * @param id
+     *            the bitstream id.
+     * 
+     * @return the file, or null if the bitstream is not in a local assetstore
+     * 
+     * @throws IOException
+     *             Rethrown from BitstreamStorageManager
+     * @throws SQLException
+     *             Rethrown from BitstreamStorageManager
+     * 
+     * @see org.dspace.storage.bitstore.BitstreamStorageManager#retrieveLocalFile(Context,
+     *      int)
+     */
+    public File getBitstreamFile(int id) throws IOException, SQLException
+    {
+        Context context = null;
+        File file = null;
+        try
+        {
+            context = new Context();
+            file = BitstreamStorageManager.retrieveLocalFile(context, id);
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+
+        return file;
+    }
 }
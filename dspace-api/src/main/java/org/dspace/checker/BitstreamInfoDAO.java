@@ -137,6 +137,17 @@ public final class BitstreamInfoDAO extends DAOSupport
         + "order by trunc(last_process_end_date, 'mi'), "
         + "bitstream_id " + "ASC) WHERE rownum=1";
     
+    /**
+     * Selects the bitstreams following a given one in order of last
+     * processing end date, for reading them a page at a time. Conditions and
+     * a limit are added by getOldestBitstreams.
+     */
+    private static final String GET_OLDEST_BITSTREAMS = "select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum where to_be_processed = true ";
+
+    private static final String GET_OLDEST_BITSTREAMS_ORACLE = "select bitstream_id, last_process_end_date "
+            + "from most_recent_checksum where to_be_processed = 1 ";
+
     /** SQL query to retrieve bitstreams for a given item. */
     private static final String ITEM_BITSTREAMS = "SELECT b2b.bitstream_id "
             + "FROM bundle2bitstream b2b, item2bundle i2b WHERE "
@@ -217,6 +228,59 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Updates most_recent_checksum with the results of several checks, and
+     * records them in checksum_history, in a single transaction.
+     * 
+     * @param infos
+     *            The BitstreamInfos to update.
+     */
+    public void update(List<BitstreamInfo> infos)
+    {
+        if (infos.isEmpty())
+        {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement stmt = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            stmt = conn.prepareStatement(UPDATE_CHECKSUM);
+            for (BitstreamInfo info : infos)
+            {
+                stmt.setString(1, (info.getCalculatedChecksum() != null) ? info
+                        .getCalculatedChecksum() : "");
+                stmt.setString(2, info.getStoredChecksum());
+                stmt.setBoolean(3, ChecksumCheckResults.CHECKSUM_MATCH.equals(info
+                        .getChecksumCheckResult()));
+                stmt.setBoolean(4, info.getToBeProcessed());
+                stmt.setTimestamp(5, new Timestamp(info.getProcessStartDate()
+                        .getTime()));
+                stmt.setTimestamp(6, new Timestamp(info.getProcessEndDate()
+                        .getTime()));
+                stmt.setString(7, info.getChecksumCheckResult());
+                stmt.setInt(8, info.getBitstreamId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+
+            checksumHistoryDAO.insertHistory(infos, conn);
+            conn.commit();
+        }
+        catch (SQLException e)
+        {
+            LOG.error("Problem updating checksum rows. " + e.getMessage(), e);
+            throw new IllegalStateException("Problem updating checksum rows. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(stmt, conn);
+        }
+    }
+
     /**
      * Find a bitstream by its id.
      * 
@@ -478,6 +542,88 @@ public final class BitstreamInfoDAO extends DAOSupport
         }
     }
 
+    /**
+     * Get the next bitstreams to check in order of last processing end date,
+     * starting after a given bitstream, so that bitstreams can be read a page
+     * at a time while earlier ones are still being checked.
+     * 
+     * @param lessThanDate
+     *            only bitstreams last started before this date, or null for all
+     * @param afterDate
+     *            the last processing end date of the bitstream to start
+     *            after, or null to start at the oldest
+     * @param afterId
+     *            the id of the bitstream to start after
+     * @param limit
+     *            the maximum number of bitstreams to return
+     * @param ids
+     *            list to add the ids of the bitstreams to
+     * @return the last processing end date of the last bitstream added, to
+     *         start the next page after, or null if none were found
+     */
+    public Timestamp getOldestBitstreams(Timestamp lessThanDate,
+            Timestamp afterDate, int afterId, int limit, List<Integer> ids)
+    {
+        boolean oracle = "oracle".equals(ConfigurationManager.getProperty("db.name"));
+        StringBuilder query = new StringBuilder(oracle ? GET_OLDEST_BITSTREAMS_ORACLE
+                : GET_OLDEST_BITSTREAMS);
+        if (lessThanDate != null)
+        {
+            query.append("and last_process_start_date < ? ");
+        }
+        if (afterDate != null)
+        {
+            query.append("and (last_process_end_date > ? or "
+                    + "(last_process_end_date = ? and bitstream_id > ?)) ");
+        }
+        query.append("order by last_process_end_date, bitstream_id");
+        String sql = oracle ? "SELECT * FROM (" + query + ") WHERE rownum <= ?"
+                : query + " LIMIT ?";
+
+        Timestamp lastDate = null;
+
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try
+        {
+            conn = DatabaseManager.getConnection();
+            ps = conn.prepareStatement(sql);
+
+            int index = 1;
+            if (lessThanDate != null)
+            {
+                ps.setTimestamp(index++, lessThanDate);
+            }
+            if (afterDate != null)
+            {
+                ps.setTimestamp(index++, afterDate);
+                ps.setTimestamp(index++, afterDate);
+                ps.setInt(index++, afterId);
+            }
+            ps.setInt(index, limit);
+
+            rs = ps.executeQuery();
+            while (rs.next())
+            {
+                ids.add(Integer.valueOf(rs.getInt(1)));
+                lastDate = rs.getTimestamp(2);
+            }
+        }
+        catch (SQLException e)
+        {
+            LOG.error("get oldest bitstreams " + e.getMessage(), e);
+            throw new IllegalStateException("get oldest bitstreams. " + e.getMessage(), e);
+        }
+        finally
+        {
+            cleanup(ps, conn, rs);
+        }
+
+        return lastDate;
+    }
+
     /**
      * Get the bitstream ids for a given Item
      * 
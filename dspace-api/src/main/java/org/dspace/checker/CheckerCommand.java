@@ -7,13 +7,19 @@
  */
 package org.dspace.checker;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.dspace.core.Utils;
@@ -25,6 +31,13 @@ import org.dspace.core.Utils;
  * against the last calculated checksum for that bitstream.
  * </p>
  * 
+ * <p>
+ * Several bitstreams can be checked in parallel (see setThreads), in which
+ * case results are written to the database in batches. Reading can be limited
+ * to a maximum rate (see setMaxBytesPerSecond) so that checking does not
+ * starve other users of the assetstore.
+ * </p>
+ * 
  * @author Jim Downing
  * @author Grace Carpenter
  * @author Nathan Sarr
@@ -44,6 +57,21 @@ public final class CheckerCommand
     /** 4 Meg byte array for reading file. */
     private int BYTE_ARRAY_SIZE = 4 * 1024;
 
+    /** Size of the direct buffers used to read files in local assetstores. */
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
+    /** Number of results written at once when checking in parallel. */
+    private static final int RESULT_BATCH_SIZE = 100;
+
+    /** A direct buffer for each thread reading files. */
+    private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<ByteBuffer>()
+    {
+        protected ByteBuffer initialValue()
+        {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+        }
+    };
+
     /** BitstreamInfoDAO dependency. */
     private BitstreamInfoDAO bitstreamInfoDAO = null;
 
@@ -71,6 +99,21 @@ public final class CheckerCommand
     /** Report all processing */
     private boolean reportVerbose = false;
 
+    /** Number of bitstreams to check in parallel */
+    private int threads = 1;
+
+    /** Maximum rate to read bitstreams at, in bytes per second, 0 for no limit */
+    private long maxBytesPerSecond = 0;
+
+    /** Limits the rate bitstreams are read at, or null */
+    private ReadThrottle throttle = null;
+
+    /** Results not yet written, when checking in parallel */
+    private final List<BitstreamInfo> pendingResults = new ArrayList<BitstreamInfo>();
+
+    /** The first error which stopped a worker, when checking in parallel */
+    private volatile RuntimeException workerFailure = null;
+
     /**
      * Default constructor uses DSpace plugin manager to construct dependencies.
      */
@@ -111,6 +154,14 @@ public final class CheckerCommand
         // bitstream table - this always done.
         bitstreamInfoDAO.updateMissingBitstreams();
 
+        throttle = (maxBytesPerSecond > 0) ? new ReadThrottle(maxBytesPerSecond) : null;
+
+        if (threads > 1)
+        {
+            processParallel();
+            return;
+        }
+
         int id = dispatcher.next();
 
         while (id != BitstreamDispatcher.SENTINEL)
@@ -118,16 +169,176 @@ public final class CheckerCommand
             LOG.debug("Processing bitstream id = " + id);
             BitstreamInfo info = checkBitstream(id);
 
-            if (reportVerbose
-                    || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+            collect(info);
+
+            id = dispatcher.next();
+        }
+    }
+
+    /**
+     * Check bitstreams from the dispatcher with a pool of worker threads,
+     * writing their results in batches. Results still waiting to be written
+     * are also written if the JVM is shut down, so an interrupted run loses
+     * as little work as possible.
+     */
+    private void processParallel()
+    {
+        Thread flusher = new Thread("Checker-flush")
+        {
+            public void run()
+            {
+                flushResults();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(flusher);
+
+        try
+        {
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++)
+            {
+                workers[i] = new Thread("Checker-" + i)
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            int id;
+                            while (workerFailure == null
+                                    && (id = nextBitstream()) != BitstreamDispatcher.SENTINEL)
+                            {
+                                LOG.debug("Processing bitstream id = " + id);
+                                BitstreamInfo info = checkBitstream(id);
+                                collect(info);
+                            }
+                        }
+                        catch (RuntimeException e)
+                        {
+                            LOG.error("Checker worker failed: " + e.getMessage(), e);
+                            if (workerFailure == null)
+                            {
+                                workerFailure = e;
+                            }
+                        }
+                    }
+                };
+                workers[i].start();
+            }
+
+            for (Thread worker : workers)
+            {
+                try
+                {
+                    worker.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    workerFailure = new IllegalStateException("Interrupted while checking", e);
+                }
+            }
+        }
+        finally
+        {
+            flushResults();
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook(flusher);
+            }
+            catch (IllegalStateException e)
+            {
+                // already shutting down
+            }
+        }
+
+        if (workerFailure != null)
+        {
+            throw workerFailure;
+        }
+    }
+
+    /**
+     * Get the next bitstream id from the dispatcher. Dispatchers are not
+     * required to be thread safe.
+     * 
+     * @return the bitstream id, or BitstreamDispatcher.SENTINEL
+     */
+    private int nextBitstream()
+    {
+        synchronized (dispatcher)
+        {
+            return dispatcher.next();
+        }
+    }
+
+    /**
+     * Pass the results of a check to the collector, if they are to be
+     * reported.
+     * 
+     * @param info
+     *            the checked bitstream
+     */
+    private void collect(BitstreamInfo info)
+    {
+        if (reportVerbose
+                || !ChecksumCheckResults.CHECKSUM_MATCH.equals(info.getChecksumCheckResult()))
+        {
+            synchronized (collector)
             {
                 collector.collect(info);
             }
+        }
+    }
 
-            id = dispatcher.next();
+    /**
+     * Record the results of a check in most_recent_checksum and
+     * checksum_history, at once or, when checking in parallel, with the next
+     * batch.
+     * 
+     * @param info
+     *            the checked bitstream
+     */
+    private void recordResult(BitstreamInfo info)
+    {
+        if (threads <= 1)
+        {
+            bitstreamInfoDAO.update(info);
+            checksumHistoryDAO.insertHistory(info);
+            return;
+        }
+
+        List<BitstreamInfo> batch = null;
+        synchronized (pendingResults)
+        {
+            pendingResults.add(info);
+            if (pendingResults.size() >= RESULT_BATCH_SIZE)
+            {
+                batch = new ArrayList<BitstreamInfo>(pendingResults);
+                pendingResults.clear();
+            }
+        }
+
+        if (batch != null)
+        {
+            bitstreamInfoDAO.update(batch);
         }
     }
 
+    /**
+     * Write any results still waiting to be written.
+     */
+    private void flushResults()
+    {
+        List<BitstreamInfo> batch;
+        synchronized (pendingResults)
+        {
+            batch = new ArrayList<BitstreamInfo>(pendingResults);
+            pendingResults.clear();
+        }
+
+        bitstreamInfoDAO.update(batch);
+    }
+
     /**
      * Check a specified bitstream.
      * 
@@ -202,11 +413,59 @@ public final class CheckerCommand
         int bytesRead = -1;
         do {
             bytesRead = dStream.read(bytes, 0, BYTE_ARRAY_SIZE);
+            if (throttle != null && bytesRead > 0)
+            {
+                throttle.acquire(bytesRead);
+            }
         } while (bytesRead != -1);
 
         return Utils.toHex(dStream.getMessageDigest().digest());
     }
 
+    /**
+     * Digest a file with a direct buffer and get the checksum value.
+     * 
+     * @param file
+     *            the file to digest.
+     * @param algorithm
+     *            the algorithm to use when digesting.
+     * @return digest
+     * 
+     * @throws java.security.NoSuchAlgorithmException
+     *             if the requested algorithm is not provided by the system
+     *             security provider.
+     * @throws java.io.IOException
+     *             If an exception arises whilst reading the file
+     */
+    private String digestFile(File file, String algorithm)
+            throws java.security.NoSuchAlgorithmException, java.io.IOException
+    {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        ByteBuffer buffer = directBuffer.get();
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try
+        {
+            buffer.clear();
+            while (channel.read(buffer) != -1)
+            {
+                buffer.flip();
+                if (throttle != null)
+                {
+                    throttle.acquire(buffer.remaining());
+                }
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        return Utils.toHex(digest.digest());
+    }
+
     /**
      * Compares two checksums.
      * 
@@ -250,8 +509,7 @@ public final class CheckerCommand
         info.setProcessStartDate(new Date());
         info.setProcessEndDate(new Date());
         info.setToBeProcessed(false);
-        bitstreamInfoDAO.update(info);
-        checksumHistoryDAO.insertHistory(info);
+        recordResult(info);
     }
 
     /**
@@ -299,13 +557,24 @@ public final class CheckerCommand
 
         try
         {
-            InputStream bitstream = bitstreamDAO.getBitstream(info
-                    .getBitstreamId());
+            // read files in local assetstores directly
+            File file = bitstreamDAO.getBitstreamFile(info.getBitstreamId());
+            String checksum;
+            if (file != null)
+            {
+                checksum = digestFile(file, info.getChecksumAlgorithm());
+                info.setBitstreamFound(true);
+            }
+            else
+            {
+                InputStream bitstream = bitstreamDAO.getBitstream(info
+                        .getBitstreamId());
 
-            info.setBitstreamFound(true);
+                info.setBitstreamFound(true);
 
-            String checksum = digestStream(bitstream, info
-                    .getChecksumAlgorithm());
+                checksum = digestStream(bitstream, info
+                        .getChecksumAlgorithm());
+            }
 
             info.setCalculatedChecksum(checksum);
 
@@ -345,8 +614,7 @@ public final class CheckerCommand
             info.setProcessEndDate(new Date());
 
             // record new checksum and comparison result in db
-            bitstreamInfoDAO.update(info);
-            checksumHistoryDAO.insertHistory(info);
+            recordResult(info);
         }
     }
 
@@ -433,4 +701,101 @@ public final class CheckerCommand
     {
         this.reportVerbose = reportVerbose;
     }
+
+    /**
+     * Get the number of bitstreams checked in parallel.
+     * 
+     * @return number of threads
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set the number of bitstreams to check in parallel. With more than one,
+     * results are written in batches, and the dispatcher must not dispatch a
+     * bitstream again before its result is written (see
+     * SimpleDispatcher.setPrefetch).
+     * 
+     * @param threads
+     *            number of threads
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Get the maximum rate bitstreams are read at.
+     * 
+     * @return bytes per second, or 0 for no limit
+     */
+    public long getMaxBytesPerSecond()
+    {
+        return maxBytesPerSecond;
+    }
+
+    /**
+     * Set the maximum rate to read bitstreams at, shared by all threads.
+     * 
+     * @param maxBytesPerSecond
+     *            bytes per second, or 0 for no limit
+     */
+    public void setMaxBytesPerSecond(long maxBytesPerSecond)
+    {
+        this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+    }
+
+    /**
+     * Limits the rate bytes are read at, across all threads. Up to a second's
+     * worth of unused allowance can be used in a burst.
+     */
+    private static final class ReadThrottle
+    {
+        private static final long NANOS_PER_SECOND = 1000000000L;
+
+        private final long bytesPerSecond;
+
+        /** when the bytes acquired so far are allowed to have been read */
+        private long next = System.nanoTime();
+
+        ReadThrottle(long bytesPerSecond)
+        {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * Wait until a number of bytes may be read.
+         * 
+         * @param count
+         *            number of bytes
+         */
+        void acquire(int count)
+        {
+            long wait;
+            synchronized (this)
+            {
+                long now = System.nanoTime();
+                if (next < now - NANOS_PER_SECOND)
+                {
+                    next = now - NANOS_PER_SECOND;
+                }
+                next += count * NANOS_PER_SECOND / bytesPerSecond;
+                wait = next - now;
+            }
+
+            if (wait > 0)
+            {
+                try
+                {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
 }
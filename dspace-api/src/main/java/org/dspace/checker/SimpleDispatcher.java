@@ -7,7 +7,9 @@
  */
 package org.dspace.checker;
 
+import java.sql.Timestamp;
 import java.util.Date;
+import java.util.LinkedList;
 
 /**
  * An implementation of the selection strategy that selects bitstreams in the
@@ -36,6 +38,21 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     private BitstreamInfoDAO bitstreamInfoDAO;
 
+    /**
+     * Number of bitstream ids to read ahead, or 0 to read the oldest bitstream
+     * each time
+     */
+    private int prefetch = 0;
+
+    /** Bitstream ids read ahead */
+    private LinkedList<Integer> prefetched = new LinkedList<Integer>();
+
+    /** Last processing end date of the last bitstream read ahead */
+    private Timestamp lastEndDate = null;
+
+    /** Id of the last bitstream read ahead */
+    private int lastId = SENTINEL;
+
     /**
      * Creates a new SimpleDispatcher.
      * 
@@ -66,6 +83,11 @@ public class SimpleDispatcher implements BitstreamDispatcher
      */
     public synchronized int next()
     {
+        if (prefetch > 0)
+        {
+            return nextPrefetched();
+        }
+
         // should process loop infinitely through the
         // bitstreams in most_recent_checksum table?
         if (!loopContinuously && (processStartTime != null))
@@ -79,4 +101,51 @@ public class SimpleDispatcher implements BitstreamDispatcher
         }
 
     }
+
+    /**
+     * Read bitstream ids ahead, a page at a time, rather than asking for the
+     * oldest bitstream each time. This is needed when results are not written
+     * as soon as each bitstream is checked, since the oldest bitstream would
+     * otherwise be dispatched again until its result is written.
+     * 
+     * @param prefetch
+     *            number of ids to read at a time, or 0 to not read ahead
+     */
+    public synchronized void setPrefetch(int prefetch)
+    {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Selects the next candidate bitstream from those read ahead, reading the
+     * next page when they run out.
+     */
+    private int nextPrefetched()
+    {
+        if (prefetched.isEmpty())
+        {
+            Timestamp lessThanDate = (!loopContinuously && (processStartTime != null)) ? new Timestamp(
+                    processStartTime.getTime()) : null;
+
+            Timestamp endDate = bitstreamInfoDAO.getOldestBitstreams(lessThanDate,
+                    lastEndDate, lastId, prefetch, prefetched);
+
+            if (endDate == null && loopContinuously && lastEndDate != null)
+            {
+                // Start again from the oldest
+                endDate = bitstreamInfoDAO.getOldestBitstreams(null, null,
+                        SENTINEL, prefetch, prefetched);
+            }
+
+            if (prefetched.isEmpty())
+            {
+                return SENTINEL;
+            }
+
+            lastEndDate = endDate;
+            lastId = prefetched.getLast().intValue();
+        }
+
+        return prefetched.removeFirst().intValue();
+    }
 }
@@ -7,6 +7,7 @@
  */
 package org.dspace.content;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.SQLException;
@@ -604,6 +605,24 @@ public class Bitstream extends DSpaceObject
                 .getIntColumn("bitstream_id"));
     }
 
+    /**
+     * Get the file holding the bits of this bitstream, if it is kept in a
+     * local assetstore, so that parts of it can be read directly.
+     * 
+     * @return the file, or null if the bitstream is not in a local assetstore
+     * @throws IOException
+     * @throws SQLException
+     * @throws AuthorizeException
+     */
+    public File retrieveLocalFile() throws IOException, SQLException,
+            AuthorizeException
+    {
+        AuthorizeManager.authorizeAction(bContext, this, Constants.READ);
+
+        return BitstreamStorageManager.retrieveLocalFile(bContext, bRow
+                .getIntColumn("bitstream_id"));
+    }
+
     /**
      * Get the bundles this bitstream appears in
      * 
@@ -14,6 +14,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.MissingResourceException;
 
@@ -1377,11 +1378,13 @@ public class Collection extends DSpaceObject
             myCollections = Collection.findAll(context);
         }
 
-        // now build a list of collections you have authorization for
+        // now build a list of collections you have authorization for,
+        // checking them all at once
+        BitSet authorized = AuthorizeManager.authorizeActionBoolean(context,
+                myCollections, actionID);
         for (int i = 0; i < myCollections.length; i++)
         {
-            if (AuthorizeManager.authorizeActionBoolean(context,
-                    myCollections[i], actionID))
+            if (authorized.get(i))
             {
                 myResults.add(myCollections[i]);
             }
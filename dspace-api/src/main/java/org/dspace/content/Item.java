@@ -65,6 +65,12 @@ public class Item extends DSpaceObject
     /** log4j category */
     private static final Logger log = Logger.getLogger(Item.class);
 
+    /**
+     * Maximum number of items loaded by a single query in
+     * <code>prefetchMetadata</code>, keeping IN lists within database limits
+     */
+    private static final int PREFETCH_BATCH_SIZE = 500;
+
     /** Our context */
     private Context ourContext;
 
@@ -218,6 +224,27 @@ public class Item extends DSpaceObject
         return new ItemIterator(context, rows);
     }
 
+    /**
+     * Get all the items in the archive, streaming them from the database so
+     * that walking over a large repository needs a constant amount of memory.
+     * The items are read over a separate connection, so items archived by
+     * this context but not yet committed are not included. The iterator must
+     * be closed once finished with.
+     *
+     * @param context
+     *            DSpace context object
+     * @return an iterator over the items in the archive.
+     * @throws SQLException
+     */
+    public static ItemIterator findAllStreaming(Context context) throws SQLException
+    {
+        String myQuery = "SELECT * FROM item WHERE in_archive='1'";
+
+        TableRowIterator rows = DatabaseManager.queryTableStreaming(context, "item", myQuery);
+
+        return new ItemIterator(context, rows);
+    }
+
     /**
      * Find all the items in the archive by a given submitter. The order is
      * indeterminate. Only items with the "in archive" flag set are included.
@@ -1584,6 +1611,11 @@ public class Item extends DSpaceObject
                 }
             }
 
+            // Rows to remove, and rows to add, are written to the database in
+            // batches once all the metadata has been compared
+            List<Object[]> removedRows = new ArrayList<Object[]>();
+            List<TableRow> addedRows = new ArrayList<TableRow>();
+
             // Now the precalculations are done, iterate through the existing metadata
             // looking for matches
             TableRowIterator tri = retrieveMetadata();
@@ -1683,7 +1715,7 @@ public class Item extends DSpaceObject
                         // delete this row from the DB
                         if (removeRow)
                         {
-                            DatabaseManager.delete(ourContext, tr);
+                            removedRows.add(new Object[] { Integer.valueOf(tr.getIntColumn("metadata_value_id")) });
                             dublinCoreChanged = true;
                             modified = true;
                         }
@@ -1712,11 +1744,15 @@ public class Item extends DSpaceObject
                     metadata.setPlace(placeNum[dcIdx]);
                     metadata.setAuthority(dcv.authority);
                     metadata.setConfidence(dcv.confidence);
-                    metadata.create(ourContext);
+                    addedRows.add(metadata.newRow());
                     dublinCoreChanged = true;
                     modified = true;
                 }
             }
+
+            DatabaseManager.updateQueryBatch(ourContext,
+                    "DELETE FROM MetadataValue WHERE metadata_value_id = ?", removedRows);
+            DatabaseManager.insertBatch(ourContext, addedRows);
         }
 
         if (dublinCoreChanged || modified)
@@ -2644,6 +2680,183 @@ public class Item extends DSpaceObject
         dublinCoreChanged = true;
     }
 
+    /**
+     * Load the metadata of a number of items at once. The metadata of all the
+     * given items which has not already been read from the database is
+     * retrieved with a single query (or one query per
+     * <code>PREFETCH_BATCH_SIZE</code> items), rather than one query per item
+     * when each item's metadata is first accessed. Items which are not yet in
+     * the context cache are instantiated from a single query on the item
+     * table. This is intended for code which works on lists of items, such as
+     * browse or search result pages, the OAI-PMH interface and indexers.
+     *
+     * @param context
+     *            DSpace context object
+     * @param itemIds
+     *            internal IDs of the items to load metadata for. IDs which do
+     *            not correspond to an item are ignored.
+     * @throws SQLException
+     */
+    public static void prefetchMetadata(Context context, int[] itemIds)
+            throws SQLException
+    {
+        List<Item> items = new ArrayList<Item>(itemIds.length);
+        List<Integer> uncached = new ArrayList<Integer>();
+
+        for (int id : itemIds)
+        {
+            Item fromCache = (Item) context.fromCache(Item.class, id);
+
+            if (fromCache != null)
+            {
+                items.add(fromCache);
+            }
+            else
+            {
+                uncached.add(Integer.valueOf(id));
+            }
+        }
+
+        for (int start = 0; start < uncached.size(); start += PREFETCH_BATCH_SIZE)
+        {
+            List<Integer> batch = uncached.subList(start,
+                    Math.min(start + PREFETCH_BATCH_SIZE, uncached.size()));
+
+            TableRowIterator tri = DatabaseManager.queryTable(context, "item",
+                    "SELECT * FROM item WHERE item_id IN (" + DatabaseManager.placeholders(batch.size()) + ")",
+                    batch.toArray());
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow row = tri.next();
+
+                    // another item in this batch may have been loaded already
+                    Item fromCache = (Item) context.fromCache(Item.class,
+                            row.getIntColumn("item_id"));
+
+                    items.add(fromCache != null ? fromCache : new Item(context, row));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        prefetchMetadata(context, items);
+    }
+
+    /**
+     * Load the metadata of the given items with as few queries as possible.
+     * Items whose metadata is already in memory are left untouched.
+     *
+     * @param context
+     *            DSpace context object
+     * @param items
+     *            the items to load metadata for
+     * @throws SQLException
+     */
+    static void prefetchMetadata(Context context, List<Item> items)
+            throws SQLException
+    {
+        Map<Integer, Item> toLoad = new HashMap<Integer, Item>();
+
+        for (Item item : items)
+        {
+            if (!item.dublinCore.isLoaded() && item.getID() > 0)
+            {
+                toLoad.put(Integer.valueOf(item.getID()), item);
+            }
+        }
+
+        List<Integer> ids = new ArrayList<Integer>(toLoad.keySet());
+
+        for (int start = 0; start < ids.size(); start += PREFETCH_BATCH_SIZE)
+        {
+            List<Integer> batch = ids.subList(start,
+                    Math.min(start + PREFETCH_BATCH_SIZE, ids.size()));
+
+            // Start every item off with an empty list, so that items without
+            // any metadata are not queried again later
+            Map<Integer, List<DCValue>> values = new HashMap<Integer, List<DCValue>>();
+            for (Integer id : batch)
+            {
+                values.put(id, new ArrayList<DCValue>());
+            }
+
+            TableRowIterator tri = DatabaseManager.queryTable(context, "MetadataValue",
+                    "SELECT * FROM MetadataValue WHERE item_id IN (" + DatabaseManager.placeholders(batch.size())
+                            + ") ORDER BY item_id, metadata_field_id, place",
+                    batch.toArray());
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    TableRow resultRow = tri.next();
+                    DCValue dcv = toDCValue(context, resultRow);
+
+                    if (dcv != null)
+                    {
+                        values.get(Integer.valueOf(resultRow.getIntColumn("item_id"))).add(dcv);
+                    }
+                }
+            }
+            finally
+            {
+                // close the TableRowIterator to free up resources
+                tri.close();
+            }
+
+            for (Map.Entry<Integer, List<DCValue>> entry : values.entrySet())
+            {
+                toLoad.get(entry.getKey()).dublinCore.set(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Convert a row of the MetadataValue table into a DCValue, resolving
+     * the field and schema from the (in-memory) registry caches.
+     *
+     * @return the value, or null if the field or schema cannot be found
+     */
+    private static DCValue toDCValue(Context c, TableRow resultRow)
+            throws SQLException
+    {
+        // Get the associated metadata field and schema information
+        int fieldID = resultRow.getIntColumn("metadata_field_id");
+        MetadataField field = MetadataField.find(c, fieldID);
+
+        if (field == null)
+        {
+            log.error("Loading item - cannot find metadata field " + fieldID);
+            return null;
+        }
+
+        MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
+        if (schema == null)
+        {
+            log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
+            return null;
+        }
+
+        // Make a DCValue object
+        DCValue dcv = new DCValue();
+        dcv.element = field.getElement();
+        dcv.qualifier = field.getQualifier();
+        dcv.value = resultRow.getStringColumn("text_value");
+        dcv.language = resultRow.getStringColumn("text_lang");
+        //dcv.namespace = schema.getNamespace();
+        dcv.schema = schema.getName();
+        dcv.authority = resultRow.getStringColumn("authority");
+        dcv.confidence = resultRow.getIntColumn("confidence");
+
+        return dcv;
+    }
+
     class MetadataCache
     {
         List<DCValue> metadata = null;
@@ -2663,39 +2876,12 @@ public class Item extends DSpaceObject
                     {
                         while (tri.hasNext())
                         {
-                            TableRow resultRow = tri.next();
-
-                            // Get the associated metadata field and schema information
-                            int fieldID = resultRow.getIntColumn("metadata_field_id");
-                            MetadataField field = MetadataField.find(c, fieldID);
+                            DCValue dcv = toDCValue(c, tri.next());
 
-                            if (field == null)
+                            if (dcv != null)
                             {
-                                log.error("Loading item - cannot find metadata field " + fieldID);
-                            }
-                            else
-                            {
-                                MetadataSchema schema = MetadataSchema.find(c, field.getSchemaID());
-                                if (schema == null)
-                                {
-                                    log.error("Loading item - cannot find metadata schema " + field.getSchemaID() + ", field " + fieldID);
-                                }
-                                else
-                                {
-                                    // Make a DCValue object
-                                    DCValue dcv = new DCValue();
-                                    dcv.element = field.getElement();
-                                    dcv.qualifier = field.getQualifier();
-                                    dcv.value = resultRow.getStringColumn("text_value");
-                                    dcv.language = resultRow.getStringColumn("text_lang");
-                                    //dcv.namespace = schema.getNamespace();
-                                    dcv.schema = schema.getName();
-                                    dcv.authority = resultRow.getStringColumn("authority");
-                                    dcv.confidence = resultRow.getIntColumn("confidence");
-
-                                    // Add it to the list
-                                    metadata.add(dcv);
-                                }
+                                // Add it to the list
+                                metadata.add(dcv);
                             }
                         }
                     }
@@ -2718,6 +2904,11 @@ public class Item extends DSpaceObject
             metadata = m;
         }
 
+        boolean isLoaded()
+        {
+            return metadata != null;
+        }
+
         TableRowIterator retrieveMetadata(int itemId) throws SQLException
         {
             if (itemId > 0)
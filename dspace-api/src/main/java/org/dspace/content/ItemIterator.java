@@ -9,7 +9,9 @@ package org.dspace.content;
 
 import java.sql.SQLException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.dspace.core.Context;
@@ -43,6 +45,12 @@ public class ItemIterator
 
     /** a real iterator which works over the item ids when present */
     private Iterator<Integer> iditr;
+
+    /** number of items to read ahead and load the metadata of in one go */
+    private int prefetchSize = 0;
+
+    /** items read ahead of the caller when prefetching */
+    private LinkedList<Item> prefetched = new LinkedList<Item>();
     
     /**
      * Construct an item iterator using a set of TableRow objects from
@@ -73,6 +81,20 @@ public class ItemIterator
     	iditr = iids.iterator();
     }
     
+    /**
+     * Make this iterator read ahead <code>size</code> items at a time, loading
+     * the metadata of each block of items with a single query (see
+     * <code>Item.prefetchMetadata</code>) rather than one query per item.
+     * Only useful when the caller is going to read the items' metadata.
+     * 
+     * @param size
+     *            number of items to read ahead, or 0 to disable prefetching
+     */
+    public void setPrefetchSize(int size)
+    {
+        prefetchSize = size;
+    }
+
     /**
      * Find out if there are any more items to iterate over
      * 
@@ -81,7 +103,11 @@ public class ItemIterator
      */
     public boolean hasNext() throws SQLException
     {
-    	if (iditr != null)
+        if (!prefetched.isEmpty())
+        {
+            return true;
+        }
+    	else if (iditr != null)
     	{
     		return iditr.hasNext();
     	}
@@ -101,7 +127,11 @@ public class ItemIterator
      */
     public Item next() throws SQLException
     {
-    	if (iditr != null)
+        if (prefetchSize > 0)
+        {
+            return nextPrefetched();
+        }
+    	else if (iditr != null)
     	{
     		return nextByID();
     	}
@@ -112,6 +142,39 @@ public class ItemIterator
     	return null;
     }
     
+    /**
+     * Return the next item from the read-ahead buffer, refilling the buffer
+     * and loading the metadata of the buffered items when it is empty.
+     * 
+     * @return	the next item, or null if none
+     * @throws SQLException
+     */
+    private Item nextPrefetched()
+        throws SQLException
+    {
+        if (prefetched.isEmpty() && (iditr != null || itemRows != null))
+        {
+            List<Item> block = new ArrayList<Item>(prefetchSize);
+
+            while (block.size() < prefetchSize)
+            {
+                Item item = (iditr != null) ? nextByID() : nextByRow();
+
+                if (item == null)
+                {
+                    break;
+                }
+
+                block.add(item);
+            }
+
+            Item.prefetchMetadata(ourContext, block);
+            prefetched.addAll(block);
+        }
+
+        return prefetched.isEmpty() ? null : prefetched.removeFirst();
+    }
+
     /**
      * This private method knows how to get the next result out of the 
      * item id iterator
@@ -153,7 +216,11 @@ public class ItemIterator
     public int nextID()
     	throws SQLException
     {
-    	if (iditr != null)
+        if (!prefetched.isEmpty())
+        {
+            return prefetched.removeFirst().getID();
+        }
+    	else if (iditr != null)
     	{
     		return nextByIDID();
     	}
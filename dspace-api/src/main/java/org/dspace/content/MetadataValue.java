@@ -261,14 +261,7 @@ public class MetadataValue
     public void create(Context context) throws SQLException, AuthorizeException
     {
         // Create a table row and update it with the values
-        row = DatabaseManager.row("MetadataValue");
-        row.setColumn("item_id", itemId);
-        row.setColumn("metadata_field_id", fieldId);
-        row.setColumn("text_value", value);
-        row.setColumn("text_lang", language);
-        row.setColumn("place", place);
-        row.setColumn("authority", authority);
-        row.setColumn("confidence", confidence);
+        row = newRow();
         DatabaseManager.insert(context, row);
 
         // Remember the new row number
@@ -278,6 +271,28 @@ public class MetadataValue
 //                "metadata_value_id=" + valueId));
     }
 
+    /**
+     * Build a table row holding this metadata value, ready to be inserted. The
+     * row is not written to the database, so that callers writing many values
+     * can insert them together with <code>DatabaseManager.insertBatch</code>.
+     *
+     * @return the new row
+     * @throws SQLException
+     */
+    TableRow newRow() throws SQLException
+    {
+        TableRow newRow = DatabaseManager.row("MetadataValue");
+        newRow.setColumn("item_id", itemId);
+        newRow.setColumn("metadata_field_id", fieldId);
+        newRow.setColumn("text_value", value);
+        newRow.setColumn("text_lang", language);
+        newRow.setColumn("place", place);
+        newRow.setColumn("authority", authority);
+        newRow.setColumn("confidence", confidence);
+
+        return newRow;
+    }
+
     /**
      * Retrieves the metadata value from the database.
      *
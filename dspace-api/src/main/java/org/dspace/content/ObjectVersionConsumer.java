@@ -0,0 +1,137 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.sql.SQLException;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Event consumer which increments the <code>ObjectVersions</code> of
+ * modified objects.  Besides the subject and object of each event, the item
+ * (or, for logos, the community or collection) a changed bundle or bitstream
+ * belongs to is also given a new version, so that the version of an item
+ * covers its bundles and bitstreams.  The parents are looked up by the ID
+ * of the event's subject in the mapping tables, without loading any objects.
+ * <P>
+ * Versions only change for modifications made in this JVM, so the consumer
+ * is not in the default dispatchers; only enable it where the web
+ * application is the only process changing communities, collections,
+ * bundles and bitstreams.
+ *
+ * @version $Revision$
+ */
+public class ObjectVersionConsumer implements Consumer
+{
+    /** Items holding a bundle */
+    private static final String BUNDLE_ITEMS =
+        "SELECT item_id AS parent_id FROM item2bundle WHERE bundle_id = ?";
+
+    /** Items holding a bitstream */
+    private static final String BITSTREAM_ITEMS =
+        "SELECT item2bundle.item_id AS parent_id FROM item2bundle, bundle2bitstream"
+        + " WHERE item2bundle.bundle_id = bundle2bitstream.bundle_id"
+        + " AND bundle2bitstream.bitstream_id = ?";
+
+    /** Communities having a bitstream as their logo */
+    private static final String LOGO_COMMUNITIES =
+        "SELECT community_id AS parent_id FROM community WHERE logo_bitstream_id = ?";
+
+    /** Collections having a bitstream as their logo */
+    private static final String LOGO_COLLECTIONS =
+        "SELECT collection_id AS parent_id FROM collection WHERE logo_bitstream_id = ?";
+
+    public void initialize() throws Exception
+    {
+        ObjectVersions.setTracking();
+    }
+
+    /**
+     * Increment the versions of the subject and object of the event, and of
+     * the parent of a bundle or bitstream subject.
+     *
+     * @param ctx
+     *            DSpace context
+     * @param event
+     *            content event
+     */
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        int subjectType = event.getSubjectType();
+        int subjectID = event.getSubjectID();
+
+        bump(subjectType, subjectID);
+        bump(event.getObjectType(), event.getObjectID());
+
+        // A deleted bundle or bitstream has already been removed from its
+        // parent, which gets a REMOVE event of its own
+        if (event.getEventType() == Event.DELETE || subjectID <= 0)
+        {
+            return;
+        }
+
+        if (subjectType == Constants.BUNDLE)
+        {
+            bumpParents(ctx, Constants.ITEM, BUNDLE_ITEMS, subjectID);
+        }
+        else if (subjectType == Constants.BITSTREAM)
+        {
+            bumpParents(ctx, Constants.ITEM, BITSTREAM_ITEMS, subjectID);
+            bumpParents(ctx, Constants.COMMUNITY, LOGO_COMMUNITIES, subjectID);
+            bumpParents(ctx, Constants.COLLECTION, LOGO_COLLECTIONS, subjectID);
+        }
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+    }
+
+    /**
+     * Increment the versions of the objects of a type whose IDs are returned
+     * by a query on the ID of a child.
+     */
+    private void bumpParents(Context ctx, int type, String query, int childID)
+            throws SQLException
+    {
+        TableRowIterator tri = null;
+        try
+        {
+            tri = DatabaseManager.query(ctx, query, childID);
+            while (tri.hasNext())
+            {
+                TableRow row = tri.next();
+                bump(type, row.getIntColumn("parent_id"));
+            }
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+        }
+    }
+
+    private void bump(int type, int id)
+    {
+        if (type >= 0 && id > 0)
+        {
+            ObjectVersions.bump(type, id);
+        }
+    }
+}
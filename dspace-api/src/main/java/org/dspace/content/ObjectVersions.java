@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.content;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide version counters for DSpace objects, incremented by the
+ * <code>ObjectVersionConsumer</code> whenever an object is changed in this
+ * JVM.  Caches (such as the XMLUI's) can compare an object's version rather
+ * than its content to find out whether it has changed, which needs no
+ * database access at all.
+ *
+ * Versions are kept in a fixed number of slots, shared by objects whose type
+ * and ID hash to the same slot.  A change to one object therefore also
+ * changes the version of the others in its slot, which only makes caches
+ * invalidate more often than necessary.  Versions start again at zero when
+ * the JVM is restarted, so callers should also compare <code>getEpoch()</code>
+ * if what they cache may outlive the JVM.
+ *
+ * Changes made by other processes (such as command line tools) are not seen.
+ *
+ * @version $Revision$
+ */
+public final class ObjectVersions
+{
+    /** number of slots, must be a power of two */
+    private static final int SLOTS = 1 << 16;
+
+    /** the version counters */
+    private static final AtomicLongArray versions = new AtomicLongArray(SLOTS);
+
+    /** identifies this run of the JVM */
+    private static final long epoch = System.currentTimeMillis();
+
+    /** whether the consumer has been started, so versions are being kept */
+    private static volatile boolean tracking = false;
+
+    /** Not instantiable */
+    private ObjectVersions()
+    {
+    }
+
+    /**
+     * Get the current version of an object.
+     *
+     * @param type
+     *            object type, from <code>Constants</code>
+     * @param id
+     *            object ID
+     * @return the version, which changes whenever the object is changed
+     */
+    public static long getVersion(int type, int id)
+    {
+        return versions.get(slot(type, id));
+    }
+
+    /**
+     * Note that an object has changed.
+     *
+     * @param type
+     *            object type, from <code>Constants</code>
+     * @param id
+     *            object ID
+     */
+    public static void bump(int type, int id)
+    {
+        versions.incrementAndGet(slot(type, id));
+    }
+
+    /**
+     * @return a value identifying this run of the JVM
+     */
+    public static long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * Whether versions are being kept, that is, whether the
+     * <code>ObjectVersionConsumer</code> has been configured and started.
+     * Until then versions never change, and must not be relied on.
+     *
+     * @return true if versions are being kept
+     */
+    public static boolean isTracking()
+    {
+        return tracking;
+    }
+
+    /**
+     * Called when the consumer is started.
+     */
+    static void setTracking()
+    {
+        tracking = true;
+    }
+
+    private static int slot(int type, int id)
+    {
+        int h = id * 31 + type;
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & (SLOTS - 1);
+    }
+}
@@ -18,12 +18,16 @@ import java.util.Map;
 import java.util.Stack;
 
 import org.apache.log4j.Logger;
+import org.dspace.browse.BrowseCountCache;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
+import org.dspace.eperson.GroupMembershipCache;
 import org.dspace.event.Dispatcher;
 import org.dspace.event.Event;
 import org.dspace.event.EventManager;
+import org.dspace.handle.HandleCache;
 import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowCache;
 
 /**
  * Class representing the context of a particular DSpace operation. This stores
@@ -76,6 +80,12 @@ public class Context
     /** Group IDs of special groups user is a member of */
     private List<Integer> specialGroups;
 
+    /**
+     * Sorted IDs of all the groups the current user is a member of, once
+     * worked out by Group
+     */
+    private int[] currentUserGroupIDs = null;
+
     /** Content events */
     private List<Event> events = null;
 
@@ -128,6 +138,7 @@ public class Context
     public void setCurrentUser(EPerson user)
     {
         currentUser = user;
+        currentUserGroupIDs = null;
     }
 
     /**
@@ -333,7 +344,14 @@ public class Context
 
                 dispatcher = EventManager.getDispatcher(dispName);
                 connection.commit();
+
+                // the shared caches must not serve the previously committed
+                // state while the events are being dispatched
+                endTransaction();
                 dispatcher.dispatch(this);
+
+                // commit what the consumers wrote to the database
+                connection.commit();
             }
             else
             {
@@ -343,6 +361,8 @@ public class Context
         }
         finally
         {
+            // rows written in this transaction may be stale in the shared caches
+            endTransaction();
             events = null;
             if (dispatcher != null)
             {
@@ -432,9 +452,22 @@ public class Context
             connection = null;
             events = null;
             clearCache();
+            endTransaction();
         }
     }
 
+    /**
+     * Tell the process-wide caches that this Context's transaction has been
+     * committed or rolled back, so that they forget what it changed.
+     */
+    private void endTransaction()
+    {
+        TableRowCache.endTransaction(this);
+        GroupMembershipCache.endTransaction(this);
+        HandleCache.endTransaction(this);
+        BrowseCountCache.endTransaction(this);
+    }
+
     /**
      * 
      * Find out if this context is valid. Returns <code>false</code> if this
@@ -528,6 +561,7 @@ public class Context
     public void setSpecialGroup(int groupID)
     {
         specialGroups.add(Integer.valueOf(groupID));
+        currentUserGroupIDs = null;
 
         // System.out.println("Added " + groupID);
     }
@@ -568,6 +602,31 @@ public class Context
         return myGroups.toArray(new Group[myGroups.size()]);
     }
 
+    /**
+     * Get the IDs of all the groups the current user is a member of, as
+     * remembered by Group.  Use Group.isMember or Group.allMemberGroupIDs
+     * rather than calling this directly.
+     * 
+     * @return the sorted group IDs, or null if not yet worked out
+     */
+    public int[] getCurrentUserGroupIDs()
+    {
+        return currentUserGroupIDs;
+    }
+
+    /**
+     * Remember the IDs of all the groups the current user is a member of,
+     * for Group.  They are forgotten whenever the current user or special
+     * groups change.
+     * 
+     * @param groupIDs
+     *            the sorted group IDs, or null to forget them
+     */
+    public void setCurrentUserGroupIDs(int[] groupIDs)
+    {
+        currentUserGroupIDs = groupIDs;
+    }
+
     protected void finalize() throws Throwable
     {
         /*
@@ -230,16 +230,67 @@ public class Email
      */
     public void send() throws MessagingException
     {
-        // Get the mail configuration properties
-        String server = ConfigurationManager.getProperty("mail.server");
-        String from = ConfigurationManager.getProperty("mail.from.address");
-        boolean disabled = ConfigurationManager.getBooleanProperty("mail.server.disabled", false);
-
-        if (disabled) {
+        if (ConfigurationManager.getBooleanProperty("mail.server.disabled", false))
+        {
             log.info("message not sent due to mail.server.disabled: " + subject);
             return;
         }
 
+        Transport.send(getMessage());
+    }
+
+    /**
+     * Sends the email through an open connection to the mail server, as
+     * returned by {@link #getTransport()}.  Sending many messages through one
+     * connection saves connecting and authenticating for each of them.
+     * 
+     * @param transport
+     *            the connection, or null if sending mail is disabled
+     * @throws MessagingException
+     *             if there was a problem sending the mail.
+     */
+    public void send(Transport transport) throws MessagingException
+    {
+        if (transport == null)
+        {
+            send();
+            return;
+        }
+
+        MimeMessage message = getMessage();
+        message.saveChanges();
+        transport.sendMessage(message, message.getAllRecipients());
+    }
+
+    /**
+     * Open a connection to the mail server, for sending several messages with
+     * {@link #send(Transport)}.
+     * 
+     * @return the connection, which the caller must close; or null if sending
+     *         mail is disabled
+     * @throws MessagingException
+     *             if the mail server cannot be reached
+     */
+    public static Transport getTransport() throws MessagingException
+    {
+        if (ConfigurationManager.getBooleanProperty("mail.server.disabled", false))
+        {
+            return null;
+        }
+
+        Transport transport = getSession().getTransport("smtp");
+        transport.connect();
+        return transport;
+    }
+
+    /**
+     * Get the mail session, as configured in dspace.cfg.
+     */
+    private static Session getSession()
+    {
+        // Get the mail configuration properties
+        String server = ConfigurationManager.getProperty("mail.server");
+
         // Set up properties for mail session
         Properties props = System.getProperties();
         props.put("mail.smtp.host", server);
@@ -252,12 +303,6 @@ public class Email
         }
         props.put("mail.smtp.port", portNo.trim());
 
-        // If no character set specified, attempt to retrieve a default
-        if (charset == null)
-        {
-            charset = ConfigurationManager.getProperty("mail.charset");    
-        }
-
         // Get session
         Session session;
         
@@ -291,6 +336,24 @@ public class Email
             }
         }
 
+        return session;
+    }
+
+    /**
+     * Build the message to be sent.
+     */
+    private MimeMessage getMessage() throws MessagingException
+    {
+        String from = ConfigurationManager.getProperty("mail.from.address");
+
+        // If no character set specified, attempt to retrieve a default
+        if (charset == null)
+        {
+            charset = ConfigurationManager.getProperty("mail.charset");    
+        }
+
+        Session session = getSession();
+
         // Create message
         MimeMessage message = new MimeMessage(session);
 
@@ -363,7 +426,7 @@ public class Email
             message.setReplyTo(replyToAddr);
         }
 
-        Transport.send(message);
+        return message;
     }
 
     /**
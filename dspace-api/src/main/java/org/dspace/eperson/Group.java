@@ -9,6 +9,7 @@ package org.dspace.eperson;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -358,9 +359,11 @@ public class Group extends DSpaceObject
     }
 
     /**
-     * fast check to see if an eperson is a member called with eperson id, does
-     * database lookup without instantiating all of the epeople objects and is
-     * thus a static method
+     * fast check to see if the current user is a member, directly, through
+     * other groups or through special groups.  The user's groups are looked
+     * up once and then remembered by the context, so repeated checks (e.g.
+     * for every policy of every bitstream on a page) do not query the
+     * database.
      * 
      * @param c
      *            context
@@ -375,9 +378,7 @@ public class Group extends DSpaceObject
             return true;
         }
 
-        EPerson currentuser = c.getCurrentUser();
-
-        return epersonInGroup(c, groupid, currentuser);
+        return Arrays.binarySearch(currentUserGroupIDs(c), groupid) >= 0;
     }
 
     /**
@@ -416,56 +417,149 @@ public class Group extends DSpaceObject
     public static Set<Integer> allMemberGroupIDs(Context c, EPerson e)
             throws SQLException
     {
+        EPerson currentUser = c.getCurrentUser();
+        int[] ids;
+        if ((e == null && currentUser == null)
+                || (e != null && currentUser != null && currentUser.getID() == e.getID()))
+        {
+            ids = currentUserGroupIDs(c);
+        }
+        else
+        {
+            ids = memberGroupIDs(c, e);
+        }
+
         Set<Integer> groupIDs = new HashSet<Integer>();
-        
-        if (e != null)
+        for (int id : ids)
         {
-            // two queries - first to get groups eperson is a member of
-            // second query gets parent groups for groups eperson is a member of
+            groupIDs.add(Integer.valueOf(id));
+        }
 
-            TableRowIterator tri = DatabaseManager.queryTable(c,
-                    "epersongroup2eperson",
-                    "SELECT * FROM epersongroup2eperson WHERE eperson_id= ?", e
-                            .getID());
+        return groupIDs;
+    }
 
-            try
+    /**
+     * Get the IDs of all the groups the current user is a member of, as
+     * remembered by the context, or looked up and remembered.
+     * 
+     * @param c
+     * @return sorted group IDs
+     * @throws SQLException
+     */
+    private static int[] currentUserGroupIDs(Context c) throws SQLException
+    {
+        int[] ids = c.getCurrentUserGroupIDs();
+        if (ids == null)
+        {
+            ids = memberGroupIDs(c, c.getCurrentUser());
+            c.setCurrentUserGroupIDs(ids);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Look up the IDs of all the groups an eperson is a member of: the
+     * groups they belong to directly, the anonymous group, the special
+     * groups of the context (if the eperson is the current user) and all
+     * of the groups those groups belong to.  The groups from the database
+     * are shared between contexts by GroupMembershipCache.
+     * 
+     * @param c
+     * @param e
+     *            the eperson, or null for anonymous
+     * @return sorted group IDs
+     * @throws SQLException
+     */
+    private static int[] memberGroupIDs(Context c, EPerson e)
+            throws SQLException
+    {
+        int epersonID = (e == null) ? -1 : e.getID();
+        int[] ids = GroupMembershipCache.get(c, epersonID);
+        if (ids == null)
+        {
+            long generation = GroupMembershipCache.getGeneration();
+            Set<Integer> groupIDs = new HashSet<Integer>();
+
+            if (e != null)
             {
-                while (tri.hasNext())
+                // two queries - first to get groups eperson is a member of
+                // second query gets parent groups for groups eperson is a member of
+
+                TableRowIterator tri = DatabaseManager.queryTable(c,
+                        "epersongroup2eperson",
+                        "SELECT * FROM epersongroup2eperson WHERE eperson_id= ?", e
+                                .getID());
+
+                try
                 {
-                    TableRow row = tri.next();
+                    while (tri.hasNext())
+                    {
+                        TableRow row = tri.next();
 
-                    int childID = row.getIntColumn("eperson_group_id");
+                        int childID = row.getIntColumn("eperson_group_id");
 
-                    groupIDs.add(Integer.valueOf(childID));
+                        groupIDs.add(Integer.valueOf(childID));
+                    }
                 }
-            }
-            finally
-            {
-                // close the TableRowIterator to free up resources
-                if (tri != null)
+                finally
                 {
-                    tri.close();
+                    // close the TableRowIterator to free up resources
+                    if (tri != null)
+                    {
+                        tri.close();
+                    }
                 }
             }
+
+            // all the users are members of the anonymous group 
+            groupIDs.add(Integer.valueOf(0));
+
+            ids = toSortedArray(addParentGroupIDs(c, groupIDs));
+            GroupMembershipCache.put(c, epersonID, ids, generation);
         }
+
         // Also need to get all "Special Groups" user is a member of!
         // Otherwise, you're ignoring the user's membership to these groups!
         // However, we only do this is we are looking up the special groups
         // of the current user, as we cannot look up the special groups
         // of a user who is not logged in.
-        if ((c.getCurrentUser() == null) || (((c.getCurrentUser() != null) && (c.getCurrentUser().getID() == e.getID()))))
+        if ((c.getCurrentUser() == null) || ((e != null) && (c.getCurrentUser().getID() == e.getID())))
         {
             Group[] specialGroups = c.getSpecialGroups();
-            for(Group special : specialGroups)
+            if (specialGroups.length > 0)
             {
-                groupIDs.add(Integer.valueOf(special.getID()));
+                Set<Integer> groupIDs = new HashSet<Integer>();
+                for (Group special : specialGroups)
+                {
+                    groupIDs.add(Integer.valueOf(special.getID()));
+                }
+
+                addParentGroupIDs(c, groupIDs);
+                for (int id : ids)
+                {
+                    groupIDs.add(Integer.valueOf(id));
+                }
+                ids = toSortedArray(groupIDs);
             }
         }
 
-        // all the users are members of the anonymous group 
-        groupIDs.add(Integer.valueOf(0));
-        
-        // now we have all owning groups, also grab all parents of owning groups
+        return ids;
+    }
+
+    /**
+     * Add the IDs of all the groups the given groups belong to, directly
+     * or through other groups, from group2groupcache.
+     * 
+     * @param c
+     * @param groupIDs
+     *            the group IDs, which must not be empty, and are added to
+     * @return groupIDs
+     * @throws SQLException
+     */
+    private static Set<Integer> addParentGroupIDs(Context c, Set<Integer> groupIDs)
+            throws SQLException
+    {
         // yes, I know this could have been done as one big query and a union,
         // but doing the Oracle port taught me to keep to simple SQL!
 
@@ -519,6 +613,19 @@ public class Group extends DSpaceObject
 
         return groupIDs;
     }
+
+    private static int[] toSortedArray(Set<Integer> groupIDs)
+    {
+        int[] ids = new int[groupIDs.size()];
+        int idx = 0;
+        for (Integer id : groupIDs)
+        {
+            ids[idx++] = id.intValue();
+        }
+        Arrays.sort(ids);
+
+        return ids;
+    }
     
     
     /**
@@ -657,14 +764,6 @@ public class Group extends DSpaceObject
         return epeopleIDs;
     }
 
-    private static boolean epersonInGroup(Context c, int groupID, EPerson e)
-            throws SQLException
-    {
-        Set<Integer> groupIDs = Group.allMemberGroupIDs(c, e);
-
-        return groupIDs.contains(Integer.valueOf(groupID));
-    }
-
     /**
      * find the group by its ID
      * 
@@ -1001,6 +1100,9 @@ public class Group extends DSpaceObject
         // Remove any ResourcePolicies that reference this group
         AuthorizeManager.removeGroupPolicies(myContext, getID());
 
+        // memberships are changing, so forget the ones worked out so far
+        GroupMembershipCache.invalidate(myContext);
+
         // Remove any group memberships first
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM EPersonGroup2EPerson WHERE eperson_group_id= ? ",
@@ -1108,6 +1210,12 @@ public class Group extends DSpaceObject
             clearDetails();
         }
 
+        // memberships are changing, so forget the ones worked out so far
+        if (epeopleChanged || groupsChanged)
+        {
+            GroupMembershipCache.invalidate(myContext);
+        }
+
         // Redo eperson mappings if they've changed
         if (epeopleChanged)
         {
@@ -1276,7 +1384,8 @@ public class Group extends DSpaceObject
         DatabaseManager.updateQuery(myContext,
                 "DELETE FROM group2groupcache WHERE id >= 0");
 
-        // write out new one
+        // write out new one, in a single batch
+        List<TableRow> rows = new ArrayList<TableRow>();
         for (Map.Entry<Integer, Set<Integer>> parent : parents.entrySet())
         {
             int parentID = parent.getKey().intValue();
@@ -1288,9 +1397,11 @@ public class Group extends DSpaceObject
                 row.setColumn("parent_id", parentID);
                 row.setColumn("child_id", child);
 
-                DatabaseManager.insert(myContext, row);
+                rows.add(row);
             }
         }
+
+        DatabaseManager.insertBatch(myContext, rows);
     }
 
     /**
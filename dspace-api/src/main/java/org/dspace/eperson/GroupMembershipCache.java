@@ -0,0 +1,233 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Process-wide cache of the groups each EPerson is a member of, directly or
+ * through other groups (including the anonymous group), shared between all
+ * Contexts.  Special groups are not cached here, since they belong to a
+ * session rather than to the EPerson; Group adds them to the set it keeps
+ * for the current user of each Context.
+ * <P>
+ * The whole cache is emptied when a Context changes the members of a group
+ * or the groups within groups (i.e. when group2groupcache is rethought), and
+ * again when that Context commits or aborts.  Memberships are not cached for
+ * a Context with such changes in progress, so uncommitted changes are not
+ * visible to other Contexts.
+ * <P>
+ * The cache is enabled by setting <code>eperson.groups.cache.ttl</code> to
+ * the number of seconds after which entries expire (default 0, disabled).
+ * Changes made by other processes are not seen until then, so a user removed
+ * from a group elsewhere keeps its rights here for up to that long.  The
+ * number of EPeople cached is limited by
+ * <code>eperson.groups.cache.size</code> (default 1000).
+ *
+ * @version $Revision$
+ */
+public class GroupMembershipCache
+{
+    /** how long entries are kept, in milliseconds */
+    private static final long ttl;
+
+    /** group IDs (sorted) by EPerson ID, or -1 for anonymous, in least recently used order */
+    private static final Map<Integer, Entry> memberships;
+
+    /**
+     * Incremented on every invalidation, so that memberships read from the
+     * database while another Context was changing them are not cached
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /** Contexts which have changed group memberships in their current transaction */
+    private static final Map<Context, Boolean> pending =
+            Collections.synchronizedMap(new WeakHashMap<Context, Boolean>());
+
+    /** Statistics */
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static
+    {
+        ttl = Math.max(0, ConfigurationManager.getIntProperty("eperson.groups.cache.ttl", 0)) * 1000L;
+
+        final int size = ConfigurationManager.getIntProperty("eperson.groups.cache.size", 1000);
+        memberships = new LinkedHashMap<Integer, Entry>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /** Not instantiable */
+    private GroupMembershipCache()
+    {
+    }
+
+    /**
+     * Get the cached groups of an EPerson.
+     *
+     * @param context
+     *            the Context looking up the groups
+     * @param epersonID
+     *            the EPerson's ID, or -1 for anonymous
+     * @return the sorted IDs of the groups, or null if they are not cached
+     */
+    static int[] get(Context context, int epersonID)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (memberships)
+        {
+            entry = memberships.get(Integer.valueOf(epersonID));
+            if (entry != null && System.currentTimeMillis() - entry.time > ttl)
+            {
+                memberships.remove(Integer.valueOf(epersonID));
+                entry = null;
+            }
+        }
+
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.groupIDs;
+    }
+
+    /**
+     * Get the current generation of the cache.  This must be read before
+     * reading memberships from the database, and passed to <code>put</code>.
+     *
+     * @return the number of invalidations so far
+     */
+    static long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Cache the groups of an EPerson, unless memberships have changed since
+     * <code>readGeneration</code>, or the Context has changed memberships in
+     * its current transaction.
+     *
+     * @param context
+     *            the Context which read the groups
+     * @param epersonID
+     *            the EPerson's ID, or -1 for anonymous
+     * @param groupIDs
+     *            the sorted IDs of the groups, which must not be modified
+     *            afterwards
+     * @param readGeneration
+     *            the value of <code>getGeneration()</code> before the groups
+     *            were read
+     */
+    static void put(Context context, int epersonID, int[] groupIDs, long readGeneration)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return;
+        }
+
+        synchronized (memberships)
+        {
+            if (generation.get() == readGeneration)
+            {
+                memberships.put(Integer.valueOf(epersonID), new Entry(groupIDs));
+            }
+        }
+    }
+
+    /**
+     * Forget all memberships, because the given Context is changing them.
+     * They are forgotten again when the Context commits or aborts.
+     *
+     * @param context
+     *            the Context changing memberships
+     */
+    static void invalidate(Context context)
+    {
+        pending.put(context, Boolean.TRUE);
+        context.setCurrentUserGroupIDs(null);
+        clear();
+    }
+
+    /**
+     * Called when the given Context's transaction has been committed or
+     * rolled back.  If it changed memberships, they are forgotten, since
+     * other Contexts may have cached the previously committed ones.
+     *
+     * @param context
+     *            the Context whose transaction has ended
+     */
+    public static void endTransaction(Context context)
+    {
+        if (pending.remove(context) != null)
+        {
+            context.setCurrentUserGroupIDs(null);
+            clear();
+        }
+    }
+
+    /**
+     * Empty the cache.
+     */
+    public static void clear()
+    {
+        synchronized (memberships)
+        {
+            generation.incrementAndGet();
+            memberships.clear();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which went to the database
+     */
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static final class Entry
+    {
+        private final int[] groupIDs;
+
+        private final long time;
+
+        Entry(int[] groupIDs)
+        {
+            this.groupIDs = groupIDs;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
@@ -14,12 +14,19 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.MessagingException;
+import javax.mail.Transport;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
@@ -246,6 +253,13 @@ public class Subscribe
      * <P>
      * For example, if today's date is 2002-10-10 (in UTC) items made available
      * during 2002-10-09 (UTC) will be included.
+     * <P>
+     * The new items of each subscribed collection are found, and the text
+     * about them is formatted, only once however many e-people subscribe to
+     * it. E-mails are sent by <code>eperson.subscription.threads</code>
+     * threads (default 4), each sending up to
+     * <code>eperson.subscription.batch</code> (default 100) e-mails through
+     * one connection to the mail server.
      * 
      * @param context
      *            DSpace context object
@@ -253,6 +267,35 @@ public class Subscribe
      */
     public static void processDaily(Context context, boolean test) throws SQLException,
             IOException
+    {
+        Digests digests = new Digests(context);
+        Sender sender = null;
+        if (!test)
+        {
+            sender = new Sender(ConfigurationManager.getIntProperty(
+                    "eperson.subscription.threads", 4),
+                    ConfigurationManager.getIntProperty(
+                            "eperson.subscription.batch", 100));
+        }
+
+        try
+        {
+            processDaily(context, digests, sender, test);
+        }
+        finally
+        {
+            if (sender != null)
+            {
+                sender.finish();
+            }
+        }
+
+        log.info(LogManager.getHeader(context, "subscription_digests",
+                "collections=" + digests.size()));
+    }
+
+    static void processDaily(Context context, Digests digests,
+            Sender sender, boolean test) throws SQLException, IOException
     {
         // Grab the subscriptions
         TableRowIterator tri = DatabaseManager.query(context,
@@ -279,7 +322,8 @@ public class Subscribe
 
                         try
                         {
-                            sendEmail(context, currentEPerson, collections, test);
+                            sendEmail(context, currentEPerson, collections,
+                                    digests, sender, test);
                         }
                         catch (MessagingException me)
                         {
@@ -294,8 +338,12 @@ public class Subscribe
                     collections = new ArrayList<Collection>();
                 }
 
-                collections.add(Collection.find(context, row
-                        .getIntColumn("collection_id")));
+                Collection collection = Collection.find(context, row
+                        .getIntColumn("collection_id"));
+                if (collection != null)
+                {
+                    collections.add(collection);
+                }
             }
         }
         finally
@@ -312,7 +360,8 @@ public class Subscribe
         {
             try
             {
-                sendEmail(context, currentEPerson, collections, test);
+                sendEmail(context, currentEPerson, collections, digests,
+                        sender, test);
             }
             catch (MessagingException me)
             {
@@ -339,44 +388,210 @@ public class Subscribe
     public static void sendEmail(Context context, EPerson eperson,
             List<Collection> collections, boolean test) throws IOException, MessagingException,
             SQLException
+    {
+        sendEmail(context, eperson, collections, new Digests(context), null, test);
+    }
+
+    /**
+     * Sends an email to the given e-person with details of new items in the
+     * given collections, using (and adding to) the digests of collections
+     * already found. The e-mail is queued with the sender if there is one,
+     * or else sent straight away.
+     */
+    private static void sendEmail(Context context, EPerson eperson,
+            List<Collection> collections, Digests digests, Sender sender,
+            boolean test) throws IOException, MessagingException, SQLException
     {
         // Get a resource bundle according to the eperson language preferences
         Locale supportedLocale = I18nUtil.getEPersonLocale(eperson); 
-        ResourceBundle labels =  ResourceBundle.getBundle("Messages", supportedLocale);
-        
-        // Get the start and end dates for yesterday
 
-        // The date should reflect the timezone as well. Otherwise we stand to lose that information 
-        // in truncation and roll to an earlier date than intended.
-        Calendar cal = Calendar.getInstance(TimeZone.getDefault());
-        cal.setTime(new Date());
-        
-        // What we actually want to pass to Harvest is "Midnight of yesterday in my current timezone"
-        // Truncation will actually pass in "Midnight of yesterday in UTC", which will be,
-        // at least in CDT, "7pm, the day before yesterday, in my current timezone".
-        cal.add(Calendar.HOUR, -24);
-        Date thisTimeYesterday = cal.getTime();
-        
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        Date midnightYesterday = cal.getTime();
+        StringBuilder emailText = new StringBuilder();
+
+        for (Collection c : collections)
+        {
+            String fragment = digests.getText(c, supportedLocale);
+
+            // Only add to buffer if there are new items
+            if (fragment != null)
+            {
+                if (emailText.length() > 0)
+                {
+                    emailText
+                            .append("\n---------------------------------------\n");
+                }
+                emailText.append(fragment);
+            }
+        }
+
+        // Send an e-mail if there were any new items
+        if (emailText.length() > 0)
+        {
+            
+            if(test)
+            {
+                log.info(LogManager.getHeader(context, "subscription:", "eperson=" + eperson.getEmail() ));
+                log.info(LogManager.getHeader(context, "subscription:", "text=" + emailText.toString() ));
+
+            } else {
+                
+                Email email = ConfigurationManager.getEmail(I18nUtil.getEmailFilename(supportedLocale, "subscription"));
+                email.addRecipient(eperson.getEmail());
+                email.addArgument(emailText.toString());
+
+                if (sender != null)
+                {
+                    sender.send(email, eperson.getID());
+                }
+                else
+                {
+                    email.send();
+                    log.info(LogManager.getHeader(context, "sent_subscription", "eperson_id=" + eperson.getID() ));
+                }
+            }
+
+            
+        }
+    }
 
+    /**
+     * The new items of collections, found once for all the e-people
+     * subscribed to them, and the text about them in each language it has
+     * been needed in.
+     */
+    static class Digests
+    {
+        private final Context context;
+
+        /** midnight at the start of yesterday, in the local timezone */
+        private final String midnightYesterday;
+
+        /** the new items of each collection, by collection ID */
+        private final Map<Integer, List<DigestItem>> items = new HashMap<Integer, List<DigestItem>>();
+
+        /** the text about the new items of a collection, by collection ID and locale */
+        private final Map<String, String> texts = new HashMap<String, String>();
+
+        Digests(Context context)
+        {
+            this.context = context;
+
+            // The date should reflect the timezone as well. Otherwise we stand to lose that information 
+            // in truncation and roll to an earlier date than intended.
+            Calendar cal = Calendar.getInstance(TimeZone.getDefault());
+            cal.setTime(new Date());
+            
+            // What we actually want to pass to Harvest is "Midnight of yesterday in my current timezone"
+            // Truncation will actually pass in "Midnight of yesterday in UTC", which will be,
+            // at least in CDT, "7pm, the day before yesterday, in my current timezone".
+            cal.add(Calendar.HOUR, -24);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.SECOND, 0);
+            midnightYesterday = new DCDate(cal.getTime()).toString();
+        }
+
+        /**
+         * @return the number of collections whose new items have been found
+         */
+        int size()
+        {
+            return items.size();
+        }
+
+        /**
+         * Get the text about the new items of a collection.
+         * 
+         * @param c
+         *            the collection
+         * @param locale
+         *            the language of the text
+         * @return the text, or null if there are no new items
+         */
+        String getText(Collection c, Locale locale) throws SQLException
+        {
+            String key = c.getID() + ":" + locale;
+            if (texts.containsKey(key))
+            {
+                return texts.get(key);
+            }
+
+            List<DigestItem> newItems = getItems(c);
+            String text = null;
+
+            if (newItems.size() > 0)
+            {
+                // FIXME: text of email should be more configurable from an
+                // i18n viewpoint
+                ResourceBundle labels = ResourceBundle.getBundle("Messages", locale);
+                StringBuilder emailText = new StringBuilder();
+
+                emailText.append(labels.getString("org.dspace.eperson.Subscribe.new-items")).append(" ").append(
+                        c.getMetadata("name")).append(": ").append(
+                        newItems.size()).append("\n\n");
+
+                for (DigestItem item : newItems)
+                {
+                    emailText.append("      ").append(labels.getString("org.dspace.eperson.Subscribe.title")).append(" ");
+
+                    if (item.title != null)
+                    {
+                        emailText.append(item.title);
+                    }
+                    else
+                    {
+                        emailText.append(labels.getString("org.dspace.eperson.Subscribe.untitled"));
+                    }
+
+                    if (item.authors.length > 0)
+                    {
+                        emailText.append("\n    ").append(labels.getString("org.dspace.eperson.Subscribe.authors")).append(" ").append(
+                                item.authors[0]);
 
-        // FIXME: text of email should be more configurable from an
-        // i18n viewpoint
-        StringBuffer emailText = new StringBuffer();
-        boolean isFirst = true;
+                        for (int k = 1; k < item.authors.length; k++)
+                        {
+                            emailText.append("\n             ").append(
+                                    item.authors[k]);
+                        }
+                    }
+
+                    emailText.append("\n         ").append(labels.getString("org.dspace.eperson.Subscribe.id")).append(" ").append(
+                            HandleManager.getCanonicalForm(item.handle)).append(
+                            "\n\n");
+                }
+
+                text = emailText.toString();
+            }
+
+            texts.put(key, text);
+            return text;
+        }
 
-        for (int i = 0; i < collections.size(); i++)
+        /**
+         * Get the new items of a collection, finding them the first time
+         * they are needed.
+         */
+        private List<DigestItem> getItems(Collection c) throws SQLException
         {
-            Collection c = collections.get(i);
+            List<DigestItem> newItems = items.get(Integer.valueOf(c.getID()));
+            if (newItems == null)
+            {
+                newItems = harvest(c);
+                items.put(Integer.valueOf(c.getID()), newItems);
+            }
+            return newItems;
+        }
 
+        /**
+         * Find the new items of a collection.
+         */
+        List<DigestItem> harvest(Collection c) throws SQLException
+        {
+            List<DigestItem> newItems = new ArrayList<DigestItem>();
             try {
                 boolean includeAll = ConfigurationManager.getBooleanProperty("harvest.includerestricted.subscription", true);
                 
                 // we harvest all the changed item from yesterday until now
-                List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, c, new DCDate(midnightYesterday).toString(), null, 0, // Limit
+                List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, c, midnightYesterday, null, 0, // Limit
                                                                                     // and
                                                                                     // offset
                                                                                     // zero,
@@ -399,88 +614,285 @@ public class Subscribe
                     itemInfos = filterOutToday(itemInfos);
                 }
 
-                // Only add to buffer if there are new items
-                if (itemInfos.size() > 0)
+                // keep only what the e-mails need, rather than the items
+                for (HarvestedItemInfo hii : itemInfos)
+                {
+                    newItems.add(new DigestItem(hii));
+                    hii.item.decache();
+                }
+            }
+            catch (ParseException pe)
+            {
+                // This should never get thrown as the Dates are auto-generated
+            }
+
+            return newItems;
+        }
+    }
+
+    /**
+     * What the e-mails say about a new item.
+     */
+    static class DigestItem
+    {
+        /** the first title, or null if untitled */
+        private final String title;
+
+        private final String[] authors;
+
+        private final String handle;
+
+        DigestItem(HarvestedItemInfo hii)
+        {
+            DCValue[] titles = hii.item.getDC("title", null, Item.ANY);
+            title = titles.length > 0 ? titles[0].value : null;
+
+            DCValue[] contributors = hii.item.getDC("contributor", Item.ANY, Item.ANY);
+            authors = new String[contributors.length];
+            for (int i = 0; i < contributors.length; i++)
+            {
+                authors[i] = contributors[i].value;
+            }
+
+            handle = hii.handle;
+        }
+    }
+
+    /**
+     * Sends e-mails in a pool of threads, each sending a batch of e-mails
+     * through one connection to the mail server before opening another.
+     * E-mails are queued by <code>send</code>, which waits if the queue is
+     * full.
+     */
+    static class Sender
+    {
+        /** queued to tell the threads there are no more e-mails */
+        private static final Message END = new Message(null, -1);
+
+        private final BlockingQueue<Message> queue;
+
+        private final Thread[] workers;
+
+        private final int batch;
+
+        private final AtomicInteger sent = new AtomicInteger();
+
+        private final AtomicInteger failed = new AtomicInteger();
+
+        Sender(int threads, int batchSize)
+        {
+            threads = Math.max(1, threads);
+            batch = Math.max(1, batchSize);
+            queue = new ArrayBlockingQueue<Message>(threads * 10);
+
+            workers = new Thread[threads];
+            for (int t = 0; t < threads; t++)
+            {
+                workers[t] = new Thread("Subscribe-" + (t + 1))
                 {
-                    if (!isFirst)
+                    public void run()
                     {
-                        emailText
-                                .append("\n---------------------------------------\n");
+                        sendQueued();
                     }
-                    else
+                };
+                workers[t].start();
+            }
+        }
+
+        /**
+         * Queue an e-mail.
+         * 
+         * @param email
+         *            the e-mail
+         * @param epersonID
+         *            the ID of the e-person it is for, for messages
+         */
+        void send(Email email, int epersonID) throws IOException
+        {
+            put(new Message(email, epersonID));
+        }
+
+        private void put(Message message) throws IOException
+        {
+            try
+            {
+                // don't wait for room on the queue once every thread has died
+                while (!queue.offer(message, 1, TimeUnit.SECONDS))
+                {
+                    if (!isAlive())
                     {
-                        isFirst = false;
+                        throw new IOException("All threads sending subscriptions have stopped");
                     }
-    
-                    emailText.append(labels.getString("org.dspace.eperson.Subscribe.new-items")).append(" ").append(
-                            c.getMetadata("name")).append(": ").append(
-                            itemInfos.size()).append("\n\n");
-    
-                    for (int j = 0; j < itemInfos.size(); j++)
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted sending subscriptions");
+            }
+        }
+
+        private boolean isAlive()
+        {
+            for (Thread worker : workers)
+            {
+                if (worker.isAlive())
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Wait until all the queued e-mails have been sent.
+         */
+        void finish() throws IOException
+        {
+            for (int t = 0; t < workers.length; t++)
+            {
+                put(END);
+            }
+
+            try
+            {
+                for (Thread worker : workers)
+                {
+                    worker.join();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted sending subscriptions");
+            }
+
+            log.info("Sent " + sent.get() + " subscription e-mails, " + failed.get() + " failed");
+        }
+
+        /**
+         * @return the number of e-mails sent
+         */
+        int getSent()
+        {
+            return sent.get();
+        }
+
+        /**
+         * @return the number of e-mails which could not be sent
+         */
+        int getFailed()
+        {
+            return failed.get();
+        }
+
+        /**
+         * Open a connection to the mail server.
+         * 
+         * @return the connection, or null if sending mail is disabled
+         */
+        Transport connect() throws MessagingException
+        {
+            return Email.getTransport();
+        }
+
+        /**
+         * Send an e-mail through a connection to the mail server.
+         */
+        void deliver(Email email, Transport transport) throws MessagingException
+        {
+            email.send(transport);
+        }
+
+        private void sendQueued()
+        {
+            Transport transport = null;
+            int count = 0;
+            try
+            {
+                Message message;
+                while ((message = queue.take()) != END)
+                {
+                    try
                     {
-                        HarvestedItemInfo hii = (HarvestedItemInfo) itemInfos
-                                .get(j);
-    
-                        DCValue[] titles = hii.item.getDC("title", null, Item.ANY);
-                        emailText.append("      ").append(labels.getString("org.dspace.eperson.Subscribe.title")).append(" ");
-    
-                        if (titles.length > 0)
-                        {
-                            emailText.append(titles[0].value);
-                        }
-                        else
-                        {
-                            emailText.append(labels.getString("org.dspace.eperson.Subscribe.untitled"));
-                        }
-    
-                        DCValue[] authors = hii.item.getDC("contributor", Item.ANY,
-                                Item.ANY);
-    
-                        if (authors.length > 0)
+                        if (transport == null || count == batch)
                         {
-                            emailText.append("\n    ").append(labels.getString("org.dspace.eperson.Subscribe.authors")).append(" ").append(
-                                    authors[0].value);
-    
-                            for (int k = 1; k < authors.length; k++)
-                            {
-                                emailText.append("\n             ").append(
-                                        authors[k].value);
-                            }
+                            close(transport);
+                            transport = null;
+                            count = 0;
+                            transport = connect();
                         }
-    
-                        emailText.append("\n         ").append(labels.getString("org.dspace.eperson.Subscribe.id")).append(" ").append(
-                                HandleManager.getCanonicalForm(hii.handle)).append(
-                                "\n\n");
+
+                        deliver(message.email, transport);
+                        count++;
+                        sent.incrementAndGet();
+                        log.info(LogManager.getHeader(null, "sent_subscription",
+                                "eperson_id=" + message.epersonID));
+                    }
+                    catch (MessagingException me)
+                    {
+                        failed(message, me);
+
+                        // the connection may be broken, so open another
+                        close(transport);
+                        transport = null;
+                    }
+                    catch (RuntimeException re)
+                    {
+                        // one bad e-mail must not stop this thread, or the
+                        // queue would fill with nobody left to empty it
+                        failed(message, re);
+                        close(transport);
+                        transport = null;
                     }
                 }
             }
-            catch (ParseException pe)
+            catch (InterruptedException e)
             {
-                // This should never get thrown as the Dates are auto-generated
+                log.error("Interrupted sending subscriptions");
+            }
+            finally
+            {
+                close(transport);
             }
         }
 
-        // Send an e-mail if there were any new items
-        if (emailText.length() > 0)
+        private void failed(Message message, Exception e)
         {
-            
-            if(test)
-            {
-                log.info(LogManager.getHeader(context, "subscription:", "eperson=" + eperson.getEmail() ));
-                log.info(LogManager.getHeader(context, "subscription:", "text=" + emailText.toString() ));
+            failed.incrementAndGet();
+            log.error("Failed to send subscription to eperson_id="
+                    + message.epersonID, e);
+        }
 
-            } else {
-                
-                Email email = ConfigurationManager.getEmail(I18nUtil.getEmailFilename(supportedLocale, "subscription"));
-                email.addRecipient(eperson.getEmail());
-                email.addArgument(emailText.toString());
-                email.send();
-                
-                log.info(LogManager.getHeader(context, "sent_subscription", "eperson_id=" + eperson.getID() ));
-                
+        private static void close(Transport transport)
+        {
+            if (transport != null)
+            {
+                try
+                {
+                    transport.close();
+                }
+                catch (MessagingException me)
+                {
+                    log.warn("Error closing connection to mail server: " + me);
+                }
             }
+        }
+    }
 
-            
+    /**
+     * An e-mail waiting to be sent.
+     */
+    private static class Message
+    {
+        private final Email email;
+
+        private final int epersonID;
+
+        Message(Email email, int epersonID)
+        {
+            this.email = email;
+            this.epersonID = epersonID;
         }
     }
 
@@ -0,0 +1,376 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.handle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Process-wide cache of the handle table, in both directions: from a handle
+ * to the type and id of the object it is bound to, and from the type and id
+ * of an object to its handle.  Lookups which find nothing are cached too, so
+ * that requests for handles which do not exist (and objects, such as
+ * workspace items, which have no handle) do not query the database every
+ * time.
+ *
+ * Entries are removed whenever HandleManager binds or unbinds a handle in
+ * this JVM, and again when the Context which did so commits or aborts, since
+ * other Contexts may have cached the previously committed binding in the
+ * meantime.  The cache is not used at all by a Context with such changes in
+ * progress, so uncommitted bindings are never cached.  Entries also expire after <code>handle.cache.ttl</code> seconds
+ * (default 3600), or <code>handle.cache.negative.ttl</code> seconds (default
+ * 60) for lookups which found nothing, so that changes made by other
+ * processes are seen; setting <code>handle.cache.ttl</code> to 0 disables
+ * the cache.  The number of entries in each direction is limited by
+ * <code>handle.cache.size</code> (default 10000).
+ *
+ * @version $Revision$
+ */
+public class HandleCache
+{
+    /** how long entries are kept, in milliseconds */
+    private static final long ttl;
+
+    /** how long entries for lookups which found nothing are kept, in milliseconds */
+    private static final long negativeTTL;
+
+    /** handle to the object it is bound to, in least recently used order */
+    private static final Map<String, Entry> byHandle;
+
+    /** "type:id" of an object to its handle, in least recently used order */
+    private static final Map<String, Entry> byObject;
+
+    /**
+     * Incremented whenever a handle is bound or unbound, so that lookups made
+     * while the handle table was being changed are not cached
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Contexts which have bound or unbound handles in their current
+     * transaction, with the handles and objects they changed
+     */
+    private static final Map<Context, List<Entry>> pending =
+            Collections.synchronizedMap(new WeakHashMap<Context, List<Entry>>());
+
+    /** number of lookups answered from the cache */
+    private static final AtomicLong hits = new AtomicLong();
+
+    /** number of lookups which had to query the database */
+    private static final AtomicLong misses = new AtomicLong();
+
+    static
+    {
+        ttl = Math.max(0, ConfigurationManager.getIntProperty("handle.cache.ttl", 3600)) * 1000L;
+        negativeTTL = Math.min(ttl,
+                Math.max(0, ConfigurationManager.getIntProperty("handle.cache.negative.ttl", 60)) * 1000L);
+
+        int size = ConfigurationManager.getIntProperty("handle.cache.size", 10000);
+        byHandle = newLRUMap(size);
+        byObject = newLRUMap(size);
+    }
+
+    /** Not instantiable */
+    private HandleCache()
+    {
+    }
+
+    private static Map<String, Entry> newLRUMap(final int size)
+    {
+        return new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    private static String objectKey(int type, int id)
+    {
+        return type + ":" + id;
+    }
+
+    /**
+     * Get the current generation of the cache.  This must be read before
+     * querying the handle table, and passed to <code>put</code>.
+     *
+     * @return  the number of handles bound or unbound so far
+     */
+    static long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Get the cached lookup of a handle.
+     *
+     * @param context   the Context looking up the handle
+     * @param handle    the handle
+     * @return  the entry, which is not <code>found</code> if the handle is
+     *          not in the handle table; or null if the handle is not cached
+     */
+    static Entry getByHandle(Context context, String handle)
+    {
+        return get(context, byHandle, handle);
+    }
+
+    /**
+     * Get the cached lookup of the handle of an object.
+     *
+     * @param context   the Context looking up the handle
+     * @param type  the type of the object
+     * @param id    the id of the object
+     * @return  the entry, which is not <code>found</code> if the object has
+     *          no handle; or null if the object is not cached
+     */
+    static Entry getByObject(Context context, int type, int id)
+    {
+        return get(context, byObject, objectKey(type, id));
+    }
+
+    private static Entry get(Context context, Map<String, Entry> map, String key)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (map)
+        {
+            entry = map.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis()))
+            {
+                map.remove(key);
+                entry = null;
+            }
+        }
+
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the lookup of a handle, unless a handle has been bound or unbound
+     * since <code>readGeneration</code>, or the Context has bound or unbound
+     * handles in its current transaction.
+     *
+     * @param context   the Context which looked up the handle
+     * @param handle    the handle looked up
+     * @param entry     what was found
+     * @param readGeneration    the value of <code>getGeneration()</code>
+     *                          before the handle table was queried
+     */
+    static void putByHandle(Context context, String handle, Entry entry, long readGeneration)
+    {
+        put(context, byHandle, handle, entry, readGeneration);
+    }
+
+    /**
+     * Cache the lookup of the handle of an object, unless a handle has been
+     * bound or unbound since <code>readGeneration</code>, or the Context has
+     * bound or unbound handles in its current transaction.
+     *
+     * @param context   the Context which looked up the handle
+     * @param type  the type of the object
+     * @param id    the id of the object
+     * @param entry what was found
+     * @param readGeneration    the value of <code>getGeneration()</code>
+     *                          before the handle table was queried
+     */
+    static void putByObject(Context context, int type, int id, Entry entry, long readGeneration)
+    {
+        put(context, byObject, objectKey(type, id), entry, readGeneration);
+    }
+
+    private static void put(Context context, Map<String, Entry> map, String key,
+            Entry entry, long readGeneration)
+    {
+        if (ttl == 0 || pending.containsKey(context))
+        {
+            return;
+        }
+
+        synchronized (map)
+        {
+            if (generation.get() == readGeneration)
+            {
+                map.put(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Forget what is cached about a handle and the object it is (or was)
+     * bound to.  Called whenever a handle is bound or unbound; they are
+     * forgotten again when the Context commits or aborts.
+     *
+     * @param context   the Context binding or unbinding the handle
+     * @param handle    the handle, or null if not known
+     * @param type      the type of the object
+     * @param id        the id of the object
+     */
+    static void invalidate(Context context, String handle, int type, int id)
+    {
+        synchronized (pending)
+        {
+            List<Entry> changed = pending.get(context);
+            if (changed == null)
+            {
+                changed = new ArrayList<Entry>();
+                pending.put(context, changed);
+            }
+            changed.add(new Entry(handle, type, id));
+        }
+        remove(handle, type, id);
+    }
+
+    /**
+     * Called when the given Context's transaction has been committed or
+     * rolled back.  If it bound or unbound handles, what is cached about
+     * them is forgotten, since other Contexts may have cached the previously
+     * committed bindings.
+     *
+     * @param context   the Context whose transaction has ended
+     */
+    public static void endTransaction(Context context)
+    {
+        List<Entry> changed = pending.remove(context);
+        if (changed != null)
+        {
+            for (Entry entry : changed)
+            {
+                remove(entry.getHandle(), entry.getType(), entry.getID());
+            }
+        }
+    }
+
+    private static void remove(String handle, int type, int id)
+    {
+        generation.incrementAndGet();
+        if (handle != null)
+        {
+            synchronized (byHandle)
+            {
+                byHandle.remove(handle);
+            }
+        }
+        synchronized (byObject)
+        {
+            byObject.remove(objectKey(type, id));
+        }
+    }
+
+    /**
+     * Forget everything cached.  Called when many handles change at once.
+     */
+    static void clear()
+    {
+        generation.incrementAndGet();
+        synchronized (byHandle)
+        {
+            byHandle.clear();
+        }
+        synchronized (byObject)
+        {
+            byObject.clear();
+        }
+    }
+
+    /**
+     * @return  the number of lookups answered from the cache so far
+     */
+    static long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return  the number of lookups which have had to query the database so far
+     */
+    static long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * A lookup of the handle table: a handle, and the type and id of the
+     * object it is bound to.
+     */
+    static final class Entry
+    {
+        /** the handle, or null if the lookup found nothing */
+        private final String handle;
+
+        /** the type of the object, or -1 if not known */
+        private final int type;
+
+        /** the id of the object, or -1 if the handle is not bound */
+        private final int id;
+
+        /** when the lookup was made */
+        private final long time;
+
+        /**
+         * @param handle    the handle, or null if the lookup found nothing
+         * @param type      the type of the object, or -1 if not known
+         * @param id        the id of the object, or -1 if the handle is unbound
+         */
+        Entry(String handle, int type, int id)
+        {
+            this.handle = handle;
+            this.type = type;
+            this.id = id;
+            this.time = System.currentTimeMillis();
+        }
+
+        /**
+         * @return  whether the lookup found a row in the handle table
+         */
+        boolean isFound()
+        {
+            return handle != null;
+        }
+
+        String getHandle()
+        {
+            return handle;
+        }
+
+        int getType()
+        {
+            return type;
+        }
+
+        int getID()
+        {
+            return id;
+        }
+
+        private boolean isExpired(long now)
+        {
+            return now - time > (isFound() ? ttl : negativeTTL);
+        }
+    }
+}
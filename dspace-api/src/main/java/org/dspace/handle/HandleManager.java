@@ -34,6 +34,12 @@ import org.dspace.storage.rdbms.TableRowIterator;
  * non-existent.
  * </p>
  * 
+ * <p>
+ * Lookups in either direction (handle to object, and object to handle) are
+ * cached for the whole JVM, including lookups which find nothing; see
+ * {@link HandleCache} for how the cache is configured.
+ * </p>
+ * 
  * @author Peter Breton
  * @version $Revision$
  */
@@ -67,9 +73,9 @@ public class HandleManager
     public static String resolveToURL(Context context, String handle)
             throws SQLException
     {
-        TableRow dbhandle = findHandleInternal(context, handle);
+        HandleCache.Entry dbhandle = lookupHandle(context, handle);
 
-        if (dbhandle == null)
+        if (!dbhandle.isFound())
         {
             return null;
         }
@@ -145,6 +151,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        HandleCache.invalidate(context, handleId, dso.getType(), dso.getID());
 
         if (log.isDebugEnabled())
         {
@@ -213,6 +220,7 @@ public class HandleManager
         handle.setColumn("resource_type_id", dso.getType());
         handle.setColumn("resource_id", dso.getID());
         DatabaseManager.update(context, handle);
+        HandleCache.invalidate(context, suppliedHandle, dso.getType(), dso.getID());
 
         if (log.isDebugEnabled())
         {
@@ -243,6 +251,7 @@ public class HandleManager
             // is reusing this handle!
             row.setColumnNull("resource_id");
             DatabaseManager.update(context, row);
+            HandleCache.invalidate(context, row.getStringColumn("handle"), dso.getType(), dso.getID());
 
             if(log.isDebugEnabled())
             {
@@ -274,9 +283,9 @@ public class HandleManager
     public static DSpaceObject resolveToObject(Context context, String handle)
             throws IllegalStateException, SQLException
     {
-        TableRow dbhandle = findHandleInternal(context, handle);
+        HandleCache.Entry dbhandle = lookupHandle(context, handle);
 
-        if (dbhandle == null)
+        if (!dbhandle.isFound())
         {
             //If this is the Site-wide Handle, return Site object
             if (handle.equals(Site.getSiteHandle()))
@@ -290,16 +299,15 @@ public class HandleManager
         // check if handle was allocated previously, but is currently not
         // associated with a DSpaceObject 
         // (this may occur when 'unbindHandle()' is called for an obj that was removed)
-        if ((dbhandle.isColumnNull("resource_type_id"))
-                || (dbhandle.isColumnNull("resource_id")))
+        if ((dbhandle.getType() < 0) || (dbhandle.getID() < 0))
         {
             //if handle has been unbound, just return null (as this will result in a PageNotFound)
             return null;
         }
 
         // What are we looking at here?
-        int handletypeid = dbhandle.getIntColumn("resource_type_id");
-        int resourceID = dbhandle.getIntColumn("resource_id");
+        int handletypeid = dbhandle.getType();
+        int resourceID = dbhandle.getID();
 
         if (handletypeid == Constants.ITEM)
         {
@@ -356,8 +364,18 @@ public class HandleManager
     public static String findHandle(Context context, DSpaceObject dso)
             throws SQLException
     {
-        TableRow row = getHandleInternal(context, dso.getType(), dso.getID());
-        if (row == null)
+        HandleCache.Entry entry = HandleCache.getByObject(context, dso.getType(), dso.getID());
+        if (entry == null)
+        {
+            long generation = HandleCache.getGeneration();
+            TableRow row = getHandleInternal(context, dso.getType(), dso.getID());
+            entry = (row == null)
+                    ? new HandleCache.Entry(null, dso.getType(), dso.getID())
+                    : new HandleCache.Entry(row.getStringColumn("handle"), dso.getType(), dso.getID());
+            HandleCache.putByObject(context, dso.getType(), dso.getID(), entry, generation);
+        }
+
+        if (!entry.isFound())
         {
             if (dso.getType() == Constants.SITE)
             {
@@ -370,7 +388,7 @@ public class HandleManager
         }
         else
         {
-            return row.getStringColumn("handle");
+            return entry.getHandle();
         }
     }
 
@@ -413,6 +431,28 @@ public class HandleManager
         return results;
     }
 
+    /**
+     * Get the number of handle lookups (in either direction) answered from
+     * the cache since this JVM started.
+     * 
+     * @return the number of cache hits
+     */
+    public static long getCacheHits()
+    {
+        return HandleCache.getHits();
+    }
+
+    /**
+     * Get the number of handle lookups (in either direction) which were not
+     * cached, and so queried the database, since this JVM started.
+     * 
+     * @return the number of cache misses
+     */
+    public static long getCacheMisses()
+    {
+        return HandleCache.getMisses();
+    }
+
     /**
      * Get the configured Handle prefix string, or a default
      * @return configured prefix or "123456789"
@@ -454,6 +494,48 @@ public class HandleManager
 	return DatabaseManager.querySingleTable(context, "Handle", sql, type, id);
     }
 
+    /**
+     * Look up a handle, in the cache if possible, otherwise in the database
+     * (caching the result).
+     * 
+     * @param context
+     *            DSpace context
+     * @param handle
+     *            The handle to resolve
+     * @return The lookup, which is not found if the handle is not in the
+     *         database
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    private static HandleCache.Entry lookupHandle(Context context, String handle)
+            throws SQLException
+    {
+        if (handle == null)
+        {
+            throw new IllegalArgumentException("Handle is null");
+        }
+
+        HandleCache.Entry entry = HandleCache.getByHandle(context, handle);
+        if (entry == null)
+        {
+            long generation = HandleCache.getGeneration();
+            TableRow row = findHandleInternal(context, handle);
+            if (row == null)
+            {
+                entry = new HandleCache.Entry(null, -1, -1);
+            }
+            else
+            {
+                entry = new HandleCache.Entry(handle,
+                        row.isColumnNull("resource_type_id") ? -1 : row.getIntColumn("resource_type_id"),
+                        row.isColumnNull("resource_id") ? -1 : row.getIntColumn("resource_id"));
+            }
+            HandleCache.putByHandle(context, handle, entry, generation);
+        }
+
+        return entry;
+    }
+
     /**
      * Find the database row corresponding to handle.
      * 
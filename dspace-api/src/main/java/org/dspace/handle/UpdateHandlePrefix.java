@@ -68,6 +68,9 @@ public class UpdateHandlePrefix
                 // Commit the changes
                 context.complete();
 
+                // Forget the old handles cached in this JVM
+                HandleCache.clear();
+
                 System.out.print("Re-creating browse and search indexes... ");                
 
                 // Reinitialise the browse system
@@ -0,0 +1,590 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.dspace.content.Item;
+import org.dspace.core.Context;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRow;
+import org.dspace.storage.rdbms.TableRowIterator;
+
+/**
+ * Reindexes every item in the archive using several threads. The calling
+ * thread streams the IDs of the items from the database into a bounded queue;
+ * a pool of worker threads, each with its own Context, builds the Lucene
+ * documents (including the full text) and adds them to a single IndexWriter,
+ * which is kept open for the whole run.
+ * <P>
+ * Whether an item needs reindexing is decided as in the single threaded
+ * update, by comparing its last modified date with the time it was last
+ * indexed, using a snapshot of the index taken at the start of the run.
+ * <P>
+ * Every <code>CHECKPOINT_INTERVAL</code> items the index is committed and the
+ * highest item ID below which every item has been processed is written to a
+ * checkpoint file in the index directory, followed by the IDs of the items
+ * which failed to index. An interrupted run can then be resumed from the
+ * checkpoint, retrying the failed items first. The file is removed when a run
+ * completes without failures; otherwise it is kept, so that a resumed run
+ * retries just the failed items.
+ *
+ * @version $Revision$
+ */
+class BulkIndexer
+{
+    private static final Logger log = Logger.getLogger(BulkIndexer.class);
+
+    /** Name of the checkpoint file, in the index directory */
+    private static final String CHECKPOINT_FILE = "bulkindex.checkpoint";
+
+    /** Number of items indexed between checkpoints */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    /** Number of item IDs queued for each worker thread */
+    private static final int QUEUE_PER_THREAD = 50;
+
+    /** Queued after the last item ID, once for each worker */
+    private static final Integer END = Integer.valueOf(-1);
+
+    private final IndexWriter writer;
+
+    private final IndexReader reader;
+
+    private final boolean force;
+
+    private final int threads;
+
+    private final File checkpointFile;
+
+    private final BlockingQueue<Integer> queue;
+
+    /** The worker threads, once started */
+    private Thread[] workers = new Thread[0];
+
+    /** IDs of items queued but not yet indexed, guarded by itself */
+    private final SortedSet<Integer> inFlight = new TreeSet<Integer>();
+
+    /** ID of the last item queued, guarded by inFlight */
+    private int lastQueued = 0;
+
+    /**
+     * IDs of items which failed to index, in this run or in the run being
+     * resumed and not yet retried, guarded by inFlight
+     */
+    private final SortedSet<Integer> failedIDs = new TreeSet<Integer>();
+
+    /** Serializes checkpoints */
+    private final Object checkpointLock = new Object();
+
+    /** Progress counters */
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private int total = 0;
+
+    private long startTime;
+
+    /**
+     * Constructor
+     *
+     * @param writer
+     *            the writer the documents are added to
+     * @param reader
+     *            snapshot of the index, used to check whether items need
+     *            reindexing
+     * @param indexDirectory
+     *            the index directory, where the checkpoint is kept
+     * @param threads
+     *            number of worker threads
+     * @param force
+     *            reindex items even if they are up to date in the index
+     */
+    BulkIndexer(IndexWriter writer, IndexReader reader, String indexDirectory, int threads, boolean force)
+    {
+        this.writer = writer;
+        this.reader = reader;
+        this.force = force;
+        this.threads = threads;
+        this.checkpointFile = new File(indexDirectory, CHECKPOINT_FILE);
+        this.queue = new ArrayBlockingQueue<Integer>(threads * QUEUE_PER_THREAD);
+    }
+
+    /**
+     * Index every item in the archive.
+     *
+     * @param context
+     *            context used to read the item IDs
+     * @param resume
+     *            if true, and a checkpoint has been written by an earlier run,
+     *            only index the items after the checkpoint, and the items
+     *            which that run failed to index
+     * @throws SQLException
+     * @throws IOException
+     */
+    void run(Context context, boolean resume) throws SQLException, IOException
+    {
+        int startID = resume ? readCheckpoint() : 0;
+        List<Integer> retry;
+
+        synchronized (inFlight)
+        {
+            lastQueued = startID;
+            retry = new ArrayList<Integer>(failedIDs);
+        }
+
+        if (startID > 0 || !retry.isEmpty())
+        {
+            log.info("Resuming bulk index after item_id=" + startID
+                    + ", retrying " + retry.size() + " failed items");
+        }
+
+        TableRow count = DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS num FROM item WHERE in_archive='1' AND item_id > ?", startID);
+        total = ((count == null) ? 0 : (int) count.getLongColumn("num")) + retry.size();
+        startTime = System.currentTimeMillis();
+
+        log.info("Bulk indexing " + total + " items with " + threads + " threads");
+
+        // Create the workers' contexts up front, so that a failure to get a
+        // database connection is reported before anything is queued
+        Context[] contexts = new Context[threads];
+        try
+        {
+            for (int i = 0; i < threads; i++)
+            {
+                contexts[i] = new Context();
+                contexts[i].setIgnoreAuthorization(true);
+            }
+        }
+        catch (SQLException e)
+        {
+            for (Context c : contexts)
+            {
+                if (c != null)
+                {
+                    c.abort();
+                }
+            }
+            throw e;
+        }
+
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread(new Worker(contexts[i]), "BulkIndexer-" + i);
+            workers[i].start();
+        }
+
+        boolean completed = false;
+        try
+        {
+            queueItems(context, startID, retry);
+            completed = true;
+        }
+        finally
+        {
+            // Stop the workers once they have emptied the queue
+            for (int i = 0; i < threads && workersAlive(); i++)
+            {
+                putQuietly(END);
+            }
+
+            for (Thread worker : workers)
+            {
+                try
+                {
+                    worker.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    completed = false;
+                }
+            }
+
+            if (!completed)
+            {
+                // Keep what has been done, so the run can be resumed
+                checkpoint();
+            }
+
+            logProgress();
+        }
+
+        if (!completed)
+        {
+            throw new IOException("Bulk indexing interrupted");
+        }
+
+        writer.commit();
+
+        List<Integer> failures;
+        synchronized (inFlight)
+        {
+            failures = new ArrayList<Integer>(failedIDs);
+        }
+
+        if (!failures.isEmpty())
+        {
+            // Keep the failed items, so that resuming retries just them
+            writeCheckpoint(lastQueued, failures);
+            log.warn(failures.size() + " items could not be indexed; resume the build to retry them");
+        }
+        else if (checkpointFile.exists() && !checkpointFile.delete())
+        {
+            log.warn("Unable to remove bulk index checkpoint " + checkpointFile);
+        }
+    }
+
+    /**
+     * Queue the IDs of the items to retry, then stream the IDs of the items
+     * to index into the queue.
+     */
+    private void queueItems(Context context, int startID, List<Integer> retry)
+            throws SQLException, IOException
+    {
+        TableRowIterator tri = DatabaseManager.queryStreaming(context,
+                "SELECT item_id FROM item WHERE in_archive='1' AND item_id > ? ORDER BY item_id", startID);
+
+        try
+        {
+            // Retried items are below the checkpoint, so they are not added
+            // to inFlight; until they succeed they stay in failedIDs
+            for (Integer id : retry)
+            {
+                put(id);
+            }
+
+            while (tri.hasNext())
+            {
+                Integer id = Integer.valueOf(tri.next().getIntColumn("item_id"));
+
+                synchronized (inFlight)
+                {
+                    inFlight.add(id);
+                    lastQueued = id.intValue();
+                }
+
+                put(id);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Bulk indexing interrupted");
+        }
+        finally
+        {
+            tri.close();
+        }
+    }
+
+    /**
+     * Index a single item.
+     */
+    private void index(Context context, int id)
+    {
+        boolean indexed = false;
+        try
+        {
+            Item item = Item.find(context, id);
+
+            if (item != null)
+            {
+                IndexingTask task = DSIndexer.prepareIndexingTask(reader, item, force);
+                if (task != null)
+                {
+                    try
+                    {
+                        DSIndexer.executeIndexingTask(writer, task);
+                        written.incrementAndGet();
+                    }
+                    finally
+                    {
+                        DSIndexer.closeAllReaders(task.getDocument());
+                    }
+                }
+            }
+            indexed = true;
+        }
+        catch (Exception e)
+        {
+            failed.incrementAndGet();
+            log.error("Unable to index item_id=" + id, e);
+        }
+        finally
+        {
+            // Keep the worker's cache (items, bundles, bitstreams) small
+            context.clearCache();
+        }
+
+        synchronized (inFlight)
+        {
+            inFlight.remove(Integer.valueOf(id));
+            if (indexed)
+            {
+                failedIDs.remove(Integer.valueOf(id));
+            }
+            else
+            {
+                failedIDs.add(Integer.valueOf(id));
+            }
+        }
+
+        if (processed.incrementAndGet() % CHECKPOINT_INTERVAL == 0)
+        {
+            checkpoint();
+            logProgress();
+        }
+    }
+
+    /**
+     * Commit the index, and record the item ID below which every item has
+     * been processed, and the items which failed.
+     */
+    private void checkpoint()
+    {
+        synchronized (checkpointLock)
+        {
+            int safeID;
+            List<Integer> failures;
+            synchronized (inFlight)
+            {
+                safeID = inFlight.isEmpty() ? lastQueued : inFlight.first().intValue() - 1;
+                failures = new ArrayList<Integer>(failedIDs);
+            }
+
+            try
+            {
+                // Everything up to safeID has been added to the writer, so
+                // is included in the commit
+                writer.commit();
+                DSQuery.indexChanged();
+                writeCheckpoint(safeID, failures);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to write bulk index checkpoint", e);
+            }
+        }
+    }
+
+    /**
+     * Read the checkpoint, adding the items which failed to
+     * <code>failedIDs</code>.
+     *
+     * @return the item ID below which every item was processed
+     */
+    private int readCheckpoint()
+    {
+        if (!checkpointFile.exists())
+        {
+            return 0;
+        }
+
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader(new FileReader(checkpointFile));
+            String line = in.readLine();
+            int safeID = (line == null) ? 0 : Integer.parseInt(line.trim());
+
+            // Failed items after the checkpoint will be indexed again anyway
+            SortedSet<Integer> failures = new TreeSet<Integer>();
+            while ((line = in.readLine()) != null)
+            {
+                if (line.trim().length() > 0 && Integer.parseInt(line.trim()) <= safeID)
+                {
+                    failures.add(Integer.valueOf(line.trim()));
+                }
+            }
+
+            synchronized (inFlight)
+            {
+                failedIDs.addAll(failures);
+            }
+            return safeID;
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to read bulk index checkpoint, starting from the beginning", e);
+            return 0;
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Invalid bulk index checkpoint, starting from the beginning", e);
+            return 0;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    private void writeCheckpoint(int id, List<Integer> failures) throws IOException
+    {
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        PrintWriter out = new PrintWriter(new FileWriter(temp));
+        try
+        {
+            out.println(id);
+            for (Integer failure : failures)
+            {
+                out.println(failure);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!temp.renameTo(checkpointFile))
+        {
+            // Some platforms will not rename over an existing file
+            checkpointFile.delete();
+            if (!temp.renameTo(checkpointFile))
+            {
+                throw new IOException("Unable to rename " + temp + " to " + checkpointFile);
+            }
+        }
+    }
+
+    private void logProgress()
+    {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        int done = processed.get();
+
+        log.info("Bulk index progress: " + done + "/" + total + " items processed, "
+                + written.get() + " written, " + failed.get() + " failed, "
+                + (done * 1000L / elapsed) + " items/sec");
+    }
+
+    /**
+     * Queue an item ID, waiting for room in the queue for as long as a
+     * worker is left to take it.
+     *
+     * @throws IOException
+     *             if every worker has stopped
+     */
+    private void put(Integer id) throws InterruptedException, IOException
+    {
+        while (!queue.offer(id, 1, TimeUnit.SECONDS))
+        {
+            if (!workersAlive())
+            {
+                throw new IOException("Bulk indexing stopped: no worker threads are running");
+            }
+        }
+    }
+
+    private boolean workersAlive()
+    {
+        for (Thread worker : workers)
+        {
+            if (worker.isAlive())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void putQuietly(Integer id)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                put(id);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+            catch (IOException e)
+            {
+                // No worker is left to stop
+                break;
+            }
+        }
+
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes item IDs from the queue and indexes them, until the end marker
+     * is reached.
+     */
+    private class Worker implements Runnable
+    {
+        private final Context context;
+
+        Worker(Context context)
+        {
+            this.context = context;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    Integer id = queue.take();
+                    if (END.equals(id))
+                    {
+                        break;
+                    }
+
+                    index(context, id.intValue());
+                }
+            }
+            catch (InterruptedException e)
+            {
+                log.warn("Bulk index worker interrupted");
+            }
+            finally
+            {
+                context.abort();
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
@@ -99,6 +100,7 @@ public class DSIndexer
     private static int indexFlushDelay = ConfigurationManager.getIntProperty("search.index.delay", -1);
 
     private static int batchFlushAfterDocuments = ConfigurationManager.getIntProperty("search.batch.documents", 20);
+    private static int indexThreads = ConfigurationManager.getIntProperty("search.index.threads", 1);
     private static boolean batchProcessingMode = false;
     
     // Class to hold the index configuration (one instance per config line)
@@ -362,7 +364,7 @@ public class DSIndexer
     {
 
     	/* Create a new index, blowing away the old. */
-        openIndex(true).close();
+        closeIndex(openIndex(true));
         
         /* Reindex all content preemptively. */
         DSIndexer.updateIndex(c, true);
@@ -387,7 +389,7 @@ public class DSIndexer
         }
         finally
         {
-            writer.close();
+            closeIndex(writer);
         }
     }
 
@@ -409,7 +411,7 @@ public class DSIndexer
             Context context = new Context();
             context.setIgnoreAuthorization(true);
 
-            String usage = "org.dspace.search.DSIndexer [-cbhof[r <item handle>]] or nothing to update/clean an existing index.";
+            String usage = "org.dspace.search.DSIndexer [-cbhofs[r <item handle>][t <threads>]] or nothing to update/clean an existing index.";
             Options options = new Options();
             HelpFormatter formatter = new HelpFormatter();
             CommandLine line = null;
@@ -440,6 +442,19 @@ public class DSIndexer
                                     "if updating existing index, force each handle to be reindexed even if uptodate")
                             .create("f"));
 
+            options.addOption(OptionBuilder
+                            .withArgName("threads")
+                            .hasArg(true)
+                            .withDescription(
+                                    "number of threads to index items with (overrides search.index.threads)")
+                            .create("t"));
+
+            options.addOption(OptionBuilder
+                            .isRequired(false)
+                            .withDescription(
+                                    "resume an interrupted bulk (re)build from its checkpoint, even with one thread")
+                            .create("s"));
+
             options.addOption(OptionBuilder.isRequired(false).withDescription(
                     "print this help message").create("h"));
 
@@ -461,6 +476,27 @@ public class DSIndexer
                 System.exit(1);
             }
 
+            if (line.hasOption("t"))
+            {
+                int threads = 0;
+                try
+                {
+                    threads = Integer.parseInt(line.getOptionValue("t").trim());
+                }
+                catch (NumberFormatException e)
+                {
+                    // reported below
+                }
+
+                if (threads < 1)
+                {
+                    formatter.printHelp(usage, "Invalid number of threads: "
+                            + line.getOptionValue("t"), options, "");
+                    System.exit(1);
+                }
+                indexThreads = threads;
+            }
+
             if (line.hasOption("r"))
             {
                 log.info("Removing " + line.getOptionValue("r") + " from Index");
@@ -476,6 +512,11 @@ public class DSIndexer
                 log.info("Cleaning Index");
                 cleanIndex(context);
             }
+            else if (line.hasOption("b") && line.hasOption("s"))
+            {
+                log.info("Resuming (re)build of index.");
+                updateIndex(context, true, true);
+            }
             else if (line.hasOption("b"))
             {
                 log.info("(Re)building index from scratch.");
@@ -485,7 +526,7 @@ public class DSIndexer
             {
                 log.info("Updating and Cleaning Index");
                 cleanIndex(context);
-                updateIndex(context, line.hasOption("f"));
+                updateIndex(context, line.hasOption("f"), line.hasOption("s"));
             }
 
             log.info("Done with indexing");
@@ -525,23 +566,50 @@ public class DSIndexer
      * @param force 
      */
     public static void updateIndex(Context context, boolean force) {
+        updateIndex(context, force, false);
+    }
+
+    /**
+     * Iterates over all Items, Collections and Communities, and updates
+     * them in the index, as <code>updateIndex(Context, boolean)</code>.
+     * <P>
+     * If <code>search.index.threads</code> is greater than 1, the items are
+     * indexed in bulk by that many threads, adding to a single IndexWriter
+     * held open for the whole run. Other processes are unable to update the
+     * index until the run has finished. A bulk run records its progress in a
+     * checkpoint, from which an interrupted run can be resumed. Resuming
+     * always indexes the items in bulk, with a single thread if
+     * <code>search.index.threads</code> is 1.
+     *
+     * @param context
+     * @param force reindex every item, even if it is up to date
+     * @param resume resume an interrupted bulk run from its checkpoint
+     */
+    public static void updateIndex(Context context, boolean force, boolean resume) {
     		try
     		{
-                ItemIterator items = null;
-                try
+                if (indexThreads > 1 || resume)
                 {
-                    for(items = Item.findAll(context);items.hasNext();)
-                    {
-                        Item item = (Item) items.next();
-                        indexContent(context, item);
-                        item.decache();
-                    }
+                    bulkIndexItems(context, force, resume);
                 }
-                finally
+                else
                 {
-                    if (items != null)
+                    ItemIterator items = null;
+                    try
+                    {
+                        for(items = Item.findAllStreaming(context);items.hasNext();)
+                        {
+                            Item item = (Item) items.next();
+                            indexContent(context, item);
+                            item.decache();
+                        }
+                    }
+                    finally
                     {
-                        items.close();
+                        if (items != null)
+                        {
+                            items.close();
+                        }
                     }
                 }
 
@@ -565,6 +633,44 @@ public class DSIndexer
     		}
     }
     
+    /**
+     * Index every item in the archive with a <code>BulkIndexer</code>.
+     */
+    private static void bulkIndexItems(Context context, boolean force, boolean resume)
+            throws SQLException, IOException
+    {
+        // Write out anything queued first, so it cannot overwrite newer
+        // documents later
+        flushIndexingTaskQueue();
+
+        IndexWriter writer = openIndex(false);
+        IndexReader reader = null;
+        try
+        {
+            // Items are only indexed once per run, so a snapshot of the index
+            // from the start is enough to check which are up to date
+            reader = IndexReader.open(writer.getDirectory(), true);
+
+            new BulkIndexer(writer, reader, indexDirectory, indexThreads, force).run(context, resume);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    log.error("Unable to close IndexReader", e);
+                }
+            }
+
+            closeIndex(writer);
+        }
+    }
+
     /**
      * Iterates over all documents in the Lucene index and verifies they 
      * are in database, if not, they are removed.
@@ -575,8 +681,19 @@ public class DSIndexer
      */
     public static void cleanIndex(Context context) throws IOException, SQLException {
 
-    	IndexReader reader = DSQuery.getIndexReader();
-    	
+    	IndexSearcher searcher = DSQuery.acquireSearcher();
+    	try
+    	{
+    	    cleanIndex(context, searcher.getIndexReader());
+    	}
+    	finally
+    	{
+    	    DSQuery.releaseSearcher(searcher);
+    	}
+    }
+
+    private static void cleanIndex(Context context, IndexReader reader) throws IOException, SQLException {
+
     	for(int i = 0 ; i < reader.numDocs(); i++)
     	{
     		if(!reader.isDeleted(i))
@@ -650,8 +767,34 @@ public class DSIndexer
 
 
     static IndexingTask prepareIndexingTask(DSpaceObject dso, boolean force) throws SQLException, IOException
+    {
+        return prepareIndexingTask(null, dso, force);
+    }
+
+    /**
+     * Prepare the task which brings the index up to date for a DSpace object.
+     *
+     * @param reader
+     *            the index to check whether the object is up to date in, or
+     *            null to use the current index
+     * @param dso
+     *            the object
+     * @param force
+     *            update the object even if it is up to date
+     * @return the task, or null if nothing needs doing
+     */
+    static IndexingTask prepareIndexingTask(IndexReader reader, DSpaceObject dso, boolean force) throws SQLException, IOException
     {
         String handle = dso.getHandle();
+        if (handle == null)
+        {
+            // Documents are keyed by handle, and a null term leaves a
+            // shared IndexWriter unable to commit
+            log.warn("Not indexing " + Constants.typeText[dso.getType()] + " " + dso.getID()
+                    + ", as it has no handle");
+            return null;
+        }
+
         Term term = new Term("handle", handle);
         IndexingTask action = null;
         switch (dso.getType())
@@ -661,7 +804,7 @@ public class DSIndexer
             if (item.isArchived() && !item.isWithdrawn())
             {
                 /** If the item is in the repository now, add it to the index*/
-                if (requiresIndexing(term, ((Item)dso).getLastModified()) || force)
+                if (force || requiresIndexing(reader, term, ((Item)dso).getLastModified()))
                 {
                     log.info("Writing Item: " + handle + " to Index");
                     action = new IndexingTask(IndexingTask.Action.UPDATE, term, buildDocumentForItem((Item)dso));
@@ -719,7 +862,7 @@ public class DSIndexer
                 {
                     try
                     {
-                        writer.close();
+                        closeIndex(writer);
                     }
                     catch (IOException e)
                     {
@@ -730,7 +873,7 @@ public class DSIndexer
         }
     }
 
-    private static void executeIndexingTask(IndexWriter writer, IndexingTask action) throws IOException
+    static void executeIndexingTask(IndexWriter writer, IndexingTask action) throws IOException
     {
         if (action != null)
         {
@@ -787,7 +930,7 @@ public class DSIndexer
                 {
                     try
                     {
-                        writer.close();
+                        closeIndex(writer);
                     }
                     catch (IOException ex)
                     {
@@ -872,34 +1015,47 @@ public class DSIndexer
 	 * Is stale checks the lastModified time stamp in the database and the index
 	 * to determine if the index is stale.
 	 * 
+	 * @param ir the index to check, or null to use the current index
 	 * @param lastModified
 	 * @throws SQLException
 	 * @throws IOException
 	 */
-    private static boolean requiresIndexing(Term t, Date lastModified)
+    private static boolean requiresIndexing(IndexReader ir, Term t, Date lastModified)
     throws SQLException, IOException
     {
 		
 		boolean reindexItem = false;
 		boolean inIndex = false;
 		
-		IndexReader ir = DSQuery.getIndexReader();
+		IndexSearcher searcher = null;
+		if (ir == null)
+		{
+		    searcher = DSQuery.acquireSearcher();
+		    ir = searcher.getIndexReader();
+		}
 		
-		TermDocs docs = ir.termDocs(t);
-						
-		while(docs.next())
+		try
 		{
-			inIndex = true;
-			int id = docs.doc();
-			Document doc = ir.document(id);
-
-			Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
-
-			if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
-					lastModified.getTime()) {
-				reindexItem = true;
+			TermDocs docs = ir.termDocs(t);
+							
+			while(docs.next())
+			{
+				inIndex = true;
+				int id = docs.doc();
+				Document doc = ir.document(id);
+
+				Field lastIndexed = doc.getField(LAST_INDEXED_FIELD);
+
+				if (lastIndexed == null || Long.parseLong(lastIndexed.stringValue()) < 
+						lastModified.getTime()) {
+					reindexItem = true;
+				}
 			}
 		}
+		finally
+		{
+			DSQuery.releaseSearcher(searcher);
+		}
 
 		return reindexItem || !inIndex;
 	}
@@ -933,6 +1089,21 @@ public class DSIndexer
         return writer;
     }
 
+    /**
+     * close a writer, and let searches know the index has changed
+     */
+    private static void closeIndex(IndexWriter writer) throws IOException
+    {
+        try
+        {
+            writer.close();
+        }
+        finally
+        {
+            DSQuery.indexChanged();
+        }
+    }
+
     /**
      * @param myitem
      * @return
@@ -1308,7 +1479,7 @@ public class DSIndexer
         return doc;
     }
 
-    private static void closeAllReaders(Document doc)
+    static void closeAllReaders(Document doc)
     {
         if (doc != null)
         {
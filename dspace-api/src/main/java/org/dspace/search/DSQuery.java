@@ -7,7 +7,6 @@
  */
 package org.dspace.search;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -15,7 +14,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.TokenMgrError;
@@ -25,8 +23,6 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 import org.dspace.content.Collection;
 import org.dspace.content.Community;
@@ -55,15 +51,13 @@ public class DSQuery
 
     static final String COMMUNITY = "" + Constants.COMMUNITY;
 
-    // cache a Lucene IndexSearcher for more efficient searches
-    private static IndexSearcher searcher = null;
+    // share a Lucene IndexSearcher between searches, for more efficient searches
+    private static SearcherManager searcherManager = null;
 
     private static String indexDir = null;
     
     private static String operator = null;
     
-    private static long lastModified;
-    
     /** log4j logger */
     private static Logger log = Logger.getLogger(DSQuery.class);
 
@@ -79,6 +73,11 @@ public class DSQuery
         indexDir = ConfigurationManager.getProperty("search.dir");
         
         operator = ConfigurationManager.getProperty("search.operator");   
+
+        // How often (in seconds) to check for changes to the index made by
+        // other processes; changes made by this JVM are picked up at once
+        int reopenInterval = ConfigurationManager.getIntProperty("search.reopen.interval", 5);
+        searcherManager = new SearcherManager(indexDir, Math.max(0, reopenInterval) * 1000L);
     }
 
     /**
@@ -113,10 +112,11 @@ public class DSQuery
         querystring = stripHandles(querystring); // remove handles from query string
         querystring = stripAsterisk(querystring); // remove asterisk from beginning of string
 
+        IndexSearcher searcher = null;
         try
         {
             // grab a searcher, and do the search
-            IndexSearcher searcher = getSearcher(c);
+            searcher = searcherManager.acquire();
 
             QueryParser qp = new QueryParser(Version.LUCENE_33, "default", DSIndexer.getAnalyzer());
             log.debug("Final query string: " + querystring);
@@ -202,6 +202,10 @@ public class DSQuery
             log.warn(LogManager.getHeader(c, "Query too broad", e.toString()));
             qr.setErrorMsg("query-too-broad");
         }
+        finally
+        {
+            searcherManager.release(searcher);
+        }
 
         return qr;
     }
@@ -380,22 +384,12 @@ public class DSQuery
     }
 
     /**
-     * Close any IndexSearcher that is currently open.
+     * Close any IndexSearcher that is currently open. Searches in progress
+     * are allowed to finish.
      */
-    public static synchronized void close()
+    public static void close()
     {
-        if (searcher != null)
-        {
-            try
-            {
-                searcher.close();
-                searcher = null;
-            }
-            catch (IOException ioe)
-            {
-                log.error("DSQuery: Unable to close open IndexSearcher", ioe);
-            }
-        }
+        searcherManager.close();
     }
     
     public static void main(String[] args)
@@ -406,81 +400,35 @@ public class DSQuery
         }
     }
 
-    /*---------  protected methods ----------*/
+    /*---------  package methods ----------*/
 
-    /**	
-     * get an IndexReader.
-     * @throws IOException 
+    /**
+     * Get the shared IndexSearcher. It must be released with
+     * <code>releaseSearcher()</code> when finished with, after which neither
+     * it nor its IndexReader may be used.
+     *
+     * @throws IOException if the index cannot be opened
      */
-    protected static IndexReader getIndexReader() 
-    	throws IOException
+    static IndexSearcher acquireSearcher() throws IOException
     {
-    	return getSearcher(null).getIndexReader();
+        return searcherManager.acquire();
     }
-    
+
     /**
-     * get an IndexSearcher, hopefully a cached one (gives much better
-     * performance.) checks to see if the index has been modified - if so, it
-     * creates a new IndexSearcher
+     * Release an IndexSearcher obtained from <code>acquireSearcher()</code>.
      */
-    protected static synchronized IndexSearcher getSearcher(Context c)
-            throws IOException
+    static void releaseSearcher(IndexSearcher searcher)
     {
-       
-        // If we have already opened a searcher, check to see if the index has been updated
-        // If it has, we need to close the existing searcher - we will open a new one later
-
-        Directory searchDir = FSDirectory.open(new File(indexDir));
-
-        if (searcher != null && lastModified != IndexReader.getCurrentVersion(searchDir))
-        {
-            try
-            {
-                // Close the cached IndexSearcher
-                searcher.close();
-            }
-            catch (IOException ioe)
-            {
-                // Index is probably corrupt. Log the error, but continue to either:
-                // 1) Return existing searcher (may yet throw exception, no worse than throwing here)
-                log.warn("DSQuery: Unable to check for updated index", ioe);
-            }
-            finally
-            {
-            	searcher = null;
-            }
-        }
-
-        // There is no existing searcher - either this is the first execution,
-        // or the index has been updated and we closed the old index.
-        if (searcher == null)
-        {
-            // So, open a new searcher
-            lastModified = IndexReader.getCurrentVersion(searchDir);
-            String osName = System.getProperty("os.name");
-            if (osName != null && osName.toLowerCase().contains("windows"))
-            {
-                searcher = new IndexSearcher(searchDir){
-                    /*
-                     * TODO: Has Lucene fixed this bug yet?
-                     * Lucene doesn't release read locks in
-                     * windows properly on finalize. Our hack
-                     * extend IndexSearcher to force close().
-                     */
-                    @Override
-                    protected void finalize() throws Throwable {
-                        this.close();
-                        super.finalize();
-                    }
-                };
-            }
-            else
-            {
-                searcher = new IndexSearcher(searchDir);
-            }
-        }
+        searcherManager.release(searcher);
+    }
 
-        return searcher;
+    /**
+     * Called after the index has been written to. Reopens the searcher, so
+     * that searches started after this returns see the changes.
+     */
+    static void indexChanged()
+    {
+        searcherManager.indexChanged();
     }
 }
 
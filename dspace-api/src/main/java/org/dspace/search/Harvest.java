@@ -41,6 +41,9 @@ public class Harvest
     /** log4j logger */
     private static Logger log = Logger.getLogger(Harvest.class);
 
+    /** Maximum number of item IDs in one IN clause */
+    private static final int BATCH_SIZE = 500;
+
     /**
      * Obtain information about items that have been created, modified or
      * withdrawn within a given date range. You can also specify 'offset' and
@@ -89,100 +92,12 @@ public class Harvest
             boolean items, boolean collections, boolean withdrawn,
             boolean nonAnon) throws SQLException, ParseException
     {
-
-        // Put together our query. Note there is no need for an
-        // "in_archive=true" condition, we are using the existence of
-        // Handles as our 'existence criterion'.
-        // FIXME: I think the "DISTINCT" is redundant
-        String query = "SELECT DISTINCT handle.handle, handle.resource_id, item.withdrawn, item.last_modified FROM handle, item";
-
-
         // We are building a complex query that may contain a variable
         // about of input data points. To accommodate this while still
         // providing type safety we build a list of parameters to be
         // plugged into the query at the database level.
         List<Serializable> parameters = new ArrayList<Serializable>();
-
-        if (scope != null)
-        {
-        	if (scope.getType() == Constants.COLLECTION)
-        	{
-        		query += ", collection2item";
-        	}
-        	else if (scope.getType() == Constants.COMMUNITY)
-        	{
-        		query += ", communities2item";
-        	}
-        }
-
-        query += " WHERE handle.resource_type_id=" + Constants.ITEM + " AND handle.resource_id=item.item_id ";
-
-        if (scope != null)
-        {
-        	if (scope.getType() == Constants.COLLECTION)
-        	{
-        		query += " AND collection2item.collection_id= ? " +
-        	             " AND collection2item.item_id=handle.resource_id ";
-        		parameters.add(Integer.valueOf(scope.getID()));
-        	}
-        	else if (scope.getType() == Constants.COMMUNITY)
-        	{
-        		query += " AND communities2item.community_id= ? " +
-						 " AND communities2item.item_id=handle.resource_id";
-        		parameters.add(Integer.valueOf(scope.getID()));
-        	}
-        }
-
-        if (startDate != null)
-        {
-        	query = query + " AND item.last_modified >= ? ";
-        	parameters.add(toTimestamp(startDate, false));
-        }
-
-        if (endDate != null)
-        {
-            /*
-             * If the end date has seconds precision, e.g.:
-             *
-             * 2004-04-29T13:45:43Z
-             *
-             * we need to add 999 milliseconds to this. This is because SQL
-             * TIMESTAMPs have millisecond precision, and so might have a value:
-             *
-             * 2004-04-29T13:45:43.952Z
-             *
-             * and so <= '2004-04-29T13:45:43Z' would not pick this up. Reading
-             * things out of the database, TIMESTAMPs are rounded down, so the
-             * above value would be read as '2004-04-29T13:45:43Z', and
-             * therefore a caller would expect <= '2004-04-29T13:45:43Z' to
-             * include that value.
-             *
-             * Got that? ;-)
-             */
-        	boolean selfGenerated = false;
-            if (endDate.length() == 20)
-            {
-                endDate = endDate.substring(0, 19) + ".999Z";
-                selfGenerated = true;
-            }
-
-        	query += " AND item.last_modified <= ? ";
-            parameters.add(toTimestamp(endDate, selfGenerated));
-        }
-
-        if (!withdrawn)
-        {
-            // Exclude withdrawn items
-            if ("oracle".equals(ConfigurationManager.getProperty("db.name")))
-            {
-                query += " AND withdrawn=0 ";
-            }
-            else
-            {
-                // postgres uses booleans
-                query += " AND withdrawn=false ";
-            }
-        }
+        String query = buildQuery(scope, startDate, endDate, withdrawn, parameters);
 
         // Order by item ID, so that for a given harvest the order will be
         // consistent. This is so that big harvests can be broken up into
@@ -191,6 +106,8 @@ public class Harvest
 
         log.debug(LogManager.getHeader(context, "harvest SQL", query));
 
+        // The results are collected in a list anyway, so read them on the
+        // context's own connection rather than streaming them on a second one
         Object[] parametersArray = parameters.toArray();
         TableRowIterator tri = DatabaseManager.query(context, query, parametersArray);
         List<HarvestedItemInfo> infoObjects = new LinkedList<HarvestedItemInfo>();
@@ -261,6 +178,180 @@ public class Harvest
             }
         }
 
+        if (items)
+        {
+            // The caller will almost certainly crosswalk the items' metadata,
+            // so load it for the whole result set in one go
+            List<Integer> itemIDs = new ArrayList<Integer>(infoObjects.size());
+            for (HarvestedItemInfo itemInfo : infoObjects)
+            {
+                if (itemInfo.item != null)
+                {
+                    itemIDs.add(Integer.valueOf(itemInfo.itemID));
+                }
+            }
+
+            int[] ids = new int[itemIDs.size()];
+            for (int i = 0; i < ids.length; i++)
+            {
+                ids[i] = itemIDs.get(i).intValue();
+            }
+
+            Item.prefetchMetadata(context, ids);
+        }
+
+        return infoObjects;
+    }
+
+    /**
+     * Obtain information about items that have been created, modified or
+     * withdrawn within a given date range, starting after a given item. This
+     * is equivalent to <code>harvest</code>, but rather than skipping
+     * <code>offset</code> items the next section of a big harvest is found by
+     * passing the item ID of the last item of the previous section, so every
+     * section costs the same however deep into the harvest it is.
+     * <P>
+     * The items are returned in item ID order. The collections, items and
+     * access rights of each section are loaded with a few queries for the
+     * whole section, rather than several queries per item. A section bounded
+     * by <code>limit</code> is read on the context's connection; an unbounded
+     * harvest streams its rows on a separate connection, so it does not see
+     * uncommitted changes made by the context.
+     *
+     * @param context
+     *            DSpace context
+     * @param scope
+     *            a Collection, Community, or <code>null</code> indicating the scope is
+     *            all of DSpace
+     * @param startDate
+     *            start of date range, or <code>null</code>
+     * @param endDate
+     *            end of date range, or <code>null</code>
+     * @param lastID
+     *            the item ID of the last item returned by the previous section
+     *            of the harvest, or 0 to start at the beginning.
+     * @param limit
+     *            the number of matching items to return in a partial harvest.
+     *            Specify 0 to return the whole list (or the rest of the list if
+     *            a last ID was specified.)
+     * @param items
+     *            if <code>true</code> the <code>item</code> field of each
+     *            <code>HarvestedItemInfo</code> object is filled out
+     * @param collections
+     *            if <code>true</code> the <code>collectionHandles</code>
+     *            field of each <code>HarvestedItemInfo</code> object is
+     *            filled out
+     * @param withdrawn
+     *            If <code>true</code>, information about withdrawn items is
+     *            included
+     * @param nonAnon
+     *            If items without anonymous access should be included or not
+     * @return List of <code>HarvestedItemInfo</code> objects
+     * @throws java.sql.SQLException
+     * @throws java.text.ParseException If the date is not in a supported format
+     */
+    public static List<HarvestedItemInfo> harvestAfter(Context context, DSpaceObject scope,
+            String startDate, String endDate, int lastID, int limit,
+            boolean items, boolean collections, boolean withdrawn,
+            boolean nonAnon) throws SQLException, ParseException
+    {
+        List<Serializable> parameters = new ArrayList<Serializable>();
+        String query = buildQuery(scope, startDate, endDate, withdrawn, parameters);
+
+        query += " AND handle.resource_id > ? ORDER BY handle.resource_id";
+        int lastIDParameter = parameters.size();
+        parameters.add(Integer.valueOf(lastID));
+
+        if (limit > 0)
+        {
+            if ("oracle".equals(ConfigurationManager.getProperty("db.name")))
+            {
+                query = "SELECT * FROM (" + query + ") WHERE ROWNUM <= ?";
+            }
+            else
+            {
+                query += " LIMIT ?";
+            }
+            parameters.add(Integer.valueOf(limit));
+        }
+
+        log.debug(LogManager.getHeader(context, "harvest SQL", query));
+
+        List<HarvestedItemInfo> infoObjects = new ArrayList<HarvestedItemInfo>();
+
+        // Items without anonymous access may be filtered out of a section, in
+        // which case further sections are read until the limit is reached
+        while (true)
+        {
+            List<HarvestedItemInfo> section = new ArrayList<HarvestedItemInfo>();
+            TableRowIterator tri;
+            if (limit > 0)
+            {
+                // A bounded section is read on the context's connection, so a
+                // request does not hold a second pooled connection
+                tri = DatabaseManager.query(context, query, parameters.toArray());
+            }
+            else
+            {
+                tri = DatabaseManager.queryStreaming(context, query, parameters.toArray());
+            }
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    section.add(makeItemInfo(context, tri.next()));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+
+            if (section.isEmpty())
+            {
+                break;
+            }
+
+            if (items)
+            {
+                fillItems(context, section);
+            }
+
+            Set<Integer> anonReadable = null;
+            if (items && !nonAnon)
+            {
+                anonReadable = findAnonReadable(context, section);
+            }
+
+            for (HarvestedItemInfo itemInfo : section)
+            {
+                if (limit > 0 && infoObjects.size() >= limit)
+                {
+                    break;
+                }
+
+                if (anonReadable == null || itemInfo.item == null
+                        || (withdrawn && itemInfo.withdrawn)
+                        || anonReadable.contains(Integer.valueOf(itemInfo.itemID)))
+                {
+                    infoObjects.add(itemInfo);
+                }
+            }
+
+            if (limit == 0 || infoObjects.size() >= limit || section.size() < limit)
+            {
+                break;
+            }
+
+            parameters.set(lastIDParameter, Integer.valueOf(section.get(section.size() - 1).itemID));
+        }
+
+        if (collections)
+        {
+            fillCollections(context, infoObjects);
+        }
+
         return infoObjects;
     }
 
@@ -350,6 +441,273 @@ public class Harvest
     }
 
 
+    /**
+     * Make a HarvestedItemInfo object from a row of the harvest query
+     */
+    private static HarvestedItemInfo makeItemInfo(Context context, TableRow row)
+    {
+        HarvestedItemInfo itemInfo = new HarvestedItemInfo();
+        itemInfo.context = context;
+        itemInfo.handle = row.getStringColumn("handle");
+        itemInfo.itemID = row.getIntColumn("resource_id");
+        itemInfo.datestamp = row.getDateColumn("last_modified");
+        itemInfo.withdrawn = row.getBooleanColumn("withdrawn");
+
+        return itemInfo;
+    }
+
+    /**
+     * Fill out the item field of several HarvestedItemInfo objects, loading
+     * the items and their metadata together.
+     *
+     * @param context
+     *            DSpace context
+     * @param itemInfos
+     *            HarvestedItemInfo objects to fill out
+     * @throws java.sql.SQLException
+     */
+    private static void fillItems(Context context, List<HarvestedItemInfo> itemInfos)
+            throws SQLException
+    {
+        int[] ids = new int[itemInfos.size()];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = itemInfos.get(i).itemID;
+        }
+
+        // Loads the items into the context cache, so the finds are cheap
+        Item.prefetchMetadata(context, ids);
+
+        for (HarvestedItemInfo itemInfo : itemInfos)
+        {
+            itemInfo.item = Item.find(context, itemInfo.itemID);
+        }
+    }
+
+    /**
+     * Fill out the containers field of several HarvestedItemInfo objects,
+     * with one query for all of them.
+     *
+     * @param context
+     *            DSpace context
+     * @param itemInfos
+     *            HarvestedItemInfo objects to fill out
+     * @throws java.sql.SQLException
+     */
+    private static void fillCollections(Context context,
+            List<HarvestedItemInfo> itemInfos) throws SQLException
+    {
+        Map<Integer, HarvestedItemInfo> byID = new HashMap<Integer, HarvestedItemInfo>();
+        for (HarvestedItemInfo itemInfo : itemInfos)
+        {
+            itemInfo.collectionHandles = new LinkedList<String>();
+            byID.put(Integer.valueOf(itemInfo.itemID), itemInfo);
+        }
+
+        for (List<Integer> batch : batches(byID.keySet()))
+        {
+            List<Object> parameters = new ArrayList<Object>(batch.size() + 1);
+            parameters.add(Integer.valueOf(Constants.COLLECTION));
+            parameters.addAll(batch);
+
+            TableRowIterator colRows = DatabaseManager.query(context,
+                    "SELECT collection2item.item_id, handle.handle FROM handle, collection2item " +
+                    "WHERE handle.resource_type_id= ? AND collection2item.collection_id=handle.resource_id " +
+                    "AND collection2item.item_id IN (" + DatabaseManager.placeholders(batch.size()) + ") " +
+                    "ORDER BY handle.handle",
+                    parameters.toArray());
+
+            try
+            {
+                while (colRows.hasNext())
+                {
+                    TableRow r = colRows.next();
+                    byID.get(Integer.valueOf(r.getIntColumn("item_id")))
+                            .collectionHandles.add(r.getStringColumn("handle"));
+                }
+            }
+            finally
+            {
+                colRows.close();
+            }
+        }
+    }
+
+    /**
+     * Find which of several items allow anonymous access, ie. have a READ
+     * policy for the anonymous group (id=0). This is the batch equivalent of
+     * <code>anonAccessAllowed</code>.
+     *
+     * @return the IDs of the items which allow anonymous access
+     */
+    private static Set<Integer> findAnonReadable(Context context,
+            List<HarvestedItemInfo> itemInfos) throws SQLException
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (HarvestedItemInfo itemInfo : itemInfos)
+        {
+            ids.add(Integer.valueOf(itemInfo.itemID));
+        }
+
+        Set<Integer> readable = new HashSet<Integer>();
+        for (List<Integer> batch : batches(ids))
+        {
+            List<Object> parameters = new ArrayList<Object>(batch.size() + 2);
+            parameters.add(Integer.valueOf(Constants.ITEM));
+            parameters.add(Integer.valueOf(Constants.READ));
+            parameters.addAll(batch);
+
+            TableRowIterator tri = DatabaseManager.query(context,
+                    "SELECT DISTINCT resource_id FROM resourcepolicy WHERE resource_type_id= ? " +
+                    "AND action_id= ? AND epersongroup_id=0 " +
+                    "AND resource_id IN (" + DatabaseManager.placeholders(batch.size()) + ")",
+                    parameters.toArray());
+
+            try
+            {
+                while (tri.hasNext())
+                {
+                    readable.add(Integer.valueOf(tri.next().getIntColumn("resource_id")));
+                }
+            }
+            finally
+            {
+                tri.close();
+            }
+        }
+
+        return readable;
+    }
+
+    /**
+     * Split a set of IDs into lists small enough for an IN clause
+     */
+    private static List<List<Integer>> batches(Set<Integer> ids)
+    {
+        List<Integer> all = new ArrayList<Integer>(ids);
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+
+        for (int start = 0; start < all.size(); start += BATCH_SIZE)
+        {
+            batches.add(all.subList(start, Math.min(start + BATCH_SIZE, all.size())));
+        }
+
+        return batches;
+    }
+
+    /**
+     * Build the query selecting the items of a harvest, without an ORDER BY
+     * clause.
+     *
+     * @param scope
+     *            a Collection, Community, or <code>null</code>
+     * @param startDate
+     *            start of date range, or <code>null</code>
+     * @param endDate
+     *            end of date range, or <code>null</code>
+     * @param withdrawn
+     *            If <code>true</code>, withdrawn items are included
+     * @param parameters
+     *            list to which the query parameters are added
+     * @return the SQL query
+     * @throws java.text.ParseException If a date is not in a supported format
+     */
+    private static String buildQuery(DSpaceObject scope, String startDate,
+            String endDate, boolean withdrawn, List<Serializable> parameters)
+            throws ParseException
+    {
+        // Put together our query. Note there is no need for an
+        // "in_archive=true" condition, we are using the existence of
+        // Handles as our 'existence criterion'.
+        // FIXME: I think the "DISTINCT" is redundant
+        String query = "SELECT DISTINCT handle.handle, handle.resource_id, item.withdrawn, item.last_modified FROM handle, item";
+
+
+
+        if (scope != null)
+        {
+        	if (scope.getType() == Constants.COLLECTION)
+        	{
+        		query += ", collection2item";
+        	}
+        	else if (scope.getType() == Constants.COMMUNITY)
+        	{
+        		query += ", communities2item";
+        	}
+        }
+
+        query += " WHERE handle.resource_type_id=" + Constants.ITEM + " AND handle.resource_id=item.item_id ";
+
+        if (scope != null)
+        {
+        	if (scope.getType() == Constants.COLLECTION)
+        	{
+        		query += " AND collection2item.collection_id= ? " +
+        	             " AND collection2item.item_id=handle.resource_id ";
+        		parameters.add(Integer.valueOf(scope.getID()));
+        	}
+        	else if (scope.getType() == Constants.COMMUNITY)
+        	{
+        		query += " AND communities2item.community_id= ? " +
+						 " AND communities2item.item_id=handle.resource_id";
+        		parameters.add(Integer.valueOf(scope.getID()));
+        	}
+        }
+
+        if (startDate != null)
+        {
+        	query = query + " AND item.last_modified >= ? ";
+        	parameters.add(toTimestamp(startDate, false));
+        }
+
+        if (endDate != null)
+        {
+            /*
+             * If the end date has seconds precision, e.g.:
+             *
+             * 2004-04-29T13:45:43Z
+             *
+             * we need to add 999 milliseconds to this. This is because SQL
+             * TIMESTAMPs have millisecond precision, and so might have a value:
+             *
+             * 2004-04-29T13:45:43.952Z
+             *
+             * and so <= '2004-04-29T13:45:43Z' would not pick this up. Reading
+             * things out of the database, TIMESTAMPs are rounded down, so the
+             * above value would be read as '2004-04-29T13:45:43Z', and
+             * therefore a caller would expect <= '2004-04-29T13:45:43Z' to
+             * include that value.
+             *
+             * Got that? ;-)
+             */
+        	boolean selfGenerated = false;
+            if (endDate.length() == 20)
+            {
+                endDate = endDate.substring(0, 19) + ".999Z";
+                selfGenerated = true;
+            }
+
+        	query += " AND item.last_modified <= ? ";
+            parameters.add(toTimestamp(endDate, selfGenerated));
+        }
+
+        if (!withdrawn)
+        {
+            // Exclude withdrawn items
+            if ("oracle".equals(ConfigurationManager.getProperty("db.name")))
+            {
+                query += " AND withdrawn=0 ";
+            }
+            else
+            {
+                // postgres uses booleans
+                query += " AND withdrawn=false ";
+            }
+        }
+
+        return query;
+    }
+
     /**
      * Convert a String to a java.sql.Timestamp object
      *
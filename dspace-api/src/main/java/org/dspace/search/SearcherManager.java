@@ -0,0 +1,297 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Shares a single IndexSearcher between all searches, reopening it in the
+ * background when the index changes.
+ * <P>
+ * Each search acquires the current searcher, which increments the reference
+ * count of its IndexReader, and releases it when finished. When the index has
+ * changed, a new reader is opened with <code>IndexReader.reopen()</code>
+ * (which shares the unchanged segments with the old reader) and swapped in;
+ * the old reader is closed once the last search using it has released it.
+ * Searches never check the index on disk, and never wait for a reopen.
+ * <P>
+ * Changes made by this JVM are visible to searches as soon as the writer's
+ * call to <code>indexChanged()</code> returns, since that reopens the
+ * searcher synchronously. Changes made by other processes are picked up by a
+ * daemon thread which checks the index every <code>reopenInterval</code>
+ * milliseconds, so they may not be seen for up to that long.
+ *
+ * @version $Revision$
+ */
+class SearcherManager
+{
+    private static final Logger log = Logger.getLogger(SearcherManager.class);
+
+    private final String indexDir;
+
+    private final long reopenInterval;
+
+    /** The current searcher, guarded by this */
+    private IndexSearcher current = null;
+
+    /** Serializes reopening, so that only one new reader is opened at once */
+    private final Object reopenLock = new Object();
+
+    /** Background reopen thread, guarded by this */
+    private Thread reopener = null;
+
+    /**
+     * Constructor
+     *
+     * @param indexDir
+     *            the index directory
+     * @param reopenInterval
+     *            how often to check the index for changes made by other
+     *            processes, in milliseconds, or 0 to only reopen when
+     *            <code>indexChanged()</code> is called
+     */
+    SearcherManager(String indexDir, long reopenInterval)
+    {
+        this.indexDir = indexDir;
+        this.reopenInterval = reopenInterval;
+    }
+
+    /**
+     * Get the current searcher. Every call must be matched by a call to
+     * <code>release()</code>, normally in a finally block.
+     *
+     * @return the current searcher
+     * @throws IOException
+     *             if the index cannot be opened
+     */
+    synchronized IndexSearcher acquire() throws IOException
+    {
+        if (current == null)
+        {
+            current = newSearcher(IndexReader.open(FSDirectory.open(new File(indexDir)), true));
+            startReopener();
+        }
+
+        current.getIndexReader().incRef();
+        return current;
+    }
+
+    /**
+     * Release a searcher obtained from <code>acquire()</code>. The searcher
+     * must not be used afterwards.
+     *
+     * @param searcher
+     *            the searcher, or null
+     */
+    void release(IndexSearcher searcher)
+    {
+        if (searcher != null)
+        {
+            try
+            {
+                searcher.getIndexReader().decRef();
+            }
+            catch (IOException e)
+            {
+                log.warn("Unable to close IndexReader", e);
+            }
+        }
+    }
+
+    /**
+     * Note that the index has been written to, reopening the searcher so
+     * that searches started after this returns see the changes.
+     */
+    void indexChanged()
+    {
+        try
+        {
+            maybeReopen();
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to reopen search index", e);
+        }
+    }
+
+    /**
+     * Reopen the searcher if the index has changed.
+     *
+     * @throws IOException
+     */
+    void maybeReopen() throws IOException
+    {
+        synchronized (reopenLock)
+        {
+            IndexSearcher old = null;
+            synchronized (this)
+            {
+                if (current == null)
+                {
+                    return;
+                }
+                old = current;
+                old.getIndexReader().incRef();
+            }
+
+            try
+            {
+                IndexReader oldReader = old.getIndexReader();
+                IndexReader newReader = oldReader.reopen();
+
+                if (newReader != oldReader)
+                {
+                    log.debug("Index has changed, reopened IndexReader");
+                    swap(newSearcher(newReader));
+                }
+            }
+            finally
+            {
+                release(old);
+            }
+        }
+    }
+
+    /**
+     * Release the searcher, and stop the reopen thread. Searches in progress
+     * can finish; the next search opens the index again.
+     */
+    void close()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = reopener;
+            reopener = null;
+        }
+
+        if (thread != null)
+        {
+            // Wait for the thread to exit, so that it cannot still be
+            // running when the next search starts a new one
+            thread.interrupt();
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (reopenLock)
+        {
+            swap(null);
+        }
+    }
+
+    /**
+     * Replace the current searcher, dropping this manager's reference to the
+     * old one.
+     */
+    private void swap(IndexSearcher searcher)
+    {
+        IndexSearcher old;
+        synchronized (this)
+        {
+            old = current;
+            current = searcher;
+        }
+
+        release(old);
+    }
+
+    /**
+     * Create a searcher for a reader.
+     */
+    private static IndexSearcher newSearcher(IndexReader reader)
+    {
+        String osName = System.getProperty("os.name");
+        if (osName != null && osName.toLowerCase().contains("windows"))
+        {
+            return new IndexSearcher(reader) {
+                /*
+                 * TODO: Has Lucene fixed this bug yet?
+                 * Lucene doesn't release read locks in
+                 * windows properly on finalize. Our hack
+                 * closes the reader of a searcher which is
+                 * no longer reachable, even if a search
+                 * failed to release it.
+                 */
+                @Override
+                protected void finalize() throws Throwable {
+                    IndexReader r = getIndexReader();
+                    while (r.getRefCount() > 0)
+                    {
+                        r.decRef();
+                    }
+                    super.finalize();
+                }
+            };
+        }
+
+        return new IndexSearcher(reader);
+    }
+
+    /**
+     * Start the background reopen thread, if it is not running and changes
+     * made by other processes are to be picked up. Must be called while
+     * synchronized on this.
+     */
+    private void startReopener()
+    {
+        if (reopener == null && reopenInterval > 0)
+        {
+            reopener = new Thread(new Reopener(), "SearcherManager-reopen");
+            reopener.setDaemon(true);
+            reopener.start();
+        }
+    }
+
+    /**
+     * @return true if the calling thread is the current reopen thread
+     */
+    private synchronized boolean isReopener()
+    {
+        return reopener == Thread.currentThread();
+    }
+
+    private class Reopener implements Runnable
+    {
+        public void run()
+        {
+            while (isReopener())
+            {
+                try
+                {
+                    Thread.sleep(reopenInterval);
+                    maybeReopen();
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                catch (IOException e)
+                {
+                    log.warn("Unable to reopen search index", e);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Unexpected error reopening search index", e);
+                }
+            }
+        }
+    }
+}
@@ -525,6 +525,37 @@ public class BitstreamStorageManager
 		return (file != null) ? FileFactory.newFileInputStream(file) : null;
     }
 
+    /**
+     * Get the file holding the bits for the bitstream with ID, if it is kept
+     * in a local assetstore. Callers can then read parts of the bitstream
+     * directly rather than through the stream returned by retrieve.
+     * 
+     * @param context
+     *            The current context
+     * @param id
+     *            The ID of the bitstream
+     * @exception IOException
+     *                If a problem occurs while determining the file
+     * @exception SQLException
+     *                If a problem occurs accessing the RDBMS
+     * 
+     * @return The file, or null if the bitstream does not exist or is not
+     *         in a local assetstore
+     */
+    public static File retrieveLocalFile(Context context, int id)
+            throws SQLException, IOException
+    {
+        TableRow bitstream = DatabaseManager.find(context, "bitstream", id);
+        if (bitstream == null)
+        {
+            return null;
+        }
+
+        GeneralFile file = getFile(bitstream);
+
+        return (file instanceof LocalFile) ? ((LocalFile) file).getFile() : null;
+    }
+
     /**
      * <p>
      * Remove a bitstream from the asset store. This method does not delete any
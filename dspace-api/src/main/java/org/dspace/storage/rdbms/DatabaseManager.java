@@ -27,11 +27,14 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.naming.InitialContext;
@@ -58,8 +61,6 @@ public class DatabaseManager
     /** True if initialization has been done */
     private static boolean initialized = false;
 
-    private static Map<String, String> insertSQL = new HashMap<String, String>();
-
     private static boolean isOracle = false;
     private static boolean isPostgres = false;
 
@@ -96,11 +97,24 @@ public class DatabaseManager
      */
     private static final Pattern DB_SAFE_NAME = Pattern.compile("^[a-zA-Z_1-9.]+$");
 
+    /** The table written by an update, insert or delete query */
+    private static final Pattern WRITE_QUERY = Pattern.compile(
+            "\\s*(?:update|delete\\s+from|insert\\s+into)\\s+([\\w.]+)", Pattern.CASE_INSENSITIVE);
+
     /**
-     * A map of database column information. The key is the table name, a
-     * String; the value is an array of ColumnInfo objects.
+     * A map of database table information, including column information and
+     * pre-built SQL statements. The key is the canonicalized table name.
+     * Entries are immutable, and loaded for every table when the
+     * DatabaseManager is initialized (or on first use, for tables created
+     * later).
      */
-    private static Map<String, Map<String, ColumnInfo>> info = new HashMap<String, Map<String, ColumnInfo>>();
+    private static ConcurrentMap<String, TableInfo> tableInfo = new ConcurrentHashMap<String, TableInfo>();
+
+    /** Number of statements sent to the database in one JDBC batch */
+    private static final int BATCH_SIZE = 500;
+
+    /** Number of rows fetched per round trip by streaming queries */
+    private static final int DEFAULT_FETCH_SIZE = 100;
 
     /**
      * Protected Constructor to prevent instantiation except by derived classes.
@@ -303,6 +317,133 @@ public class DatabaseManager
         }
     }
 
+    /**
+     * Return an iterator with the results of the query, streaming the rows
+     * from the database rather than reading them all into memory when the
+     * query is executed. Use this for queries which may return a very large
+     * number of rows, such as walks over every item in the repository.
+     * <P>
+     * The query runs on a dedicated connection, using a forward-only cursor
+     * inside its own read-only transaction, and fetches
+     * <code>db.fetchsize</code> rows at a time. The connection is released
+     * when the iterator is closed or exhausted, so callers must always close
+     * it. Because of the separate connection, the results do not include
+     * changes made by the context which have not yet been committed.
+     *
+     * @param context
+     *            The context object
+     * @param table
+     *            The name of the table which results
+     * @param query
+     *            The SQL query
+     * @param parameters
+     * 			  A set of SQL parameters to be included in query. The order of
+     * 			  the parameters must correspond to the order of their reference
+     * 			  within the query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static TableRowIterator queryTableStreaming(Context context, String table, String query, Object... parameters) throws SQLException
+    {
+        return executeStreaming(canonicalize(table), query, parameters);
+    }
+
+    /**
+     * Return an iterator with the results of the query, streaming the rows
+     * from the database. See
+     * {@link #queryTableStreaming(Context, String, String, Object...)}.
+     *
+     * @param context
+     *            The context object
+     * @param query
+     *            The SQL query
+     * @param parameters
+     * 			  A set of SQL parameters to be included in query. The order of
+     * 			  the parameters must correspond to the order of their reference
+     * 			  within the query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static TableRowIterator queryStreaming(Context context, String query, Object... parameters) throws SQLException
+    {
+        return executeStreaming(null, query, parameters);
+    }
+
+    private static TableRowIterator executeStreaming(String table, String query, Object[] parameters) throws SQLException
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running streaming query \"" + query + "\"  with " + parameters.length + " parameters");
+        }
+
+        Connection connection = getConnection();
+        boolean autoCommit = true;
+        PreparedStatement statement = null;
+
+        try
+        {
+            // The PostgreSQL driver only uses a cursor (rather than reading
+            // the whole result set) for forward-only statements with a fetch
+            // size, executed with autocommit off
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+
+            statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(ConfigurationManager.getIntProperty("db.fetchsize", DEFAULT_FETCH_SIZE));
+            loadParameters(statement, parameters);
+
+            TableRowIterator retTRI = new TableRowIterator(statement.executeQuery(), table);
+
+            retTRI.setStatement(statement);
+            retTRI.setConnection(connection, autoCommit);
+            return retTRI;
+        }
+        catch (SQLException sqle)
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException s)
+                {
+                }
+            }
+
+            releaseStreamingConnection(connection, autoCommit);
+            throw sqle;
+        }
+    }
+
+    /**
+     * Return a connection used by a streaming query to the pool, ending its
+     * read-only transaction.
+     *
+     * @param connection
+     *            The connection
+     * @param autoCommit
+     *            The autocommit setting of the connection before the query
+     */
+    static void releaseStreamingConnection(Connection connection, boolean autoCommit)
+    {
+        try
+        {
+            connection.rollback();
+            connection.setReadOnly(false);
+            connection.setAutoCommit(autoCommit);
+        }
+        catch (SQLException sqle)
+        {
+            log.warn("Unable to reset streaming query connection: " + sqle.getMessage());
+        }
+
+        freeConnection(connection);
+    }
+
     /**
      * Return the single row result to this query, or null if no result. If more
      * than one row results, only the first is returned.
@@ -413,6 +554,8 @@ public class DatabaseManager
             log.debug(sb.toString());
         }
 
+        invalidateCachedTable(context, query);
+
         try
         {        	
         	statement = context.getDBConnection().prepareStatement(query);
@@ -435,6 +578,127 @@ public class DatabaseManager
         }
     }
 
+    /**
+     * If an update, insert or delete query writes a table held in the shared
+     * row cache, remove the table's rows from the cache, since there is no
+     * telling which of them the query changes.
+     */
+    private static void invalidateCachedTable(Context context, String query)
+    {
+        Matcher matcher = WRITE_QUERY.matcher(query);
+        if (matcher.lookingAt())
+        {
+            String table = canonicalize(matcher.group(1));
+            if (TableRowCache.isCached(table))
+            {
+                TableRowCache.invalidateTable(context, table);
+            }
+        }
+    }
+
+    /**
+     * Execute an update, insert or delete query once for each set of
+     * parameters, sending the statements to the database in batches. This is
+     * much faster than calling <code>updateQuery</code> repeatedly when many
+     * rows are affected.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param query
+     *            The SQL query to execute
+     * @param parameters
+     *            One set of SQL parameters for each execution of the query.
+     *            The order of the parameters in each set must correspond to
+     *            the order of their reference within the query.
+     * @return The number of rows affected by each execution of the query, in
+     *         the same order as the parameters. An entry may be
+     *         <code>Statement.SUCCESS_NO_INFO</code> if the driver does not
+     *         report the count.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static int[] updateQueryBatch(Context context, String query, List<Object[]> parameters) throws SQLException
+    {
+        int[] results = new int[parameters.size()];
+
+        if (parameters.isEmpty())
+        {
+            return results;
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running query \"" + query + "\" in batch with " + parameters.size() + " sets of parameters");
+        }
+
+        invalidateCachedTable(context, query);
+
+        PreparedStatement statement = null;
+
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(query);
+
+            int done = 0;
+            int queued = 0;
+            for (Object[] params : parameters)
+            {
+                loadParameters(statement, params);
+                statement.addBatch();
+
+                if (++queued == BATCH_SIZE)
+                {
+                    done = copyResults(statement.executeBatch(), results, done);
+                    queued = 0;
+                }
+            }
+
+            if (queued > 0)
+            {
+                copyResults(statement.executeBatch(), results, done);
+            }
+
+            return results;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a comma-separated list of <code>count</code> JDBC parameter
+     * placeholders, for use in an IN clause.
+     *
+     * @param count
+     *            The number of placeholders
+     * @return the placeholders, e.g. "?,?,?"
+     */
+    public static String placeholders(int count)
+    {
+        StringBuilder sb = new StringBuilder(count * 2);
+
+        for (int i = 0; i < count; i++)
+        {
+            if (i > 0)
+            {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+
+        return sb.toString();
+    }
+
     /**
      * Create a new row in the given table, and assigns a unique id.
      * 
@@ -473,6 +737,27 @@ public class DatabaseManager
     {
         String ctable = canonicalize(table);
 
+        if (TableRowCache.isCached(ctable))
+        {
+            TableRow cached = TableRowCache.get(ctable, id);
+
+            if (cached != null)
+            {
+                return cached;
+            }
+
+            long generation = TableRowCache.getGeneration();
+            TableRow row = findByUnique(context, ctable, getPrimaryKeyColumn(ctable),
+                    Integer.valueOf(id));
+
+            if (row != null)
+            {
+                TableRowCache.put(context, ctable, id, row, generation);
+            }
+
+            return row;
+        }
+
         return findByUnique(context, ctable, getPrimaryKeyColumn(ctable),
                 Integer.valueOf(id));
     }
@@ -533,6 +818,11 @@ public class DatabaseManager
     {
         String ctable = canonicalize(table);
 
+        if (TableRowCache.isCached(ctable))
+        {
+            TableRowCache.invalidate(context, ctable, id);
+        }
+
         return deleteByValue(context, ctable, getPrimaryKeyColumn(ctable),
                 Integer.valueOf(id));
     }
@@ -682,6 +972,68 @@ public class DatabaseManager
         row.setColumn(getPrimaryKeyColumn(row), newID);
     }
 
+    /**
+     * Insert several table rows into the RDBMS. The primary keys are allocated
+     * with one query per table, and the rows are sent to the database in JDBC
+     * batches, rather than making two round trips for every row as
+     * <code>insert</code> does. On return, the primary key of each row has
+     * been set.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param rows
+     *            The rows to insert. They may belong to different tables.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    public static void insertBatch(Context context, List<TableRow> rows) throws SQLException
+    {
+        // Group the rows by table, keeping the order within each table
+        Map<String, List<TableRow>> byTable = new LinkedHashMap<String, List<TableRow>>();
+        for (TableRow row : rows)
+        {
+            if (null == row.getTable())
+            {
+                throw new IllegalArgumentException("Row not associated with a table");
+            }
+
+            List<TableRow> tableRows = byTable.get(row.getTable());
+            if (tableRows == null)
+            {
+                tableRows = new ArrayList<TableRow>();
+                byTable.put(row.getTable(), tableRows);
+            }
+            tableRows.add(row);
+        }
+
+        for (Map.Entry<String, List<TableRow>> entry : byTable.entrySet())
+        {
+            String table = entry.getKey();
+            List<TableRow> tableRows = entry.getValue();
+            TableInfo tinfo = getTableInfo(table);
+
+            if (tinfo.getPrimaryKey() == null)
+            {
+                throw new SQLException("Unable to insert into " + table + " as it has no primary key");
+            }
+
+            int[] ids = getNextIDs(context, table, tableRows.size());
+            for (int i = 0; i < ids.length; i++)
+            {
+                tableRows.get(i).setColumn(tinfo.getPrimaryKey().getName(), ids[i]);
+            }
+
+            executeBatch(context.getDBConnection(), tinfo.getInsertSQL(), tinfo.getColumns(), tableRows);
+
+            // The rows now match the database, so a later update() only
+            // writes the columns changed after this point
+            for (TableRow row : tableRows)
+            {
+                row.resetChanged();
+            }
+        }
+    }
+
     /**
      * Update changes to the RDBMS. Note that if the update fails, the values in
      * the row will NOT be reverted.
@@ -697,36 +1049,53 @@ public class DatabaseManager
     public static int update(Context context, TableRow row) throws SQLException
     {
         String table = row.getTable();
+        TableInfo tinfo = getTableInfo(table);
+        List<ColumnInfo> nonKeyColumns = tinfo.getNonKeyColumns();
 
-        StringBuilder sql = new StringBuilder().append("update ").append(table)
-                .append(" set ");
-
-        List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
-        ColumnInfo pk = getPrimaryKeyColumnInfo(table);
-        Collection<ColumnInfo> info = getColumnInfo(table);
-
-        String separator = "";
-        for (ColumnInfo col : info)
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(nonKeyColumns.size() + 1);
+        for (ColumnInfo col : nonKeyColumns)
         {
             // Only update this column if it has changed
-            if (!col.isPrimaryKey())
+            if (row.hasColumnChangedCanonicalized(col.getCanonicalizedName()))
             {
-                if (row.hasColumnChanged(col.getName()))
-                {
-                    sql.append(separator).append(col.getName()).append(" = ?");
-                    columns.add(col);
-                    separator = ", ";
-                }
+                columns.add(col);
             }
         }
 
         // Only execute the update if there is anything to update
         if (columns.size() > 0)
         {
-            sql.append(" where ").append(pk.getName()).append(" = ?");
-            columns.add(pk);
+            ColumnInfo pk = tinfo.getPrimaryKey();
+            String sql;
 
-            return executeUpdate(context.getDBConnection(), sql.toString(), columns, row);
+            if (columns.size() == nonKeyColumns.size())
+            {
+                // Every column has changed (e.g. a newly created row), so the
+                // pre-built statement can be used
+                sql = tinfo.getUpdateAllSQL();
+                columns = tinfo.getUpdateAllColumns();
+            }
+            else
+            {
+                StringBuilder sqlBuilder = new StringBuilder(tinfo.getUpdatePrefix());
+
+                String separator = "";
+                for (ColumnInfo col : columns)
+                {
+                    sqlBuilder.append(separator).append(col.getName()).append(" = ?");
+                    separator = ", ";
+                }
+
+                sql = sqlBuilder.append(tinfo.getUpdateWhereClause()).toString();
+                columns.add(pk);
+            }
+
+            if (TableRowCache.isCached(table))
+            {
+                TableRowCache.invalidate(context, table, row.getIntColumn(pk.getName()));
+            }
+
+            return executeUpdate(context.getDBConnection(), sql, columns, row);
         }
 
         return 1;
@@ -771,9 +1140,7 @@ public class DatabaseManager
      */
     static Collection<ColumnInfo> getColumnInfo(String table) throws SQLException
     {
-        Map<String, ColumnInfo> cinfo = getColumnInfoInternal(table);
-
-        return (cinfo == null) ? null : cinfo.values();
+        return getTableInfo(table).getColumns();
     }
 
     /**
@@ -790,9 +1157,7 @@ public class DatabaseManager
     static ColumnInfo getColumnInfo(String table, String column)
             throws SQLException
     {
-        Map<String, ColumnInfo> info = getColumnInfoInternal(table);
-
-        return (info == null) ? null : info.get(column);
+        return getTableInfo(table).getColumnMap().get(ColumnInfo.canonicalize(column));
     }
 
     /**
@@ -800,22 +1165,15 @@ public class DatabaseManager
      * 
      * @param table
      *            The name of the table
-     * @return The names of all the columns of the given table, as a List. Each
-     *         element of the list is a String.
+     * @return The (canonicalized) names of all the columns of the given
+     *         table, as an unmodifiable List. Each element of the list is a
+     *         String.
      * @exception SQLException
      *                If a database error occurs
      */
     static List<String> getColumnNames(String table) throws SQLException
     {
-        List<String> results = new ArrayList<String>();
-        Collection<ColumnInfo> info = getColumnInfo(table);
-
-        for (ColumnInfo col : info)
-        {
-            results.add(col.getName());
-        }
-
-        return results;
+        return getTableInfo(table).getColumnNames();
     }
 
     /**
@@ -1240,17 +1598,7 @@ public class DatabaseManager
      */
     static ColumnInfo getPrimaryKeyColumnInfo(String table) throws SQLException
     {
-        Collection<ColumnInfo> cinfo = getColumnInfo(canonicalize(table));
-
-        for (ColumnInfo info : cinfo)
-        {
-            if (info.isPrimaryKey())
-            {
-                return info;
-            }
-        }
-
-        return null;
+        return getTableInfo(table).getPrimaryKey();
     }
 
     /**
@@ -1329,29 +1677,207 @@ public class DatabaseManager
         }
     }
 
+    private static void executeBatch(Connection connection, String sql, Collection<ColumnInfo> columns, List<TableRow> rows) throws SQLException
+    {
+        PreparedStatement statement = null;
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running query \"" + sql + "\" in batch for " + rows.size() + " rows");
+        }
+
+        try
+        {
+            statement = connection.prepareStatement(sql);
+
+            int queued = 0;
+            for (TableRow row : rows)
+            {
+                loadParameters(statement, columns, row);
+                statement.addBatch();
+
+                if (++queued == BATCH_SIZE)
+                {
+                    statement.executeBatch();
+                    queued = 0;
+                }
+            }
+
+            if (queued > 0)
+            {
+                statement.executeBatch();
+            }
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+        }
+    }
+
     /**
-     * Return metadata about a table.
+     * Copy the update counts of an executed batch into the results of
+     * <code>updateQueryBatch</code>.
+     *
+     * @return the index of the next result to fill in
+     */
+    private static int copyResults(int[] counts, int[] results, int offset)
+    {
+        System.arraycopy(counts, 0, results, offset, counts.length);
+        return offset + counts.length;
+    }
+
+    /**
+     * Allocate several primary key values for a table with a single query.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param table
+     *            The canonicalized table name
+     * @param count
+     *            The number of values to allocate
+     * @return The allocated values
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    private static int[] getNextIDs(Context context, String table, int count) throws SQLException
+    {
+        int[] ids = new int[count];
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+
+        try
+        {
+            if (isOracle)
+            {
+                statement = context.getDBConnection().prepareStatement(
+                        "SELECT " + table + "_seq" + ".nextval FROM dual CONNECT BY level <= ?");
+                loadParameters(statement, new Object[] { Integer.valueOf(count) });
+            }
+            else
+            {
+                statement = context.getDBConnection().prepareStatement(
+                        "SELECT getnextid(?) AS result FROM generate_series(1, ?)");
+                loadParameters(statement, new Object[] { table, Integer.valueOf(count) });
+            }
+
+            rs = statement.executeQuery();
+
+            int i = 0;
+            while (i < count && rs.next())
+            {
+                ids[i++] = rs.getInt(1);
+            }
+
+            if (i < count)
+            {
+                throw new SQLException("Unable to retrieve sequence IDs");
+            }
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                try { rs.close(); } catch (SQLException sqle) { }
+            }
+
+            if (statement != null)
+            {
+                try { statement.close(); } catch (SQLException sqle) { }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Return metadata about a table, reading it from the database if the table
+     * was not known when the DatabaseManager was initialized.
      * 
      * @param table
      *            The name of the table
-     * @return An map of info.
+     * @return Information about the table.
      * @exception SQLException
      *                If a database error occurs
      */
-    private static Map<String, ColumnInfo> getColumnInfoInternal(String table) throws SQLException
+    private static TableInfo getTableInfo(String table) throws SQLException
     {
         String ctable = canonicalize(table);
-        Map<String, ColumnInfo> results = info.get(ctable);
+        TableInfo results = tableInfo.get(ctable);
 
         if (results != null)
         {
             return results;
         }
 
-        results = retrieveColumnInfo(ctable);
-        info.put(ctable, results);
+        results = new TableInfo(ctable, retrieveColumnInfo(ctable));
+        TableInfo existing = tableInfo.putIfAbsent(ctable, results);
 
-        return results;
+        return (existing != null) ? existing : results;
+    }
+
+    /**
+     * Read metadata about every table in the database, so that it does not
+     * have to be read when each table is first used. Failures are logged and
+     * otherwise ignored, since the information will be read on first use.
+     */
+    private static void loadTableInfo()
+    {
+        Connection connection = null;
+        ResultSet tables = null;
+
+        try
+        {
+            connection = getConnection();
+
+            String schema = ConfigurationManager.getProperty("db.schema");
+            if (schema == null && isOracle)
+            {
+                // Otherwise Oracle lists the tables of every schema
+                schema = ConfigurationManager.getProperty("db.username").trim().toUpperCase();
+            }
+
+            List<String> names = new ArrayList<String>();
+            tables = connection.getMetaData().getTables(null, schema, "%", new String[] { "TABLE" });
+            while (tables.next())
+            {
+                names.add(canonicalize(tables.getString(3)));
+            }
+
+            for (String table : names)
+            {
+                if (!tableInfo.containsKey(table))
+                {
+                    tableInfo.putIfAbsent(table, new TableInfo(table, retrieveColumnInfo(connection, table)));
+                }
+            }
+
+            log.info("Loaded column information for " + names.size() + " tables");
+        }
+        catch (SQLException e)
+        {
+            log.warn("Unable to preload table information: " + e.getMessage(), e);
+        }
+        finally
+        {
+            if (tables != null)
+            {
+                try { tables.close(); } catch (SQLException sqle) { }
+            }
+
+            if (connection != null)
+            {
+                try { connection.close(); } catch (SQLException sqle) { }
+            }
+        }
     }
 
     /**
@@ -1368,6 +1894,39 @@ public class DatabaseManager
     private static Map<String, ColumnInfo> retrieveColumnInfo(String table) throws SQLException
     {
         Connection connection = null;
+
+        try
+        {
+            connection = getConnection();
+
+            return retrieveColumnInfo(connection, table);
+        }
+        finally
+        {
+            if (connection != null)
+            {
+                try { connection.close(); } catch (SQLException sqle) { }
+            }
+        }
+    }
+
+    /**
+     * Read metadata about a table from the database, using the given
+     * connection.
+     * 
+     * @param connection
+     *            The connection to use
+     * @param table
+     *            The RDBMS table.
+     * @return A map of information about the columns, in the order reported by
+     *         the database. The key is the name of the column, a String; the
+     *         value is a ColumnInfo object.
+     * @exception SQLException
+     *                If there is a problem retrieving information from the
+     *                RDBMS.
+     */
+    private static Map<String, ColumnInfo> retrieveColumnInfo(Connection connection, String table) throws SQLException
+    {
         ResultSet pkcolumns = null;
         ResultSet columns = null;
         
@@ -1385,10 +1944,8 @@ public class DatabaseManager
                 log.warn("table: " + table);
             }
             
-            connection = getConnection();
-
             DatabaseMetaData metadata = connection.getMetaData();
-            Map<String, ColumnInfo> results = new HashMap<String, ColumnInfo>();
+            Map<String, ColumnInfo> results = new LinkedHashMap<String, ColumnInfo>();
 
             int max = metadata.getMaxTableNameLength();
             String tname = ((max > 0) && (table.length() >= max)) ? table
@@ -1433,11 +1990,6 @@ public class DatabaseManager
             {
                 try { columns.close(); } catch (SQLException sqle) { }
             }
-
-            if (connection != null)
-            {
-                try { connection.close(); } catch (SQLException sqle) { }
-            }
         }
     }
 
@@ -1514,6 +2066,11 @@ public class DatabaseManager
             }
 
             initialized = true;
+
+            if (ConfigurationManager.getBooleanProperty("db.preload.tableinfo", true))
+            {
+                loadTableInfo();
+            }
         }
         catch (SQLException se)
         {
@@ -1680,66 +2237,16 @@ public class DatabaseManager
      */
     private static int doInsertPostgres(Context context, TableRow row) throws SQLException
     {
-        String table = row.getTable();
-
-        Collection<ColumnInfo> info = getColumnInfo(table);
-        Collection<ColumnInfo> params = new ArrayList<ColumnInfo>();
+        TableInfo tinfo = getTableInfo(row.getTable());
+        String sql = tinfo.getInsertReturningSQL();
 
-        String primaryKey = getPrimaryKeyColumn(table);
-        String sql = insertSQL.get(table);
-
-        boolean firstColumn = true;
-        boolean foundPrimaryKey = false;
         if (sql == null)
         {
-            // Generate SQL and filter parameter columns
-            StringBuilder insertBuilder = new StringBuilder("INSERT INTO ").append(table).append(" ( ");
-            StringBuilder valuesBuilder = new StringBuilder(") VALUES ( ");
-            for (ColumnInfo col : info)
-            {
-                if (firstColumn)
-                {
-                    firstColumn = false;
-                }
-                else
-                {
-                    insertBuilder.append(",");
-                    valuesBuilder.append(",");
-                }
-
-                insertBuilder.append(col.getName());
-
-                if (!foundPrimaryKey && col.isPrimaryKey())
-                {
-                    valuesBuilder.append("getnextid('").append(table).append("')");
-                    foundPrimaryKey = true;
-                }
-                else
-                {
-                    valuesBuilder.append('?');
-                    params.add(col);
-                }
-            }
-
-            sql = insertBuilder.append(valuesBuilder.toString()).append(") RETURNING ").append(getPrimaryKeyColumn(table)).toString();
-            insertSQL.put(table, sql);
-        }
-        else
-        {
-            // Already have SQL, just filter parameter columns
-            for (ColumnInfo col : info)
-            {
-                if (!foundPrimaryKey && col.isPrimaryKey())
-                {
-                    foundPrimaryKey = true;
-                }
-                else
-                {
-                    params.add(col);
-                }
-            }            
+            throw new SQLException("Unable to insert into " + row.getTable() + " as it has no primary key");
         }
 
+        Collection<ColumnInfo> params = tinfo.getNonKeyColumns();
+
         PreparedStatement statement = null;
 
         if (log.isDebugEnabled())
@@ -1832,52 +2339,10 @@ public class DatabaseManager
         }
 
         // Set the ID in the table row object
-        row.setColumn(getPrimaryKeyColumn(table), newID);
-        Collection<ColumnInfo> info = getColumnInfo(table);
-
-        String sql = insertSQL.get(table);
-        if (sql == null)
-        {
-            StringBuilder sqlBuilder = new StringBuilder().append("INSERT INTO ").append(table).append(" ( ");
-
-            boolean firstColumn = true;
-            for (ColumnInfo col : info)
-            {
-                if (firstColumn)
-                {
-                    sqlBuilder.append(col.getName());
-                    firstColumn = false;
-                }
-                else
-                {
-                    sqlBuilder.append(",").append(col.getName());
-                }
-            }
-
-            sqlBuilder.append(") VALUES ( ");
-
-            // Values to insert
-            firstColumn = true;
-            for (int i = 0; i < info.size(); i++)
-            {
-                if (firstColumn)
-                {
-                    sqlBuilder.append("?");
-                    firstColumn = false;
-                }
-                else
-                {
-                    sqlBuilder.append(",").append("?");
-                }
-            }
-
-            // Watch the syntax
-            sqlBuilder.append(")");
-            sql = sqlBuilder.toString();
-            insertSQL.put(table, sql);
-        }
+        TableInfo tinfo = getTableInfo(table);
+        row.setColumn(tinfo.getPrimaryKey().getName(), newID);
 
-        execute(context.getDBConnection(), sql, info, row);
+        execute(context.getDBConnection(), tinfo.getInsertSQL(), tinfo.getColumns(), row);
         return newID;
     }
 
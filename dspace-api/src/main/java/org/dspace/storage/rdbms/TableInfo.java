@@ -0,0 +1,241 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable description of a database table: its columns, its primary key,
+ * and the SQL used to insert and update its rows. Instances are built once per
+ * table by the DatabaseManager and shared between threads, so that the
+ * statements do not have to be rebuilt for every row.
+ *
+ * @version $Revision$
+ */
+final class TableInfo
+{
+    /** Column information, in the order reported by the database */
+    private final Collection<ColumnInfo> columns;
+
+    /** Column information, keyed by canonicalized column name */
+    private final Map<String, ColumnInfo> canonicalColumns;
+
+    /** Canonicalized column names, in the same order as the column info */
+    private final List<String> columnNames;
+
+    /** The primary key column, or null */
+    private final ColumnInfo primaryKey;
+
+    /** All columns except the primary key */
+    private final List<ColumnInfo> nonKeyColumns;
+
+    /** INSERT statement binding every column */
+    private final String insertSQL;
+
+    /**
+     * PostgreSQL INSERT statement taking the primary key from getnextid() and
+     * returning it
+     */
+    private final String insertReturningSQL;
+
+    /** Start of an UPDATE statement for this table */
+    private final String updatePrefix;
+
+    /** WHERE clause of an UPDATE statement selecting a row by primary key */
+    private final String updateWhereClause;
+
+    /** UPDATE statement setting every non primary key column */
+    private final String updateAllSQL;
+
+    /** Columns bound by updateAllSQL, in order (primary key last) */
+    private final List<ColumnInfo> updateAllColumns;
+
+    /**
+     * Constructor
+     *
+     * @param table
+     *            The canonicalized table name
+     * @param columnInfo
+     *            Information about the columns of the table, keyed by column
+     *            name
+     */
+    TableInfo(String table, Map<String, ColumnInfo> columnInfo)
+    {
+        this.columns = Collections.unmodifiableCollection(columnInfo.values());
+
+        Map<String, ColumnInfo> canonical = new HashMap<String, ColumnInfo>();
+        List<String> names = new ArrayList<String>(columnInfo.size());
+        List<ColumnInfo> nonKey = new ArrayList<ColumnInfo>(columnInfo.size());
+        ColumnInfo pk = null;
+
+        StringBuilder insertColumns = new StringBuilder();
+        StringBuilder insertValues = new StringBuilder();
+        StringBuilder returningValues = new StringBuilder();
+
+        for (ColumnInfo col : columnInfo.values())
+        {
+            canonical.put(col.getCanonicalizedName(), col);
+            names.add(col.getCanonicalizedName());
+
+            String separator = (insertColumns.length() > 0) ? "," : "";
+            insertColumns.append(separator).append(col.getName());
+            insertValues.append(separator).append('?');
+
+            if (pk == null && col.isPrimaryKey())
+            {
+                pk = col;
+                returningValues.append(separator).append("getnextid('").append(table).append("')");
+            }
+            else
+            {
+                nonKey.add(col);
+                returningValues.append(separator).append('?');
+            }
+        }
+
+        this.canonicalColumns = Collections.unmodifiableMap(canonical);
+        this.columnNames = Collections.unmodifiableList(names);
+        this.primaryKey = pk;
+        this.nonKeyColumns = Collections.unmodifiableList(nonKey);
+
+        this.insertSQL = new StringBuilder("INSERT INTO ").append(table)
+                .append(" ( ").append(insertColumns).append(") VALUES ( ")
+                .append(insertValues).append(")").toString();
+
+        this.updatePrefix = "update " + table + " set ";
+
+        if (pk != null)
+        {
+            this.updateWhereClause = " where " + pk.getName() + " = ?";
+            this.insertReturningSQL = new StringBuilder("INSERT INTO ").append(table)
+                    .append(" ( ").append(insertColumns).append(") VALUES ( ")
+                    .append(returningValues).append(") RETURNING ").append(pk.getName())
+                    .toString();
+
+            StringBuilder update = new StringBuilder(updatePrefix);
+            String separator = "";
+            for (ColumnInfo col : nonKey)
+            {
+                update.append(separator).append(col.getName()).append(" = ?");
+                separator = ", ";
+            }
+            update.append(updateWhereClause);
+            this.updateAllSQL = update.toString();
+
+            List<ColumnInfo> bound = new ArrayList<ColumnInfo>(nonKey);
+            bound.add(pk);
+            this.updateAllColumns = Collections.unmodifiableList(bound);
+        }
+        else
+        {
+            this.updateWhereClause = null;
+            this.insertReturningSQL = null;
+            this.updateAllSQL = null;
+            this.updateAllColumns = null;
+        }
+    }
+
+    /**
+     * @return information about every column, keyed by canonicalized column
+     *         name
+     */
+    Map<String, ColumnInfo> getColumnMap()
+    {
+        return canonicalColumns;
+    }
+
+    /**
+     * @return information about every column
+     */
+    Collection<ColumnInfo> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @return the canonicalized column names
+     */
+    List<String> getColumnNames()
+    {
+        return columnNames;
+    }
+
+    /**
+     * @return the primary key column, or null if the table has none
+     */
+    ColumnInfo getPrimaryKey()
+    {
+        return primaryKey;
+    }
+
+    /**
+     * @return every column apart from the primary key
+     */
+    List<ColumnInfo> getNonKeyColumns()
+    {
+        return nonKeyColumns;
+    }
+
+    /**
+     * @return an INSERT statement binding every column, in the order of
+     *         <code>getColumns()</code>
+     */
+    String getInsertSQL()
+    {
+        return insertSQL;
+    }
+
+    /**
+     * @return a PostgreSQL INSERT statement binding the columns in
+     *         <code>getNonKeyColumns()</code>, and returning the new primary
+     *         key, or null if the table has no primary key
+     */
+    String getInsertReturningSQL()
+    {
+        return insertReturningSQL;
+    }
+
+    /**
+     * @return an UPDATE statement setting every non primary key column, or
+     *         null if the table has no primary key
+     */
+    String getUpdateAllSQL()
+    {
+        return updateAllSQL;
+    }
+
+    /**
+     * @return the columns bound by <code>getUpdateAllSQL()</code>, in order
+     */
+    List<ColumnInfo> getUpdateAllColumns()
+    {
+        return updateAllColumns;
+    }
+
+    /**
+     * @return the start of an UPDATE statement for this table
+     */
+    String getUpdatePrefix()
+    {
+        return updatePrefix;
+    }
+
+    /**
+     * @return the WHERE clause of an UPDATE statement selecting a row by its
+     *         primary key
+     */
+    String getUpdateWhereClause()
+    {
+        return updateWhereClause;
+    }
+}
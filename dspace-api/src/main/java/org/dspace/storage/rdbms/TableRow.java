@@ -35,6 +35,12 @@ public class TableRow
 
     private Map<String, Boolean> changed = new HashMap<String, Boolean>();
 
+    /**
+     * True if the data and changed maps are shared with a snapshot held in the
+     * shared TableRowCache, and must be copied before they are modified.
+     */
+    private boolean shared = false;
+
     /**
      * Constructor
      * 
@@ -58,6 +64,36 @@ public class TableRow
         }
     }
 
+    /**
+     * Constructor for copies of rows, used by the TableRowCache.
+     *
+     * @param source
+     *            The row to copy
+     * @param share
+     *            If true, the copy shares its column values with
+     *            <code>source</code> until it is first modified. Otherwise
+     *            the values are copied and all change flags are cleared.
+     */
+    TableRow(TableRow source, boolean share)
+    {
+        this.table = source.table;
+
+        if (share)
+        {
+            this.data = source.data;
+            this.changed = source.changed;
+            this.shared = true;
+        }
+        else
+        {
+            this.data.putAll(source.data);
+            for (String column : source.changed.keySet())
+            {
+                this.changed.put(column, Boolean.FALSE);
+            }
+        }
+    }
+
     /**
      * Return the name of the table containing this row, or null if this row is
      * not associated with a database table.
@@ -360,6 +396,7 @@ public class TableRow
     public void setColumnNull(String column)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         if (data.get(canonicalized) != NULL_OBJECT)
         {
             data.put(canonicalized, NULL_OBJECT);
@@ -379,6 +416,7 @@ public class TableRow
     public void setColumn(String column, boolean b)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         if (DatabaseManager.isOracle())
         {
             // if oracle, use 1 or 0 for true/false
@@ -414,6 +452,7 @@ public class TableRow
     public void setColumn(String column, String s)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         Object value = (s == null) ? NULL_OBJECT : s;
         if (!value.equals(data.get(canonicalized)))
         {
@@ -435,6 +474,7 @@ public class TableRow
     public void setColumn(String column, int i)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         Integer value = Integer.valueOf(i);
         if (!value.equals(data.get(canonicalized)))
         {
@@ -456,6 +496,7 @@ public class TableRow
     public void setColumn(String column, long l)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         Long value = Long.valueOf(l);
         if (!value.equals(data.get(canonicalized)))
         {
@@ -477,6 +518,7 @@ public class TableRow
     public void setColumn(String column, double d)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         Double value = new Double(d);
         if (!value.equals(data.get(canonicalized)))
         {
@@ -499,6 +541,7 @@ public class TableRow
     public void setColumn(String column, java.util.Date d)
     {
         String canonicalized = canonicalizeAndCheck(column);
+        ensureOwnData();
         Object value = (d == null) ? NULL_OBJECT : d;
         if (!value.equals(data.get(canonicalized)))
         {
@@ -569,6 +612,20 @@ public class TableRow
         return data.equals(((TableRow) obj).data);
     }
 
+    /**
+     * Copy the column values before modifying them, if they are shared with a
+     * snapshot in the TableRowCache (copy-on-write).
+     */
+    private void ensureOwnData()
+    {
+        if (shared)
+        {
+            data = new HashMap<String, Object>(data);
+            changed = new HashMap<String, Boolean>(changed);
+            shared = false;
+        }
+    }
+
     private String canonicalizeAndCheck(String column)
     {
         if (data.containsKey(column))
@@ -594,6 +651,7 @@ public class TableRow
      */
     void resetChanged()
     {
+        ensureOwnData();
         for (String column : changed.keySet())
         {
             changed.put(column, Boolean.FALSE);
@@ -0,0 +1,378 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Process-wide cache of table rows looked up by primary key, shared between
+ * all Contexts. This sits beneath the per-Context object cache: frequently
+ * read, rarely modified rows (communities, collections, groups, bitstream
+ * formats) are only read from the database once, rather than once per
+ * request.
+ * <P>
+ * The cache holds immutable snapshots of rows. Each Context gets its own
+ * TableRow backed by the snapshot, which is copied the first time the row is
+ * modified, so a Context never sees changes made to another Context's row.
+ * <P>
+ * Entries are invalidated when a row is updated or deleted through the
+ * DatabaseManager, again when the writing Context commits (before its events
+ * are dispatched) or aborts, and by the <code>TableRowCacheConsumer</code>
+ * when content events are dispatched. Rows written by a Context with a
+ * transaction in progress are never cached, so uncommitted changes are not
+ * visible to other Contexts. Since the rows changed by an SQL update, insert
+ * or delete query cannot be known, a query on a cached table invalidates the
+ * whole table in the same way.
+ * <P>
+ * The cache is disabled unless <code>db.cache.size</code> is set to a
+ * positive number of rows in dspace.cfg. The tables to cache are listed in
+ * <code>db.cache.tables</code>. Note that the cache can only see changes made
+ * by this JVM; changes made by command line tools will only be picked up
+ * once the rows have been evicted.
+ *
+ * @version $Revision$
+ */
+public class TableRowCache
+{
+    /** log4j category */
+    private static Logger log = Logger.getLogger(TableRowCache.class);
+
+    /** Tables cached if db.cache.tables is not set */
+    private static final String DEFAULT_TABLES =
+            "community, collection, epersongroup, bitstreamformatregistry";
+
+    /** Maximum number of rows held in the cache, 0 if disabled */
+    private static int maxSize = 0;
+
+    /** Canonicalized names of the cached tables */
+    private static Set<String> tables = new HashSet<String>();
+
+    /** The snapshots, keyed by "table:id", in least recently used order */
+    private static Map<String, TableRow> rows;
+
+    /**
+     * Incremented on every invalidation, so that rows read from the database
+     * while another Context was writing them are not cached
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Keys written by each Context in its current transaction; "table:*"
+     * stands for every row of the table
+     */
+    private static final Map<Context, Set<String>> pending =
+            Collections.synchronizedMap(new WeakHashMap<Context, Set<String>>());
+
+    /** Statistics */
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static
+    {
+        maxSize = ConfigurationManager.getIntProperty("db.cache.size", 0);
+
+        String tableList = ConfigurationManager.getProperty("db.cache.tables");
+        if (tableList == null)
+        {
+            tableList = DEFAULT_TABLES;
+        }
+
+        for (String table : tableList.split(","))
+        {
+            if (table.trim().length() > 0)
+            {
+                tables.add(DatabaseManager.canonicalize(table.trim()));
+            }
+        }
+
+        final int size = maxSize;
+        rows = new LinkedHashMap<String, TableRow>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, TableRow> eldest)
+            {
+                return size() > size;
+            }
+        };
+
+        if (maxSize > 0)
+        {
+            log.info("Shared row cache enabled: size=" + maxSize + ", tables=" + tables);
+        }
+    }
+
+    /** Not instantiable */
+    private TableRowCache()
+    {
+    }
+
+    /**
+     * Is the given table held in the cache?
+     *
+     * @param table
+     *            canonicalized table name
+     * @return true if rows from the table are cached
+     */
+    static boolean isCached(String table)
+    {
+        return maxSize > 0 && tables.contains(table);
+    }
+
+    /**
+     * Get a row from the cache.
+     *
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key value
+     * @return a copy-on-write copy of the cached row, or null if the row is
+     *         not cached
+     */
+    static TableRow get(String table, int id)
+    {
+        TableRow snapshot;
+
+        synchronized (rows)
+        {
+            snapshot = rows.get(key(table, id));
+        }
+
+        if (snapshot == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return new TableRow(snapshot, true);
+    }
+
+    /**
+     * Get the current generation of the cache. This must be read before
+     * reading a row from the database, and passed to <code>put</code>.
+     *
+     * @return the number of invalidations so far
+     */
+    static long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Add a row read from the database to the cache. The row is not cached if
+     * any row has been invalidated since <code>readGeneration</code>, or if
+     * the Context has written the row in its current transaction.
+     *
+     * @param context
+     *            the Context which read the row
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key value
+     * @param row
+     *            the row as read from the database
+     * @param readGeneration
+     *            the value of <code>getGeneration()</code> before the row was
+     *            read
+     */
+    static void put(Context context, String table, int id, TableRow row, long readGeneration)
+    {
+        String key = key(table, id);
+        Set<String> written = pending.get(context);
+
+        if (written != null)
+        {
+            synchronized (written)
+            {
+                if (written.contains(key) || written.contains(tableKey(table)))
+                {
+                    return;
+                }
+            }
+        }
+
+        TableRow snapshot = new TableRow(row, false);
+
+        synchronized (rows)
+        {
+            if (generation.get() == readGeneration)
+            {
+                rows.put(key, snapshot);
+            }
+        }
+    }
+
+    /**
+     * Remove a row which is being modified or deleted by the given Context.
+     * The row will be invalidated again when the Context commits or aborts.
+     *
+     * @param context
+     *            the Context modifying the row
+     * @param table
+     *            canonicalized table name
+     * @param id
+     *            primary key value
+     */
+    static void invalidate(Context context, String table, int id)
+    {
+        String key = key(table, id);
+        addPending(context, key);
+        remove(key);
+    }
+
+    /**
+     * Remove all the rows of a table which is being modified by the given
+     * Context with an SQL query. The rows will be invalidated again when the
+     * Context commits or aborts.
+     *
+     * @param context
+     *            the Context modifying the table
+     * @param table
+     *            canonicalized table name
+     */
+    static void invalidateTable(Context context, String table)
+    {
+        String key = tableKey(table);
+        addPending(context, key);
+        remove(key);
+    }
+
+    private static void addPending(Context context, String key)
+    {
+        Set<String> written;
+        synchronized (pending)
+        {
+            written = pending.get(context);
+            if (written == null)
+            {
+                written = new HashSet<String>();
+                pending.put(context, written);
+            }
+        }
+
+        synchronized (written)
+        {
+            written.add(key);
+        }
+    }
+
+    /**
+     * Remove a row from the cache.
+     *
+     * @param table
+     *            table name
+     * @param id
+     *            primary key value
+     */
+    public static void invalidate(String table, int id)
+    {
+        if (maxSize > 0)
+        {
+            remove(key(DatabaseManager.canonicalize(table), id));
+        }
+    }
+
+    /**
+     * Called when the given Context's transaction has been committed or
+     * rolled back. Any rows written in the transaction are invalidated, since
+     * other Contexts may have cached the previously committed state.
+     *
+     * @param context
+     *            the Context whose transaction has ended
+     */
+    public static void endTransaction(Context context)
+    {
+        if (maxSize > 0)
+        {
+            Set<String> written = pending.remove(context);
+
+            if (written != null)
+            {
+                synchronized (written)
+                {
+                    for (String key : written)
+                    {
+                        remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Empty the cache.
+     */
+    public static void clear()
+    {
+        synchronized (rows)
+        {
+            generation.incrementAndGet();
+            rows.clear();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public static long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups of cached tables which went to the
+     *         database
+     */
+    public static long getMisses()
+    {
+        return misses.get();
+    }
+
+    private static void remove(String key)
+    {
+        synchronized (rows)
+        {
+            generation.incrementAndGet();
+            if (key.endsWith(":*"))
+            {
+                String prefix = key.substring(0, key.length() - 1);
+                for (Iterator<String> keys = rows.keySet().iterator(); keys.hasNext();)
+                {
+                    if (keys.next().startsWith(prefix))
+                    {
+                        keys.remove();
+                    }
+                }
+            }
+            else
+            {
+                rows.remove(key);
+            }
+        }
+    }
+
+    private static String key(String table, int id)
+    {
+        return table + ":" + id;
+    }
+
+    private static String tableKey(String table)
+    {
+        return table + ":*";
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.event.Consumer;
+import org.dspace.event.Event;
+
+/**
+ * Event consumer which removes the rows of modified objects from the shared
+ * <code>TableRowCache</code>, so that other Contexts read the committed state
+ * of the objects from the database.
+ *
+ * @version $Revision$
+ */
+public class TableRowCacheConsumer implements Consumer
+{
+    public void initialize() throws Exception
+    {
+    }
+
+    /**
+     * Invalidate the subject and object of the event.
+     *
+     * @param ctx
+     *            DSpace context
+     * @param event
+     *            content event
+     */
+    public void consume(Context ctx, Event event) throws Exception
+    {
+        invalidate(event.getSubjectType(), event.getSubjectID());
+        invalidate(event.getObjectType(), event.getObjectID());
+    }
+
+    public void end(Context ctx) throws Exception
+    {
+    }
+
+    public void finish(Context ctx) throws Exception
+    {
+    }
+
+    private void invalidate(int type, int id)
+    {
+        String table = getTable(type);
+
+        if (table != null && id > 0)
+        {
+            TableRowCache.invalidate(table, id);
+        }
+    }
+
+    /**
+     * Get the table holding objects of the given type.
+     *
+     * @param type
+     *            object type, from <code>Constants</code>
+     * @return the table name, or null if the type has no table of its own
+     */
+    private static String getTable(int type)
+    {
+        switch (type)
+        {
+            case Constants.BITSTREAM:
+                return "bitstream";
+            case Constants.BUNDLE:
+                return "bundle";
+            case Constants.ITEM:
+                return "item";
+            case Constants.COLLECTION:
+                return "collection";
+            case Constants.COMMUNITY:
+                return "community";
+            case Constants.GROUP:
+                return "epersongroup";
+            case Constants.EPERSON:
+                return "eperson";
+            default:
+                return null;
+        }
+    }
+}
@@ -9,6 +9,7 @@ package org.dspace.storage.rdbms;
 
 import org.apache.log4j.Logger;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -35,6 +36,17 @@ public class TableRowIterator
      */
     private Statement statemt = null;
 
+    /**
+     * Dedicated connection used by a streaming query, released when the
+     * iterator is closed
+     */
+    private Connection connection = null;
+
+    /**
+     * Autocommit setting to restore on the dedicated connection
+     */
+    private boolean autoCommit = true;
+
     /**
      * The name of the RDBMS table
      */
@@ -126,6 +138,21 @@ public class TableRowIterator
         statemt = st;
     }
 
+    /**
+     * Hand over the dedicated connection used by a streaming query, so that it
+     * can be returned to the pool when the iterator is closed.
+     *
+     * @param conn
+     *            The connection the query was executed on
+     * @param restoreAutoCommit
+     *            The autocommit setting to restore on the connection
+     */
+    void setConnection(Connection conn, boolean restoreAutoCommit)
+    {
+        connection = conn;
+        autoCommit = restoreAutoCommit;
+    }
+
     /**
      * Advance to the next row and return it. Returns null if there are no more
      * rows.
@@ -243,6 +270,13 @@ public class TableRowIterator
         {
         }
 
+        // release the dedicated connection of a streaming query
+        if (connection != null)
+        {
+            DatabaseManager.releaseStreamingConnection(connection, autoCommit);
+            connection = null;
+        }
+
         columnNames = null;
     }
 }
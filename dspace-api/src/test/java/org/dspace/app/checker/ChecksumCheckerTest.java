@@ -0,0 +1,68 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.checker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for the checkpoint kept by the checker to resume a pass
+ */
+public class ChecksumCheckerTest
+{
+    /** The checkpoint file used by the tests */
+    private File checkpoint;
+
+    @Before
+    public void init() throws IOException
+    {
+        checkpoint = File.createTempFile("checker", ".checkpoint");
+        checkpoint.delete();
+    }
+
+    @After
+    public void destroy()
+    {
+        checkpoint.delete();
+    }
+
+    /**
+     * Test that a new pass is recorded, and that a later run resumes it
+     */
+    @Test
+    public void testResumePass()
+    {
+        Date first = new Date(1000000000000L);
+        Date second = new Date(1000000500000L);
+
+        assertEquals("testResumePass 0", first, ChecksumChecker.readCheckpoint(checkpoint, first));
+        assertTrue("testResumePass 1", checkpoint.exists());
+        assertEquals("testResumePass 2", first, ChecksumChecker.readCheckpoint(checkpoint, second));
+
+        // Once the pass completes the checkpoint is removed
+        checkpoint.delete();
+        assertEquals("testResumePass 3", second, ChecksumChecker.readCheckpoint(checkpoint, second));
+    }
+
+    /**
+     * Test that a damaged checkpoint starts a new pass
+     */
+    @Test
+    public void testInvalidCheckpoint() throws IOException
+    {
+        FileUtils.writeStringToFile(checkpoint, "not a date", "UTF-8");
+        Date now = new Date();
+
+        assertEquals("testInvalidCheckpoint 0", now, ChecksumChecker.readCheckpoint(checkpoint, now));
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemexport;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Bitstream;
+import org.dspace.content.BitstreamFormat;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.WorkspaceItem;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for writing the zip files of exports, storing the bitstreams of
+ * already compressed formats and compressing the others
+ */
+public class ZipWriterTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ZipWriterTest.class);
+
+    /** The contents of text */
+    private static final byte[] TEXT = "Text compresses well. Text compresses well.\n".getBytes();
+
+    /** A bitstream in a format which is stored (PDF) */
+    private Bitstream pdf;
+
+    /** A bitstream in a format which is compressed (Text) */
+    private Bitstream text;
+
+    /** The zip file written */
+    private File target;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            Bundle bundle = InstallItem.installItem(context,
+                    WorkspaceItem.create(context, collection, false)).createBundle("ORIGINAL");
+
+            // bitstreams are stored through a connection of their own, which
+            // waits for the BITSTREAM table to be committed
+            pdf = bundle.createBitstream(
+                    new FileInputStream(testProps.get("test.bitstream").toString()));
+            context.commit();
+            text = bundle.createBitstream(new ByteArrayInputStream(TEXT));
+            context.commit();
+
+            // the formats are only set in memory, so that the bitstreams
+            // of other tests keep theirs
+            pdf.setFormat(BitstreamFormat.findByShortDescription(context, "Adobe PDF"));
+            text.setFormat(BitstreamFormat.findByShortDescription(context, "Text"));
+
+            target = File.createTempFile("export", ".zip");
+            target.delete();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        FileUtils.deleteQuietly(target);
+        FileUtils.deleteQuietly(new File(target.getPath() + "_tmp"));
+        pdf = null;
+        text = null;
+        super.destroy();
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws Exception
+    {
+        InputStream is = zip.getInputStream(entry);
+        try
+        {
+            return IOUtils.toByteArray(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static byte[] read(Bitstream b) throws Exception
+    {
+        InputStream is = b.retrieve();
+        try
+        {
+            return IOUtils.toByteArray(is);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Test that the levels of the configured formats are used, and the
+     * default level for the others
+     */
+    @Test
+    public void testGetLevel() throws Exception
+    {
+        assertEquals("testGetLevel 0", 0, ZipWriter.getLevel(pdf.getFormat()));
+        assertEquals("testGetLevel 1", 9, ZipWriter.getLevel(text.getFormat()));
+        assertEquals("testGetLevel 2", 9, ZipWriter.getLevel(null));
+    }
+
+    /**
+     * Test that a finished zip holds every file written to it, with the
+     * bitstreams of stored formats stored and the others compressed
+     */
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        ZipWriter writer = new ZipWriter(target);
+        try
+        {
+            writer.putNextEntry("item_1/contents");
+            writer.getOutputStream().write(TEXT);
+            writer.closeEntry();
+            writer.write("item_1/document.pdf", pdf);
+            writer.write("item_1/notes.txt", text);
+            writer.finish();
+        }
+        finally
+        {
+            writer.close();
+        }
+        assertTrue("testRoundTrip 0", target.exists());
+        assertFalse("testRoundTrip 1", new File(target.getPath() + "_tmp").exists());
+
+        ZipFile zip = new ZipFile(target);
+        try
+        {
+            assertEquals("testRoundTrip 2", 3, zip.size());
+
+            ZipEntry contents = zip.getEntry("item_1/contents");
+            assertEquals("testRoundTrip 3", ZipEntry.DEFLATED, contents.getMethod());
+            assertArrayEquals("testRoundTrip 4", TEXT, read(zip, contents));
+
+            ZipEntry stored = zip.getEntry("item_1/document.pdf");
+            assertEquals("testRoundTrip 5", ZipEntry.STORED, stored.getMethod());
+            assertEquals("testRoundTrip 6", pdf.getSize(), stored.getCompressedSize());
+            assertArrayEquals("testRoundTrip 7", read(pdf), read(zip, stored));
+
+            ZipEntry deflated = zip.getEntry("item_1/notes.txt");
+            assertEquals("testRoundTrip 8", ZipEntry.DEFLATED, deflated.getMethod());
+            assertTrue("testRoundTrip 9", deflated.getCompressedSize() < TEXT.length);
+            assertArrayEquals("testRoundTrip 10", TEXT, read(zip, deflated));
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Test that a zip which is not finished leaves no file behind
+     */
+    @Test
+    public void testUnfinished() throws Exception
+    {
+        ZipWriter writer = new ZipWriter(target);
+        writer.write("item_1/document.pdf", pdf);
+        writer.close();
+
+        assertFalse("testUnfinished 0", target.exists());
+        assertFalse("testUnfinished 1", new File(target.getPath() + "_tmp").exists());
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.itemimport;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DCValue;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.Item;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.dspace.handle.HandleManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for adding items in several threads, and for resuming an
+ * import from its mapfile, including one which failed part way through a
+ * batch
+ */
+public class ItemImportTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemImportTest.class);
+
+    /** The collection items are added to */
+    private Collection collection;
+
+    /** The directory of item directories */
+    private File sourceDir;
+
+    /** The mapfile of the import */
+    private File mapFile;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            // The worker threads wait on each other's table locks
+            DatabaseManager.updateQuery(context, "SET DEFAULT_LOCK_TIMEOUT 30000");
+
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            collection = community.createCollection();
+
+            // the items are added through their own Contexts
+            context.commit();
+
+            sourceDir = File.createTempFile("itemimport", "");
+            sourceDir.delete();
+            sourceDir.mkdir();
+            mapFile = File.createTempFile("itemimport", ".map");
+            mapFile.delete();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        closeMapFile();
+        ItemImport.threads = 1;
+        ItemImport.batchSize = 1;
+        ItemImport.isResume = false;
+        FileUtils.deleteQuietly(sourceDir);
+        FileUtils.deleteQuietly(mapFile);
+        context.restoreAuthSystemState();
+        collection = null;
+        super.destroy();
+    }
+
+    private static void closeMapFile()
+    {
+        if (ItemImport.mapOut != null)
+        {
+            ItemImport.mapOut.close();
+            ItemImport.mapOut = null;
+        }
+    }
+
+    /**
+     * Write item directories item(first) .. item(first + count - 1), each
+     * with a description and a bitstream.
+     */
+    private void writeItems(int first, int count) throws IOException
+    {
+        writeItems(first, count, true);
+    }
+
+    /**
+     * Write item directories item(first) .. item(first + count - 1), each
+     * with a description, and a bitstream if requested.
+     */
+    private void writeItems(int first, int count, boolean bitstream) throws IOException
+    {
+        for (int i = first; i < first + count; i++)
+        {
+            File dir = new File(sourceDir, "item" + i);
+            dir.mkdir();
+            FileUtils.writeStringToFile(new File(dir, "dublin_core.xml"),
+                    "<dublin_core><dcvalue element=\"description\" qualifier=\"none\">Item " + i
+                    + "</dcvalue></dublin_core>", "UTF-8");
+            if (bitstream)
+            {
+                FileUtils.writeStringToFile(new File(dir, "contents"), "file.txt\n", "UTF-8");
+                FileUtils.writeStringToFile(new File(dir, "file.txt"), "content " + i, "UTF-8");
+            }
+            else
+            {
+                FileUtils.writeStringToFile(new File(dir, "contents"), "", "UTF-8");
+            }
+        }
+    }
+
+    /**
+     * Add the items in sourceDir, recording them in mapFile.
+     */
+    private void runImport(int threads, int batchSize, boolean resume) throws Exception
+    {
+        runImport(context, threads, batchSize, resume);
+    }
+
+    /**
+     * Add the items in sourceDir through the given Context, recording them
+     * in mapFile.
+     */
+    private void runImport(Context c, int threads, int batchSize, boolean resume)
+            throws Exception
+    {
+        ItemImport.threads = threads;
+        ItemImport.batchSize = batchSize;
+        ItemImport.isResume = resume;
+
+        ImportSource source = ImportSource.forDirectory(sourceDir);
+        try
+        {
+            new ItemImport().addItems(c, new Collection[] { collection },
+                    source, mapFile.getPath(), false);
+        }
+        finally
+        {
+            closeMapFile();
+            source.close();
+        }
+        c.commit();
+    }
+
+    /**
+     * Check that the mapfile lists each of the items exactly once, each
+     * with the handle of an item carrying its description and a bitstream.
+     */
+    private void assertImported(String name, int count) throws Exception
+    {
+        assertImported(name, count, true);
+    }
+
+    /**
+     * Check that the mapfile lists each of the items exactly once, each
+     * with the handle of an item carrying its description, and a bitstream
+     * if requested.
+     */
+    private void assertImported(String name, int count, boolean bitstream) throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        List<String> lines = FileUtils.readLines(mapFile, "UTF-8");
+        assertEquals(name + " 0", count, lines.size());
+
+        Map<String, String> handles = new HashMap<String, String>();
+        for (String line : lines)
+        {
+            String[] parts = line.split(" ");
+            assertNull(name + " 1", handles.put(parts[0], parts[1]));
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            String handle = handles.get("item" + i);
+            assertNotNull(name + " 2", handle);
+
+            DSpaceObject dso = HandleManager.resolveToObject(context, handle);
+            assertEquals(name + " 3", Constants.ITEM, dso.getType());
+            DCValue[] descriptions = ((Item) dso).getMetadata("dc", "description", null, Item.ANY);
+            assertEquals(name + " 4", "Item " + i, descriptions[0].value);
+            assertEquals(name + " 5", bitstream ? 1 : 0, ((Item) dso).getBundles("ORIGINAL").length);
+        }
+
+        assertEquals(name + " 6", count, collection.countItems());
+    }
+
+    /**
+     * Test adding items in several threads.  The items are committed one at
+     * a time, as the test database locks whole tables and the bitstream rows
+     * are created through a connection of their own.
+     */
+    @Test
+    public void testAddInParallel() throws Exception
+    {
+        writeItems(0, 8);
+        runImport(3, 1, false);
+        assertImported("testAddInParallel", 8);
+    }
+
+    /**
+     * Test that resuming an import from its mapfile only adds the items not
+     * listed there
+     */
+    @Test
+    public void testResume() throws Exception
+    {
+        writeItems(0, 3);
+        runImport(1, 1, false);
+        assertImported("testResume 0", 3);
+
+        writeItems(3, 4);
+        runImport(2, 1, true);
+        assertImported("testResume 1", 7);
+    }
+
+    /**
+     * Test that an import committing several items at a time which fails
+     * part way through a batch records only the committed batches in its
+     * mapfile, and that resuming it adds the rolled back items once.  The
+     * items have no bitstreams: with several of them in a transaction, the
+     * connection storing a bitstream would wait for the BITSTREAM table
+     * locked by the import's own Context.
+     */
+    @Test
+    public void testResumeFailedBatch() throws Exception
+    {
+        writeItems(0, 7, false);
+        File broken = new File(new File(sourceDir, "item4"), "dublin_core.xml");
+        FileUtils.writeStringToFile(broken, "<dublin_core><dcvalue", "UTF-8");
+
+        Context importContext = new Context();
+        importContext.setCurrentUser(eperson);
+        importContext.turnOffAuthorisationSystem();
+        try
+        {
+            runImport(importContext, 1, 3, false);
+            fail("testResumeFailedBatch 0");
+        }
+        catch (Exception e)
+        {
+            // item4 is unreadable, and the batch of item3 and item4 is
+            // rolled back
+        }
+        finally
+        {
+            importContext.abort();
+        }
+        assertImported("testResumeFailedBatch 1", 3, false);
+
+        writeItems(4, 1, false);
+        runImport(1, 3, true);
+        assertImported("testResumeFailedBatch 2", 7, false);
+    }
+}
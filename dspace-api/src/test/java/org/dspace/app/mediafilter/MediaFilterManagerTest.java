@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.mediafilter;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Bundle;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for filtering several items at once, and for stopping when a
+ * worker thread fails
+ */
+public class MediaFilterManagerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(MediaFilterManagerTest.class);
+
+    /** The items filtered, in a collection of their own */
+    private Item[] items;
+
+    /** The collection of the items */
+    private Collection collection;
+
+    /** The format of the items' bitstreams */
+    private String format;
+
+    /**
+     * A filter which records the items it is given and filters none of
+     * them, or fails as if its library were missing.
+     */
+    public static class RecordingFilter extends MediaFilter
+    {
+        static final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+
+        static volatile boolean fail = false;
+
+        public String getFilteredName(String sourceName)
+        {
+            return sourceName + ".txt";
+        }
+
+        public String getBundleName()
+        {
+            return "TEXT";
+        }
+
+        public String getFormatString()
+        {
+            return "Text";
+        }
+
+        public String getDescription()
+        {
+            return "Recorded";
+        }
+
+        public InputStream getDestinationStream(InputStream source)
+        {
+            return source;
+        }
+
+        public boolean preProcessBitstream(Context c, Item item, Bitstream source)
+        {
+            seen.add(Integer.valueOf(item.getID()));
+            if (fail)
+            {
+                throw new NoClassDefFoundError("org/example/MissingLibrary");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            collection = community.createCollection();
+            items = new Item[8];
+            for (int i = 0; i < items.length; i++)
+            {
+                items[i] = InstallItem.installItem(context,
+                        WorkspaceItem.create(context, collection, false));
+                Bundle bundle = items[i].createBundle("ORIGINAL");
+                Bitstream bitstream = bundle.createBitstream(
+                        new FileInputStream(testProps.get("test.bitstream").toString()));
+                format = bitstream.getFormat().getShortDescription();
+
+                // bitstreams are stored through a connection of their own,
+                // which waits for the BITSTREAM table to be committed; the
+                // items are also read through the workers' own Contexts
+                context.commit();
+            }
+            context.restoreAuthSystemState();
+
+            RecordingFilter.seen.clear();
+            RecordingFilter.fail = false;
+            MediaFilterManager.filterClasses = new FormatFilter[] { new RecordingFilter() };
+            MediaFilterManager.filterFormats.put(RecordingFilter.class.getName(),
+                    Arrays.asList(format));
+            MediaFilterManager.identifier = collection.getHandle();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        MediaFilterManager.threads = 1;
+        MediaFilterManager.identifier = null;
+        MediaFilterManager.filterClasses = null;
+        MediaFilterManager.filterFormats.clear();
+        MediaFilterManager.processed = 0;
+        items = null;
+        collection = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that filtering with several threads gives every item in scope to
+     * the filter once
+     */
+    @Test
+    public void testThreaded() throws Exception
+    {
+        MediaFilterManager.threads = 3;
+        MediaFilterManager.applyFilters(context);
+
+        Set<Integer> expected = new HashSet<Integer>();
+        for (Item item : items)
+        {
+            expected.add(Integer.valueOf(item.getID()));
+        }
+        assertEquals("testThreaded 0", items.length, RecordingFilter.seen.size());
+        assertEquals("testThreaded 1", expected, new HashSet<Integer>(RecordingFilter.seen));
+        assertEquals("testThreaded 2", 0, MediaFilterManager.processed);
+    }
+
+    /**
+     * Test that a failing worker thread stops the filtering, and that its
+     * failure is thrown once the other threads have finished
+     */
+    @Test
+    public void testWorkerFailure() throws Exception
+    {
+        RecordingFilter.fail = true;
+        MediaFilterManager.threads = 2;
+        try
+        {
+            MediaFilterManager.applyFilters(context);
+            fail("testWorkerFailure 0");
+        }
+        catch (Exception e)
+        {
+            assertTrue("testWorkerFailure 1", e.getCause() instanceof NoClassDefFoundError);
+        }
+
+        // each worker stops at the first item it is given
+        assertTrue("testWorkerFailure 2", RecordingFilter.seen.size() >= 1);
+        assertTrue("testWorkerFailure 3", RecordingFilter.seen.size() <= 2);
+    }
+}
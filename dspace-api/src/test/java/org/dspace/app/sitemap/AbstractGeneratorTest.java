@@ -0,0 +1,259 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.sitemap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for writing only the sitemap files whose contents changed
+ * since the last run, using the manifest of the last run
+ */
+public class AbstractGeneratorTest
+{
+    /** The directory the sitemaps are written to */
+    private File outputDir;
+
+    /**
+     * A generator writing plain text files of up to three URLs.
+     */
+    private static class TestGenerator extends AbstractGenerator
+    {
+        TestGenerator(File outputDirIn, boolean incremental)
+        {
+            super(outputDirIn);
+            setIncremental(incremental);
+            setThreads(2);
+        }
+
+        public String getURLText(String url, Date lastMod)
+        {
+            return url + (lastMod == null ? "" : " " + lastMod.getTime()) + "\n";
+        }
+
+        public String getLeadingBoilerPlate()
+        {
+            return "begin\n";
+        }
+
+        public String getTrailingBoilerPlate()
+        {
+            return "end\n";
+        }
+
+        public int getMaxSize()
+        {
+            return 10000;
+        }
+
+        public int getMaxURLs()
+        {
+            return 3;
+        }
+
+        public boolean useCompression()
+        {
+            return false;
+        }
+
+        public String getFilename(int number)
+        {
+            return "sitemap" + number;
+        }
+
+        public String getIndexFilename()
+        {
+            return "index";
+        }
+
+        public void writeIndex(PrintStream output, int sitemapCount)
+                throws IOException
+        {
+            output.println(sitemapCount);
+        }
+    }
+
+    @Before
+    public void init() throws IOException
+    {
+        outputDir = File.createTempFile("sitemap", "");
+        outputDir.delete();
+        outputDir.mkdir();
+    }
+
+    @After
+    public void destroy()
+    {
+        FileUtils.deleteQuietly(outputDir);
+    }
+
+    /**
+     * Generate sitemaps of the given keys, each with the URL "item" + key,
+     * and mark the files written as old, to tell whether the next run writes
+     * them.
+     *
+     * @return the generator, after it has finished
+     */
+    private TestGenerator generate(boolean incremental, int[] keys) throws IOException
+    {
+        TestGenerator generator = new TestGenerator(outputDir, incremental);
+        for (int key : keys)
+        {
+            generator.addURL("item" + key, null, key);
+        }
+        generator.finish();
+        markOld();
+        return generator;
+    }
+
+    private void markOld()
+    {
+        for (File file : outputDir.listFiles())
+        {
+            file.setLastModified(0L);
+        }
+    }
+
+    private String read(int number) throws IOException
+    {
+        return FileUtils.readFileToString(new File(outputDir, "sitemap" + number), "UTF-8");
+    }
+
+    /**
+     * Check which of the sitemap files the last run wrote.
+     */
+    private void assertWritten(String name, boolean... written)
+    {
+        assertEquals(name + " count", written.length, outputDir.list().length - 2);
+        for (int i = 0; i < written.length; i++)
+        {
+            assertEquals(name + " " + i, written[i],
+                    new File(outputDir, "sitemap" + i).lastModified() != 0L);
+        }
+    }
+
+    /**
+     * Test that running again over the same URLs writes no files
+     */
+    @Test
+    public void testUnchanged() throws IOException
+    {
+        int[] keys = { 10, 20, 30, 40, 50, 60, 70 };
+        TestGenerator first = generate(true, keys);
+        assertEquals("testUnchanged 0", 3, first.getFilesChanged());
+        assertEquals("testUnchanged 1", "begin\nitem10\nitem20\nitem30\nend\n", read(0));
+        assertEquals("testUnchanged 2", "begin\nitem70\nend\n", read(2));
+        assertEquals("testUnchanged 3", "3\n", FileUtils.readFileToString(
+                new File(outputDir, "index"), "UTF-8"));
+
+        assertEquals("testUnchanged 4", 0, generate(true, keys).getFilesChanged());
+    }
+
+    /**
+     * Test that modifying a URL only writes the file holding it
+     */
+    @Test
+    public void testModified() throws IOException
+    {
+        int[] keys = { 10, 20, 30, 40, 50, 60, 70 };
+        generate(true, keys);
+
+        TestGenerator generator = new TestGenerator(outputDir, true);
+        for (int key : keys)
+        {
+            generator.addURL("item" + key, (key == 50) ? new Date(1000L) : null, key);
+        }
+        assertEquals("testModified 0", 3, generator.finish());
+        assertEquals("testModified 1", 1, generator.getFilesChanged());
+        assertWritten("testModified", false, true, false);
+        assertEquals("testModified 2", "begin\nitem40\nitem50 1000\nitem60\nend\n", read(1));
+    }
+
+    /**
+     * Test that a URL added to a full file splits it, leaving the files
+     * after it alone, and that the next run keeps the split
+     */
+    @Test
+    public void testInserted() throws IOException
+    {
+        generate(true, new int[] { 10, 20, 30, 40, 50, 60, 70 });
+
+        int[] keys = { 10, 15, 20, 30, 40, 50, 60, 70 };
+        TestGenerator generator = new TestGenerator(outputDir, true);
+        for (int key : keys)
+        {
+            generator.addURL("item" + key, null, key);
+        }
+        assertEquals("testInserted 0", 4, generator.finish());
+        assertEquals("testInserted 1", 2, generator.getFilesChanged());
+        assertWritten("testInserted", true, false, false, true);
+        assertEquals("testInserted 2", "begin\nitem10\nitem15\nitem20\nend\n", read(0));
+        assertEquals("testInserted 3", "begin\nitem30\nend\n", read(3));
+        markOld();
+
+        assertEquals("testInserted 4", 0, generate(true, keys).getFilesChanged());
+    }
+
+    /**
+     * Test that new URLs after the last key go in the last file, and then in
+     * new files
+     */
+    @Test
+    public void testAppended() throws IOException
+    {
+        generate(true, new int[] { 10, 20, 30, 40 });
+
+        TestGenerator generator = generate(true, new int[] { 10, 20, 30, 40, 50, 60, 70 });
+        assertEquals("testAppended 0", 2, generator.getFilesChanged());
+        assertEquals("testAppended 1", "begin\nitem10\nitem20\nitem30\nend\n", read(0));
+        assertEquals("testAppended 2", "begin\nitem40\nitem50\nitem60\nend\n", read(1));
+        assertEquals("testAppended 3", "begin\nitem70\nend\n", read(2));
+    }
+
+    /**
+     * Test that a file whose URLs are all removed is left empty, rather than
+     * the files after it being renumbered
+     */
+    @Test
+    public void testRemoved() throws IOException
+    {
+        generate(true, new int[] { 10, 20, 30, 40, 50, 60, 70 });
+
+        TestGenerator generator = new TestGenerator(outputDir, true);
+        for (int key : new int[] { 10, 20, 30, 70 })
+        {
+            generator.addURL("item" + key, null, key);
+        }
+        assertEquals("testRemoved 0", 3, generator.finish());
+        assertWritten("testRemoved", false, true, false);
+        assertEquals("testRemoved 1", "begin\nend\n", read(1));
+    }
+
+    /**
+     * Test that a run which is not incremental writes every file, and that
+     * an unusable manifest is ignored
+     */
+    @Test
+    public void testNotIncremental() throws IOException
+    {
+        int[] keys = { 10, 20, 30, 40, 50, 60, 70 };
+        generate(true, keys);
+
+        assertEquals("testNotIncremental 0", 3, generate(false, keys).getFilesChanged());
+
+        FileUtils.writeStringToFile(new File(outputDir, "index.manifest"), "0 x\n", "UTF-8");
+        assertEquals("testNotIncremental 1", 3, generate(true, keys).getFilesChanged());
+        assertEquals("testNotIncremental 2", 0, generate(true, keys).getFilesChanged());
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.app.statistics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for writing the counts of a log file to the LogAnalyser
+ * checkpoint and reading them back
+ */
+public class LogAggregateTest
+{
+    /** The counts of a log file */
+    private LogAggregate aggregate;
+
+    @Before
+    public void init()
+    {
+        aggregate = new LogAggregate();
+        aggregate.lines = 120;
+        aggregate.warnings = 3;
+        aggregate.addDate(new Date(1300000000123L));
+        aggregate.addDate(new Date(1300099999456L));
+        for (int i = 0; i < 5; i++)
+        {
+            LogAggregate.increment(aggregate.actions, "view_item");
+        }
+        LogAggregate.increment(aggregate.actions, "search");
+        LogAggregate.increment(aggregate.searches, "a=b");
+        LogAggregate.increment(aggregate.searches, "two words");
+        LogAggregate.increment(aggregate.users, "someone@example.com");
+        LogAggregate.increment(aggregate.items, "123456789/1");
+        LogAggregate.increment(aggregate.items, "123456789/1");
+    }
+
+    @After
+    public void destroy()
+    {
+        aggregate = null;
+    }
+
+    private static String write(LogAggregate... aggregates)
+    {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        for (LogAggregate a : aggregates)
+        {
+            a.write(out);
+        }
+        out.close();
+        return text.toString();
+    }
+
+    private static BufferedReader reader(String text)
+    {
+        return new BufferedReader(new StringReader(text));
+    }
+
+    private static void assertCounts(String name, Map<String, int[]> expected,
+            Map<String, int[]> actual)
+    {
+        assertEquals(name + " size", expected.size(), actual.size());
+        for (String key : expected.keySet())
+        {
+            assertEquals(name + " " + key, LogAggregate.get(expected, key),
+                    LogAggregate.get(actual, key));
+        }
+    }
+
+    private static void assertAggregate(String name, LogAggregate expected,
+            LogAggregate actual)
+    {
+        assertNotNull(name + " null", actual);
+        assertEquals(name + " lines", expected.lines, actual.lines);
+        assertEquals(name + " warnings", expected.warnings, actual.warnings);
+        assertEquals(name + " startDate", expected.startDate, actual.startDate);
+        assertEquals(name + " endDate", expected.endDate, actual.endDate);
+        assertCounts(name + " actions", expected.actions, actual.actions);
+        assertCounts(name + " searches", expected.searches, actual.searches);
+        assertCounts(name + " users", expected.users, actual.users);
+        assertCounts(name + " items", expected.items, actual.items);
+    }
+
+    /**
+     * Test that an aggregate read back equals the one written, including the
+     * times of its dates and keys containing '='
+     */
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        assertAggregate("testRoundTrip 0", aggregate, LogAggregate.read(reader(write(aggregate))));
+
+        LogAggregate empty = new LogAggregate();
+        assertAggregate("testRoundTrip 1", empty, LogAggregate.read(reader(write(empty))));
+    }
+
+    /**
+     * Test that the aggregates of several log files are read one after the
+     * other from the same checkpoint, and merge to the same counts
+     */
+    @Test
+    public void testSeveral() throws IOException
+    {
+        LogAggregate other = new LogAggregate();
+        other.lines = 7;
+        other.addDate(new Date(1200000000000L));
+        LogAggregate.increment(other.actions, "search");
+        LogAggregate.increment(other.searches, "a=b");
+
+        BufferedReader in = reader(write(aggregate, other));
+        LogAggregate first = LogAggregate.read(in);
+        LogAggregate second = LogAggregate.read(in);
+        assertAggregate("testSeveral 0", aggregate, first);
+        assertAggregate("testSeveral 1", other, second);
+        assertNull("testSeveral 2", in.readLine());
+
+        LogAggregate merged = new LogAggregate();
+        merged.merge(aggregate);
+        merged.merge(other);
+        first.merge(second);
+        assertAggregate("testSeveral 3", merged, first);
+        assertEquals("testSeveral 4", 2, LogAggregate.get(first.actions, "search"));
+        assertEquals("testSeveral 5", new Date(1200000000000L), first.startDate);
+    }
+
+    /**
+     * Test that an aggregate cut short, as by a run which failed while
+     * writing it, is not read
+     */
+    @Test
+    public void testTruncated() throws IOException
+    {
+        String text = write(aggregate);
+        String truncated = text.substring(0, text.lastIndexOf("end"));
+
+        assertNull("testTruncated 0", LogAggregate.read(reader(truncated)));
+        assertNull("testTruncated 1", LogAggregate.read(reader("")));
+    }
+
+    /**
+     * Test that lines which were not written by an aggregate are rejected
+     */
+    @Test
+    public void testInvalid()
+    {
+        String[] invalid = { "no equals sign", "unknown.key=1", "lines=many",
+                "start_date=2011-03-13" };
+        for (int i = 0; i < invalid.length; i++)
+        {
+            try
+            {
+                LogAggregate.read(reader(invalid[i] + "\nend\n"));
+                fail("testInvalid " + i);
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.authorize;
+
+import java.io.ByteArrayInputStream;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Bitstream;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Constants;
+import org.dspace.eperson.EPerson;
+import org.dspace.eperson.Group;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for checking the authorization of several objects at once,
+ * which must agree with checking them one at a time
+ */
+public class AuthorizeManagerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(AuthorizeManagerTest.class);
+
+    /** The objects checked, including a null and a repeat */
+    private DSpaceObject[] objects;
+
+    /** A member of group */
+    private EPerson member;
+
+    /** A user with a policy of their own */
+    private EPerson reader;
+
+    /** An administrator of the community, through an ADMIN policy */
+    private EPerson communityAdmin;
+
+    /** A member of the Administrator group */
+    private EPerson systemAdmin;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+
+            member = newEPerson("member");
+            reader = newEPerson("reader");
+            communityAdmin = newEPerson("community-admin");
+            systemAdmin = newEPerson("system-admin");
+
+            Group group = Group.create(context);
+            group.addMember(member);
+            group.update();
+
+            Group admins = Group.find(context, 1);
+            admins.addMember(systemAdmin);
+            admins.update();
+
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+
+            // readable by anyone, by the group, by one user, by the group
+            // but expired, and by nobody
+            Item anonymous = newItem(collection);
+            AuthorizeManager.addPolicy(context, anonymous, Constants.READ, Group.find(context, 0));
+            Item forGroup = newItem(collection);
+            AuthorizeManager.addPolicy(context, forGroup, Constants.READ, group);
+            Item forUser = newItem(collection);
+            AuthorizeManager.addPolicy(context, forUser, Constants.READ, reader);
+            Item expired = newItem(collection);
+            ResourcePolicy rp = ResourcePolicy.create(context);
+            rp.setResource(expired);
+            rp.setAction(Constants.READ);
+            rp.setGroup(group);
+            rp.setEndDate(new Date(System.currentTimeMillis() - 86400000L));
+            rp.update();
+            Item nobody = newItem(collection);
+
+            // the collection's default policies were used installing the
+            // items, now only the community has any
+            AuthorizeManager.removeAllPolicies(context, community);
+            AuthorizeManager.removeAllPolicies(context, collection);
+            AuthorizeManager.addPolicy(context, community, Constants.ADMIN, communityAdmin);
+
+            // a bitstream of the group's item, readable by the user
+            Bitstream bitstream = forGroup.createBundle("ORIGINAL").createBitstream(
+                    new ByteArrayInputStream("authorize".getBytes("UTF-8")));
+            AuthorizeManager.removeAllPolicies(context, bitstream);
+            AuthorizeManager.addPolicy(context, bitstream, Constants.READ, reader);
+
+            objects = new DSpaceObject[] { anonymous, forGroup, null, forUser,
+                    expired, nobody, bitstream, collection, community, forGroup };
+
+            context.restoreAuthSystemState();
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        context.setCurrentUser(eperson);
+        objects = null;
+        super.destroy();
+    }
+
+    private EPerson newEPerson(String name) throws SQLException, AuthorizeException
+    {
+        EPerson person = EPerson.create(context);
+        person.setEmail(name + "-" + System.nanoTime() + "@example.com");
+        person.update();
+        return person;
+    }
+
+    private Item newItem(Collection collection) throws Exception
+    {
+        Item item = InstallItem.installItem(context,
+                WorkspaceItem.create(context, collection, false));
+        AuthorizeManager.removeAllPolicies(context, item);
+        return item;
+    }
+
+    /**
+     * Check the objects in bulk as the given user, checking that the result
+     * is the same as checking them one at a time
+     *
+     * @return the bulk result
+     */
+    private BitSet check(String name, EPerson user, int action) throws SQLException
+    {
+        context.setCurrentUser(user);
+
+        BitSet bulk = AuthorizeManager.authorizeActionBoolean(context, objects, action);
+        for (int i = 0; i < objects.length; i++)
+        {
+            assertEquals(name + " object " + i, AuthorizeManager.authorizeActionBoolean(
+                    context, objects[i], action), bulk.get(i));
+        }
+        return bulk;
+    }
+
+    private static BitSet bits(int... indexes)
+    {
+        BitSet bits = new BitSet();
+        for (int i : indexes)
+        {
+            bits.set(i);
+        }
+        return bits;
+    }
+
+    /**
+     * Test that an anonymous user only gets policies for the anonymous
+     * group
+     */
+    @Test
+    public void testAnonymous() throws SQLException
+    {
+        assertEquals("testAnonymous 0", bits(0), check("testAnonymous READ", null, Constants.READ));
+        assertEquals("testAnonymous 1", bits(), check("testAnonymous WRITE", null, Constants.WRITE));
+    }
+
+    /**
+     * Test that a group member gets the group's date-valid policies
+     */
+    @Test
+    public void testGroup() throws SQLException
+    {
+        assertEquals("testGroup 0", bits(0, 1, 9), check("testGroup READ", member, Constants.READ));
+        assertEquals("testGroup 1", bits(), check("testGroup WRITE", member, Constants.WRITE));
+    }
+
+    /**
+     * Test that a user gets their own policies
+     */
+    @Test
+    public void testEPerson() throws SQLException
+    {
+        assertEquals("testEPerson 0", bits(0, 3, 6), check("testEPerson READ", reader, Constants.READ));
+    }
+
+    /**
+     * Test that ADMIN on a community is inherited by its collections, their
+     * items and the items' bitstreams
+     */
+    @Test
+    public void testInheritedAdmin() throws SQLException
+    {
+        BitSet all = bits(0, 1, 3, 4, 5, 6, 7, 8, 9);
+        assertEquals("testInheritedAdmin 0", all, check("testInheritedAdmin READ",
+                communityAdmin, Constants.READ));
+        assertEquals("testInheritedAdmin 1", all, check("testInheritedAdmin WRITE",
+                communityAdmin, Constants.WRITE));
+    }
+
+    /**
+     * Test that a System Admin is authorized for every object
+     */
+    @Test
+    public void testSystemAdmin() throws SQLException
+    {
+        BitSet all = bits(0, 1, 3, 4, 5, 6, 7, 8, 9);
+        assertEquals("testSystemAdmin 0", all, check("testSystemAdmin READ",
+                systemAdmin, Constants.READ));
+        assertEquals("testSystemAdmin 1", all, check("testSystemAdmin DELETE",
+                systemAdmin, Constants.DELETE));
+    }
+}
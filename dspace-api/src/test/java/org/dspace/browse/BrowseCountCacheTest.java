@@ -0,0 +1,136 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for forgetting cached browse totals when the Context which
+ * changed the browse tables commits or aborts
+ */
+public class BrowseCountCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BrowseCountCacheTest.class);
+
+    /** The key of a count query */
+    private static final String KEY = BrowseCountCache.key("SELECT COUNT(*) FROM test",
+            new Object[] { Integer.valueOf(1) });
+
+    /** A Context reading the browse tables */
+    private Context reader;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            reader = new Context();
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        reader.abort();
+        reader = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that a total counted while another Context's changes were not
+     * yet committed is forgotten when they are
+     */
+    @Test
+    public void testInvalidateOnCommit() throws SQLException
+    {
+        BrowseCountCache.invalidate(context);
+
+        // counted before the changes are visible to other Contexts
+        BrowseCountCache.put(reader, KEY, 5, BrowseCountCache.getGeneration());
+        assertEquals("testInvalidateOnCommit 0", 5, BrowseCountCache.get(reader, KEY));
+
+        context.commit();
+        assertEquals("testInvalidateOnCommit 1", -1, BrowseCountCache.get(reader, KEY));
+    }
+
+    /**
+     * Test that the cached totals are forgotten when the Context which
+     * changed the browse tables aborts
+     */
+    @Test
+    public void testInvalidateOnAbort() throws SQLException
+    {
+        Context writer = new Context();
+        BrowseCountCache.invalidate(writer);
+        BrowseCountCache.put(reader, KEY, 5, BrowseCountCache.getGeneration());
+
+        writer.abort();
+        assertEquals("testInvalidateOnAbort 0", -1, BrowseCountCache.get(reader, KEY));
+    }
+
+    /**
+     * Test that a Context with changes in progress neither uses nor fills
+     * the cache, and that its total counted before the change is not cached
+     */
+    @Test
+    public void testPendingContext() throws SQLException
+    {
+        long generation = BrowseCountCache.getGeneration();
+        BrowseCountCache.put(reader, KEY, 5, generation);
+        BrowseCountCache.invalidate(context);
+
+        assertEquals("testPendingContext 0", -1, BrowseCountCache.get(context, KEY));
+        BrowseCountCache.put(context, KEY, 6, BrowseCountCache.getGeneration());
+        assertEquals("testPendingContext 1", -1, BrowseCountCache.get(reader, KEY));
+
+        BrowseCountCache.put(reader, KEY, 5, generation);
+        assertEquals("testPendingContext 2", -1, BrowseCountCache.get(reader, KEY));
+    }
+
+    /**
+     * Test that a Context which did not change the browse tables leaves the
+     * cache alone when it commits
+     */
+    @Test
+    public void testCommitWithoutChanges() throws SQLException
+    {
+        BrowseCountCache.put(reader, KEY, 5, BrowseCountCache.getGeneration());
+
+        context.commit();
+        assertEquals("testCommitWithoutChanges 0", 5, BrowseCountCache.get(reader, KEY));
+    }
+}
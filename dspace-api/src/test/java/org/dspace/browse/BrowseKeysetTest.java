@@ -0,0 +1,237 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for keyset paging of a browse, run against a distinct value
+ * table
+ */
+public class BrowseKeysetTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BrowseKeysetTest.class);
+
+    /** The distinct value table used by the tests */
+    private static final String TABLE = "bi_keyset_dis";
+
+    /** The ids of the rows, and their sort values */
+    private static final int[] IDS = { 4, 9, 2, 7, 1, 10, 3, 8, 5, 6 };
+    private static final String[] SORT_VALUES = { "b", "a", "b", null, "c", "e", "b", null, "e", "d" };
+
+    /** The ids in ascending browse order: by value, nulls last, then by id */
+    private static final List<Integer> ASCENDING = Arrays.asList(9, 2, 3, 4, 1, 6, 5, 10, 7, 8);
+
+    /** The page size used by the tests */
+    private static final int PAGE = 3;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            DatabaseManager.updateQuery(context, "CREATE TABLE " + TABLE
+                    + " (id INTEGER PRIMARY KEY, authority VARCHAR(100),"
+                    + " value VARCHAR(255), sort_value VARCHAR(255))");
+            for (int i = 0; i < IDS.length; i++)
+            {
+                // null parameters are not allowed, so null values are left out
+                if (SORT_VALUES[i] == null)
+                {
+                    DatabaseManager.updateQuery(context, "INSERT INTO " + TABLE
+                            + " (id, value) VALUES (?, ?)", IDS[i], "value " + IDS[i]);
+                }
+                else
+                {
+                    DatabaseManager.updateQuery(context, "INSERT INTO " + TABLE
+                            + " (id, value, sort_value) VALUES (?, ?, ?)",
+                            IDS[i], "value " + IDS[i], SORT_VALUES[i]);
+                }
+            }
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            DatabaseManager.updateQuery(context, "DROP TABLE " + TABLE);
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in destroy", ex);
+        }
+        super.destroy();
+    }
+
+    private BrowseDAO dao(boolean ascending) throws BrowseException
+    {
+        BrowseDAO dao = BrowseDAOFactory.getInstance(context);
+        dao.setTable(TABLE);
+        dao.setDistinct(true);
+        dao.setAscending(ascending);
+        dao.setOrderField("sort_value");
+        dao.setLimit(PAGE);
+        return dao;
+    }
+
+    private static List<Integer> ids(List<BrowseKey> keys)
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (BrowseKey key : keys)
+        {
+            ids.add(key.getID());
+        }
+        return ids;
+    }
+
+    /**
+     * Read a whole browse a page at a time, each page starting after the
+     * last row of the one before.
+     */
+    private List<Integer> pageForwards(BrowseDAO dao) throws BrowseException
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        dao.setKeyset(null, false);
+        while (true)
+        {
+            List<String[]> values = dao.doValueQuery();
+            List<BrowseKey> keys = dao.getResultKeys();
+            assertEquals("pageForwards 0", values.size(), keys.size());
+            assertTrue("pageForwards 1", values.size() <= PAGE);
+            for (int i = 0; i < keys.size(); i++)
+            {
+                assertEquals("pageForwards 2", "value " + keys.get(i).getID(), values.get(i)[0]);
+            }
+
+            ids.addAll(ids(keys));
+            if (keys.size() < PAGE)
+            {
+                return ids;
+            }
+            dao.setKeyset(keys.get(keys.size() - 1), false);
+        }
+    }
+
+    /**
+     * Test that paging forwards through an ascending browse sees every row
+     * once, in order, across equal and null values
+     */
+    @Test
+    public void testPageForwards() throws BrowseException
+    {
+        assertEquals("testPageForwards 0", ASCENDING, pageForwards(dao(true)));
+    }
+
+    /**
+     * Test that paging forwards through a descending browse sees every row
+     * once, in order, with the null values still last
+     */
+    @Test
+    public void testPageForwardsDescending() throws BrowseException
+    {
+        List<Integer> expected = new ArrayList<Integer>(ASCENDING.subList(0, 8));
+        Collections.reverse(expected);
+        expected.addAll(Arrays.asList(8, 7));
+
+        assertEquals("testPageForwardsDescending 0", expected, pageForwards(dao(false)));
+    }
+
+    /**
+     * Test that paging backwards from the last row returns the rows before
+     * it, each page in browse order
+     */
+    @Test
+    public void testPageBackwards() throws BrowseException
+    {
+        BrowseDAO dao = dao(true);
+        List<Integer> ids = new ArrayList<Integer>();
+
+        BrowseKey key = new BrowseKey(null, 8);
+        while (true)
+        {
+            dao.setKeyset(key, true);
+            dao.doValueQuery();
+            List<BrowseKey> keys = dao.getResultKeys();
+            ids.addAll(0, ids(keys));
+            if (keys.size() < PAGE)
+            {
+                break;
+            }
+            key = keys.get(0);
+        }
+
+        assertEquals("testPageBackwards 0", ASCENDING.subList(0, 9), ids);
+    }
+
+    /**
+     * Test that a page can start after a row with a value shared by others
+     */
+    @Test
+    public void testAfterEqualValue() throws BrowseException
+    {
+        BrowseDAO dao = dao(true);
+        dao.setKeyset(new BrowseKey("b", 2), false);
+        dao.doValueQuery();
+
+        assertEquals("testAfterEqualValue 0", Arrays.asList(3, 4, 1), ids(dao.getResultKeys()));
+        assertEquals("testAfterEqualValue 1", "b", dao.getResultKeys().get(1).getValue());
+    }
+
+    /**
+     * Test that keys survive being passed to the user interface as tokens
+     */
+    @Test
+    public void testTokens()
+    {
+        BrowseKey key = BrowseKey.fromToken(new BrowseKey("a:b", 12).toToken());
+        assertEquals("testTokens 0", 12, key.getID());
+        assertEquals("testTokens 1", "a:b", key.getValue());
+
+        key = BrowseKey.fromToken(new BrowseKey(null, 7).toToken());
+        assertEquals("testTokens 2", 7, key.getID());
+        assertNull("testTokens 3", key.getValue());
+
+        assertNull("testTokens 4", BrowseKey.fromToken("x:y"));
+        assertNull("testTokens 5", BrowseKey.fromToken(null));
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.Context;
+import org.dspace.sort.OrderFormat;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.rdbms.TableRowIterator;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for rebuilding the browse tables alongside the existing ones,
+ * catching up with the changes made meanwhile, and removing the values
+ * which updated items no longer use
+ */
+public class IndexBrowseTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(IndexBrowseTest.class);
+
+    /** A top community, holding sub */
+    private Community top;
+
+    /** A sub-community of top, holding inner */
+    private Community sub;
+
+    /** A collection of sub */
+    private Collection inner;
+
+    /** A top community, holding other */
+    private Community elsewhere;
+
+    /** A collection of elsewhere */
+    private Collection other;
+
+    /** Items of inner, both by author A */
+    private Item first;
+    private Item second;
+
+    /** The author index */
+    private BrowseIndex authors;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+
+        // the sort values of the browse tables are normalised with ICU 3.8,
+        // which cannot start on Java update releases numbered above 255
+        Assume.assumeTrue(normalises());
+
+        try
+        {
+            // the browse tables are written through connections of their own
+            DatabaseManager.updateQuery(context, "SET DEFAULT_LOCK_TIMEOUT 30000");
+
+            context.turnOffAuthorisationSystem();
+            top = Community.create(null, context);
+            sub = top.createSubcommunity();
+            inner = sub.createCollection();
+            elsewhere = Community.create(null, context);
+            other = elsewhere.createCollection();
+            first = install(inner, author("A"));
+            second = install(inner, author("A"));
+            context.restoreAuthSystemState();
+            context.commit();
+
+            authors = BrowseIndex.getBrowseIndex("author");
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        first = null;
+        second = null;
+        super.destroy();
+    }
+
+    /**
+     * @return	the name of an author, which items of other tests do not share
+     */
+    private String author(String name)
+    {
+        return "Author " + name + " of " + top.getID();
+    }
+
+    private static boolean normalises()
+    {
+        try
+        {
+            OrderFormat.makeSortString("value", null, OrderFormat.TEXT);
+            return true;
+        }
+        catch (LinkageError e)
+        {
+            log.warn("Browse sort values cannot be normalised", e);
+            return false;
+        }
+    }
+
+    private Item install(Collection collection, String author) throws Exception
+    {
+        Item item = InstallItem.installItem(context,
+                WorkspaceItem.create(context, collection, false));
+        item.addMetadata("dc", "contributor", "author", null, author);
+        item.update();
+        return item;
+    }
+
+    private void setAuthor(Item item, String author) throws Exception
+    {
+        item.clearMetadata("dc", "contributor", "author", Item.ANY);
+        item.addMetadata("dc", "contributor", "author", null, author);
+        item.update();
+    }
+
+    /**
+     * Rebuild the browse tables from scratch, in a Context of its own.
+     */
+    private void rebuild() throws Exception
+    {
+        Context rebuildContext = new Context();
+        rebuildContext.setIgnoreAuthorization(true);
+        IndexBrowse indexer = new IndexBrowse(rebuildContext);
+        indexer.setRebuild(true);
+        indexer.setExecute(true);
+        indexer.initBrowse();
+    }
+
+    private boolean exists(String table) throws SQLException
+    {
+        return DatabaseManager.querySingle(context,
+                "SELECT COUNT(*) AS num FROM INFORMATION_SCHEMA.TABLES WHERE table_name = ?",
+                table.toUpperCase()).getLongColumn("num") > 0;
+    }
+
+    private long count(String query, Object... parameters) throws SQLException
+    {
+        return DatabaseManager.querySingle(context, query, parameters).getLongColumn("num");
+    }
+
+    /**
+     * @return	the authors of the item in the author index
+     */
+    private List<String> authors(Item item) throws SQLException
+    {
+        List<String> values = new ArrayList<String>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT d.value FROM " + authors.getMapTableName() + " m, "
+                + authors.getDistinctTableName() + " d WHERE m.distinct_id = d.id"
+                + " AND m.item_id = ?", item.getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                values.add(tri.next().getStringColumn("value"));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return values;
+    }
+
+    /**
+     * @return	the communities the item is browsed in
+     */
+    private Set<Integer> communities(Item item) throws SQLException
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        TableRowIterator tri = DatabaseManager.query(context,
+                "SELECT community_id FROM communities2item WHERE item_id = ?", item.getID());
+        try
+        {
+            while (tri.hasNext())
+            {
+                ids.add(Integer.valueOf(tri.next().getIntColumn("community_id")));
+            }
+        }
+        finally
+        {
+            tri.close();
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Community... communities)
+    {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Community community : communities)
+        {
+            ids.add(Integer.valueOf(community.getID()));
+        }
+        return ids;
+    }
+
+    /**
+     * Test that a rebuild swaps its tables in, whether or not there are
+     * browse tables already, and leaves none of its own behind
+     */
+    @Test
+    public void testRebuild() throws Exception
+    {
+        for (int run = 0; run < 2; run++)
+        {
+            rebuild();
+
+            String name = "testRebuild " + run + " ";
+            assertTrue(name + "0", exists(BrowseIndex.getItemBrowseIndex().getTableName()));
+            assertFalse(name + "1", exists(BrowseIndex.getItemBrowseIndex().getTableName() + "_new"));
+            assertFalse(name + "2", exists(authors.getDistinctTableName() + "_new"));
+            assertFalse(name + "3", exists(authors.getMapTableName() + "_new"));
+            assertEquals(name + "4", 1, count("SELECT COUNT(*) AS num FROM "
+                    + BrowseIndex.getItemBrowseIndex().getTableName() + " WHERE item_id = ?",
+                    first.getID()));
+            assertEquals(name + "5", author("A"), authors(first).get(0));
+            assertEquals(name + "6", 1, authors(second).size());
+            assertEquals(name + "7", ids(top, sub), communities(first));
+        }
+
+        // the renamed sequences carry on from the rows already there
+        context.turnOffAuthorisationSystem();
+        Item third = install(other, author("C"));
+        context.restoreAuthSystemState();
+        context.commit();
+        assertEquals("testRebuild 8", author("C"), authors(third).get(0));
+    }
+
+    /**
+     * Test that the items changed while a rebuild runs are indexed again into
+     * its tables before they are swapped in, including an item mapped to
+     * another collection, which leaves its last modified date alone
+     */
+    @Test
+    public void testCatchUp() throws Exception
+    {
+        Context rebuildContext = new Context();
+        rebuildContext.setIgnoreAuthorization(true);
+        IndexBrowse indexer = new IndexBrowse(rebuildContext);
+        indexer.setExecute(true);
+
+        Date rebuildStart = new Date();
+        DatabaseManager.updateQuery(context,
+                "UPDATE item SET last_modified = ? WHERE item_id IN (?, ?)",
+                new Timestamp(rebuildStart.getTime() - 10 * 60 * 1000L),
+                first.getID(), second.getID());
+        context.commit();
+
+        indexer.prepShadowTables();
+        indexer.createIndex();
+
+        // changed while the rebuild runs
+        context.turnOffAuthorisationSystem();
+        setAuthor(first, author("B"));
+        other.addItem(second);
+        context.restoreAuthSystemState();
+        context.commit();
+
+        // as by a rebuild thread which read the item before it was mapped
+        DatabaseManager.updateQuery(context,
+                "DELETE FROM communities2item WHERE item_id = ? AND community_id = ?",
+                second.getID(), elsewhere.getID());
+        context.commit();
+
+        indexer.catchUpShadowTables(rebuildStart);
+        indexer.swapShadowTables();
+        rebuildContext.complete();
+
+        assertEquals("testCatchUp 0", author("B"), authors(first).get(0));
+        assertEquals("testCatchUp 1", 1, authors(first).size());
+        assertEquals("testCatchUp 2", author("A"), authors(second).get(0));
+        assertEquals("testCatchUp 3", ids(top, sub, elsewhere), communities(second));
+        assertEquals("testCatchUp 4", ids(top, sub), communities(first));
+        assertFalse("testCatchUp 5", exists(authors.getMapTableName() + "_new"));
+    }
+
+    /**
+     * Test that a value no longer used by an updated item is removed once no
+     * other item uses it either
+     */
+    @Test
+    public void testPruneUnusedValues() throws Exception
+    {
+        rebuild();
+        String query = "SELECT COUNT(*) AS num FROM " + authors.getDistinctTableName()
+                + " WHERE value = ?";
+
+        context.turnOffAuthorisationSystem();
+        setAuthor(first, author("B"));
+        context.commit();
+        assertEquals("testPruneUnusedValues 0", author("B"), authors(first).get(0));
+        assertEquals("testPruneUnusedValues 1", 1, count(query, author("A")));
+
+        setAuthor(second, author("B"));
+        context.restoreAuthSystemState();
+        context.commit();
+        assertEquals("testPruneUnusedValues 2", author("B"), authors(second).get(0));
+        assertEquals("testPruneUnusedValues 3", 0, count(query, author("A")));
+        assertEquals("testPruneUnusedValues 4", 1, count(query, author("B")));
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.browse;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.DSpaceObject;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for keeping the cached item counts up to date one container at
+ * a time, checked against counting everything again
+ */
+public class ItemCounterTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(ItemCounterTest.class);
+
+    /** A top community, holding sub and collection */
+    private Community top;
+
+    /** A sub-community of top, holding inner */
+    private Community sub;
+
+    /** A collection of sub */
+    private Collection inner;
+
+    /** A collection of top */
+    private Collection outer;
+
+    /** A top community, holding other */
+    private Community elsewhere;
+
+    /** A collection of elsewhere */
+    private Collection other;
+
+    /** The counter being tested */
+    private ItemCounter counter;
+
+    /** The cached counts */
+    private ItemCountDAO dao;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            top = Community.create(null, context);
+            sub = top.createSubcommunity();
+            inner = sub.createCollection();
+            outer = top.createCollection();
+            elsewhere = Community.create(null, context);
+            other = elsewhere.createCollection();
+
+            counter = new ItemCounter(context);
+            dao = ItemCountDAOFactory.getInstance(context);
+            counter.buildItemCounts();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        context.restoreAuthSystemState();
+        counter = null;
+        dao = null;
+        super.destroy();
+    }
+
+    private Item install(Collection collection) throws Exception
+    {
+        WorkspaceItem wsi = WorkspaceItem.create(context, collection, false);
+        return InstallItem.installItem(context, wsi);
+    }
+
+    /**
+     * Check the cached counts of the test containers, then that counting
+     * everything again gives the same.
+     */
+    private void assertCounts(String name, int top, int sub, int inner, int outer,
+            int elsewhere, int other) throws Exception
+    {
+        DSpaceObject[] containers = { this.top, this.sub, this.inner, this.outer,
+                this.elsewhere, this.other };
+        int[] expected = { top, sub, inner, outer, elsewhere, other };
+
+        for (int i = 0; i < containers.length; i++)
+        {
+            assertEquals(name + " " + i, expected[i], dao.getCount(containers[i]));
+        }
+
+        counter.buildItemCounts();
+        for (int i = 0; i < containers.length; i++)
+        {
+            assertEquals(name + " rebuilt " + i, expected[i], dao.getCount(containers[i]));
+        }
+    }
+
+    /**
+     * Test that recounting a collection brings the communities above it up
+     * to date
+     */
+    @Test
+    public void testUpdateCollection() throws Exception
+    {
+        install(inner);
+        install(inner);
+        counter.update(inner);
+        assertCounts("testUpdateCollection 0", 2, 2, 2, 0, 0, 0);
+
+        install(outer);
+        counter.update(outer);
+        assertCounts("testUpdateCollection 1", 3, 2, 2, 1, 0, 0);
+    }
+
+    /**
+     * Test that mapping an item into a second collection counts it there too,
+     * and that removing it takes it off again
+     */
+    @Test
+    public void testMapAndRemove() throws Exception
+    {
+        Item item = install(inner);
+        counter.update(inner);
+
+        other.addItem(item);
+        counter.update(other);
+        assertCounts("testMapAndRemove 0", 1, 1, 1, 0, 1, 1);
+
+        inner.removeItem(item);
+        counter.update(inner);
+        assertCounts("testMapAndRemove 1", 0, 0, 0, 0, 1, 1);
+    }
+
+    /**
+     * Test that adding a collection to a community adds its items to the
+     * community and those above it
+     */
+    @Test
+    public void testUpdateCommunity() throws Exception
+    {
+        install(other);
+        install(inner);
+        counter.update(other);
+        counter.update(inner);
+        assertCounts("testUpdateCommunity 0", 1, 1, 1, 0, 1, 1);
+
+        sub.addCollection(other);
+        counter.update(sub);
+        assertCounts("testUpdateCommunity 1", 2, 2, 1, 0, 1, 1);
+    }
+
+    /**
+     * Test that a withdrawn item is no longer counted
+     */
+    @Test
+    public void testWithdraw() throws Exception
+    {
+        Item item = install(outer);
+        counter.update(outer);
+        assertCounts("testWithdraw 0", 1, 0, 0, 1, 0, 0);
+
+        item.withdraw();
+        counter.update(outer);
+        assertCounts("testWithdraw 1", 0, 0, 0, 0, 0, 0);
+    }
+}
@@ -544,6 +544,70 @@ public class MockBrowseCreateDAOOracle
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.dspace.browse.BrowseCreateDAO#renameTable(java.lang.String, java.lang.String, boolean)
+     */
+    @Mock
+    public String[] renameTable(String from, String to, boolean execute) throws BrowseException
+    {
+        TableRowIterator tri = null;
+        try
+        {
+            checkContext();
+            List<String> renames = new ArrayList<String>();
+            renames.add("ALTER TABLE " + from + " RENAME TO " + to);
+
+            // H2 can't rename sequences, so replace it with one carrying on
+            // from the same value
+            long next = 1;
+            tri = DatabaseManager.query(internalContext,
+                    "SELECT current_value FROM INFORMATION_SCHEMA.SEQUENCES WHERE sequence_name = ?",
+                    (from + "_seq").toUpperCase());
+            if (tri.hasNext())
+            {
+                next = tri.next().getLongColumn("current_value") + 1;
+            }
+            tri.close();
+            renames.add("CREATE SEQUENCE " + to + "_seq START WITH " + next);
+            renames.add("DROP SEQUENCE " + from + "_seq");
+
+            String prefix = from.toUpperCase();
+            tri = DatabaseManager.query(internalContext,
+                    "SELECT DISTINCT index_name FROM INFORMATION_SCHEMA.INDEXES WHERE table_name = ?", prefix);
+            while (tri.hasNext())
+            {
+                String index = tri.next().getStringColumn("index_name");
+                if (index != null && index.toUpperCase().startsWith(prefix))
+                {
+                    renames.add("ALTER INDEX " + index + " RENAME TO " + to + index.substring(prefix.length()));
+                }
+            }
+
+            if (execute)
+            {
+                for (String rename : renames)
+                {
+                    DatabaseManager.updateQuery(internalContext, rename);
+                }
+            }
+
+            return renames.toArray(new String[renames.size()]);
+        }
+        catch (SQLException e)
+        {
+            log.error("caught exception: ", e);
+            throw new BrowseException(e);
+        }
+        finally
+        {
+            if (tri != null)
+            {
+                tri.close();
+            }
+            cleanContext();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.dspace.browse.BrowseCreateDAO#dropView(java.lang.String, boolean)
      */
@@ -596,20 +660,23 @@ public class MockBrowseCreateDAOOracle
 
         try
         {
+            // reading the column size completes the internal context, so is
+            // done before it is used here
+            boolean clob = isValueColumnClob();
             checkContext();
             Object[] params;
             String select = "SELECT id FROM " + table;
 
             if (ConfigurationManager.getBooleanProperty("webui.browse.metadata.case-insensitive", false))
             {
-                if (isValueColumnClob())
+                if (clob)
                     select = select + " WHERE TO_CHAR(value)=?";
                 else
                     select = select + " WHERE value=?";
             }
             else
             {
-                if (isValueColumnClob())
+                if (clob)
                     select = select + " WHERE TO_CHAR(value)=?";
                 else
                     select = select + " WHERE value=?";
@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.checker;
+
+import java.io.ByteArrayInputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.dspace.storage.bitstore.BitstreamStorageManager;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for interrupting and resuming a checker pass, checking
+ * bitstreams one at a time and in parallel
+ */
+public class CheckerCommandTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(CheckerCommandTest.class);
+
+    /** The number of bitstreams created for each test */
+    private static final int BITSTREAMS = 12;
+
+    /** The ids of the bitstreams created for the test */
+    private Set<Integer> ids;
+
+    /** The start of the pass, after every bitstream was last checked */
+    private Date start;
+
+    /** The bitstream ids checked by a run, in order */
+    private List<Integer> checked;
+
+    /** The result of the last check of each bitstream */
+    private Map<Integer, String> results;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            // The checker orders by Oracle's trunc, which H2 does not have
+            DatabaseManager.updateQuery(context, "CREATE ALIAS IF NOT EXISTS trunc FOR \""
+                    + CheckerCommandTest.class.getName() + ".trunc\"");
+
+            ids = new HashSet<Integer>();
+            for (int i = 0; i < BITSTREAMS; i++)
+            {
+                ids.add(BitstreamStorageManager.store(context,
+                        new ByteArrayInputStream(("checker test " + i).getBytes("UTF-8"))));
+
+                // The checker reads and writes through its own connections
+                context.commit();
+            }
+
+            // Rows for new bitstreams are stamped with the current time, so
+            // they are added before the pass starts
+            new BitstreamInfoDAO().updateMissingBitstreams();
+            Thread.sleep(50);
+            start = new Date();
+            checked = Collections.synchronizedList(new ArrayList<Integer>());
+            results = Collections.synchronizedMap(new HashMap<Integer, String>());
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        ids = null;
+        checked = null;
+        results = null;
+        super.destroy();
+    }
+
+    /**
+     * Oracle's trunc(date, 'mi'), for the checker's queries.
+     *
+     * @param date
+     *            the date to truncate
+     * @param format
+     *            ignored, the date is always truncated to the minute
+     * @return the date truncated to the minute
+     */
+    public static Timestamp trunc(Timestamp date, String format)
+    {
+        return (date == null) ? null : new Timestamp(date.getTime() / 60000 * 60000);
+    }
+
+    /**
+     * Run the checker over the pass started at <code>start</code>.
+     *
+     * @param threads
+     *            the number of bitstreams to check in parallel
+     * @param limit
+     *            the number of bitstreams to check before stopping, or 0 to
+     *            finish the pass
+     */
+    private void runPass(int threads, int limit)
+    {
+        SimpleDispatcher simple = new SimpleDispatcher(new BitstreamInfoDAO(), start, false);
+        if (threads > 1)
+        {
+            simple.setPrefetch(5);
+        }
+        BitstreamDispatcher dispatcher = (limit > 0)
+                ? new LimitedCountDispatcher(simple, limit) : simple;
+
+        CheckerCommand checker = new CheckerCommand();
+        checker.setThreads(threads);
+        checker.setReportVerbose(true);
+        checker.setProcessStartDate(start);
+        checker.setDispatcher(dispatcher);
+        checker.setCollector(new ChecksumResultsCollector()
+        {
+            public void collect(BitstreamInfo info)
+            {
+                checked.add(info.getBitstreamId());
+                results.put(info.getBitstreamId(), info.getChecksumCheckResult());
+            }
+        });
+        checker.process();
+    }
+
+    /**
+     * Check that a pass interrupted after some bitstreams, then resumed with
+     * the same start, checks every bitstream exactly once.
+     */
+    private void checkResume(String name, int threads)
+    {
+        runPass(threads, 5);
+        assertEquals(name + " 0", 5, checked.size());
+        List<Integer> first = new ArrayList<Integer>(checked);
+
+        checked.clear();
+        runPass(threads, 0);
+        List<Integer> second = new ArrayList<Integer>(checked);
+
+        Set<Integer> all = new HashSet<Integer>(first);
+        all.addAll(second);
+        assertEquals(name + " 1", first.size() + second.size(), all.size());
+        assertTrue(name + " 2", all.containsAll(ids));
+        for (Integer id : ids)
+        {
+            assertEquals(name + " 3", ChecksumCheckResults.CHECKSUM_MATCH, results.get(id));
+        }
+
+        // The pass is complete, there is nothing left to resume
+        checked.clear();
+        runPass(threads, 0);
+        assertTrue(name + " 4", checked.isEmpty());
+    }
+
+    /**
+     * Test resuming an interrupted pass, checking one bitstream at a time
+     */
+    @Test
+    public void testResume()
+    {
+        checkResume("testResume", 1);
+    }
+
+    /**
+     * Test resuming an interrupted pass, checking bitstreams in parallel with
+     * their ids read ahead and their results written in batches
+     */
+    @Test
+    public void testResumeParallel()
+    {
+        checkResume("testResumeParallel", 3);
+    }
+}
@@ -604,6 +604,35 @@ public class ItemTest  extends AbstractDSpaceObjectTest
         assertTrue("testClearMetadata 1",dc.length == 0);
     }
 
+    /**
+     * Test of prefetchMetadata method, of class Item.
+     */
+    @Test
+    public void testPrefetchMetadata() throws Exception
+    {
+        String schema = "dc";
+        String element = "contributor";
+        String qualifier = "author";
+        String lang = Item.ANY;
+        String[] values = {"value0","value1"};
+        context.turnOffAuthorisationSystem();
+        it.addMetadata(schema, element, qualifier, lang, values);
+        it.update();
+        context.restoreAuthSystemState();
+
+        // drop the item from the cache so it has to be reloaded
+        context.removeCached(it, it.getID());
+        Item.prefetchMetadata(context, new int[] {it.getID(), -1});
+
+        Item found = Item.find(context, it.getID());
+        assertThat("testPrefetchMetadata 0",found,notNullValue());
+        assertTrue("testPrefetchMetadata 1",found.dublinCore.isLoaded());
+        DCValue[] dc = found.getMetadata(schema, element, qualifier, lang);
+        assertTrue("testPrefetchMetadata 2",dc.length == 2);
+        assertThat("testPrefetchMetadata 3",dc[0].value,equalTo(values[0]));
+        assertThat("testPrefetchMetadata 4",dc[1].value,equalTo(values[1]));
+    }
+
     /**
      * Test of getSubmitter method, of class Item.
      */
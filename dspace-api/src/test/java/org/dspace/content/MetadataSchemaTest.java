@@ -112,11 +112,15 @@ public class MetadataSchemaTest extends AbstractUnitTest
     @Test
     public void testSetName() 
     {
+        String oldname = ms.getName();
         String name = "new name";
         ms.setName(name);
         assertThat("testSetName 0",ms.getName(),notNullValue());
         assertThat("testSetName 1",ms.getName(),not(equalTo("")));
         assertThat("testSetName 2",ms.getName(),equalTo(name));
+
+        //we restore the old name to avoid issues
+        ms.setName(oldname);
     }
 
     /**
@@ -0,0 +1,227 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for caching group memberships between Contexts, and for
+ * forgetting them when a Context changes them
+ */
+public class GroupMembershipCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(GroupMembershipCacheTest.class);
+
+    /** A member of group */
+    private EPerson member;
+
+    /** A group with member in it */
+    private Group group;
+
+    /** A Context reading memberships */
+    private Context reader;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            member = EPerson.create(context);
+            member.setEmail("member-" + System.nanoTime() + "@example.com");
+            member.update();
+            group = Group.create(context);
+            group.addMember(member);
+            group.update();
+            context.restoreAuthSystemState();
+
+            // the memberships are read through other Contexts
+            context.commit();
+
+            GroupMembershipCache.clear();
+            reader = new Context();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        reader.abort();
+        reader = null;
+        member = null;
+        group = null;
+        super.destroy();
+    }
+
+    /**
+     * @return	whether member is in group, as read by a new Context
+     */
+    private boolean isMember() throws SQLException
+    {
+        Context c = new Context();
+        try
+        {
+            return Group.allMemberGroupIDs(c, member).contains(Integer.valueOf(group.getID()));
+        }
+        finally
+        {
+            c.abort();
+        }
+    }
+
+    /**
+     * Test that the memberships read by one Context are used by the next
+     */
+    @Test
+    public void testHit() throws SQLException
+    {
+        assertTrue("testHit 0", isMember());
+        long hits = GroupMembershipCache.getHits();
+
+        assertTrue("testHit 1", isMember());
+        assertEquals("testHit 2", hits + 1, GroupMembershipCache.getHits());
+        assertNotNull("testHit 3", GroupMembershipCache.get(reader, member.getID()));
+    }
+
+    /**
+     * Test that removing a member from a group forgets the cached
+     * memberships, and that the removal is seen once it is committed
+     */
+    @Test
+    public void testInvalidateOnGroupUpdate() throws SQLException, AuthorizeException
+    {
+        assertTrue("testInvalidateOnGroupUpdate 0", isMember());
+
+        context.turnOffAuthorisationSystem();
+        group.removeMember(member);
+        group.update();
+        context.restoreAuthSystemState();
+        assertNull("testInvalidateOnGroupUpdate 1", GroupMembershipCache.get(reader, member.getID()));
+
+        context.commit();
+        assertFalse("testInvalidateOnGroupUpdate 2", isMember());
+    }
+
+    /**
+     * Test that deleting a group forgets the cached memberships
+     */
+    @Test
+    public void testInvalidateOnGroupDelete() throws SQLException, AuthorizeException
+    {
+        assertTrue("testInvalidateOnGroupDelete 0", isMember());
+
+        context.turnOffAuthorisationSystem();
+        group.delete();
+        context.restoreAuthSystemState();
+        assertNull("testInvalidateOnGroupDelete 1", GroupMembershipCache.get(reader, member.getID()));
+
+        context.commit();
+        assertFalse("testInvalidateOnGroupDelete 2", isMember());
+    }
+
+    /**
+     * Test that deleting an EPerson forgets the cached memberships
+     */
+    @Test
+    public void testInvalidateOnEPersonDelete() throws Exception
+    {
+        assertTrue("testInvalidateOnEPersonDelete 0", isMember());
+
+        context.turnOffAuthorisationSystem();
+        member.delete();
+        context.restoreAuthSystemState();
+        assertNull("testInvalidateOnEPersonDelete 1", GroupMembershipCache.get(reader, member.getID()));
+
+        context.commit();
+        assertFalse("testInvalidateOnEPersonDelete 2", isMember());
+    }
+
+    /**
+     * Test that memberships a Context read while its own changes were in
+     * progress are not cached, so that they are not seen after it aborts
+     */
+    @Test
+    public void testAbortDoesNotPublish() throws SQLException, AuthorizeException
+    {
+        Context writer = new Context();
+        writer.turnOffAuthorisationSystem();
+        Group added = Group.create(writer);
+        added.addMember(member);
+        added.update();
+        assertTrue("testAbortDoesNotPublish 0",
+                Group.allMemberGroupIDs(writer, member).contains(Integer.valueOf(added.getID())));
+        assertNull("testAbortDoesNotPublish 1", GroupMembershipCache.get(reader, member.getID()));
+        writer.abort();
+
+        Context c = new Context();
+        try
+        {
+            assertFalse("testAbortDoesNotPublish 2",
+                    Group.allMemberGroupIDs(c, member).contains(Integer.valueOf(added.getID())));
+        }
+        finally
+        {
+            c.abort();
+        }
+    }
+
+    /**
+     * Test that memberships read before another Context changed them are
+     * not cached, and that those read afterwards are forgotten again when
+     * it ends its transaction
+     */
+    @Test
+    public void testGeneration() throws SQLException
+    {
+        int[] ids = new int[] { 0, group.getID() };
+        long generation = GroupMembershipCache.getGeneration();
+
+        Context writer = new Context();
+        GroupMembershipCache.invalidate(writer);
+        GroupMembershipCache.put(reader, member.getID(), ids, generation);
+        assertNull("testGeneration 0", GroupMembershipCache.get(reader, member.getID()));
+
+        // the writer neither uses nor fills the cache meanwhile
+        GroupMembershipCache.put(reader, member.getID(), ids, GroupMembershipCache.getGeneration());
+        assertNotNull("testGeneration 1", GroupMembershipCache.get(reader, member.getID()));
+        assertNull("testGeneration 2", GroupMembershipCache.get(writer, member.getID()));
+
+        writer.abort();
+        assertNull("testGeneration 3", GroupMembershipCache.get(reader, member.getID()));
+    }
+}
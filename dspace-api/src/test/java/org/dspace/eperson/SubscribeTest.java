@@ -0,0 +1,340 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.eperson;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Email;
+import org.dspace.core.I18nUtil;
+import org.dspace.core.LogManager;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for sending subscription e-mails: finding the new items of a
+ * collection once for all its subscribers, the text of the e-mails, and
+ * sending them in batches
+ */
+public class SubscribeTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(SubscribeTest.class);
+
+    /** Collections holding new items */
+    private Collection first;
+    private Collection second;
+
+    /** The new items, by collection */
+    private Item firstItem;
+    private Item secondItem;
+
+    /** The messages Subscribe logs, which include the e-mails in test mode */
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+    private final AppenderSkeleton appender = new AppenderSkeleton()
+    {
+        protected void append(LoggingEvent event)
+        {
+            messages.add(event.getRenderedMessage());
+        }
+
+        public boolean requiresLayout()
+        {
+            return false;
+        }
+
+        public void close()
+        {
+        }
+    };
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            // leave the search and browse indexes alone, which sort titles
+            // with ICU 3.8, and that cannot start on Java update releases
+            // numbered above 255
+            context.setDispatcher("noindex");
+
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            first = community.createCollection();
+            first.setMetadata("name", "First");
+            first.update();
+            second = community.createCollection();
+            second.setMetadata("name", "Second");
+            second.update();
+            firstItem = newItem(first, "First item", "Author, One", "Author, Two");
+            secondItem = newItem(second, "Second item", "Author, Three");
+            context.commit();
+
+            Logger.getLogger(Subscribe.class).addAppender(appender);
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        Logger.getLogger(Subscribe.class).removeAppender(appender);
+        try
+        {
+            // tests indexing the whole archive must not find these items
+            first.removeItem(Item.find(context, firstItem.getID()));
+            second.removeItem(Item.find(context, secondItem.getID()));
+            context.commit();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        context.restoreAuthSystemState();
+        first = null;
+        second = null;
+        firstItem = null;
+        secondItem = null;
+        super.destroy();
+    }
+
+    /**
+     * Add an item which appeared yesterday, so that it is new today.
+     */
+    private Item newItem(Collection collection, String title, String... authors)
+            throws Exception
+    {
+        Item item = InstallItem.installItem(context,
+                WorkspaceItem.create(context, collection, false));
+        item.addMetadata("dc", "title", null, null, title);
+        for (String author : authors)
+        {
+            item.addMetadata("dc", "contributor", "author", null, author);
+        }
+        item.update();
+
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DAY_OF_MONTH, -1);
+        yesterday.set(Calendar.HOUR_OF_DAY, 12);
+        DatabaseManager.updateQuery(context,
+                "UPDATE item SET last_modified = ? WHERE item_id = ?",
+                new Timestamp(yesterday.getTimeInMillis()), item.getID());
+        context.removeCached(item, item.getID());
+        return item;
+    }
+
+    private EPerson newEPerson(String name) throws Exception
+    {
+        EPerson person = EPerson.create(context);
+        person.setEmail(name + "-" + System.nanoTime() + "@example.com");
+        person.update();
+        return person;
+    }
+
+    /**
+     * @return	the number of messages logged in test mode with this text
+     */
+    private int countLogged(String text)
+    {
+        String expected = LogManager.getHeader(context, "subscription:", "text=" + text);
+        int count = 0;
+        synchronized (messages)
+        {
+            for (String message : messages)
+            {
+                if (expected.equals(message))
+                {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Test that the new items of a collection are found once for all its
+     * subscribers, and that each is sent the same text about them
+     */
+    @Test
+    public void testOneHarvestPerCollection() throws Exception
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            Subscribe.subscribe(context, newEPerson("subscriber" + i), first);
+        }
+        context.commit();
+
+        final Map<Integer, Integer> harvests = new HashMap<Integer, Integer>();
+        Subscribe.Digests digests = new Subscribe.Digests(context)
+        {
+            List<Subscribe.DigestItem> harvest(Collection c) throws SQLException
+            {
+                Integer count = harvests.get(Integer.valueOf(c.getID()));
+                harvests.put(Integer.valueOf(c.getID()),
+                        Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+                return super.harvest(c);
+            }
+        };
+        Subscribe.processDaily(context, digests, null, true);
+
+        Locale locale = I18nUtil.getDefaultLocale();
+        String text = digests.getText(first, locale);
+        assertNotNull("testOneHarvestPerCollection 0", text);
+        assertEquals("testOneHarvestPerCollection 1", 3, countLogged(text));
+
+        // the text in another language is made from the same new items
+        assertNotNull("testOneHarvestPerCollection 2", digests.getText(first, Locale.GERMAN));
+        assertEquals("testOneHarvestPerCollection 3", Integer.valueOf(1),
+                harvests.get(Integer.valueOf(first.getID())));
+    }
+
+    /**
+     * Test that the text of a test mode e-mail is the one subscribers have
+     * always been sent, with a section for each collection
+     */
+    @Test
+    public void testDigestText() throws Exception
+    {
+        String expected = "New Items: First: 1\n\n"
+                + "      Title: First item\n"
+                + "    Authors: Author, One\n"
+                + "             Author, Two\n"
+                + "         ID: http://hdl.handle.net/" + firstItem.getHandle() + "\n\n"
+                + "\n---------------------------------------\n"
+                + "New Items: Second: 1\n\n"
+                + "      Title: Second item\n"
+                + "    Authors: Author, Three\n"
+                + "         ID: http://hdl.handle.net/" + secondItem.getHandle() + "\n\n";
+
+        Subscribe.sendEmail(context, newEPerson("subscriber"),
+                Arrays.asList(first, second), true);
+        assertEquals("testDigestText 0", 1, countLogged(expected));
+    }
+
+    /**
+     * Test that e-mails which cannot be sent are counted as failed, without
+     * stopping the others, and that each connection sends at most a batch
+     */
+    @Test(timeout = 60000)
+    public void testSenderFailure() throws Exception
+    {
+        final Session session = Session.getInstance(new Properties());
+        final AtomicInteger connections = new AtomicInteger();
+        final Set<Integer> delivered = Collections.synchronizedSet(new HashSet<Integer>());
+        final Map<Transport, Integer> batches =
+                Collections.synchronizedMap(new HashMap<Transport, Integer>());
+
+        // the e-mails are told apart by the e-person they are for
+        final Map<Email, Integer> emails = new IdentityHashMap<Email, Integer>();
+        for (int id = 0; id < 10; id++)
+        {
+            emails.put(ConfigurationManager.getEmail(I18nUtil.getEmailFilename(
+                    Locale.ENGLISH, "feedback")), Integer.valueOf(id));
+        }
+
+        Subscribe.Sender sender = new Subscribe.Sender(2, 2)
+        {
+            Transport connect()
+            {
+                connections.incrementAndGet();
+                return new Transport(session, null)
+                {
+                    public void sendMessage(javax.mail.Message message, Address[] addresses)
+                    {
+                    }
+                };
+            }
+
+            void deliver(Email email, Transport transport) throws MessagingException
+            {
+                Integer count = batches.get(transport);
+                batches.put(transport, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+
+                int id = emails.get(email).intValue();
+                if (id == 3)
+                {
+                    throw new MessagingException("Refused");
+                }
+                if (id == 6)
+                {
+                    throw new IllegalStateException("Broken e-mail");
+                }
+                delivered.add(Integer.valueOf(id));
+            }
+        };
+        for (Map.Entry<Email, Integer> email : emails.entrySet())
+        {
+            sender.send(email.getKey(), email.getValue().intValue());
+        }
+        sender.finish();
+
+        assertEquals("testSenderFailure 0", 8, sender.getSent());
+        assertEquals("testSenderFailure 1", 2, sender.getFailed());
+        for (int id = 0; id < 10; id++)
+        {
+            assertEquals("testSenderFailure 2 " + id, id != 3 && id != 6,
+                    delivered.contains(Integer.valueOf(id)));
+        }
+        for (Integer count : batches.values())
+        {
+            assertTrue("testSenderFailure 3", count.intValue() <= 2);
+        }
+        assertTrue("testSenderFailure 4", connections.get() >= 5);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.handle;
+
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.authorize.AuthorizeException;
+import org.dspace.content.Community;
+import org.dspace.core.Constants;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for the handle cache kept by HandleManager, and what it serves
+ * once a transaction binding handles is committed or aborted
+ */
+public class HandleCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(HandleCacheTest.class);
+
+    /** A community with a handle, committed */
+    private Community community;
+
+    /** A second Context, binding handles */
+    private Context other;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            context.turnOffAuthorisationSystem();
+            community = Community.create(null, context);
+            context.restoreAuthSystemState();
+            context.commit();
+
+            other = new Context();
+        }
+        catch (AuthorizeException ex)
+        {
+            log.error("Authorization Error in init", ex);
+            fail("Authorization Error in init: " + ex.getMessage());
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        if (other.isValid())
+        {
+            other.abort();
+        }
+        community = null;
+        other = null;
+        super.destroy();
+    }
+
+    /**
+     * Test that a handle bound in a transaction which is then aborted is not
+     * served from the cache, even after the Context binding it resolved it
+     */
+    @Test
+    public void testAbort() throws SQLException
+    {
+        String handle = "123456789/cache-abort";
+
+        HandleManager.createHandle(other, community, handle);
+        assertEquals("testAbort 0", community.getID(),
+                HandleManager.resolveToObject(other, handle).getID());
+        other.abort();
+
+        assertNull("testAbort 1", HandleManager.resolveToObject(context, handle));
+        assertEquals("testAbort 2", community.getHandle(),
+                HandleManager.findHandle(context, community));
+    }
+
+    /**
+     * Test that a lookup cached by another Context while a handle is being
+     * bound is forgotten when the binding is committed
+     */
+    @Test
+    public void testCommitVisibility() throws SQLException
+    {
+        String handle = "123456789/cache-commit";
+        int type = Constants.COMMUNITY;
+        int id = community.getID();
+
+        HandleCache.invalidate(other, handle, type, id);
+
+        // Another Context reads the committed state, where the handle does
+        // not exist yet
+        long generation = HandleCache.getGeneration();
+        HandleCache.putByHandle(context, handle, new HandleCache.Entry(null, -1, -1), generation);
+        assertFalse("testCommitVisibility 0", HandleCache.getByHandle(context, handle).isFound());
+
+        // The binding Context does not use the cache until it commits
+        HandleCache.putByHandle(other, handle, new HandleCache.Entry(handle, type, id), generation);
+        assertNull("testCommitVisibility 1", HandleCache.getByHandle(other, handle));
+
+        other.commit();
+        assertNull("testCommitVisibility 2", HandleCache.getByHandle(context, handle));
+        assertNull("testCommitVisibility 3", HandleCache.getByHandle(other, handle));
+    }
+
+    /**
+     * Test that a handle bound and committed by another Context resolves,
+     * after it was looked up and not found
+     */
+    @Test
+    public void testCommitResolves() throws SQLException
+    {
+        String handle = "123456789/cache-resolve";
+
+        assertNull("testCommitResolves 0", HandleManager.resolveToObject(context, handle));
+
+        HandleManager.createHandle(other, community, handle);
+        other.commit();
+
+        assertEquals("testCommitResolves 1", community.getID(),
+                HandleManager.resolveToObject(context, handle).getID());
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.search;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.dspace.AbstractUnitTest;
+import org.dspace.content.Collection;
+import org.dspace.content.Community;
+import org.dspace.content.InstallItem;
+import org.dspace.content.Item;
+import org.dspace.content.WorkspaceItem;
+import org.dspace.storage.rdbms.DatabaseManager;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for indexing the archive in several threads, and for resuming
+ * an indexing run from its checkpoint
+ */
+public class BulkIndexerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(BulkIndexerTest.class);
+
+    /** The items indexed, in the order they were created */
+    private Item[] items;
+
+    /** The index directory */
+    private File indexDir;
+
+    /** The writer of the index */
+    private IndexWriter writer;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            // The worker threads wait on each other's table locks
+            DatabaseManager.updateQuery(context, "SET DEFAULT_LOCK_TIMEOUT 30000");
+
+            context.turnOffAuthorisationSystem();
+            Community community = Community.create(null, context);
+            Collection collection = community.createCollection();
+            items = new Item[5];
+            for (int i = 0; i < items.length; i++)
+            {
+                items[i] = InstallItem.installItem(context,
+                        WorkspaceItem.create(context, collection, false));
+            }
+            context.restoreAuthSystemState();
+
+            // the items are read through the workers' own Contexts
+            context.commit();
+
+            indexDir = File.createTempFile("bulkindex", "");
+            indexDir.delete();
+            indexDir.mkdir();
+            writer = new IndexWriter(FSDirectory.open(indexDir),
+                    new IndexWriterConfig(Version.LUCENE_33, new DSAnalyzer(Version.LUCENE_33)));
+            writer.commit();
+        }
+        catch (Exception ex)
+        {
+            log.error("Error in init", ex);
+            fail("Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            writer.close();
+        }
+        catch (IOException ex)
+        {
+            log.error("Error in destroy", ex);
+        }
+        FileUtils.deleteQuietly(indexDir);
+        items = null;
+        super.destroy();
+    }
+
+    /**
+     * Index the archive with a BulkIndexer, reindexing every item.
+     */
+    private void run(int threads, boolean resume) throws Exception
+    {
+        IndexReader reader = IndexReader.open(writer.getDirectory(), true);
+        try
+        {
+            new BulkIndexer(writer, reader, indexDir.getPath(), threads, true).run(context, resume);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    private File checkpoint()
+    {
+        return new File(indexDir, "bulkindex.checkpoint");
+    }
+
+    /**
+     * Check which of the items are in the index, each at most once.
+     */
+    private void assertIndexed(String name, boolean... indexed) throws IOException
+    {
+        IndexReader reader = IndexReader.open(writer.getDirectory(), true);
+        try
+        {
+            for (int i = 0; i < items.length; i++)
+            {
+                assertEquals(name + " " + i, indexed[i] ? 1 : 0,
+                        reader.docFreq(new Term("handle", items[i].getHandle())));
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test that indexing in several threads indexes every item once, and
+     * removes the checkpoint when it completes
+     */
+    @Test
+    public void testThreaded() throws Exception
+    {
+        run(3, false);
+        assertIndexed("testThreaded 0", true, true, true, true, true);
+        assertFalse("testThreaded 1", checkpoint().exists());
+
+        // a second run replaces the documents rather than adding to them
+        run(2, false);
+        assertIndexed("testThreaded 2", true, true, true, true, true);
+    }
+
+    /**
+     * Test that resuming from a checkpoint indexes the items after it and
+     * retries the items which failed before it, even with a single thread
+     */
+    @Test
+    public void testResume() throws Exception
+    {
+        FileUtils.writeStringToFile(checkpoint(), items[1].getID() + "\n"
+                + items[0].getID() + "\n", "UTF-8");
+
+        run(1, true);
+        assertIndexed("testResume 0", true, false, true, true, true);
+        assertFalse("testResume 1", checkpoint().exists());
+    }
+
+    /**
+     * Test that an unreadable checkpoint starts the run from the beginning
+     */
+    @Test
+    public void testInvalidCheckpoint() throws Exception
+    {
+        FileUtils.writeStringToFile(checkpoint(), "not a number\n", "UTF-8");
+
+        run(2, true);
+        assertIndexed("testInvalidCheckpoint 0", true, true, true, true, true);
+        assertFalse("testInvalidCheckpoint 1", checkpoint().exists());
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Constants;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for the batch operations of class DatabaseManager. Unlike the
+ * rest of DatabaseManager, insertBatch is not replaced by
+ * MockDatabaseManager, so these tests run its ID allocation and JDBC
+ * batches against the test database.
+ */
+public class DatabaseManagerTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(DatabaseManagerTest.class);
+
+    private TableRow handleRow(String handle, int resourceId) throws SQLException
+    {
+        TableRow row = DatabaseManager.row("handle");
+        row.setColumn("handle", handle);
+        row.setColumn("resource_type_id", Constants.ITEM);
+        row.setColumn("resource_id", resourceId);
+        return row;
+    }
+
+    /**
+     * Test that insertBatch sets the primary keys and leaves the rows
+     * unchanged, so that a later update only writes the columns changed
+     * afterwards
+     */
+    @Test
+    public void testInsertBatchThenUpdate() throws SQLException
+    {
+        List<TableRow> rows = new ArrayList<TableRow>();
+        rows.add(handleRow("123456789/batch-1", 1001));
+        rows.add(handleRow("123456789/batch-2", 1002));
+
+        DatabaseManager.insertBatch(context, rows);
+
+        for (TableRow row : rows)
+        {
+            assertTrue("testInsertBatchThenUpdate 0", row.getIntColumn("handle_id") > 0);
+            assertFalse("testInsertBatchThenUpdate 1", row.hasColumnChanged("handle"));
+            assertFalse("testInsertBatchThenUpdate 2", row.hasColumnChanged("resource_id"));
+        }
+
+        TableRow second = rows.get(1);
+        second.setColumn("resource_id", 2002);
+        assertTrue("testInsertBatchThenUpdate 3", second.hasColumnChanged("resource_id"));
+        assertFalse("testInsertBatchThenUpdate 4", second.hasColumnChanged("handle"));
+        assertEquals("testInsertBatchThenUpdate 5", 1, DatabaseManager.update(context, second));
+
+        TableRow first = DatabaseManager.find(context, "handle", rows.get(0).getIntColumn("handle_id"));
+        assertEquals("testInsertBatchThenUpdate 6", "123456789/batch-1", first.getStringColumn("handle"));
+        assertEquals("testInsertBatchThenUpdate 7", 1001, first.getIntColumn("resource_id"));
+
+        TableRow found = DatabaseManager.find(context, "handle", second.getIntColumn("handle_id"));
+        assertEquals("testInsertBatchThenUpdate 8", "123456789/batch-2", found.getStringColumn("handle"));
+        assertEquals("testInsertBatchThenUpdate 9", 2002, found.getIntColumn("resource_id"));
+
+        context.abort();
+    }
+
+    /**
+     * Test that rows of several tables, and more rows than fit in one JDBC
+     * batch, are each inserted once with an ID of their own
+     */
+    @Test
+    public void testInsertBatchSeveralTables() throws SQLException
+    {
+        List<TableRow> handles = new ArrayList<TableRow>();
+        List<TableRow> groups = new ArrayList<TableRow>();
+        List<TableRow> rows = new ArrayList<TableRow>();
+        for (int i = 0; i < 501; i++)
+        {
+            TableRow handle = handleRow("123456789/several-" + i, 3000 + i);
+            handles.add(handle);
+            rows.add(handle);
+            if (i % 250 == 0)
+            {
+                TableRow group = DatabaseManager.row("epersongroup");
+                group.setColumn("name", "batch group " + i);
+                groups.add(group);
+                rows.add(group);
+            }
+        }
+
+        DatabaseManager.insertBatch(context, rows);
+
+        Set<Integer> ids = new HashSet<Integer>();
+        for (TableRow row : handles)
+        {
+            int id = row.getIntColumn("handle_id");
+            assertTrue("testInsertBatchSeveralTables 0", ids.add(Integer.valueOf(id)));
+
+            TableRow found = DatabaseManager.find(context, "handle", id);
+            assertEquals("testInsertBatchSeveralTables 1", row.getStringColumn("handle"),
+                    found.getStringColumn("handle"));
+        }
+
+        for (TableRow row : groups)
+        {
+            TableRow found = DatabaseManager.find(context, "epersongroup",
+                    row.getIntColumn("eperson_group_id"));
+            assertEquals("testInsertBatchSeveralTables 2", row.getStringColumn("name"),
+                    found.getStringColumn("name"));
+        }
+
+        context.abort();
+    }
+}
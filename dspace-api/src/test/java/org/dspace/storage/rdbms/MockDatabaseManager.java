@@ -7,6 +7,7 @@
  */
 package org.dspace.storage.rdbms;
 
+import mockit.Deencapsulation;
 import mockit.Mock;
 import mockit.MockClass;
 
@@ -39,6 +40,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.apache.commons.dbcp.ConnectionFactory;
@@ -53,6 +55,7 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 import org.dspace.core.ConfigurationManager;
 import org.dspace.core.Context;
+import org.h2.tools.SimpleResultSet;
 
 /**
  * Mocks a DatabaseManager so unit tests can be run without a real DB connection
@@ -124,11 +127,60 @@ public class MockDatabaseManager
     }
 
     /**
-     * Static initializer
+     * Static initializer. The fields used by the methods of DatabaseManager
+     * which are not mocked (insertBatch) are set up as in the real one.
      */
     @Mock
     public void $clinit()
     {
+        Deencapsulation.setField(DatabaseManager.class, "log", Logger.getLogger(DatabaseManager.class));
+        Deencapsulation.setField(DatabaseManager.class, "tableInfo", new ConcurrentHashMap<String, Object>());
+    }
+
+    /**
+     * The H2 equivalent of the PostgreSQL function getnextid(table), which
+     * database_schema.sql declares as an alias.
+     *
+     * @param connection
+     *            the connection of the calling query
+     * @param table
+     *            the table to allocate an ID for
+     * @return the next value of the table's sequence
+     */
+    public static int getnextid(Connection connection, String table) throws SQLException
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            ResultSet rs = statement.executeQuery("SELECT NEXTVAL('" + table + "_seq')");
+            rs.next();
+            return rs.getInt(1);
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    /**
+     * The H2 equivalent of the PostgreSQL function generate_series(start,
+     * stop), which database_schema.sql declares as an alias.
+     *
+     * @param start
+     *            the first value
+     * @param stop
+     *            the last value
+     * @return a table of the values from start to stop
+     */
+    public static ResultSet generateSeries(int start, int stop)
+    {
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("generate_series", Types.INTEGER, 10, 0);
+        for (int i = start; i <= stop; i++)
+        {
+            rs.addRow(new Object[] { Integer.valueOf(i) });
+        }
+        return rs;
     }
 
     /**
@@ -318,6 +370,49 @@ public class MockDatabaseManager
         }
     }
 
+    /**
+     * Return an iterator with the results of the query. The H2 test database
+     * has no separate connection to stream from, so this uses the context's
+     * connection, like <code>queryTable</code>.
+     *
+     * @param context
+     *            The context object
+     * @param table
+     *            The name of the table which results
+     * @param query
+     *            The SQL query
+     * @param parameters
+     *            A set of SQL parameters to be included in query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    public static TableRowIterator queryTableStreaming(Context context, String table, String query, Object... parameters) throws SQLException
+    {
+        return queryTable(context, table, query, parameters);
+    }
+
+    /**
+     * Return an iterator with the results of the query, using the context's
+     * connection, like <code>query</code>.
+     *
+     * @param context
+     *            The context object
+     * @param query
+     *            The SQL query
+     * @param parameters
+     *            A set of SQL parameters to be included in query.
+     * @return A TableRowIterator with the results of the query
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    public static TableRowIterator queryStreaming(Context context, String query, Object... parameters) throws SQLException
+    {
+        return query(context, query, parameters);
+    }
+
     /**
      * Return the single row result to this query, or null if no result. If more
      * than one row results, only the first is returned.
@@ -449,6 +544,56 @@ public class MockDatabaseManager
         }
     }
 
+    /**
+     * Execute an update, insert or delete query once for each set of
+     * parameters, sending the statements to the database in one batch.
+     *
+     * @param context
+     *            Current DSpace context
+     * @param query
+     *            The SQL query to execute
+     * @param parameters
+     *            One set of SQL parameters for each execution of the query.
+     * @return The number of rows affected by each execution of the query.
+     * @exception SQLException
+     *                If a database error occurs
+     */
+    @Mock
+    public static int[] updateQueryBatch(Context context, String query, List<Object[]> parameters) throws SQLException
+    {
+        if (parameters.isEmpty())
+        {
+            return new int[0];
+        }
+
+        PreparedStatement statement = null;
+
+        try
+        {
+            statement = context.getDBConnection().prepareStatement(query);
+            for (Object[] params : parameters)
+            {
+                loadParameters(statement, params);
+                statement.addBatch();
+            }
+
+            return statement.executeBatch();
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqle)
+                {
+                }
+            }
+        }
+    }
+
     /**
      * Create a new row in the given table, and assigns a unique id.
      *
@@ -1412,7 +1557,9 @@ public class MockDatabaseManager
     }
 
     /**
-     * Return metadata about a table.
+     * Return metadata about a table. (Not a mock: DatabaseManager now keeps
+     * this information in TableInfo objects, but the mocked methods above
+     * still use this map.)
      *
      * @param table
      *            The name of the table
@@ -1420,7 +1567,6 @@ public class MockDatabaseManager
      * @exception SQLException
      *                If a database error occurs
      */
-    @Mock
     private static Map<String, ColumnInfo> getColumnInfoInternal(String table) throws SQLException
     {
         String ctable = canonicalize(table);
@@ -1449,7 +1595,7 @@ public class MockDatabaseManager
      *                RDBMS.
      */
     @Mock
-    private static Map<String, ColumnInfo> retrieveColumnInfo(String table) throws SQLException
+    static Map<String, ColumnInfo> retrieveColumnInfo(String table) throws SQLException
     {
         Connection connection = null;
         ResultSet pkcolumns = null;
@@ -1805,7 +1951,7 @@ public class MockDatabaseManager
     }
 
     @Mock
-    private static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
+    static void loadParameters(PreparedStatement statement, Collection<ColumnInfo> columns, TableRow row) throws SQLException
     {
         int count = 0;
         for (ColumnInfo info : columns)
@@ -0,0 +1,192 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.storage.rdbms;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.dspace.AbstractUnitTest;
+import org.dspace.core.Context;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for class TableRowCache
+ */
+public class TableRowCacheTest extends AbstractUnitTest
+{
+    /** log4j category */
+    private static final Logger log = Logger.getLogger(TableRowCacheTest.class);
+
+    /** The table used by the tests, which is cached by default */
+    private static final String TABLE = DatabaseManager.canonicalize("community");
+
+    /** A table which is also cached */
+    private static final String OTHER_TABLE = DatabaseManager.canonicalize("collection");
+
+    /**
+     * A second Context, standing for another request reading the rows
+     */
+    private Context other;
+
+    /**
+     * This method will be run before every test as per @Before. It will
+     * initialize resources required for the tests.
+     *
+     * Other methods can be annotated with @Before here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @Before
+    @Override
+    public void init()
+    {
+        super.init();
+        try
+        {
+            TableRowCache.clear();
+            other = new Context();
+        }
+        catch (SQLException ex)
+        {
+            log.error("SQL Error in init", ex);
+            fail("SQL Error in init: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This method will be run after every test as per @After. It will
+     * clean resources initialized by the @Before methods.
+     *
+     * Other methods can be annotated with @After here or in subclasses
+     * but no execution order is guaranteed
+     */
+    @After
+    @Override
+    public void destroy()
+    {
+        if (other != null && other.isValid())
+        {
+            other.abort();
+        }
+        other = null;
+        TableRowCache.clear();
+        super.destroy();
+    }
+
+    private static TableRow row(int id, String name)
+    {
+        TableRow row = new TableRow(TABLE, Arrays.asList("community_id", "name"));
+        row.setColumn("community_id", id);
+        row.setColumn("name", name);
+        return row;
+    }
+
+    /**
+     * Test that a cached row is returned as a copy which can be changed
+     * without affecting the cache
+     */
+    @Test
+    public void testGetReturnsCopy()
+    {
+        assertTrue("testGetReturnsCopy 0", TableRowCache.isCached(TABLE));
+
+        TableRowCache.put(other, TABLE, 1, row(1, "one"), TableRowCache.getGeneration());
+        TableRow cached = TableRowCache.get(TABLE, 1);
+        assertNotNull("testGetReturnsCopy 1", cached);
+        cached.setColumn("name", "changed");
+
+        assertEquals("testGetReturnsCopy 2", "one",
+                TableRowCache.get(TABLE, 1).getStringColumn("name"));
+    }
+
+    /**
+     * Test that a Context does not cache a row it has written until its
+     * transaction ends
+     */
+    @Test
+    public void testWriterDoesNotCache() throws SQLException
+    {
+        TableRowCache.invalidate(context, TABLE, 2);
+        TableRowCache.put(context, TABLE, 2, row(2, "uncommitted"), TableRowCache.getGeneration());
+        assertNull("testWriterDoesNotCache 0", TableRowCache.get(TABLE, 2));
+
+        context.commit();
+        TableRowCache.put(context, TABLE, 2, row(2, "committed"), TableRowCache.getGeneration());
+        assertEquals("testWriterDoesNotCache 1", "committed",
+                TableRowCache.get(TABLE, 2).getStringColumn("name"));
+    }
+
+    /**
+     * Test that a row cached by another Context while the writing Context's
+     * transaction was open is invalidated when that transaction commits
+     */
+    @Test
+    public void testCommitInvalidatesOtherContexts() throws SQLException
+    {
+        TableRowCache.invalidate(context, TABLE, 3);
+
+        // another Context reads the previously committed row
+        TableRowCache.put(other, TABLE, 3, row(3, "old"), TableRowCache.getGeneration());
+        assertNotNull("testCommitInvalidatesOtherContexts 0", TableRowCache.get(TABLE, 3));
+
+        context.commit();
+        assertNull("testCommitInvalidatesOtherContexts 1", TableRowCache.get(TABLE, 3));
+    }
+
+    /**
+     * Test that a row read before a commit is not cached after the commit
+     */
+    @Test
+    public void testStaleReadNotCached() throws SQLException
+    {
+        TableRowCache.invalidate(context, TABLE, 4);
+        long readGeneration = TableRowCache.getGeneration();
+
+        context.commit();
+        TableRowCache.put(other, TABLE, 4, row(4, "old"), readGeneration);
+        assertNull("testStaleReadNotCached 0", TableRowCache.get(TABLE, 4));
+    }
+
+    /**
+     * Test that the rows written by an aborted transaction are invalidated
+     */
+    @Test
+    public void testAbortInvalidates()
+    {
+        TableRowCache.invalidate(context, TABLE, 5);
+        TableRowCache.put(other, TABLE, 5, row(5, "old"), TableRowCache.getGeneration());
+
+        context.abort();
+        assertNull("testAbortInvalidates 0", TableRowCache.get(TABLE, 5));
+    }
+
+    /**
+     * Test that an SQL write to a table removes all of its rows, and that the
+     * writing Context caches none of them until its transaction ends
+     */
+    @Test
+    public void testInvalidateTable() throws SQLException
+    {
+        TableRowCache.put(other, TABLE, 6, row(6, "six"), TableRowCache.getGeneration());
+        TableRowCache.put(other, TABLE, 7, row(7, "seven"), TableRowCache.getGeneration());
+        TableRowCache.put(other, OTHER_TABLE, 6, row(6, "collection"), TableRowCache.getGeneration());
+
+        TableRowCache.invalidateTable(context, TABLE);
+        assertNull("testInvalidateTable 0", TableRowCache.get(TABLE, 6));
+        assertNull("testInvalidateTable 1", TableRowCache.get(TABLE, 7));
+        assertNotNull("testInvalidateTable 2", TableRowCache.get(OTHER_TABLE, 6));
+
+        TableRowCache.put(context, TABLE, 6, row(6, "uncommitted"), TableRowCache.getGeneration());
+        assertNull("testInvalidateTable 3", TableRowCache.get(TABLE, 6));
+
+        context.commit();
+        TableRowCache.put(context, TABLE, 6, row(6, "committed"), TableRowCache.getGeneration());
+        assertNotNull("testInvalidateTable 4", TableRowCache.get(TABLE, 6));
+    }
+}
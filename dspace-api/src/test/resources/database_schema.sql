@@ -77,6 +77,11 @@
 -- CREATE FUNCTION getnextid(VARCHAR(40)) RETURNS INTEGER AS
 --    'SELECT CAST (nextval($1 || ''_seq'') AS INTEGER) AS RESULT;' LANGUAGE SQL;
 
+-- The H2 equivalents, with PostgreSQL's generate_series, which
+-- DatabaseManager.insertBatch uses to allocate several IDs at once
+CREATE ALIAS getnextid FOR "org.dspace.storage.rdbms.MockDatabaseManager.getnextid";
+CREATE ALIAS generate_series FOR "org.dspace.storage.rdbms.MockDatabaseManager.generateSeries";
+
 
 -------------------------------------------------------
 -- Sequences for creating new IDs (primary keys) for
@@ -667,6 +672,8 @@ CREATE INDEX mrc_result_fk_idx ON most_recent_checksum( result );
 -- A row will be inserted into this table every
 -- time a checksum is re-calculated.
 
+CREATE SEQUENCE checksum_history_seq;
+
 CREATE TABLE checksum_history
 (
     check_id BIGINT PRIMARY KEY,
@@ -26,6 +26,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -306,13 +307,15 @@ public class ItemMapServlet extends DSpaceServlet
                         idslist.add(Integer.valueOf(itr.nextID()));
                     }
 
+                    // only put on list if you can read item
+                    BitSet readable = AuthorizeManager.authorizeActionBoolean(context,
+                            browseItems, Constants.READ);
                     for (int i = 0; i < browseItems.length; i++)
                     {
                         // only if it isn't already in this collection
                         if (!idslist.contains(Integer.valueOf(browseItems[i].getID())))
                         {
-                            // only put on list if you can read item
-                            if (AuthorizeManager.authorizeActionBoolean(context, browseItems[i], Constants.READ))
+                            if (readable.get(i))
                             {
                                 items.put(Integer.valueOf(browseItems[i].getID()), browseItems[i]);
                             }
@@ -62,6 +62,12 @@ public class DSpaceOAICatalog extends AbstractCatalog
     /** Prefix that all our OAI identifiers have */
     public static final String OAI_ID_PREFIX = "oai:" + ConfigurationManager.getProperty("dspace.hostname") + ":";
 
+    /**
+     * First field of our resumption tokens. Tokens made before harvests were
+     * resumed by item ID held an offset instead, and do not start with it.
+     */
+    private static final String RESUMPTION_TOKEN_VERSION = "id";
+
     /** Maximum number of records returned by one request */
     private final int MAX_RECORDS = ConfigurationManager.getIntProperty("oai","response.max-records", 100);
 
@@ -491,7 +497,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
          * that's OK.
          */
         Object[] params = decodeResumptionToken(resumptionToken);
-        Integer offset = (Integer) params[4];
+        Integer lastID = (Integer) params[4];
 
         Map m = null;
 
@@ -503,7 +509,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
         try
         {
             m = doRecordHarvest((String) params[0], (String) params[1],
-                    (String) params[2], (String) params[3], offset.intValue());
+                    (String) params[2], (String) params[3], lastID.intValue());
         }
         catch (BadArgumentException bae)
         {
@@ -532,14 +538,15 @@ public class DSpaceOAICatalog extends AbstractCatalog
      *            OAI 'set' parameter
      * @param metadataPrefix
      *            OAI 'metadataPrefix' parameter
-     * @param offset
-     *            where to start this harvest
+     * @param lastID
+     *            the item ID of the last record of the previous harvest, or 0
+     *            to start at the beginning
      * 
      * @return the Map for listRecords to return, or null if the metadataPrefix
      *         is invalid
      */
     private Map doRecordHarvest(String from, String until, String set,
-            String metadataPrefix, int offset) throws OAIInternalServerError,
+            String metadataPrefix, int lastID) throws OAIInternalServerError,
             BadArgumentException
     {
         Context context = null;
@@ -561,8 +568,8 @@ public class DSpaceOAICatalog extends AbstractCatalog
             // Get the relevant HarvestedItemInfo objects to make headers
             DSpaceObject scope = resolveSet(context, set);
             boolean includeAll = ConfigurationManager.getBooleanProperty("oai", "harvest.includerestricted.oai", true);
-            List<HarvestedItemInfo> itemInfos = Harvest.harvest(context, scope, from, until,
-                    offset, MAX_RECORDS, // Limit amount returned from one
+            List<HarvestedItemInfo> itemInfos = Harvest.harvestAfter(context, scope, from, until,
+                    lastID, MAX_RECORDS, // Limit amount returned from one
                                          // request
                     true, true, true, includeAll); // Need items, containers + withdrawals
 
@@ -600,11 +607,11 @@ public class DSpaceOAICatalog extends AbstractCatalog
             log.info(LogManager.getHeader(context, "oai_harvest", "results=" + records.size() + ", ignore=" + ignore));
 
             // If we have MAX_RECORDS records, we need to provide a resumption
-            // token
-            if ((records.size() + ignore) >= MAX_RECORDS)
+            // token, which resumes the harvest after the last item returned
+            if (itemInfos.size() >= MAX_RECORDS)
             {
                 String resumptionToken = makeResumptionToken(from, until, set,
-                        metadataPrefix, offset + MAX_RECORDS);
+                        metadataPrefix, itemInfos.get(itemInfos.size() - 1).itemID);
 
                 if (log.isDebugEnabled())
                 {
@@ -815,7 +822,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
 
     /**
      * Create a resumption token. The relevant parameters for the harvest are
-     * put in a
+     * put in a slash-separated string, after a version field.
      * 
      * @param from
      *            OAI 'from' parameter
@@ -825,15 +832,17 @@ public class DSpaceOAICatalog extends AbstractCatalog
      *            OAI 'set' parameter
      * @param prefix
      *            OAI 'metadataPrefix' parameter
-     * @param offset
-     *            where to start the next harvest
+     * @param lastID
+     *            the item ID of the last record returned, after which the
+     *            next harvest starts
      * 
      * @return the appropriate resumption token
      */
     private String makeResumptionToken(String from, String until, String set,
-            String prefix, int offset)
+            String prefix, int lastID)
     {
-        StringBuffer token = new StringBuffer();
+        StringBuffer token = new StringBuffer(RESUMPTION_TOKEN_VERSION);
+        token.append("/");
 
         if (from != null)
         {
@@ -862,7 +871,7 @@ public class DSpaceOAICatalog extends AbstractCatalog
         }
 
         token.append("/");
-        token.append(String.valueOf(offset));
+        token.append(String.valueOf(lastID));
 
         return (token.toString());
     }
@@ -873,7 +882,10 @@ public class DSpaceOAICatalog extends AbstractCatalog
      * @param token
      *            the resumption token
      * @return a 5-long array of Objects; 4 Strings (from, until, set, prefix)
-     *         and an Integer (the offset)
+     *         and an Integer (the item ID of the last record returned)
+     * @exception BadResumptionTokenException
+     *                the token is invalid, or was made by an older version
+     *                which resumed harvests by offset
      */
     private Object[] decodeResumptionToken(String token)
             throws BadResumptionTokenException
@@ -883,6 +895,15 @@ public class DSpaceOAICatalog extends AbstractCatalog
 
         try
         {
+            // An offset-based token from an older version would be read as
+            // an item ID, silently returning the wrong records
+            if (!RESUMPTION_TOKEN_VERSION.equals(st.nextToken()) || !"/".equals(st.nextToken()))
+            {
+                log.info(LogManager.getHeader(null, "oai_error",
+                        "unsupported_resumption_token"));
+                throw new BadResumptionTokenException();
+            }
+
             // Extract from, until, set, prefix
             for (int i = 0; i < 4; i++)
             {
@@ -149,7 +149,9 @@ public class SolrLogger
     }
 
     /**
-     * Store a usage event into Solr.
+     * Store a usage event into Solr. If the usage event queue is running, the
+     * event is queued and stored in the background (see
+     * <code>SolrLoggerQueue</code>).
      * 
      * @param dspaceObject the object used.
      * @param request the current request context.
@@ -163,136 +165,174 @@ public class SolrLogger
             return;
         }
 
-        boolean isSpiderBot = SpiderDetector.isSpider(request);
+        UsageRecord record = new UsageRecord(dspaceObject, request, currentUser);
+
+        if (SolrLoggerQueue.post(record))
+        {
+            return;
+        }
 
         try
         {
-            if(isSpiderBot &&
-                    !ConfigurationManager.getBooleanProperty("solr-statistics", "logBots",true))
+            SolrInputDocument doc1 = makeDocument(dspaceObject, record);
+            if (doc1 != null)
             {
-                return;
+                solr.add(doc1);
+                //commits are executed automatically using the solr autocommit
+//                solr.commit(false, false);
             }
+        }
+        catch (RuntimeException re)
+        {
+            throw re;
+        }
+        catch (Exception e)
+        {
+        	log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Build the Solr document for a usage event.
+     *
+     * @param dspaceObject the object used.
+     * @param record the details of the event.
+     * @return the document, or null if the event should not be logged
+     * @throws SQLException
+     */
+    static SolrInputDocument makeDocument(DSpaceObject dspaceObject, UsageRecord record)
+            throws SQLException
+    {
+        String forwardedFor = isUseProxies() ? record.getForwardedFor() : null;
+
+        boolean isSpiderBot = SpiderDetector.isSpider(record.getRemoteAddr(), forwardedFor);
 
+        if(isSpiderBot &&
+                !ConfigurationManager.getBooleanProperty("solr-statistics", "logBots",true))
+        {
+            return null;
+        }
 
-                        
-            SolrInputDocument doc1 = new SolrInputDocument();
-            // Save our basic info that we already have
+        SolrInputDocument doc1 = new SolrInputDocument();
+        // Save our basic info that we already have
 
-            String ip = request.getRemoteAddr();
+        String ip = record.getRemoteAddr();
 
-	        if(isUseProxies() && request.getHeader("X-Forwarded-For") != null)
+        if(forwardedFor != null)
+        {
+            /* This header is a comma delimited list */
+            for(String xfip : forwardedFor.split(","))
             {
-                /* This header is a comma delimited list */
-	            for(String xfip : request.getHeader("X-Forwarded-For").split(","))
+                /* proxy itself will sometime populate this header with the same value in
+                    remote address. ordering in spec is vague, we'll just take the last
+                    not equal to the proxy
+                */
+                if(!forwardedFor.contains(ip))
                 {
-                    /* proxy itself will sometime populate this header with the same value in
-                        remote address. ordering in spec is vague, we'll just take the last
-                        not equal to the proxy
-                    */
-                    if(!request.getHeader("X-Forwarded-For").contains(ip))
-                    {
-                        ip = xfip.trim();
-                    }
+                    ip = xfip.trim();
                 }
-	        }
-
-            doc1.addField("ip", ip);
-                        
-            doc1.addField("id", dspaceObject.getID());
-            doc1.addField("type", dspaceObject.getType());
-            // Save the current time
-            doc1.addField("time", DateFormatUtils.format(new Date(), DATE_FORMAT_8601));
-            if (currentUser != null)
-            {
-                doc1.addField("epersonid", currentUser.getID());
             }
+        }
+
+        doc1.addField("ip", ip);
+
+        doc1.addField("id", dspaceObject.getID());
+        doc1.addField("type", dspaceObject.getType());
+        // Save the time of the event
+        doc1.addField("time", DateFormatUtils.format(new Date(record.getTime()), DATE_FORMAT_8601));
+        if (record.getEPersonID() != -1)
+        {
+            doc1.addField("epersonid", record.getEPersonID());
+        }
+
+        try
+        {
+            String dns = DnsLookup.reverseDns(ip);
+            doc1.addField("dns", dns.toLowerCase());
+        }
+        catch (Exception e)
+        {
+            log.error("Failed DNS Lookup for IP:" + ip);
+            log.debug(e.getMessage(),e);
+        }
 
+        // Save the location information if valid, save the event without
+        // location information if not valid
+        Location location = locationService.getLocation(ip);
+        if (location != null
+                && !("--".equals(location.countryCode)
+                        && location.latitude == -180 && location.longitude == -180))
+        {
             try
             {
-            	String dns = DnsLookup.reverseDns(ip);
-                doc1.addField("dns", dns.toLowerCase());
+                doc1.addField("continent", LocationUtils
+                        .getContinentCode(location.countryCode));
             }
             catch (Exception e)
             {
-    			log.error("Failed DNS Lookup for IP:" + ip);
-                log.debug(e.getMessage(),e);
-    		}
-            
-            // Save the location information if valid, save the event without
-            // location information if not valid
-            Location location = locationService.getLocation(ip);
-            if (location != null
-                    && !("--".equals(location.countryCode)
-                            && location.latitude == -180 && location.longitude == -180))
-            {
-                try
-                {
-                    doc1.addField("continent", LocationUtils
-                            .getContinentCode(location.countryCode));
-                }
-                catch (Exception e)
-                {
-                    System.out
-                            .println("COUNTRY ERROR: " + location.countryCode);
-                }
-                doc1.addField("countryCode", location.countryCode);
-                doc1.addField("city", location.city);
-                doc1.addField("latitude", location.latitude);
-                doc1.addField("longitude", location.longitude);
-                doc1.addField("isBot",isSpiderBot);
-
-                if(request.getHeader("User-Agent") != null)
-                {
-                    doc1.addField("userAgent", request.getHeader("User-Agent"));
-                }
+                System.out
+                        .println("COUNTRY ERROR: " + location.countryCode);
             }
-            
-            if (dspaceObject instanceof Item)
-            {
-                Item item = (Item) dspaceObject;
-                // Store the metadata
-                for (Object storedField : metadataStorageInfo.keySet())
-                {
-                    String dcField = metadataStorageInfo
-                            .get(storedField);
+            doc1.addField("countryCode", location.countryCode);
+            doc1.addField("city", location.city);
+            doc1.addField("latitude", location.latitude);
+            doc1.addField("longitude", location.longitude);
+            doc1.addField("isBot",isSpiderBot);
 
-                    DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
-                            dcField.split("\\.")[1], dcField.split("\\.")[2],
-                            Item.ANY);
-                    for (DCValue val1 : vals)
-                    {
-                        String val = val1.value;
-                        doc1.addField(String.valueOf(storedField), val);
-                        doc1.addField(storedField + "_search", val
-                                .toLowerCase());
-                    }
-                }
+            if(record.getUserAgent() != null)
+            {
+                doc1.addField("userAgent", record.getUserAgent());
             }
+        }
 
-            if(dspaceObject instanceof Bitstream)
+        if (dspaceObject instanceof Item)
+        {
+            Item item = (Item) dspaceObject;
+            // Store the metadata
+            for (Object storedField : metadataStorageInfo.keySet())
             {
-                Bitstream bit = (Bitstream) dspaceObject;
-                Bundle[] bundles = bit.getBundles();
-                for (Bundle bundle : bundles) {
-                    doc1.addField("bundleName", bundle.getName());
+                String dcField = metadataStorageInfo
+                        .get(storedField);
+
+                DCValue[] vals = item.getMetadata(dcField.split("\\.")[0],
+                        dcField.split("\\.")[1], dcField.split("\\.")[2],
+                        Item.ANY);
+                for (DCValue val1 : vals)
+                {
+                    String val = val1.value;
+                    doc1.addField(String.valueOf(storedField), val);
+                    doc1.addField(storedField + "_search", val
+                            .toLowerCase());
                 }
             }
-
-            storeParents(doc1, dspaceObject);
-
-            solr.add(doc1);
-            //commits are executed automatically using the solr autocommit
-//            solr.commit(false, false);
-   
-        }
-        catch (RuntimeException re)
-        {
-            throw re;
         }
-        catch (Exception e)
+
+        if(dspaceObject instanceof Bitstream)
         {
-        	log.error(e.getMessage(), e);
+            Bitstream bit = (Bitstream) dspaceObject;
+            Bundle[] bundles = bit.getBundles();
+            for (Bundle bundle : bundles) {
+                doc1.addField("bundleName", bundle.getName());
+            }
         }
+
+        storeParents(doc1, dspaceObject);
+
+        return doc1;
+    }
+
+    /**
+     * Send a batch of usage event documents to Solr.
+     *
+     * @param docs the documents.
+     * @throws IOException
+     * @throws SolrServerException
+     */
+    static void add(java.util.Collection<SolrInputDocument> docs) throws IOException,
+            SolrServerException
+    {
+        //commits are executed automatically using the solr autocommit
+        solr.add(docs);
     }
 
     public static Map<String, String> getMetadataStorageInfo()
@@ -478,35 +518,85 @@ public class SolrLogger
     }
 
 
+    /**
+     * Mark every usage event from a spider IP address as a bot. The distinct
+     * addresses in the statistics core are checked against the spider table,
+     * rather than querying for each entry in the spider lists.
+     */
     public static void markRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
+        try {
+            for(String ip : findSpiderIPs("-isBot:true")){
+
+                try {
+
+                    /* Result Process to alter record to be identified as a bot */
+                    ResultProcessor processor = new ResultProcessor(){
+                        public void process(SolrDocument doc) throws IOException, SolrServerException {
+                            doc.removeFields("isBot");
+                            doc.addField("isBot", true);
+                            SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
+                            solr.add(newInput);
+                            log.info("Marked " + doc.getFieldValue("ip") + " as bot");
+                        }
+                    };
 
-            try {
+                    /* query for ip, exclude results previously set as bots. */
+                    processor.execute("ip:" + ClientUtils.escapeQueryChars(ip) + " AND -isBot:true");
 
-                /* Result Process to alter record to be identified as a bot */
-                ResultProcessor processor = new ResultProcessor(){
-                    public void process(SolrDocument doc) throws IOException, SolrServerException {
-                        doc.removeFields("isBot");
-                        doc.addField("isBot", true);
-                        SolrInputDocument newInput = ClientUtils.toSolrInputDocument(doc);
-                        solr.add(newInput);
-                        log.info("Marked " + doc.getFieldValue("ip") + " as bot");
-                    }
-                };
+                    solr.commit();
 
-                /* query for ip, exclude results previously set as bots. */
-                processor.execute("ip:"+ip+ "* AND -isBot:true");
+                } catch (Exception e) {
+                    log.error(e.getMessage(),e);
+                }
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(),e);
+        }
 
-                solr.commit();
+    }
 
-            } catch (Exception e) {
-                log.error(e.getMessage(),e);
+    /**
+     * Find the distinct IP addresses of the usage events matching a query
+     * which are in the spider table.
+     *
+     * @param query the query
+     * @return the spider addresses
+     * @throws SolrServerException
+     */
+    private static List<String> findSpiderIPs(String query) throws SolrServerException
+    {
+        final int pageSize = 10000;
+        List<String> spiderIPs = new ArrayList<String>();
+
+        for (int offset = 0; ; offset += pageSize)
+        {
+            SolrQuery solrQuery = new SolrQuery().setQuery(query).setRows(0)
+                    .setFacet(true).addFacetField("ip").setFacetMinCount(1)
+                    .setFacetLimit(pageSize).setFacetSort("index");
+            solrQuery.setParam("facet.offset", String.valueOf(offset));
+
+            FacetField ips = solr.query(solrQuery).getFacetField("ip");
+            if (ips == null || ips.getValues() == null)
+            {
+                break;
             }
 
+            for (FacetField.Count ip : ips.getValues())
+            {
+                if (SpiderDetector.isSpider(ip.getName()))
+                {
+                    spiderIPs.add(ip.getName());
+                }
+            }
 
+            if (ips.getValues().size() < pageSize)
+            {
+                break;
+            }
         }
 
+        return spiderIPs;
     }
 
     public static void markRobotByUserAgent(String agent){
@@ -552,8 +642,12 @@ public class SolrLogger
 
     public static void deleteRobotsByIP()
     {
-        for(String ip : SpiderDetector.getSpiderIpAddresses()){
-            deleteIP(ip);
+        try {
+            for(String ip : findSpiderIPs("*:*")){
+                solr.deleteByQuery("ip:" + ClientUtils.escapeQueryChars(ip));
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(),e);
         }
     }
 
@@ -953,21 +1047,21 @@ public class SolrLogger
     private static String filterQuery = null;
 
     /**
-     * Returns in a filterQuery string all the ip addresses that should be ignored
+     * Returns in a filterQuery string all the ip addresses that should be ignored.
+     * Ranges are matched as prefix queries on the leading places of the
+     * address, and every address is escaped, so that IPv6 addresses do not
+     * break the query.
      *
      * @return a string query with ip addresses
      */
     public static String getIgnoreSpiderIPs() {
         if (filterQuery == null) {
-            StringBuilder query = new StringBuilder();
-            boolean first = true;
-            for (String ip : SpiderDetector.getSpiderIpAddresses()) {
-                if (first) {
-                    query.append(" AND ");
-                    first = false;
+            StringBuilder query = new StringBuilder("*:*");
+            for (String ip : SpiderDetector.getSpiderIpPrefixes()) {
+                query.append(" -ip:").append(ClientUtils.escapeQueryChars(ip));
+                if (ip.endsWith(".") || ip.endsWith(":") || ip.length() == 0) {
+                    query.append("*");
                 }
-
-                query.append(" NOT(ip: ").append(ip).append(")");
             }
             filterQuery = query.toString();
         }
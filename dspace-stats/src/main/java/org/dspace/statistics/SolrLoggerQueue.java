@@ -0,0 +1,808 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.dspace.content.DSpaceObject;
+import org.dspace.core.ConfigurationManager;
+import org.dspace.core.Context;
+
+/**
+ * Bounded in-memory queue of usage events waiting to be stored in Solr.
+ * <P>
+ * When the queue is running, <code>SolrLogger.post()</code> only records what
+ * it needs from the request and queues it, so that page views and downloads
+ * do not wait for spider detection, GeoIP and reverse DNS lookups, walking the
+ * object's parents in the database, or the statistics core. A pool of worker
+ * threads takes events from the queue, builds the Solr documents (each batch
+ * with its own Context), and sends them to Solr in batches. Events for
+ * objects which have been deleted by the time a worker reaches them are
+ * counted as stale and discarded.
+ * <P>
+ * The queue is started and stopped by <code>SolrLoggerQueueListener</code>,
+ * which a web application must declare in its web.xml after the
+ * <code>DSpaceContextListener</code>. Until then, and in command line tools,
+ * events are stored synchronously.
+ * <P>
+ * When the queue is full, <code>post()</code> waits up to
+ * <code>queue.wait</code> milliseconds for space. If there is still no space,
+ * the event is either dropped, or appended to a spill file which the workers
+ * replay once the queue has emptied (<code>queue.overflow = spill</code>).
+ * Events still queued when the queue is stopped are also spilled. A replay
+ * interrupted by stopping the queue, or by a failure to store its events,
+ * leaves the events not yet stored in the replay file, which is replayed
+ * first the next time.
+ * <P>
+ * Settings, in solr-statistics.cfg:
+ * <ul>
+ * <li><code>queue.size</code> - maximum number of queued events; 0 to store
+ * events synchronously (default 0)</li>
+ * <li><code>queue.threads</code> - number of worker threads (default 2)</li>
+ * <li><code>queue.batch.size</code> - events sent to Solr at once (default
+ * 100)</li>
+ * <li><code>queue.wait</code> - milliseconds to wait for space in a full queue
+ * (default 50)</li>
+ * <li><code>queue.overflow</code> - <code>drop</code> or <code>spill</code>
+ * (default drop)</li>
+ * <li><code>queue.spill.file</code> - the spill file (default
+ * [dspace.dir]/log/solr-statistics.spill)</li>
+ * </ul>
+ *
+ * @version $Revision$
+ */
+public class SolrLoggerQueue
+{
+    private static final Logger log = Logger.getLogger(SolrLoggerQueue.class);
+
+    /** How long an idle worker waits for events before checking for spilled ones */
+    static final long IDLE_WAIT = 1000;
+
+    /** How long to wait before replaying again after a replay failed */
+    static final long REPLAY_RETRY_WAIT = 60000;
+
+    /** How long <code>stop()</code> waits for each worker to finish its batch */
+    private static final long STOP_WAIT = 10000;
+
+    /** Separates the fields of a spilled event */
+    private static final char SEPARATOR = '\t';
+
+    /** The running queue, or null if events are stored synchronously */
+    private static volatile SolrLoggerQueue instance = null;
+
+    private final BlockingQueue<UsageRecord> queue;
+
+    private final int threads;
+
+    private final int batchSize;
+
+    private final long wait;
+
+    private final boolean spill;
+
+    private final File spillFile;
+
+    /** The worker threads, once started */
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    /** Cleared to make the workers exit */
+    private volatile boolean running = true;
+
+    /** Guards the spill file */
+    private final Object spillLock = new Object();
+
+    /** Open spill file, guarded by spillLock */
+    private PrintWriter spillWriter = null;
+
+    /** Events being replayed, guarded by spillLock */
+    private final File replayFile;
+
+    /** True while a worker is replaying, guarded by spillLock */
+    private boolean replaying = false;
+
+    /** Time before which not to replay, guarded by spillLock */
+    private long nextReplay = 0;
+
+    /** Counters */
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Constructor. The workers are not started until <code>startWorkers</code>
+     * is called.
+     *
+     * @param size
+     *            maximum number of queued events
+     * @param threads
+     *            number of worker threads
+     * @param batchSize
+     *            maximum number of events sent to Solr at once
+     * @param wait
+     *            milliseconds to wait for space in a full queue
+     * @param spill
+     *            true to spill events which do not fit to
+     *            <code>spillFile</code>, false to drop them
+     * @param spillFile
+     *            the spill file
+     */
+    SolrLoggerQueue(int size, int threads, int batchSize, long wait, boolean spill, File spillFile)
+    {
+        this.queue = new ArrayBlockingQueue<UsageRecord>(size);
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.wait = wait;
+        this.spill = spill;
+        this.spillFile = spillFile;
+        this.replayFile = new File(spillFile.getPath() + ".replay");
+    }
+
+    /**
+     * Start queueing usage events, if <code>queue.size</code> is set. Does
+     * nothing if the queue is already running.
+     */
+    public static synchronized void start()
+    {
+        if (instance != null)
+        {
+            return;
+        }
+
+        int size = ConfigurationManager.getIntProperty("solr-statistics", "queue.size", 0);
+        if (size <= 0)
+        {
+            return;
+        }
+
+        int threads = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "queue.threads", 2));
+        int batchSize = Math.max(1, ConfigurationManager.getIntProperty("solr-statistics", "queue.batch.size", 100));
+        long wait = Math.max(0, ConfigurationManager.getIntProperty("solr-statistics", "queue.wait", 50));
+        boolean spill = "spill".equalsIgnoreCase(ConfigurationManager.getProperty("solr-statistics", "queue.overflow"));
+
+        String spillPath = ConfigurationManager.getProperty("solr-statistics", "queue.spill.file");
+        if (spillPath == null)
+        {
+            spillPath = ConfigurationManager.getProperty("dspace.dir") + File.separator + "log"
+                    + File.separator + "solr-statistics.spill";
+        }
+
+        SolrLoggerQueue queue = new SolrLoggerQueue(size, threads, batchSize, wait, spill, new File(spillPath));
+        queue.startWorkers();
+        instance = queue;
+
+        log.info("Usage events queued: size=" + size + ", threads=" + threads + ", batch=" + batchSize
+                + ", overflow=" + (spill ? "spill to " + spillPath : "drop"));
+    }
+
+    /**
+     * Stop queueing usage events, waiting for the workers to finish the
+     * batches they are sending. Events still queued are spilled or dropped.
+     * Does nothing if the queue is not running.
+     */
+    public static synchronized void stop()
+    {
+        SolrLoggerQueue queue = instance;
+        instance = null;
+
+        if (queue != null)
+        {
+            queue.shutdown();
+        }
+    }
+
+    /**
+     * Queue an event, if the queue is running.
+     *
+     * @param record
+     *            the event
+     * @return true if the event was queued, spilled or dropped; false if the
+     *         queue is not running, and the caller must store the event
+     */
+    static boolean post(UsageRecord record)
+    {
+        SolrLoggerQueue queue = instance;
+        if (queue == null)
+        {
+            return false;
+        }
+
+        queue.offer(record);
+        return true;
+    }
+
+    /**
+     * @return the running queue, or null if events are stored synchronously
+     */
+    public static SolrLoggerQueue getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Start the worker threads.
+     */
+    void startWorkers()
+    {
+        synchronized (workers)
+        {
+            for (int i = 0; i < threads; i++)
+            {
+                Thread worker = new Thread(new Worker(), "SolrLoggerQueue-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+    }
+
+    /**
+     * Queue an event, waiting briefly for space if the queue is full. If
+     * there is no space the event is spilled or dropped.
+     *
+     * @param record
+     *            the event
+     */
+    void offer(UsageRecord record)
+    {
+        boolean added = false;
+        try
+        {
+            added = queue.offer(record, wait, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (added && !running && queue.remove(record))
+        {
+            // Queued after shutdown() drained the queue
+            added = false;
+        }
+
+        if (added)
+        {
+            queued.incrementAndGet();
+        }
+        else if (!spill || !spill(record))
+        {
+            if (dropped.incrementAndGet() % 1000 == 1)
+            {
+                log.warn("Usage event queue is full, events are being dropped (" + getDropped()
+                        + " dropped so far)");
+            }
+        }
+    }
+
+    /**
+     * @return the number of events waiting in the queue
+     */
+    public int getSize()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of events added to the queue
+     */
+    public long getQueued()
+    {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events written to the spill file
+     */
+    public long getSpilled()
+    {
+        return spilled.get();
+    }
+
+    /**
+     * @return the number of events sent to Solr
+     */
+    public long getSent()
+    {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of events discarded because their object had been
+     *         deleted before they were stored
+     */
+    public long getStale()
+    {
+        return stale.get();
+    }
+
+    /**
+     * @return the number of events which could not be sent to Solr
+     */
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Build the documents for a batch of events and send them to Solr.
+     *
+     * @param batch
+     *            the events
+     * @return the events which could not be stored, not counting stale ones
+     */
+    List<UsageRecord> store(List<UsageRecord> batch)
+    {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+        List<UsageRecord> docRecords = new ArrayList<UsageRecord>(batch.size());
+        List<UsageRecord> failures = new ArrayList<UsageRecord>();
+        int processed = 0;
+        Context context = null;
+        try
+        {
+            context = new Context();
+
+            for (UsageRecord record : batch)
+            {
+                processed++;
+                try
+                {
+                    DSpaceObject dso = DSpaceObject.find(context, record.getType(), record.getID());
+                    if (dso == null)
+                    {
+                        stale.incrementAndGet();
+                        continue;
+                    }
+
+                    SolrInputDocument doc = SolrLogger.makeDocument(dso, record);
+                    if (doc != null)
+                    {
+                        docs.add(doc);
+                        docRecords.add(record);
+                    }
+                }
+                catch (SQLException e)
+                {
+                    failed.incrementAndGet();
+                    failures.add(record);
+                    log.error("Unable to record usage of object type=" + record.getType()
+                            + ", id=" + record.getID(), e);
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            // Thrown creating the Context, before any event was processed
+            failed.addAndGet(batch.size() - processed);
+            failures.addAll(batch.subList(processed, batch.size()));
+            log.error("Unable to record usage events", e);
+        }
+        finally
+        {
+            if (context != null)
+            {
+                context.abort();
+            }
+        }
+
+        if (!docs.isEmpty())
+        {
+            try
+            {
+                SolrLogger.add(docs);
+                sent.addAndGet(docs.size());
+            }
+            catch (Exception e)
+            {
+                failed.addAndGet(docs.size());
+                failures.addAll(docRecords);
+                log.error("Unable to send " + docs.size() + " usage events to Solr", e);
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * Append an event to the spill file.
+     *
+     * @return true if the event was written
+     */
+    private boolean spill(UsageRecord record)
+    {
+        synchronized (spillLock)
+        {
+            try
+            {
+                if (spillWriter == null)
+                {
+                    spillWriter = new PrintWriter(new FileWriter(spillFile, true));
+                }
+
+                spillWriter.println(toLine(record));
+                spillWriter.flush();
+
+                if (spillWriter.checkError())
+                {
+                    throw new IOException("Error writing to " + spillFile);
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to spill usage event", e);
+                return false;
+            }
+        }
+
+        spilled.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Send any spilled events to Solr. Only called once the queue is empty,
+     * so the spilled events do not hold up newer ones.
+     * <P>
+     * The spill file is renamed to the replay file before it is read, so
+     * that events spilled meanwhile go to a new spill file. A replay file
+     * left by an earlier replay is resumed before the spill file is
+     * renamed. If the queue is stopped, or a batch of events cannot be
+     * stored, the replay stops, and the replay file is rewritten with the
+     * events not yet stored, to be replayed again later.
+     */
+    private void replaySpilled()
+    {
+        synchronized (spillLock)
+        {
+            if (replaying || System.currentTimeMillis() < nextReplay)
+            {
+                return;
+            }
+
+            if (!replayFile.exists())
+            {
+                if (!spillFile.exists())
+                {
+                    return;
+                }
+
+                if (spillWriter != null)
+                {
+                    spillWriter.close();
+                    spillWriter = null;
+                }
+
+                // Events spilled from now on go to a new file
+                if (!spillFile.renameTo(replayFile))
+                {
+                    log.warn("Unable to rename " + spillFile + " to " + replayFile);
+                    nextReplay = System.currentTimeMillis() + REPLAY_RETRY_WAIT;
+                    return;
+                }
+            }
+
+            replaying = true;
+        }
+
+        boolean finished = false;
+        try
+        {
+            finished = replay();
+        }
+        finally
+        {
+            synchronized (spillLock)
+            {
+                replaying = false;
+                if (!finished)
+                {
+                    nextReplay = System.currentTimeMillis() + REPLAY_RETRY_WAIT;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the events in the replay file to Solr, removing the file if they
+     * were all stored, or otherwise leaving just the events not stored.
+     *
+     * @return true if every event was stored
+     */
+    private boolean replay()
+    {
+        log.info("Replaying spilled usage events from " + replayFile);
+
+        List<UsageRecord> unstored = new ArrayList<UsageRecord>();
+        File remaining = new File(replayFile.getPath() + ".tmp");
+        BufferedReader in = null;
+        PrintWriter out = null;
+        try
+        {
+            in = new BufferedReader(new FileReader(replayFile));
+            List<UsageRecord> batch = new ArrayList<UsageRecord>(batchSize);
+
+            boolean eof = false;
+            while (running && unstored.isEmpty())
+            {
+                String line = in.readLine();
+                if (line == null)
+                {
+                    eof = true;
+                    break;
+                }
+
+                UsageRecord record = fromLine(line);
+                if (record == null)
+                {
+                    log.warn("Skipping invalid spilled usage event: " + line);
+                    continue;
+                }
+
+                batch.add(record);
+                if (batch.size() >= batchSize)
+                {
+                    unstored.addAll(store(batch));
+                    batch.clear();
+                }
+            }
+
+            if (eof)
+            {
+                if (!batch.isEmpty())
+                {
+                    unstored.addAll(store(batch));
+                }
+
+                if (unstored.isEmpty())
+                {
+                    in.close();
+                    in = null;
+                    if (!replayFile.delete())
+                    {
+                        log.warn("Unable to remove " + replayFile);
+                    }
+                    return true;
+                }
+            }
+            else
+            {
+                // Stopped before the batch was stored
+                unstored.addAll(batch);
+            }
+
+            // Keep the events not stored, and those not yet read
+            out = new PrintWriter(new FileWriter(remaining));
+            for (UsageRecord record : unstored)
+            {
+                out.println(toLine(record));
+            }
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                out.println(line);
+            }
+            out.close();
+            if (out.checkError())
+            {
+                throw new IOException("Error writing to " + remaining);
+            }
+            out = null;
+
+            in.close();
+            in = null;
+            if (!replayFile.delete() || !remaining.renameTo(replayFile))
+            {
+                throw new IOException("Unable to rename " + remaining + " to " + replayFile);
+            }
+
+            log.info("Stopped replaying spilled usage events, the rest are kept in " + replayFile);
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to replay spilled usage events from " + replayFile, e);
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+
+            if (out != null)
+            {
+                out.close();
+                remaining.delete();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Stop the workers, then spill whatever is left in the queue.
+     */
+    void shutdown()
+    {
+        running = false;
+
+        synchronized (workers)
+        {
+            for (Thread worker : workers)
+            {
+                try
+                {
+                    worker.join(STOP_WAIT);
+                    if (worker.isAlive())
+                    {
+                        log.warn("Usage event worker " + worker.getName() + " did not stop, interrupting it");
+                        worker.interrupt();
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            workers.clear();
+        }
+
+        List<UsageRecord> remaining = new ArrayList<UsageRecord>();
+        queue.drainTo(remaining);
+
+        if (!remaining.isEmpty())
+        {
+            if (spill)
+            {
+                for (UsageRecord record : remaining)
+                {
+                    if (!spill(record))
+                    {
+                        dropped.incrementAndGet();
+                    }
+                }
+            }
+            else
+            {
+                dropped.addAndGet(remaining.size());
+            }
+        }
+
+        synchronized (spillLock)
+        {
+            if (spillWriter != null)
+            {
+                spillWriter.close();
+                spillWriter = null;
+            }
+        }
+
+        log.info("Usage event queue: " + getQueued() + " queued, " + getSent() + " sent, "
+                + getStale() + " stale, " + getFailed() + " failed, " + getDropped() + " dropped, "
+                + getSpilled() + " spilled");
+    }
+
+    private static String toLine(UsageRecord record)
+    {
+        StringBuilder line = new StringBuilder();
+        line.append(record.getTime()).append(SEPARATOR)
+                .append(record.getType()).append(SEPARATOR)
+                .append(record.getID()).append(SEPARATOR)
+                .append(record.getEPersonID()).append(SEPARATOR)
+                .append(clean(record.getRemoteAddr())).append(SEPARATOR)
+                .append(clean(record.getForwardedFor())).append(SEPARATOR)
+                .append(clean(record.getUserAgent()));
+        return line.toString();
+    }
+
+    private static UsageRecord fromLine(String line)
+    {
+        String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+        if (fields.length != 7)
+        {
+            return null;
+        }
+
+        try
+        {
+            return new UsageRecord(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                    Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                    fields[4], empty(fields[5]), empty(fields[6]));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /** Make a value safe to write to a line of the spill file */
+    private static String clean(String value)
+    {
+        return (value == null) ? "" : value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static String empty(String value)
+    {
+        return (value.length() == 0) ? null : value;
+    }
+
+    /**
+     * Takes batches of events from the queue and sends them to Solr, until
+     * the queue is shut down.
+     */
+    private class Worker implements Runnable
+    {
+        public void run()
+        {
+            List<UsageRecord> batch = new ArrayList<UsageRecord>(batchSize);
+
+            while (running)
+            {
+                try
+                {
+                    UsageRecord first = queue.poll(IDLE_WAIT, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                    {
+                        if (spill && running)
+                        {
+                            replaySpilled();
+                        }
+                        continue;
+                    }
+
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+
+                    store(batch);
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                catch (RuntimeException e)
+                {
+                    failed.addAndGet(batch.size());
+                    log.error("Unexpected error recording usage events", e);
+                }
+                finally
+                {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
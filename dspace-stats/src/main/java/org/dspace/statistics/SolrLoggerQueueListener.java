@@ -0,0 +1,43 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the usage event queue when the web application starts, and stops it
+ * (storing or spilling the queued events) when the web application is
+ * stopped, so that its worker threads do not outlive a redeploy. Must be
+ * declared after <code>DSpaceContextListener</code>, which loads the
+ * configuration.
+ *
+ * @version $Revision$
+ */
+public class SolrLoggerQueueListener implements ServletContextListener
+{
+    /**
+     * Start the usage event queue, if one is configured.
+     *
+     * @param event
+     */
+    public void contextInitialized(ServletContextEvent event)
+    {
+        SolrLoggerQueue.start();
+    }
+
+    /**
+     * Stop the usage event queue.
+     *
+     * @param event
+     */
+    public void contextDestroyed(ServletContextEvent event)
+    {
+        SolrLoggerQueue.stop();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dspace.content.DSpaceObject;
+import org.dspace.eperson.EPerson;
+
+/**
+ * The details of a usage event needed to store it in Solr, taken from the
+ * request when the event happens, so that the event can be stored after the
+ * request (and its Context) have finished.
+ *
+ * @version $Revision$
+ */
+class UsageRecord
+{
+    private final long time;
+
+    private final int type;
+
+    private final int id;
+
+    private final int epersonID;
+
+    private final String remoteAddr;
+
+    private final String forwardedFor;
+
+    private final String userAgent;
+
+    UsageRecord(long time, int type, int id, int epersonID, String remoteAddr,
+            String forwardedFor, String userAgent)
+    {
+        this.time = time;
+        this.type = type;
+        this.id = id;
+        this.epersonID = epersonID;
+        this.remoteAddr = remoteAddr;
+        this.forwardedFor = forwardedFor;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Record a usage event happening now.
+     *
+     * @param dso
+     *            the object used
+     * @param request
+     *            the current request
+     * @param currentUser
+     *            the current user, or null
+     */
+    UsageRecord(DSpaceObject dso, HttpServletRequest request, EPerson currentUser)
+    {
+        this(System.currentTimeMillis(), dso.getType(), dso.getID(),
+                (currentUser == null) ? -1 : currentUser.getID(), request.getRemoteAddr(),
+                request.getHeader("X-Forwarded-For"), request.getHeader("User-Agent"));
+    }
+
+    /**
+     * @return when the event happened, in milliseconds since the epoch
+     */
+    long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * @return the type of the object used
+     */
+    int getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return the ID of the object used
+     */
+    int getID()
+    {
+        return id;
+    }
+
+    /**
+     * @return the ID of the current user, or -1 if anonymous
+     */
+    int getEPersonID()
+    {
+        return epersonID;
+    }
+
+    /**
+     * @return the address the request came from
+     */
+    String getRemoteAddr()
+    {
+        return remoteAddr;
+    }
+
+    /**
+     * @return the X-Forwarded-For header, or null
+     */
+    String getForwardedFor()
+    {
+        return forwardedFor;
+    }
+
+    /**
+     * @return the User-Agent header, or null
+     */
+    String getUserAgent()
+    {
+        return userAgent;
+    }
+}
@@ -7,181 +7,726 @@
  */
 package org.dspace.statistics.util;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
- * A Spare v4 IPTable implementation that uses nested HashMaps
- * to optimize IP Address matching over ranges of IP Addresses.
+ * A set of IPv4 and IPv6 address ranges, used to match IP Addresses against
+ * the spider lists.
+ * <p/>
+ * The ranges are held as sorted, non-overlapping intervals in primitive
+ * arrays, so a lookup is a binary search which neither splits strings nor
+ * allocates objects. Ranges can be added as single addresses, CIDR blocks
+ * (<code>66.249.64.0/19</code>, <code>2001:db8::/32</code>), explicit ranges
+ * (<code>63.148.99.224 - 63.148.99.255</code>), or, as in the older spider
+ * files, IPv4 addresses with the trailing places left off
+ * (<code>66.249.66</code> is the same as <code>66.249.66.0/24</code>).
+ * <p/>
+ * The table is built by a single thread and can then be shared: lookups are
+ * safe from any number of threads as long as nothing more is added.
  *
  * @author mdiggory at atmire.com
  */
 public class IPTable {
 
-    /* A lookup tree for IP Addresses and SubnetRanges */
-    private Map<String, Map<String, Map<String, Set<String>>>> map =
-            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+    /** Largest IPv4 address, as an unsigned value */
+    private static final long MAX_V4 = 0xffffffffL;
+
+    /** Low 64 bits of the first and last IPv4-mapped IPv6 address (::ffff:a.b.c.d) */
+    private static final long MAPPED_START = 0xffffL << 32;
+    private static final long MAPPED_END = MAPPED_START | MAX_V4;
+
+    /** Most prefixes given by toPrefixSet for a single IPv6 block */
+    private static final int MAX_V6_PREFIXES = 256;
+
+    /* IPv4 ranges: inclusive bounds as unsigned values, sorted, disjoint and not adjacent */
+    private long[] v4Starts = new long[64];
+    private long[] v4Ends = new long[64];
+    private int v4Size = 0;
+
+    /*
+     * IPv6 ranges: inclusive bounds as high and low 64 bits, each offset by
+     * Long.MIN_VALUE so that signed comparison orders them as unsigned
+     * values; sorted and disjoint
+     */
+    private long[] v6StartHi = new long[8];
+    private long[] v6StartLo = new long[8];
+    private long[] v6EndHi = new long[8];
+    private long[] v6EndLo = new long[8];
+    private int v6Size = 0;
 
     /**
-     * Can be full v4 IP, subnet or range string
+     * Can be a full v4 or v6 IP, a CIDR block, a range of two full
+     * addresses separated by "-", or the first two or three places of a v4
+     * address
      *
      * @param ip
      */
     public void add(String ip) throws IPFormatException {
 
-        String[] start;
+        ip = ip.trim();
 
-        String[] end;
+        int dash = ip.indexOf('-');
+        if (dash >= 0) {
+            String start = ip.substring(0, dash).trim();
+            String end = ip.substring(dash + 1).trim();
 
-        String[] range = ip.split("-");
+            if (start.indexOf(':') < 0 && end.indexOf(':') < 0) {
+                long s = parseV4(start, 0, start.length());
+                long e = parseV4(end, 0, end.length());
+                if (s < 0 || e < 0) {
+                    throw new IPFormatException(ip + " - Ranges need to be full IP Addresses");
+                }
+                addV4(Math.min(s, e), Math.max(s, e));
+            } else if (start.indexOf(':') >= 0 && end.indexOf(':') >= 0) {
+                long sHi = parseV6(start, 0, start.length(), true);
+                long sLo = parseV6(start, 0, start.length(), false);
+                long eHi = parseV6(end, 0, end.length(), true);
+                long eLo = parseV6(end, 0, end.length(), false);
+                if (compare(sHi, sLo, eHi, eLo) <= 0) {
+                    addV6Range(sHi, sLo, eHi, eLo);
+                } else {
+                    addV6Range(eHi, eLo, sHi, sLo);
+                }
+            } else {
+                throw new IPFormatException(ip + " - Ranges cannot mix IPv4 and IPv6 Addresses");
+            }
+            return;
+        }
 
-        if (range.length >= 2) {
+        String address = ip;
+        int prefix = -1;
 
-            start = range[0].trim().split("/")[0].split("\\.");
-            end = range[1].trim().split("/")[0].split("\\.");
+        int slash = ip.indexOf('/');
+        if (slash >= 0) {
+            address = ip.substring(0, slash).trim();
+            try {
+                prefix = Integer.parseInt(ip.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IPFormatException(ip + " - invalid CIDR prefix length");
+            }
+        }
 
-            if (start.length != 4 || end.length != 4)
-            {
-                throw new IPFormatException(ip + " - Ranges need to be full IPv4 Addresses");
+        if (address.indexOf(':') >= 0) {
+            if (prefix < 0) {
+                prefix = 128;
+            } else if (prefix > 128) {
+                throw new IPFormatException(ip + " - IPv6 prefix length must be 0 to 128");
             }
 
-            if (!(start[0].equals(end[0]) && start[1].equals(end[1]) && start[2].equals(end[2]))) {
-                throw new IPFormatException(ip + " - Ranges can only be across the last subnet x.y.z.0 - x.y.z.254");
+            long hi = parseV6(address, 0, address.length(), true);
+            long lo = parseV6(address, 0, address.length(), false);
+
+            // Mask off the host part of the start, and fill it in for the end
+            long hiMask = (prefix >= 64) ? -1L : (prefix == 0 ? 0L : -1L << (64 - prefix));
+            long loMask = (prefix <= 64) ? 0L : (prefix == 128 ? -1L : -1L << (128 - prefix));
+            addV6Range(hi & hiMask, lo & loMask, hi | ~hiMask, lo | ~loMask);
+            return;
+        }
+
+        String[] places = address.split("\\.");
+        if (places.length < 2 || places.length > 4) {
+            throw new IPFormatException(ip + " - require at least two subnet places (255.255.0)");
+        }
+
+        long start = 0;
+        for (int i = 0; i < 4; i++) {
+            int value = 0;
+            if (i < places.length) {
+                value = parsePlace(places[i]);
+                if (value < 0) {
+                    throw new IPFormatException(ip + " - not an IPv4 Address");
+                }
             }
+            start = (start << 8) | value;
+        }
 
-        } else {
-            //need to ignore CIDR notation for the moment.
-            //ip = ip.split("\\/")[0];
+        if (prefix < 0) {
+            prefix = places.length * 8;
+        } else if (prefix > 32) {
+            throw new IPFormatException(ip + " - IPv4 prefix length must be 0 to 32");
+        }
 
-            String[] subnets = ip.split("\\.");
+        long hostMask = MAX_V4 >>> prefix;
+        addV4(start & ~hostMask & MAX_V4, start | hostMask);
+    }
 
-            if (subnets.length < 3) {
-                throw new IPFormatException(ip + " - require at least three subnet places (255.255.255.0");
+    /** Check whether a given address is contained in this netblock.
+     *
+     * @param ip the address to be tested
+     * @return true if {@code ip} is within this table's limits
+     * @throws IPFormatException
+     */
+    public boolean contains(String ip) throws IPFormatException {
 
+        int from = 0;
+        int to = ip.length();
+        while (from < to && Character.isWhitespace(ip.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(ip.charAt(to - 1))) {
+            to--;
+        }
+
+        if (ip.indexOf(':', from) < 0) {
+            long address = parseV4(ip, from, to);
+            if (address < 0) {
+                throw new IPFormatException("needs to be single IP Address");
             }
+            return containsV4(address);
+        }
+
+        long hi = parseV6(ip, from, to, true);
+        long lo = parseV6(ip, from, to, false);
 
-            start = subnets;
-            end = subnets;
+        // IPv4-mapped addresses (::ffff:a.b.c.d) are checked against the IPv4 ranges
+        if (hi == 0 && (lo >>> 32) == 0xffffL) {
+            return containsV4(lo & MAX_V4);
         }
 
-        if (start.length >= 3) {
+        return containsV6(hi, lo);
+    }
+
+    /** Convert to a Set. IPv4 blocks of 256 addresses are given as their
+     * first three places, other blocks in CIDR notation, and blocks of fewer
+     * than 256 IPv4 addresses as the individual addresses.
+     * @return this table's content as a Set
+     */
+    public Set<String> toSet() {
+        HashSet<String> set = new HashSet<String>();
 
+        for (int i = 0; i < v4Size; i++) {
+            long start = v4Starts[i];
+            long end = v4Ends[i];
 
-            Map<String, Map<String, Set<String>>> first = map.get(start[0]);
+            while (start <= end) {
+                int bits = v4BlockBits(start, end);
 
-            if (first == null) {
-                first = new HashMap<String, Map<String, Set<String>>>();
-                map.put(start[0], first);
+                if (bits == 8) {
+                    String address = formatV4(start);
+                    set.add(address.substring(0, address.lastIndexOf('.')));
+                } else if (bits < 8) {
+                    for (long address = start; address < start + (1L << bits); address++) {
+                        set.add(formatV4(address));
+                    }
+                } else {
+                    set.add(formatV4(start) + "/" + (32 - bits));
+                }
+
+                start += 1L << bits;
             }
+        }
 
-            Map<String, Set<String>> second = first.get(start[1]);
+        for (int i = 0; i < v6Size; i++) {
+            long startHi = v6StartHi[i] ^ Long.MIN_VALUE;
+            long startLo = v6StartLo[i] ^ Long.MIN_VALUE;
+            long endHi = v6EndHi[i] ^ Long.MIN_VALUE;
+            long endLo = v6EndLo[i] ^ Long.MIN_VALUE;
+
+            if (startHi == endHi && startLo == endLo) {
+                set.add(formatV6(startHi, startLo));
+            } else {
+                // Ranges added as CIDR blocks have a common prefix and a
+                // host part running from all zeros to all ones
+                int prefix = 128 - (Long.bitCount(startHi ^ endHi) + Long.bitCount(startLo ^ endLo));
+                set.add(formatV6(startHi, startLo) + "/" + prefix);
+            }
+        }
+
+        return set;
+    }
+
+    /** Convert to the prefixes of the addresses in this table, for matching
+     * the addresses kept by the statistics. Each entry is either a full
+     * address, or the leading places of an address ending with their
+     * separator (<code>66.249.</code>, <code>2001:db8:</code>), which stands
+     * for every address starting with it. Blocks which do not end at a place
+     * are split into blocks which do. IPv6 addresses are written as Java
+     * writes them, without "::" compression, and IPv6 blocks which would need
+     * more than 256 prefixes are left out.
+     * @return this table's content as a Set of addresses and prefixes
+     */
+    public Set<String> toPrefixSet() {
+        HashSet<String> set = new HashSet<String>();
+
+        for (int i = 0; i < v4Size; i++) {
+            long start = v4Starts[i];
+            long end = v4Ends[i];
+
+            while (start <= end) {
+                int bits = v4BlockBits(start, end);
+                int placeBits = bits - bits % 8;
+
+                for (long block = start; block < start + (1L << bits); block += 1L << placeBits) {
+                    set.add(formatV4Prefix(block, 4 - placeBits / 8));
+                }
+
+                start += 1L << bits;
+            }
+        }
+
+        for (int i = 0; i < v6Size; i++) {
+            long startHi = v6StartHi[i] ^ Long.MIN_VALUE;
+            long startLo = v6StartLo[i] ^ Long.MIN_VALUE;
+            long endHi = v6EndHi[i] ^ Long.MIN_VALUE;
+            long endLo = v6EndLo[i] ^ Long.MIN_VALUE;
+
+            while (true) {
+                int bits = v6BlockBits(startHi, startLo, endHi, endLo);
+                int groupBits = bits - bits % 16;
+
+                if (1L << (bits - groupBits) <= MAX_V6_PREFIXES) {
+                    // The block is aligned, so each group block's bits can be or'ed in
+                    for (long n = 0; n < 1L << (bits - groupBits); n++) {
+                        long hi = groupBits >= 64 ? startHi | (n << (groupBits - 64)) : startHi;
+                        long lo = groupBits >= 64 ? startLo : startLo | (n << groupBits);
+                        set.add(formatV6Prefix(hi, lo, 8 - groupBits / 16));
+                    }
+                }
+
+                // Move past the block, stopping at the end of the range or of the addresses
+                if (bits == 128) {
+                    break;
+                } else if (bits >= 64) {
+                    startHi += 1L << (bits - 64);
+                    if (startHi == 0) {
+                        break;
+                    }
+                } else {
+                    startLo += 1L << bits;
+                    if (startLo == 0 && ++startHi == 0) {
+                        break;
+                    }
+                }
+                if (compare(startHi, startLo, endHi, endLo) > 0) {
+                    break;
+                }
+            }
+        }
 
+        return set;
+    }
 
-            if (second == null) {
-                second = new HashMap<String, Set<String>>();
-                first.put(start[1], second);
+    /**
+     * @return true if the table holds no addresses
+     */
+    public boolean isEmpty() {
+        return v4Size == 0 && v6Size == 0;
+    }
+
+    private boolean containsV4(long address) {
+        // Last range starting at or before the address
+        int low = 0;
+        int high = v4Size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (v4Starts[mid] <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
+        }
 
-            Set<String> third = second.get(start[2]);
+        return high >= 0 && address <= v4Ends[high];
+    }
 
-            if (third == null) {
-                third = new HashSet<String>();
-                second.put(start[2], third);
+    private boolean containsV6(long hi, long lo) {
+        hi ^= Long.MIN_VALUE;
+        lo ^= Long.MIN_VALUE;
+
+        int low = 0;
+        int high = v6Size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (v6StartHi[mid] < hi || (v6StartHi[mid] == hi && v6StartLo[mid] <= lo)) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
             }
+        }
 
-            //now populate fourth place (* or value 0-254);
+        return high >= 0
+                && (hi < v6EndHi[high] || (hi == v6EndHi[high] && lo <= v6EndLo[high]));
+    }
 
-            if (start.length == 3) {
-                third.add("*");
+    /**
+     * Add an IPv4 range, merging it with any ranges it overlaps or touches.
+     */
+    private void addV4(long start, long end) {
+        // First range ending at or after start - 1
+        int first = 0;
+        int high = v4Size - 1;
+        while (first <= high) {
+            int mid = (first + high) >>> 1;
+            if (v4Ends[mid] < start - 1) {
+                first = mid + 1;
+            } else {
+                high = mid - 1;
             }
+        }
+
+        // First range starting after end + 1
+        int last = first;
+        while (last < v4Size && v4Starts[last] <= end + 1) {
+            last++;
+        }
+
+        if (first < last) {
+            start = Math.min(start, v4Starts[first]);
+            end = Math.max(end, v4Ends[last - 1]);
+        } else if (v4Size == v4Starts.length) {
+            v4Starts = Arrays.copyOf(v4Starts, v4Size * 2);
+            v4Ends = Arrays.copyOf(v4Ends, v4Size * 2);
+        }
 
-            if (third.contains("*")) {
+        // Replace ranges first..last-1 with the new one
+        int removed = last - first;
+        if (removed != 1) {
+            System.arraycopy(v4Starts, last, v4Starts, first + 1, v4Size - last);
+            System.arraycopy(v4Ends, last, v4Ends, first + 1, v4Size - last);
+            v4Size += 1 - removed;
+        }
+        v4Starts[first] = start;
+        v4Ends[first] = end;
+    }
+
+    /**
+     * Add an IPv6 range. The part of it made of IPv4-mapped addresses is
+     * added to the IPv4 ranges, as that is where <code>contains</code> looks
+     * for them.
+     */
+    private void addV6Range(long startHi, long startLo, long endHi, long endLo) {
+        // Overlap with ::ffff:0.0.0.0 - ::ffff:255.255.255.255
+        boolean startMapped = compare(startHi, startLo, 0, MAPPED_START) >= 0;
+        boolean endMapped = compare(endHi, endLo, 0, MAPPED_END) <= 0;
+        long fromLo = startMapped ? startLo : MAPPED_START;
+        long toLo = endMapped ? endLo : MAPPED_END;
+        if (compare(startHi, startLo, 0, MAPPED_END) <= 0
+                && compare(endHi, endLo, 0, MAPPED_START) >= 0) {
+            addV4(fromLo & MAX_V4, toLo & MAX_V4);
+            if (startMapped && endMapped) {
                 return;
             }
+        }
 
-            if (start.length >= 4) {
-                int s = Integer.valueOf(start[3]);
-                int e = Integer.valueOf(end[3]);
-                for (int i = s; i <= e; i++) {
-                    third.add(String.valueOf(i));
-                }
+        addV6(startHi, startLo, endHi, endLo);
+    }
+
+    /**
+     * Add an IPv6 range, merging it with any ranges it overlaps.
+     */
+    private void addV6(long startHi, long startLo, long endHi, long endLo) {
+        startHi ^= Long.MIN_VALUE;
+        startLo ^= Long.MIN_VALUE;
+        endHi ^= Long.MIN_VALUE;
+        endLo ^= Long.MIN_VALUE;
+
+        // First range ending at or after the start
+        int first = 0;
+        while (first < v6Size && (v6EndHi[first] < startHi
+                || (v6EndHi[first] == startHi && v6EndLo[first] < startLo))) {
+            first++;
+        }
+
+        // First range starting after the end
+        int last = first;
+        while (last < v6Size && (v6StartHi[last] < endHi
+                || (v6StartHi[last] == endHi && v6StartLo[last] <= endLo))) {
+            last++;
+        }
+
+        if (first < last) {
+            if (v6StartHi[first] < startHi || (v6StartHi[first] == startHi && v6StartLo[first] < startLo)) {
+                startHi = v6StartHi[first];
+                startLo = v6StartLo[first];
+            }
+            if (v6EndHi[last - 1] > endHi || (v6EndHi[last - 1] == endHi && v6EndLo[last - 1] > endLo)) {
+                endHi = v6EndHi[last - 1];
+                endLo = v6EndLo[last - 1];
             }
+        } else if (v6Size == v6StartHi.length) {
+            v6StartHi = Arrays.copyOf(v6StartHi, v6Size * 2);
+            v6StartLo = Arrays.copyOf(v6StartLo, v6Size * 2);
+            v6EndHi = Arrays.copyOf(v6EndHi, v6Size * 2);
+            v6EndLo = Arrays.copyOf(v6EndLo, v6Size * 2);
         }
+
+        int removed = last - first;
+        if (removed != 1) {
+            System.arraycopy(v6StartHi, last, v6StartHi, first + 1, v6Size - last);
+            System.arraycopy(v6StartLo, last, v6StartLo, first + 1, v6Size - last);
+            System.arraycopy(v6EndHi, last, v6EndHi, first + 1, v6Size - last);
+            System.arraycopy(v6EndLo, last, v6EndLo, first + 1, v6Size - last);
+            v6Size += 1 - removed;
+        }
+        v6StartHi[first] = startHi;
+        v6StartLo[first] = startLo;
+        v6EndHi[first] = endHi;
+        v6EndLo[first] = endLo;
     }
 
-    /** Check whether a given address is contained in this netblock.
-     * 
-     * @param ip the address to be tested
-     * @return true if {@code ip} is within this table's limits
-     * @throws IPFormatException
+    /**
+     * @return the number of host bits of the largest aligned IPv4 block
+     *         starting at start which ends at or before end
      */
-    public boolean contains(String ip) throws IPFormatException {
+    private static int v4BlockBits(long start, long end) {
+        int aligned = (start == 0) ? 32 : Math.min(32, Long.numberOfTrailingZeros(start));
+        int size = 63 - Long.numberOfLeadingZeros(end - start + 1);
+        return Math.min(aligned, size);
+    }
 
-        String[] subnets = ip.split("\\.");
+    /**
+     * @return the number of host bits of the largest aligned IPv6 block
+     *         starting at start which ends at or before end
+     */
+    private static int v6BlockBits(long startHi, long startLo, long endHi, long endLo) {
+        int aligned;
+        if (startLo != 0) {
+            aligned = Long.numberOfTrailingZeros(startLo);
+        } else if (startHi != 0) {
+            aligned = 64 + Long.numberOfTrailingZeros(startHi);
+        } else {
+            aligned = 128;
+        }
+
+        // end - start + 1, which is 0 for the whole address space
+        long borrow = ((endLo ^ Long.MIN_VALUE) < (startLo ^ Long.MIN_VALUE)) ? 1 : 0;
+        long sizeLo = endLo - startLo + 1;
+        long sizeHi = endHi - startHi - borrow + (sizeLo == 0 ? 1 : 0);
 
-        if (subnets.length != 4)
-        {
-            throw new IPFormatException("needs to be single IP Address");
+        int size;
+        if (sizeHi != 0) {
+            size = 127 - Long.numberOfLeadingZeros(sizeHi);
+        } else if (sizeLo != 0) {
+            size = 63 - Long.numberOfLeadingZeros(sizeLo);
+        } else {
+            size = 128;
         }
 
-        Map<String, Map<String, Set<String>>> first = map.get(subnets[0]);
+        return Math.min(aligned, size);
+    }
 
-        if (first == null)
-        {
-            return false;
+    /** Compare two unsigned 128 bit values */
+    private static int compare(long hiA, long loA, long hiB, long loB) {
+        hiA ^= Long.MIN_VALUE;
+        hiB ^= Long.MIN_VALUE;
+        if (hiA != hiB) {
+            return hiA < hiB ? -1 : 1;
         }
+        loA ^= Long.MIN_VALUE;
+        loB ^= Long.MIN_VALUE;
+        return loA < loB ? -1 : (loA == loB ? 0 : 1);
+    }
 
-        Map<String, Set<String>> second = first.get(subnets[1]);
+    /**
+     * Parse a full dotted quad IPv4 address.
+     *
+     * @return the address as an unsigned value, or -1 if it is not a valid
+     *         address
+     */
+    private static long parseV4(String ip, int from, int to) {
+        long address = 0;
+        int places = 0;
+        int value = -1;
+
+        for (int i = from; i < to; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && value >= 0 && places < 3) {
+                address = (address << 8) | value;
+                places++;
+                value = -1;
+            } else {
+                return -1;
+            }
+        }
 
-        if (second == null)
-        {
-            return false;
+        if (value < 0 || places != 3) {
+            return -1;
         }
 
-        Set<String> third = second.get(subnets[2]);
+        return (address << 8) | value;
+    }
 
-        if (third == null)
-        {
-            return false;
+    /**
+     * Parse a single place of a dotted IPv4 address.
+     *
+     * @return the value, or -1 if it is not a valid place
+     */
+    private static int parsePlace(String place) {
+        if (place.length() == 0 || place.length() > 3) {
+            return -1;
         }
 
-        return third.contains(subnets[3]) || third.contains("*");
+        int value = 0;
+        for (int i = 0; i < place.length(); i++) {
+            char c = place.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
 
+        return (value > 255) ? -1 : value;
     }
 
-    /** Convert to a Set.
-     * @return this table's content as a Set
+    /**
+     * Parse an IPv6 address, which may use "::" and may end with a dotted
+     * IPv4 address, and return its high or low 64 bits. Called once for each
+     * half, so that no array has to be allocated to return both.
+     *
+     * @throws IPFormatException if it is not a valid address
      */
-    public Set<String> toSet() {
-        HashSet<String> set = new HashSet<String>();
+    private static long parseV6(String ip, int from, int to, boolean high) throws IPFormatException {
+        int percent = ip.indexOf('%', from);
+        if (percent >= 0 && percent < to) {
+            // Ignore the zone index (fe80::1%eth0)
+            to = percent;
+        }
 
-        for (Map.Entry<String, Map<String, Map<String, Set<String>>>> first : map.entrySet()) {
-            String firstString = first.getKey();
-            Map<String, Map<String, Set<String>>> secondMap = first.getValue();
+        // Groups before "::" are shifted into head, groups after it into tail
+        long headHi = 0, headLo = 0, tailHi = 0, tailLo = 0;
+        int headGroups = 0, tailGroups = 0;
+        boolean compressed = false;
 
-            for (Map.Entry<String, Map<String, Set<String>>> second : secondMap.entrySet()) {
-                String secondString = second.getKey();
-                Map<String, Set<String>> thirdMap = second.getValue();
+        int i = from;
+        if (to - from >= 2 && ip.charAt(from) == ':' && ip.charAt(from + 1) == ':') {
+            compressed = true;
+            i += 2;
+        }
 
-                for (Map.Entry<String, Set<String>> third : thirdMap.entrySet()) {
-                    String thirdString = third.getKey();
-                    Set<String> fourthSet = third.getValue();
+        while (i < to) {
+            int start = i;
+            int value = 0;
+            boolean dotted = false;
 
-                    if (fourthSet.contains("*")) {
-                        set.add(firstString + "." + secondString + "." + thirdString);
-                    } else {
-                        for (String fourth : fourthSet) {
-                            set.add(firstString + "." + secondString + "." + thirdString + "." + fourth);
-                        }
-                    }
+            while (i < to && ip.charAt(i) != ':') {
+                char c = ip.charAt(i);
+                if (c == '.') {
+                    dotted = true;
+                    break;
+                }
+                int digit = Character.digit(c, 16);
+                if (digit < 0 || i - start >= 4) {
+                    throw new IPFormatException(ip + " - not an IPv6 Address");
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+
+            int groups = 1;
+            long bits = value;
+            if (dotted) {
+                // Embedded IPv4 address, which must come last
+                long v4 = parseV4(ip, start, to);
+                if (v4 < 0) {
+                    throw new IPFormatException(ip + " - not an IPv6 Address");
+                }
+                groups = 2;
+                bits = v4;
+                i = to;
+            } else if (i == start) {
+                throw new IPFormatException(ip + " - not an IPv6 Address");
+            }
+
+            int shift = groups * 16;
+            if (compressed) {
+                tailHi = (tailHi << shift) | (tailLo >>> (64 - shift));
+                tailLo = (tailLo << shift) | bits;
+                tailGroups += groups;
+            } else {
+                headHi = (headHi << shift) | (headLo >>> (64 - shift));
+                headLo = (headLo << shift) | bits;
+                headGroups += groups;
+            }
+
+            if (headGroups + tailGroups > 8) {
+                throw new IPFormatException(ip + " - not an IPv6 Address");
+            }
 
+            if (i < to) {
+                // Skip the separator, noting a "::"
+                i++;
+                if (i < to && ip.charAt(i) == ':') {
+                    if (compressed) {
+                        throw new IPFormatException(ip + " - not an IPv6 Address");
+                    }
+                    compressed = true;
+                    i++;
+                } else if (i == to) {
+                    throw new IPFormatException(ip + " - not an IPv6 Address");
                 }
             }
         }
 
-        return set;
+        if (compressed ? headGroups + tailGroups > 7 : headGroups != 8) {
+            throw new IPFormatException(ip + " - not an IPv6 Address");
+        }
+
+        // Shift the head past the groups left out by "::" and the tail
+        int shift = (8 - headGroups) * 16;
+        if (shift >= 128) {
+            headHi = 0;
+            headLo = 0;
+        } else if (shift >= 64) {
+            headHi = headLo << (shift - 64);
+            headLo = 0;
+        } else if (shift > 0) {
+            headHi = (headHi << shift) | (headLo >>> (64 - shift));
+            headLo = headLo << shift;
+        }
+
+        return high ? (headHi | tailHi) : (headLo | tailLo);
+    }
+
+    private static String formatV4(long address) {
+        return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "."
+                + ((address >>> 8) & 0xff) + "." + (address & 0xff);
+    }
+
+    /** Format the first places of an IPv4 address, each followed by "." */
+    private static String formatV4Prefix(long address, int places) {
+        if (places == 4) {
+            return formatV4(address);
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < places; i++) {
+            prefix.append((address >>> (24 - i * 8)) & 0xff).append('.');
+        }
+        return prefix.toString();
+    }
+
+    /** Format the first groups of an IPv6 address, each followed by ":" */
+    private static String formatV6Prefix(long hi, long lo, int groups) {
+        if (groups == 8) {
+            return formatV6(hi, lo);
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < groups; i++) {
+            long half = (i < 4) ? hi : lo;
+            prefix.append(Long.toHexString((half >>> ((3 - i % 4) * 16)) & 0xffff)).append(':');
+        }
+        return prefix.toString();
+    }
+
+    /** Format an IPv6 address as Java does, without "::" compression */
+    private static String formatV6(long hi, long lo) {
+        StringBuilder address = new StringBuilder();
+        for (int i = 3; i >= 0; i--) {
+            address.append(Long.toHexString((hi >>> (i * 16)) & 0xffff)).append(':');
+        }
+        for (int i = 3; i >= 0; i--) {
+            address.append(Long.toHexString((lo >>> (i * 16)) & 0xffff));
+            if (i > 0) {
+                address.append(':');
+            }
+        }
+        return address.toString();
     }
 
 
@@ -33,9 +33,9 @@ public class SpiderDetector {
     private static Logger log = Logger.getLogger(SpiderDetector.class);
 
     /**
-     * Sparse HAshTable structure to hold IP Address Ranges.
+     * Sorted range table holding the v4 and v6 spider IP Address Ranges.
      */
-    private static IPTable table = null;
+    private static volatile IPTable table = null;
 
     /**
      * Utility method which Reads the ip addresses out a file & returns them in a Set
@@ -59,12 +59,12 @@ public class SpiderDetector {
             if (!line.startsWith("#")) {
                 line = line.trim();
 
-                if (!line.equals("") && !Character.isDigit(line.charAt(0))) {
+                if (!line.equals("") && !Character.isDigit(line.charAt(0)) && line.indexOf(':') < 0) {
                     // is a hostname
                     // add this functionality later...
                 } else if (!line.equals("")) {
                     ips.add(line);
-                    // is full v4 ip (too tired to deal with v6)...
+                    // is a v4 or v6 ip, CIDR block or range
                 }
             } else {
                 //   ua.add(line.replaceFirst("#","").replaceFirst("UA","").trim());
@@ -86,15 +86,29 @@ public class SpiderDetector {
         return table.toSet();
     }
 
+    /**
+     * Get the Spider Addresses as full addresses and address prefixes, which
+     * can be matched against the addresses kept by the statistics
+     *
+     * @return a Set of addresses and prefixes, as given by IPTable.toPrefixSet
+     */
+    public static Set<String> getSpiderIpPrefixes() {
+
+        loadSpiderIpAddresses();
+        return table.toPrefixSet();
+    }
+
     /*
         private loader to populate the table from files.
      */
 
-    private static void loadSpiderIpAddresses() {
+    private static synchronized void loadSpiderIpAddresses() {
 
 
         if (table == null) {
-            table = new IPTable();
+            // Only publish the table once it is full, as usage events are
+            // checked by several threads
+            IPTable table = new IPTable();
 
             String filePath = ConfigurationManager.getProperty("dspace.dir");
 
@@ -104,7 +118,11 @@ public class SpiderDetector {
                 if (spidersDir.exists() && spidersDir.isDirectory()) {
                     for (File file : spidersDir.listFiles()) {
                         for (String ip : readIpAddresses(file)) {
-                            table.add(ip);
+                            try {
+                                table.add(ip);
+                            } catch (IPTable.IPFormatException e) {
+                                log.warn("Ignoring invalid spider IP in " + file + ": " + e.getMessage());
+                            }
                         }
                         log.info("Loaded Spider IP file: " + file);
                     }
@@ -118,6 +136,7 @@ public class SpiderDetector {
                 log.error("Error Loading Spiders:" + e.getMessage(), e);
             }
 
+            SpiderDetector.table = table;
 
         }
 
@@ -138,9 +157,24 @@ public class SpiderDetector {
      */
     public static boolean isSpider(HttpServletRequest request) {
 
-        if (SolrLogger.isUseProxies() && request.getHeader("X-Forwarded-For") != null) {
+        return isSpider(request.getRemoteAddr(),
+                SolrLogger.isUseProxies() ? request.getHeader("X-Forwarded-For") : null);
+
+    }
+
+    /**
+     * Check whether a request was from a spider, given the addresses it came
+     * from, so that this can be done once the request has finished.
+     *
+     * @param remoteAddr the address the request came from
+     * @param forwardedFor the X-Forwarded-For header to check, or null
+     * @return true|false if the request was detected to be from a spider
+     */
+    public static boolean isSpider(String remoteAddr, String forwardedFor) {
+
+        if (forwardedFor != null) {
             /* This header is a comma delimited list */
-            for (String xfip : request.getHeader("X-Forwarded-For").split(",")) {
+            for (String xfip : forwardedFor.split(",")) {
                 if (isSpider(xfip))
                 {
                     return true;
@@ -148,7 +182,7 @@ public class SpiderDetector {
             }
         }
 
-        return isSpider(request.getRemoteAddr());
+        return isSpider(remoteAddr);
 
     }
 
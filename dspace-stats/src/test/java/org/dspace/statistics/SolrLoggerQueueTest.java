@@ -0,0 +1,374 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dspace.core.Constants;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for class SolrLoggerQueue
+ */
+public class SolrLoggerQueueTest
+{
+    /** How long to wait for the workers, in milliseconds */
+    private static final long TIMEOUT = 10 * SolrLoggerQueue.IDLE_WAIT;
+
+    /** Spill file used by the tests */
+    private File spillFile;
+
+    /** Queue under test, shut down after each test */
+    private RecordingQueue queue;
+
+    /**
+     * A queue which records the events it stores instead of sending them to
+     * Solr, and can be made to block while storing, or to fail.
+     */
+    private static class RecordingQueue extends SolrLoggerQueue
+    {
+        final List<UsageRecord> stored = Collections.synchronizedList(new ArrayList<UsageRecord>());
+
+        final CountDownLatch release;
+
+        /** Number of batches which failed */
+        final AtomicInteger failures = new AtomicInteger();
+
+        /** Set to make storing fail */
+        volatile boolean fail = false;
+
+        RecordingQueue(int size, int threads, boolean spill, File spillFile, boolean block)
+        {
+            this(size, threads, 100, spill, spillFile, block);
+        }
+
+        RecordingQueue(int size, int threads, int batchSize, boolean spill, File spillFile, boolean block)
+        {
+            super(size, threads, batchSize, 10, spill, spillFile);
+            release = new CountDownLatch(block ? 1 : 0);
+        }
+
+        @Override
+        List<UsageRecord> store(List<UsageRecord> batch)
+        {
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return new ArrayList<UsageRecord>(batch);
+            }
+
+            if (fail)
+            {
+                failures.incrementAndGet();
+                return new ArrayList<UsageRecord>(batch);
+            }
+
+            stored.addAll(batch);
+            return new ArrayList<UsageRecord>();
+        }
+    }
+
+    @Before
+    public void init() throws IOException
+    {
+        spillFile = File.createTempFile("solr-statistics", ".spill");
+        spillFile.delete();
+    }
+
+    @After
+    public void destroy()
+    {
+        if (queue != null)
+        {
+            queue.release.countDown();
+            queue.shutdown();
+            queue = null;
+        }
+        spillFile.delete();
+        new File(spillFile.getPath() + ".replay").delete();
+    }
+
+    private static UsageRecord record(int id)
+    {
+        return new UsageRecord(1000L * id, Constants.ITEM, id, -1, "10.0.0." + id, null,
+                "agent\twith tab");
+    }
+
+    private static int countLines(File file) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try
+        {
+            int lines = 0;
+            while (in.readLine() != null)
+            {
+                lines++;
+            }
+            return lines;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void waitFor(List<UsageRecord> stored, int count) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (stored.size() < count && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Spill events first .. first + count - 1 to the spill file, through a
+     * queue which is stopped before it stores them.
+     */
+    private void spill(int first, int count)
+    {
+        RecordingQueue stopped = new RecordingQueue(count, 0, true, spillFile, false);
+        for (int i = first; i < first + count; i++)
+        {
+            stopped.offer(record(i));
+        }
+        stopped.shutdown();
+    }
+
+    private File replayFile()
+    {
+        return new File(spillFile.getPath() + ".replay");
+    }
+
+    private static void assertIDs(String name, List<UsageRecord> stored, int... ids)
+    {
+        assertEquals(name + " size", ids.length, stored.size());
+        for (int i = 0; i < ids.length; i++)
+        {
+            assertEquals(name + " " + i, ids[i], stored.get(i).getID());
+        }
+    }
+
+    /**
+     * Test that an event which does not fit in a full queue is dropped,
+     * after waiting for space
+     */
+    @Test
+    public void testFullQueueDrops()
+    {
+        queue = new RecordingQueue(1, 0, false, spillFile, false);
+
+        queue.offer(record(1));
+        long start = System.nanoTime();
+        queue.offer(record(2));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("testFullQueueDrops 0", 1, queue.getQueued());
+        assertEquals("testFullQueueDrops 1", 1, queue.getDropped());
+        assertEquals("testFullQueueDrops 2", 1, queue.getSize());
+        assertTrue("testFullQueueDrops 3", waited >= 5);
+        assertFalse("testFullQueueDrops 4", spillFile.exists());
+    }
+
+    /**
+     * Test that an event which does not fit in a full queue is spilled
+     */
+    @Test
+    public void testFullQueueSpills() throws IOException
+    {
+        queue = new RecordingQueue(1, 0, true, spillFile, false);
+
+        queue.offer(record(1));
+        queue.offer(record(2));
+
+        assertEquals("testFullQueueSpills 0", 1, queue.getQueued());
+        assertEquals("testFullQueueSpills 1", 0, queue.getDropped());
+        assertEquals("testFullQueueSpills 2", 1, queue.getSpilled());
+        assertEquals("testFullQueueSpills 3", 1, countLines(spillFile));
+    }
+
+    /**
+     * Test that while the workers are busy the queue fills up and further
+     * events are spilled, and that the spilled events are replayed once the
+     * queue has emptied
+     */
+    @Test
+    public void testBackPressureAndReplay() throws InterruptedException
+    {
+        queue = new RecordingQueue(1, 1, true, spillFile, true);
+        queue.startWorkers();
+
+        // The worker takes the first event, and blocks storing it
+        queue.offer(record(1));
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (queue.getSize() > 0 && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("testBackPressureAndReplay 0", 0, queue.getSize());
+
+        queue.offer(record(2));
+        queue.offer(record(3));
+        assertEquals("testBackPressureAndReplay 1", 2, queue.getQueued());
+        assertEquals("testBackPressureAndReplay 2", 1, queue.getSpilled());
+        assertTrue("testBackPressureAndReplay 3", queue.stored.isEmpty());
+
+        queue.release.countDown();
+        waitFor(queue.stored, 3);
+
+        assertEquals("testBackPressureAndReplay 4", 3, queue.stored.size());
+        assertEquals("testBackPressureAndReplay 5", 1, queue.stored.get(0).getID());
+        assertEquals("testBackPressureAndReplay 6", 2, queue.stored.get(1).getID());
+        assertEquals("testBackPressureAndReplay 7", 3, queue.stored.get(2).getID());
+        assertEquals("testBackPressureAndReplay 8", 0, queue.getDropped());
+    }
+
+    /**
+     * Test that events still queued at shutdown are spilled, and replayed
+     * with all their details by the next queue
+     */
+    @Test
+    public void testShutdownSpillsQueued() throws IOException, InterruptedException
+    {
+        RecordingQueue stopped = new RecordingQueue(2, 0, true, spillFile, false);
+        stopped.offer(record(1));
+        stopped.offer(record(2));
+        stopped.shutdown();
+
+        assertEquals("testShutdownSpillsQueued 0", 2, stopped.getSpilled());
+        assertEquals("testShutdownSpillsQueued 1", 0, stopped.getDropped());
+        assertEquals("testShutdownSpillsQueued 2", 2, countLines(spillFile));
+
+        queue = new RecordingQueue(2, 1, true, spillFile, false);
+        queue.startWorkers();
+        waitFor(queue.stored, 2);
+
+        assertEquals("testShutdownSpillsQueued 3", 2, queue.stored.size());
+        UsageRecord replayed = queue.stored.get(1);
+        assertEquals("testShutdownSpillsQueued 4", 2000L, replayed.getTime());
+        assertEquals("testShutdownSpillsQueued 5", Constants.ITEM, replayed.getType());
+        assertEquals("testShutdownSpillsQueued 6", 2, replayed.getID());
+        assertEquals("testShutdownSpillsQueued 7", -1, replayed.getEPersonID());
+        assertEquals("testShutdownSpillsQueued 8", "10.0.0.2", replayed.getRemoteAddr());
+        assertNull("testShutdownSpillsQueued 9", replayed.getForwardedFor());
+        assertEquals("testShutdownSpillsQueued 10", "agent with tab", replayed.getUserAgent());
+        assertFalse("testShutdownSpillsQueued 11", spillFile.exists());
+    }
+
+    /**
+     * Test that without a spill file, events still queued at shutdown are
+     * counted as dropped
+     */
+    @Test
+    public void testShutdownDropsQueued()
+    {
+        queue = new RecordingQueue(2, 0, false, spillFile, false);
+        queue.offer(record(1));
+        queue.offer(record(2));
+        queue.shutdown();
+
+        assertEquals("testShutdownDropsQueued 0", 2, queue.getDropped());
+        assertEquals("testShutdownDropsQueued 1", 0, queue.getSize());
+        queue = null;
+    }
+
+    /**
+     * Test that a replay file left by an earlier queue is replayed before
+     * the events spilled since
+     */
+    @Test
+    public void testLeftoverReplayFile() throws InterruptedException
+    {
+        spill(1, 2);
+        assertTrue("testLeftoverReplayFile 0", spillFile.renameTo(replayFile()));
+        spill(3, 1);
+
+        queue = new RecordingQueue(2, 1, true, spillFile, false);
+        queue.startWorkers();
+        waitFor(queue.stored, 3);
+
+        assertIDs("testLeftoverReplayFile 1", queue.stored, 1, 2, 3);
+        assertFalse("testLeftoverReplayFile 2", replayFile().exists());
+        assertFalse("testLeftoverReplayFile 3", spillFile.exists());
+    }
+
+    /**
+     * Test that when a batch of replayed events cannot be stored, they and
+     * the events not yet read are kept, and replayed by the next queue
+     */
+    @Test
+    public void testStoreFailureDuringReplay() throws IOException, InterruptedException
+    {
+        spill(1, 5);
+
+        RecordingQueue failing = new RecordingQueue(2, 1, 2, true, spillFile, false);
+        failing.fail = true;
+        failing.startWorkers();
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (failing.failures.get() == 0 && System.currentTimeMillis() < end)
+        {
+            Thread.sleep(50);
+        }
+        failing.shutdown();
+
+        assertEquals("testStoreFailureDuringReplay 0", 1, failing.failures.get());
+        assertTrue("testStoreFailureDuringReplay 1", failing.stored.isEmpty());
+        assertEquals("testStoreFailureDuringReplay 2", 5, countLines(replayFile()));
+
+        queue = new RecordingQueue(2, 1, true, spillFile, false);
+        queue.startWorkers();
+        waitFor(queue.stored, 5);
+
+        assertIDs("testStoreFailureDuringReplay 3", queue.stored, 1, 2, 3, 4, 5);
+        assertFalse("testStoreFailureDuringReplay 4", replayFile().exists());
+    }
+
+    /**
+     * Test that stopping the queue during a replay keeps the events not yet
+     * read in the replay file
+     */
+    @Test
+    public void testShutdownDuringReplay() throws IOException, InterruptedException
+    {
+        spill(1, 5);
+
+        final RecordingQueue stopping = new RecordingQueue(2, 1, 2, true, spillFile, true);
+        stopping.startWorkers();
+
+        // The worker blocks storing the first batch of the replay
+        Thread.sleep(SolrLoggerQueue.IDLE_WAIT + 500);
+        Thread shutdown = new Thread()
+        {
+            public void run()
+            {
+                stopping.shutdown();
+            }
+        };
+        shutdown.start();
+        Thread.sleep(200);
+        stopping.release.countDown();
+        shutdown.join(TIMEOUT);
+
+        assertIDs("testShutdownDuringReplay 0", stopping.stored, 1, 2);
+        assertEquals("testShutdownDuringReplay 1", 3, countLines(replayFile()));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * The contents of this file are subject to the license and copyright
+ * detailed in the LICENSE and NOTICE files at the root of the source
+ * tree and available online at
+ *
+ * http://www.dspace.org/license/
+ */
+package org.dspace.statistics.util;
+
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for class IPTable
+ */
+public class IPTableTest
+{
+    private IPTable table;
+
+    @Before
+    public void init()
+    {
+        table = new IPTable();
+    }
+
+    /**
+     * Test matching IPv4 CIDR blocks, ranges and partial addresses
+     */
+    @Test
+    public void testContainsV4() throws IPTable.IPFormatException
+    {
+        table.add("66.249.64.0/19");
+        table.add("63.148.99.224 - 63.148.99.255");
+        table.add("10.1");
+
+        assertTrue("testContainsV4 0", table.contains("66.249.64.0"));
+        assertTrue("testContainsV4 1", table.contains("66.249.95.255"));
+        assertFalse("testContainsV4 2", table.contains("66.249.96.0"));
+        assertFalse("testContainsV4 3", table.contains("66.249.63.255"));
+        assertTrue("testContainsV4 4", table.contains("63.148.99.230"));
+        assertFalse("testContainsV4 5", table.contains("63.148.99.223"));
+        assertTrue("testContainsV4 6", table.contains("10.1.200.3"));
+        assertFalse("testContainsV4 7", table.contains("10.2.0.0"));
+    }
+
+    /**
+     * Test matching IPv6 addresses and CIDR blocks
+     */
+    @Test
+    public void testContainsV6() throws IPTable.IPFormatException
+    {
+        table.add("2001:db8::/32");
+        table.add("fe80::1");
+
+        assertTrue("testContainsV6 0", table.contains("2001:db8::1"));
+        assertTrue("testContainsV6 1", table.contains("2001:0db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse("testContainsV6 2", table.contains("2001:db9::"));
+        assertTrue("testContainsV6 3", table.contains("fe80:0:0:0:0:0:0:1"));
+        assertFalse("testContainsV6 4", table.contains("fe80::2"));
+        assertFalse("testContainsV6 5", table.contains("10.0.0.1"));
+    }
+
+    /**
+     * Test that IPv4-mapped IPv6 addresses and blocks are matched as the
+     * IPv4 addresses they stand for
+     */
+    @Test
+    public void testMappedAddresses() throws IPTable.IPFormatException
+    {
+        table.add("::ffff:1.2.3.4");
+        table.add("::ffff:5.6.0.0/112");
+        table.add("::ffff:9.9.9.0 - ::ffff:9.9.9.9");
+
+        assertTrue("testMappedAddresses 0", table.contains("1.2.3.4"));
+        assertTrue("testMappedAddresses 1", table.contains("::ffff:1.2.3.4"));
+        assertTrue("testMappedAddresses 2", table.contains("5.6.255.1"));
+        assertFalse("testMappedAddresses 3", table.contains("5.7.0.0"));
+        assertTrue("testMappedAddresses 4", table.contains("9.9.9.9"));
+        assertFalse("testMappedAddresses 5", table.contains("9.9.9.10"));
+
+        Set<String> set = table.toSet();
+        assertTrue("testMappedAddresses 6", set.contains("1.2.3.4"));
+        assertTrue("testMappedAddresses 7", set.contains("5.6.0.0/16"));
+        assertEquals("testMappedAddresses 8", 1 + 1 + 10, set.size());
+    }
+
+    /**
+     * Test that an IPv6 block reaching past the IPv4-mapped addresses still
+     * matches them
+     */
+    @Test
+    public void testBlockCoveringMapped() throws IPTable.IPFormatException
+    {
+        table.add("::/64");
+
+        assertTrue("testBlockCoveringMapped 0", table.contains("::ffff:8.8.8.8"));
+        assertTrue("testBlockCoveringMapped 1", table.contains("8.8.8.8"));
+        assertTrue("testBlockCoveringMapped 2", table.contains("::1"));
+        assertFalse("testBlockCoveringMapped 3", table.contains("0:0:0:1::"));
+    }
+
+    /**
+     * Test that IPv4 blocks are given as full addresses and prefixes ending
+     * at a place
+     */
+    @Test
+    public void testPrefixSetV4() throws IPTable.IPFormatException
+    {
+        table.add("66.249.64.0/19");
+        table.add("10.1");
+        table.add("63.148.99.254 - 63.148.99.255");
+
+        Set<String> prefixes = table.toPrefixSet();
+        assertEquals("testPrefixSetV4 0", 32 + 1 + 2, prefixes.size());
+        assertTrue("testPrefixSetV4 1", prefixes.contains("66.249.64."));
+        assertTrue("testPrefixSetV4 2", prefixes.contains("66.249.95."));
+        assertTrue("testPrefixSetV4 3", prefixes.contains("10.1."));
+        assertTrue("testPrefixSetV4 4", prefixes.contains("63.148.99.254"));
+        assertTrue("testPrefixSetV4 5", prefixes.contains("63.148.99.255"));
+    }
+
+    /**
+     * Test that IPv6 blocks are given as full addresses and prefixes ending
+     * at a group, written as Java writes addresses, and that blocks needing
+     * too many prefixes are left out
+     */
+    @Test
+    public void testPrefixSetV6() throws IPTable.IPFormatException
+    {
+        table.add("2001:db8::/32");
+        table.add("2001:db9:8000::/40");
+        table.add("2001:dba:8000::/33");
+        table.add("::1");
+
+        Set<String> prefixes = table.toPrefixSet();
+        assertEquals("testPrefixSetV6 0", 1 + 256 + 1, prefixes.size());
+        assertTrue("testPrefixSetV6 1", prefixes.contains("2001:db8:"));
+        assertTrue("testPrefixSetV6 2", prefixes.contains("2001:db9:8000:"));
+        assertTrue("testPrefixSetV6 3", prefixes.contains("2001:db9:80ff:"));
+        assertFalse("testPrefixSetV6 4", prefixes.contains("2001:db9:8100:"));
+        assertTrue("testPrefixSetV6 5", prefixes.contains("0:0:0:0:0:0:0:1"));
+    }
+}
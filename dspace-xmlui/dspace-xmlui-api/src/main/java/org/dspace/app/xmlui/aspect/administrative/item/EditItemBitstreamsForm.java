@@ -9,6 +9,7 @@ package org.dspace.app.xmlui.aspect.administrative.item;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import org.apache.commons.lang.StringUtils;
 import org.dspace.app.xmlui.cocoon.AbstractDSpaceTransformer;
@@ -126,6 +127,7 @@ public class EditItemBitstreamsForm extends AbstractDSpaceTransformer {
 		Bundle[] bundles = item.getBundles();
 
         boolean showBitstreamUpdateOrderButton = false;
+        boolean canRemove = AuthorizeManager.authorizeActionBoolean(context, item, Constants.REMOVE);
 		for (Bundle bundle : bundles)
 		{
 
@@ -138,6 +140,10 @@ public class EditItemBitstreamsForm extends AbstractDSpaceTransformer {
                 bitstreamIdOrder.add(bitstream.getID());
             }
 
+            // Check the whole bundle at once rather than a bitstream at a time
+            BitSet canEdit = AuthorizeManager.authorizeActionBoolean(context, bitstreams, Constants.WRITE);
+            boolean canReorder = AuthorizeManager.authorizeActionBoolean(context, bundle, Constants.WRITE);
+
             for (int bitstreamIndex = 0; bitstreamIndex < bitstreams.length; bitstreamIndex++) {
                 Bitstream bitstream = bitstreams[bitstreamIndex];
                 boolean primary = (bundle.getPrimaryBitstreamID() == bitstream.getID());
@@ -165,11 +171,11 @@ public class EditItemBitstreamsForm extends AbstractDSpaceTransformer {
                 CheckBox remove = row.addCell().addCheckBox("remove");
                 remove.setLabel("remove");
                 remove.addOption(bundle.getID() + "/" + bitstream.getID());
-                if (!AuthorizeManager.authorizeActionBoolean(context, item, Constants.REMOVE)) {
+                if (!canRemove) {
                     remove.setDisabled();
                 }
 
-                if (AuthorizeManager.authorizeActionBoolean(context, bitstream, Constants.WRITE)) {
+                if (canEdit.get(bitstreamIndex)) {
                     // The user can edit the bitstream give them a link.
                     Cell cell = row.addCell();
                     cell.addXref(editURL, name);
@@ -196,7 +202,7 @@ public class EditItemBitstreamsForm extends AbstractDSpaceTransformer {
                 highlight.addXref(viewURL, T_view_link);
                 highlight.addContent("]");
 
-                if (AuthorizeManager.authorizeActionBoolean(context, bundle, Constants.WRITE)) {
+                if (canReorder) {
                     Cell cell = row.addCell("bitstream_order_" + bitstream.getID(), Cell.ROLE_DATA, "");
                     //Add the +1 to make it more human readable
                     cell.addHidden("order_" + bitstream.getID()).setValue(String.valueOf(bitstreamIndex + 1));
@@ -7,11 +7,20 @@
  */
 package org.dspace.app.xmlui.cocoon;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 import javax.mail.internet.MimeUtility;
@@ -26,9 +35,7 @@ import org.apache.cocoon.environment.Request;
 import org.apache.cocoon.environment.Response;
 import org.apache.cocoon.environment.SourceResolver;
 import org.apache.cocoon.environment.http.HttpEnvironment;
-import org.apache.cocoon.environment.http.HttpResponse;
 import org.apache.cocoon.reading.AbstractReader;
-import org.apache.cocoon.util.ByteRange;
 import org.dspace.app.xmlui.utils.AuthenticationUtil;
 import org.dspace.app.xmlui.utils.ContextUtil;
 import org.dspace.authorize.AuthorizeException;
@@ -124,15 +131,42 @@ public class BitstreamReader extends AbstractReader implements Recyclable
      */
     protected static final int expires = 60 * 60 * 1000;
 
+    /**
+     * The most byte ranges served for one request, once overlapping and
+     * adjacent ranges are merged. Requests for more are sent the whole
+     * bitstream, so a long Range header cannot make us seek and write a
+     * part for every byte.
+     */
+    protected static final int MAX_RANGES = 16;
+
     /** The Cocoon response */
     protected Response response;
 
     /** The Cocoon request */
     protected Request request;
 
-    /** The bitstream file */
+    /** The bitstream file, when it is not in a local assetstore */
     protected InputStream bitstreamInputStream;
     
+    /** How far bitstreamInputStream has been read */
+    protected long bitstreamPosition;
+    
+    /** The bitstream file, when it is in a local assetstore */
+    protected File bitstreamFile;
+    
+    /** The bitstream's checksum, used as its entity tag */
+    protected String bitstreamChecksum;
+    
+    /**
+     * The ranges of the bitstream requested, as sorted and merged pairs of
+     * the first and last byte. Null if the whole bitstream is to be sent, empty
+     * if none of the requested ranges can be satisfied.
+     */
+    protected long[][] byteRanges;
+    
+    /** The boundary between the parts of a multiple range response */
+    protected String byteRangesBoundary;
+    
     /** The bitstream's reported size */
     protected long bitstreamSize;
     
@@ -310,9 +344,16 @@ public class BitstreamReader extends AbstractReader implements Recyclable
             }
                 
             // Success, bitstream found and the user has access to read it.
-            // Store these for later retreval:
-            this.bitstreamInputStream = bitstream.retrieve();
+            // Store these for later retreval. Bitstreams in a local assetstore
+            // are read straight from the file, so that ranges can be sent
+            // without reading what comes before them.
+            this.bitstreamFile = bitstream.retrieveLocalFile();
+            if (this.bitstreamFile == null)
+            {
+                this.bitstreamInputStream = bitstream.retrieve();
+            }
             this.bitstreamSize = bitstream.getSize();
+            this.bitstreamChecksum = bitstream.getChecksum();
             this.bitstreamMimeType = bitstream.getFormat().getMIMEType();
             this.bitstreamName = bitstream.getName();
             if (context.getCurrentUser() == null)
@@ -346,6 +387,13 @@ public class BitstreamReader extends AbstractReader implements Recyclable
                 bitstreamName = "bitstream";
             }
             
+            // Work out the ranges requested now, as they decide the mime-type
+            this.byteRanges = getRequestedRanges();
+            if (this.byteRanges != null && this.byteRanges.length > 1)
+            {
+                this.byteRangesBoundary = "DSPACE_" + Long.toHexString(System.nanoTime());
+            }
+            
             // Log that the bitstream has been viewed, this is none-cached and the complexity
             // of adding it to the sitemap for every possible bitstre uri is not very tractable
             new DSpace().getEventService().fireEvent(
@@ -482,181 +530,338 @@ public class BitstreamReader extends AbstractReader implements Recyclable
     
     
     /**
-         * Write the actual data out to the response.
-         *
-         * Some implementation notes,
-         *
-         * 1) We set a short expires time just in the hopes of preventing someone
-         * from overloading the server by clicking reload a bunch of times. I
-         * realize that this is nowhere near 100% effective but it may help in some
-         * cases and shouldn't hurt anything.
-         *
-         * 2) We accept partial downloads, thus if you lose a connection half way
-         * through most web browser will enable you to resume downloading the
-         * bitstream.
-         */
-    public void generate() throws IOException, SAXException,
-            ProcessingException
+     * Get the ranges of the bitstream requested by the Range header, unless
+     * an If-Range header shows that the client's copy is out of date.
+     *
+     * @return pairs of first and last byte positions, sorted with overlapping
+     *         and adjacent ranges merged; an empty array if no range can be
+     *         satisfied; or null if the whole bitstream should be sent,
+     *         which includes asking for more than MAX_RANGES ranges.
+     */
+    private long[][] getRequestedRanges()
     {
-        if (this.bitstreamInputStream == null)
+        String header = request.getHeader("Range");
+        if (header == null || bitstreamSize <= 0)
         {
-            return;
+            return null;
         }
-        
-        // Only allow If-Modified-Since protocol if request is from a spider
-        // since response headers would encourage a browser to cache results
-        // that might change with different authentication..
-        if (isSpider)
+
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null)
         {
-            // Check for if-modified-since header -- ONLY if not authenticated
-            long modSince = request.getDateHeader("If-Modified-Since");
-            if (modSince != -1 && item != null && item.getLastModified().getTime() < modSince)
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
             {
-                // Item has not been modified since requested date,
-                // hence bitstream has not; return 304
-                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                return;
+                if (!ifRange.equals(getETag()))
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                long date;
+                try
+                {
+                    date = request.getDateHeader("If-Range");
+                }
+                catch (IllegalArgumentException iae)
+                {
+                    return null;
+                }
+                if (item == null || item.getLastModified().getTime() / 1000 > date / 1000)
+                {
+                    return null;
+                }
             }
         }
 
-        // Only set Last-Modified: header for spiders or anonymous
-        // access, since it might encourage browse to cache the result
-        // which might leave a result only available to authenticated
-        // users in the cache for a response later to anonymous user.
-        try
+        header = header.trim();
+        if (!header.startsWith("bytes="))
+        {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>();
+        for (String spec : header.substring("bytes=".length()).split(","))
+        {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                // Syntactically invalid, so the header is ignored
+                return null;
+            }
+
+            long first;
+            long last;
+            try
+            {
+                if (dash == 0)
+                {
+                    // The final bytes of the bitstream
+                    long suffix = Long.parseLong(spec.substring(1));
+                    first = Math.max(0, bitstreamSize - suffix);
+                    last = bitstreamSize - 1;
+                    if (suffix == 0)
+                    {
+                        continue;
+                    }
+                }
+                else
+                {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = (dash == spec.length() - 1) ? bitstreamSize - 1
+                            : Long.parseLong(spec.substring(dash + 1));
+                    if (last < first)
+                    {
+                        return null;
+                    }
+                }
+            }
+            catch (NumberFormatException nfe)
+            {
+                return null;
+            }
+
+            if (first < bitstreamSize)
+            {
+                ranges.add(new long[] { first, Math.min(last, bitstreamSize - 1) });
+            }
+        }
+
+        long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>()
         {
-            if (item != null && (isSpider || ContextUtil.obtainContext(request).getCurrentUser() == null))
+            public int compare(long[] a, long[] b)
             {
-                // TODO:  Currently just borrow the date of the item, since
-                // we don't have last-mod dates for Bitstreams
-                response.setDateHeader("Last-Modified", item.getLastModified()
-                        .getTime());
+                return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+            }
+        });
+
+        List<long[]> merged = new ArrayList<long[]>();
+        for (long[] range : sorted)
+        {
+            long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && range[0] <= previous[1] + 1)
+            {
+                previous[1] = Math.max(previous[1], range[1]);
+            }
+            else
+            {
+                merged.add(range);
             }
         }
-        catch (SQLException e)
+
+        if (merged.size() > MAX_RANGES)
         {
-            throw new ProcessingException(e);
+            return null;
         }
 
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int length = -1;
+        return merged.toArray(new long[merged.size()][]);
+    }
+
+    /**
+     * @return the entity tag of the bitstream, or null if it has no checksum
+     */
+    private String getETag()
+    {
+        return (bitstreamChecksum == null) ? null : "\"" + bitstreamChecksum + "\"";
+    }
 
-        // Only encourage caching if this is not a restricted resource, i.e.
-        // if it is accessed anonymously or is readable by Anonymous:
-        if (isAnonymouslyReadable)
+    /**
+     * Check whether an If-None-Match header matches the bitstream.
+     *
+     * @param header the If-None-Match header, may be null
+     * @param etag the entity tag of the bitstream
+     * @return true if the client's copy is current
+     */
+    private static boolean matchesETag(String header, String etag)
+    {
+        if (header == null)
         {
-            response.setDateHeader("Expires", System.currentTimeMillis() + expires);
+            return false;
         }
-        
-        // If this is a large bitstream then tell the browser it should treat it as a download.
-        int threshold = ConfigurationManager.getIntProperty("xmlui.content_disposition_threshold");
-        if (bitstreamSize > threshold && threshold != 0)
+
+        for (String tag : header.split(","))
         {
-                String name  = bitstreamName;
-                
-                // Try and make the download file name formated for each browser.
-                try {
-                        String agent = request.getHeader("USER-AGENT");
-                        if (agent != null && agent.contains("MSIE"))
-                        {
-                            name = URLEncoder.encode(name, "UTF8");
-                        }
-                        else if (agent != null && agent.contains("Mozilla"))
-                        {
-                            name = MimeUtility.encodeText(name, "UTF8", "B");
-                        }
-                }
-                catch (UnsupportedEncodingException see)
-                {
-                        // do nothing
-                }
-                response.setHeader("Content-Disposition", "attachment;filename=" + name);
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag))
+            {
+                return true;
+            }
         }
+        return false;
+    }
 
-        ByteRange byteRange = null;
-
-        // Turn off partial downloads, they cause problems
-        // and are only rarely used. Specifically some windows pdf
-        // viewers are incapable of handling this request. You can
-        // uncomment the following lines to turn this feature back on.
-
-//        response.setHeader("Accept-Ranges", "bytes");
-//        String ranges = request.getHeader("Range");
-//        if (ranges != null)
-//        {
-//            try
-//            {
-//                ranges = ranges.substring(ranges.indexOf('=') + 1);
-//                byteRange = new ByteRange(ranges);
-//            }
-//            catch (NumberFormatException e)
-//            {
-//                byteRange = null;
-//                if (response instanceof HttpResponse)
-//                {
-//                    // Respond with status 416 (Request range not
-//                    // satisfiable)
-//                    response.setStatus(416);
-//                }
-//            }
-//        }
+    /**
+     * Write the actual data out to the response.
+     *
+     * Some implementation notes,
+     *
+     * 1) We set a short expires time just in the hopes of preventing someone
+     * from overloading the server by clicking reload a bunch of times. I
+     * realize that this is nowhere near 100% effective but it may help in some
+     * cases and shouldn't hurt anything.
+     *
+     * 2) We accept partial downloads, thus if you lose a connection half way
+     * through most web browser will enable you to resume downloading the
+     * bitstream, and viewers can fetch just the parts of a file they need.
+     * Bitstreams in a local assetstore are read from the requested position
+     * in the file, anything else is skipped up to it.
+     *
+     * 3) The bitstream's checksum is sent as its entity tag, so a client that
+     * already has the bitstream is answered with 304 (Not Modified). The
+     * user's authorization has already been checked by then.
+     */
+    public void generate() throws IOException, SAXException,
+            ProcessingException
+    {
+        if (this.bitstreamInputStream == null && this.bitstreamFile == null)
+        {
+            return;
+        }
 
+        FileChannel channel = null;
         try
         {
-            if (byteRange != null)
+            String etag = getETag();
+            if (etag != null)
             {
-                String entityLength;
-                String entityRange;
-                if (this.bitstreamSize != -1)
+                response.setHeader("ETag", etag);
+
+                if (matchesETag(request.getHeader("If-None-Match"), etag))
                 {
-                    entityLength = "" + this.bitstreamSize;
-                    entityRange = byteRange.intersection(
-                            new ByteRange(0, this.bitstreamSize)).toString();
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
                 }
-                else
+            }
+
+            // Only allow If-Modified-Since protocol if request is from a spider
+            // since response headers would encourage a browser to cache results
+            // that might change with different authentication..
+            if (isSpider)
+            {
+                // Check for if-modified-since header -- ONLY if not authenticated
+                long modSince = request.getDateHeader("If-Modified-Since");
+                if (modSince != -1 && item != null && item.getLastModified().getTime() < modSince)
                 {
-                    entityLength = "*";
-                    entityRange = byteRange.toString();
+                    // Item has not been modified since requested date,
+                    // hence bitstream has not; return 304
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
                 }
+            }
 
-                response.setHeader("Content-Range", entityRange + "/" + entityLength);
-                if (response instanceof HttpResponse)
+            // Only set Last-Modified: header for spiders or anonymous
+            // access, since it might encourage browse to cache the result
+            // which might leave a result only available to authenticated
+            // users in the cache for a response later to anonymous user.
+            try
+            {
+                if (item != null && (isSpider || ContextUtil.obtainContext(request).getCurrentUser() == null))
                 {
-                    // Response with status 206 (Partial content)
-                    response.setStatus(206);
+                    // TODO:  Currently just borrow the date of the item, since
+                    // we don't have last-mod dates for Bitstreams
+                    response.setDateHeader("Last-Modified", item.getLastModified()
+                            .getTime());
                 }
+            }
+            catch (SQLException e)
+            {
+                throw new ProcessingException(e);
+            }
 
-                int pos = 0;
-                int posEnd;
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
-                {
-                    posEnd = pos + length - 1;
-                    ByteRange intersection = byteRange.intersection(new ByteRange(pos, posEnd));
-                    if (intersection != null)
+            // Only encourage caching if this is not a restricted resource, i.e.
+            // if it is accessed anonymously or is readable by Anonymous:
+            if (isAnonymouslyReadable)
+            {
+                response.setDateHeader("Expires", System.currentTimeMillis() + expires);
+            }
+
+            // If this is a large bitstream then tell the browser it should treat it as a download.
+            int threshold = ConfigurationManager.getIntProperty("xmlui.content_disposition_threshold");
+            if (bitstreamSize > threshold && threshold != 0)
+            {
+                    String name  = bitstreamName;
+
+                    // Try and make the download file name formated for each browser.
+                    try {
+                            String agent = request.getHeader("USER-AGENT");
+                            if (agent != null && agent.contains("MSIE"))
+                            {
+                                name = URLEncoder.encode(name, "UTF8");
+                            }
+                            else if (agent != null && agent.contains("Mozilla"))
+                            {
+                                name = MimeUtility.encodeText(name, "UTF8", "B");
+                            }
+                    }
+                    catch (UnsupportedEncodingException see)
                     {
-                        out.write(buffer, (int) intersection.getStart() - pos, (int) intersection.length());
+                            // do nothing
                     }
-                    pos += length;
-                }
+                    response.setHeader("Content-Disposition", "attachment;filename=" + name);
             }
-            else
+
+            response.setHeader("Accept-Ranges", "bytes");
+
+            if (this.bitstreamFile != null)
             {
-                response.setHeader("Content-Length", String.valueOf(this.bitstreamSize));
+                channel = new FileInputStream(this.bitstreamFile).getChannel();
+            }
 
-                while ((length = this.bitstreamInputStream.read(buffer)) > -1)
+            if (byteRanges == null)
+            {
+                response.setHeader("Content-Length", String.valueOf(this.bitstreamSize));
+                copy(channel, 0, this.bitstreamSize);
+            }
+            else if (byteRanges.length == 0)
+            {
+                // Respond with status 416 (Requested range not satisfiable)
+                response.setStatus(416);
+                response.setHeader("Content-Range", "bytes */" + this.bitstreamSize);
+            }
+            else if (byteRanges.length == 1)
+            {
+                long[] range = byteRanges[0];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + this.bitstreamSize);
+                response.setHeader("Content-Length", String.valueOf(range[1] - range[0] + 1));
+                copy(channel, range[0], range[1] - range[0] + 1);
+            }
+            else
+            {
+                // Each range in its own part of a multipart/byteranges entity
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                for (long[] range : byteRanges)
                 {
-                    out.write(buffer, 0, length);
+                    out.write(("\r\n--" + byteRangesBoundary + "\r\n"
+                            + "Content-Type: " + bitstreamMimeType + "\r\n"
+                            + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + this.bitstreamSize
+                            + "\r\n\r\n").getBytes("ISO-8859-1"));
+                    copy(channel, range[0], range[1] - range[0] + 1);
                 }
-                out.flush();
+                out.write(("\r\n--" + byteRangesBoundary + "--\r\n").getBytes("ISO-8859-1"));
             }
+            out.flush();
         }
         finally
         {
             try
             {
-                // Close the bitstream input stream so that we don't leak a file descriptor
-                this.bitstreamInputStream.close();
-                
+                // Close the bitstream so that we don't leak a file descriptor
+                if (channel != null)
+                {
+                    channel.close();
+                }
+                if (this.bitstreamInputStream != null)
+                {
+                    this.bitstreamInputStream.close();
+                }
+
                 // Close the output stream as per Cocoon docs: http://cocoon.apache.org/2.2/core-modules/core/2.2/681_1_1.html
                 out.close();
             } 
@@ -670,11 +875,69 @@ public class BitstreamReader extends AbstractReader implements Recyclable
 
     }
 
+    /**
+     * Write part of the bitstream to the response. Parts must be written in
+     * order when the bitstream is read from a stream.
+     *
+     * @param channel the local file of the bitstream, or null to read the stream
+     * @param start position of the first byte to write
+     * @param length number of bytes to write
+     */
+    private void copy(FileChannel channel, long start, long length) throws IOException
+    {
+        if (channel != null)
+        {
+            // Let the channel move the bytes, from the requested position
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long end = start + length;
+            while (position < end)
+            {
+                long count = channel.transferTo(position, end - position, target);
+                if (count <= 0)
+                {
+                    // The file is shorter than the bitstream's recorded size
+                    break;
+                }
+                position += count;
+            }
+            return;
+        }
+
+        while (bitstreamPosition < start)
+        {
+            long skipped = bitstreamInputStream.skip(start - bitstreamPosition);
+            if (skipped <= 0)
+            {
+                return;
+            }
+            bitstreamPosition += skipped;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0)
+        {
+            int count = bitstreamInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count < 0)
+            {
+                break;
+            }
+            out.write(buffer, 0, count);
+            bitstreamPosition += count;
+            remaining -= count;
+        }
+    }
+
     /**
      * Returns the mime-type of the bitstream.
      */
     public String getMimeType()
     {
+        if (this.byteRangesBoundary != null)
+        {
+            return "multipart/byteranges; boundary=" + this.byteRangesBoundary;
+        }
         return this.bitstreamMimeType;
     }
     
@@ -685,6 +948,11 @@ public class BitstreamReader extends AbstractReader implements Recyclable
         this.response = null;
         this.request = null;
         this.bitstreamInputStream = null;
+        this.bitstreamPosition = 0;
+        this.bitstreamFile = null;
+        this.bitstreamChecksum = null;
+        this.byteRanges = null;
+        this.byteRangesBoundary = null;
         this.bitstreamSize = 0;
         this.bitstreamMimeType = null;
     }
@@ -20,6 +20,8 @@ import org.dspace.content.Community;
 import org.dspace.content.DCValue;
 import org.dspace.content.DSpaceObject;
 import org.dspace.content.Item;
+import org.dspace.content.ObjectVersions;
+import org.dspace.core.Constants;
 import org.dspace.eperson.EPerson;
 import org.dspace.eperson.Group;
 
@@ -40,6 +42,15 @@ import org.dspace.eperson.Group;
  * serialize all those objects to a string, take a hash of the string and compare
  * the hash of the string for any updates.
  * 
+ * When the "versions" event consumer is running, objects are represented by
+ * their type, ID and version (see <code>ObjectVersions</code>) rather than by
+ * their content, so checking whether a cached page is still valid needs no
+ * database access. Versions only change for modifications made in this JVM.
+ * Items (but not browse items) also include their last modified date, so
+ * changes made to them by command line tools are still seen; other changes
+ * made outside the web application are only seen once the assumed validity
+ * delay has passed or the web application is restarted.
+ * 
  * 
  * @author Scott Phillips
  */
@@ -219,6 +230,10 @@ public class DSpaceValidity implements SourceValidity
      * Bundles -> bitstreams
      * EPeople -> groups
      * 
+     * When object versions are being kept the transitive rules do not
+     * apply, the version of an item or container already covers its
+     * bundles, bitstreams and logo.
+     * 
      * @param dso
      *          The object to add to the validity.
      */
@@ -229,6 +244,63 @@ public class DSpaceValidity implements SourceValidity
             throw new IllegalStateException("Can not add DSpaceObject to a completed validity object");
         }
         
+        if (ObjectVersions.isTracking())
+        {
+            addVersion(dso);
+        }
+        else
+        {
+            addContent(dso);
+        }
+    }
+    
+    /**
+     * Add a DSpace object to the validity by its type, ID and version.
+     * 
+     * @param dso
+     *          The object to add to the validity.
+     */
+    private void addVersion(DSpaceObject dso)
+    {
+        if (dso == null)
+        {
+            validityKey.append("null");
+            return;
+        }
+        
+        if (!(dso instanceof Community || dso instanceof Collection
+                || dso instanceof Item || dso instanceof BrowseItem
+                || dso instanceof Bundle || dso instanceof Bitstream
+                || dso instanceof EPerson || dso instanceof Group))
+        {
+            throw new IllegalArgumentException("DSpaceObject of type '"+dso.getClass().getName()+"' is not supported by the DSpaceValidity object.");
+        }
+        
+        // A browse item is the item it was read from
+        int type = (dso instanceof BrowseItem) ? Constants.ITEM : dso.getType();
+        
+        validityKey.append("Version:");
+        validityKey.append(ObjectVersions.getEpoch()).append(".");
+        validityKey.append(type).append(".");
+        validityKey.append(dso.getID()).append(".");
+        validityKey.append(ObjectVersions.getVersion(type, dso.getID()));
+        
+        if (dso instanceof Item)
+        {
+            // Already loaded, and catches changes made by other processes
+            validityKey.append(".").append(((Item) dso).getLastModified());
+        }
+    }
+    
+    /**
+     * Add a DSpace object to the validity by its content, following the
+     * transitive rules described for add(DSpaceObject).
+     * 
+     * @param dso
+     *          The object to add to the validity.
+     */
+    private void addContent(DSpaceObject dso) throws SQLException
+    {
         if (dso == null) 
         {
           this.validityKey.append("null");  
@@ -246,7 +318,7 @@ public class DSpaceValidity implements SourceValidity
             validityKey.append(community.getMetadata("name"));
             
             // Add the communities logo
-            this.add(community.getLogo());
+            this.addContent(community.getLogo());
 
         } 
         else if (dso instanceof Collection)
@@ -264,7 +336,7 @@ public class DSpaceValidity implements SourceValidity
             validityKey.append(collection.getMetadata("name")); 
             
             // Add the logo also;
-            this.add(collection.getLogo());
+            this.addContent(collection.getLogo());
             
         }
         else if (dso instanceof Item)
@@ -289,7 +361,7 @@ public class DSpaceValidity implements SourceValidity
             for(Bundle bundle : item.getBundles())
             {
                 // Add each of the items bundles & bitstreams.
-                this.add(bundle);
+                this.addContent(bundle);
             }
         }
         else if (dso instanceof BrowseItem)
@@ -319,7 +391,7 @@ public class DSpaceValidity implements SourceValidity
             
             for(Bitstream bitstream : bundle.getBitstreams())
             {
-                this.add(bitstream);
+                this.addContent(bitstream);
             }
         }
         else if (dso instanceof Bitstream)